@@ -39,6 +39,20 @@ public class QuasarConfiguration {
    */
   public final static String WARP_TRL_STARTUP_DELAY ="warp.trl.startup.delay";
 
+  /**
+   * Maximum number of verified read tokens and of verified write tokens to cache, 0 disables the cache
+   */
+  public final static String WARP_TOKEN_CACHE_SIZE = "warp.token.cache.size";
+
+  public final static String WARP_TOKEN_CACHE_SIZE_DEFAULT = "10000";
+
+  /**
+   * Maximum time (in ms) a verified token is kept in the cache
+   */
+  public final static String WARP_TOKEN_CACHE_TTL = "warp.token.cache.ttl";
+
+  public final static String WARP_TOKEN_CACHE_TTL_DEFAULT = "60000";
+
   /**
    * application prefix for TRL files
    */
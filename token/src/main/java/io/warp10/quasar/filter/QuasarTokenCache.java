@@ -0,0 +1,110 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.quasar.filter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of verified tokens, keyed on the token string.
+ *
+ * Each entry is valid until the earliest of its TTL and the expiry of the token, and only
+ * for the TRL generation under which the token was verified. When a new TRL is loaded the
+ * whole cache is dropped.
+ */
+class QuasarTokenCache<T> {
+
+  private static class Entry<T> {
+    private final T token;
+    private final long validUntil;
+
+    private Entry(T token, long validUntil) {
+      this.token = token;
+      this.validUntil = validUntil;
+    }
+  }
+
+  private final int maxSize;
+  private final long ttl;
+
+  /**
+   * TRL generation of the cached entries
+   */
+  private long generation = Long.MIN_VALUE;
+
+  private final Map<String,Entry<T>> cache;
+
+  QuasarTokenCache(final int maxSize, long ttl) {
+    this.maxSize = maxSize;
+    this.ttl = ttl;
+    this.cache = new LinkedHashMap<String,Entry<T>>(Math.min(maxSize, 1024), 0.75F, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String,Entry<T>> eldest) {
+        return this.size() > maxSize;
+      }
+    };
+  }
+
+  boolean isEnabled() {
+    return this.maxSize > 0 && this.ttl > 0;
+  }
+
+  /**
+   * Return the cached token or null if it is absent, stale or was verified against an older TRL
+   */
+  synchronized T get(String key, long generation) {
+    if (generation != this.generation) {
+      this.cache.clear();
+      this.generation = generation;
+      return null;
+    }
+
+    Entry<T> entry = this.cache.get(key);
+
+    if (null == entry) {
+      return null;
+    }
+
+    if (entry.validUntil <= System.currentTimeMillis()) {
+      this.cache.remove(key);
+      return null;
+    }
+
+    return entry.token;
+  }
+
+  /**
+   * Cache a token verified against the TRL of the given generation
+   *
+   * @param expiryTimestamp Expiry timestamp (in ms) of the token
+   */
+  synchronized void put(String key, T token, long expiryTimestamp, long generation) {
+    if (generation != this.generation) {
+      // A new TRL was loaded since the token was verified
+      if (generation < this.generation) {
+        return;
+      }
+      this.cache.clear();
+      this.generation = generation;
+    }
+
+    long now = System.currentTimeMillis();
+    long validUntil = expiryTimestamp - now < this.ttl ? expiryTimestamp : now + this.ttl;
+
+    this.cache.put(key, new Entry<T>(token, validUntil));
+  }
+}
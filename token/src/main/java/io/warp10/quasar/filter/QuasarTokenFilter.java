@@ -46,6 +46,12 @@ public class QuasarTokenFilter {
   private long tokenSipHashKeyK0;
   private long tokenSipHashKeyK1;
 
+  /**
+   * Caches of the tokens which were successfully verified
+   */
+  private final QuasarTokenCache<ReadToken> readTokenCache;
+  private final QuasarTokenCache<WriteToken> writeTokenCache;
+
   // custom key constructor
   private QuasarTokenFilter(Properties props, KeyStore keystore, String tokenAesKeyName) {
     this.properties = (Properties) props.clone();
@@ -63,6 +69,12 @@ public class QuasarTokenFilter {
 
     this.quasarTokenDecoder = new QuasarTokenDecoder(tokenSipHashKeyK0, tokenSipHashKeyK1, tokenAESKey);
     this.quasarTokenRevoked = new QuasarTokensRevoked(properties, appSipHashKey);
+
+    int cacheSize = Integer.parseInt(properties.getProperty(QuasarConfiguration.WARP_TOKEN_CACHE_SIZE, QuasarConfiguration.WARP_TOKEN_CACHE_SIZE_DEFAULT));
+    long cacheTTL = Long.parseLong(properties.getProperty(QuasarConfiguration.WARP_TOKEN_CACHE_TTL, QuasarConfiguration.WARP_TOKEN_CACHE_TTL_DEFAULT));
+
+    this.readTokenCache = new QuasarTokenCache<ReadToken>(cacheSize, cacheTTL);
+    this.writeTokenCache = new QuasarTokenCache<WriteToken>(cacheSize, cacheTTL);
   }
 
   // default contructor
@@ -82,6 +94,20 @@ public class QuasarTokenFilter {
         throw new QuasarNoToken("Read token missing.");
       }
 
+      // TRL generation the token is verified against, read first so a token verified while a new TRL is loaded is not cached
+      long generation = quasarTokenRevoked.getGeneration();
+
+      if (readTokenCache.isEnabled()) {
+        ReadToken cached = readTokenCache.get(cryptedToken, generation);
+
+        if (null != cached) {
+          Sensision.update(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_HITS, labels, 1);
+          return cached.deepCopy();
+        }
+
+        Sensision.update(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_MISSES, labels, 1);
+      }
+
       byte[] tokenB64Data = cryptedToken.getBytes();
 
       // check if the token is revoked by the owner
@@ -102,6 +128,10 @@ public class QuasarTokenFilter {
       // check the registered application status
       quasarTokenRevoked.isRegisteredAppAuthorized(appId);
 
+      if (readTokenCache.isEnabled()) {
+        readTokenCache.put(cryptedToken, token.deepCopy(), token.getExpiryTimestamp(), generation);
+      }
+
       return token;
     } catch(QuasarTokenException qexp) {
       labels.put("error", qexp.label);
@@ -132,6 +162,20 @@ public class QuasarTokenFilter {
         throw new QuasarNoToken("Write token missing.");
       }
 
+      // TRL generation the token is verified against, read first so a token verified while a new TRL is loaded is not cached
+      long generation = quasarTokenRevoked.getGeneration();
+
+      if (writeTokenCache.isEnabled()) {
+        WriteToken cached = writeTokenCache.get(cryptedToken, generation);
+
+        if (null != cached) {
+          Sensision.update(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_HITS, labels, 1);
+          return cached.deepCopy();
+        }
+
+        Sensision.update(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_MISSES, labels, 1);
+      }
+
       byte[] tokenB64Data = cryptedToken.getBytes();
 
       // check if the token is revoked by the owner
@@ -152,6 +196,10 @@ public class QuasarTokenFilter {
       // check the registered application status
       quasarTokenRevoked.isRegisteredAppAuthorized(appId);
 
+      if (writeTokenCache.isEnabled()) {
+        writeTokenCache.put(cryptedToken, token.deepCopy(), token.getExpiryTimestamp(), generation);
+      }
+
       return token;
     } catch(QuasarTokenException qexp) {
       labels.put("error", qexp.label);
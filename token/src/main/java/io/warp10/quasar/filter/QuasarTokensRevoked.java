@@ -31,6 +31,7 @@ import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class QuasarTokensRevoked implements QuasarTRLLoadedHandler {
 
@@ -48,6 +49,11 @@ public class QuasarTokensRevoked implements QuasarTRLLoadedHandler {
 
   private QuasarTokenRevocationListLoader quasarTRLLoader = null;
 
+  /**
+   * Incremented each time a TRL is loaded, used to invalidate the tokens verified against a previous TRL
+   */
+  private final AtomicLong generation = new AtomicLong(0L);
+
   private static AtomicBoolean loaded = new AtomicBoolean(false);
 
   private static AtomicBoolean unavailable = new AtomicBoolean(false);
@@ -131,6 +137,8 @@ public class QuasarTokensRevoked implements QuasarTRLLoadedHandler {
 
     quasarTRL = trl;
 
+    generation.incrementAndGet();
+
     // Release the critical section
     updateRunning.countDown();
 
@@ -179,6 +187,10 @@ public class QuasarTokensRevoked implements QuasarTRLLoadedHandler {
     }
   }
 
+  public long getGeneration() {
+    return generation.get();
+  }
+
   public Long getClientIdRefreshTimeStamp(long clientId) {
     Long endOfTokenValidity = refreshTokenAfter.get(clientId);
 
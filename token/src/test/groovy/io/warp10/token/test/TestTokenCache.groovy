@@ -0,0 +1,194 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+package io.warp10.token.test
+
+import io.warp10.quasar.encoder.QuasarTokenEncoder
+import io.warp10.quasar.filter.QuasarConfiguration
+import io.warp10.quasar.filter.QuasarTokenCache
+import io.warp10.quasar.filter.QuasarTokenFilter
+import io.warp10.quasar.filter.exception.QuasarTokenExpired
+import io.warp10.quasar.filter.exception.QuasarTokenRevoked
+import io.warp10.quasar.filter.sensision.QuasarTokenFilterSensisionConstants
+import io.warp10.quasar.token.thrift.data.ReadToken
+import io.warp10.quasar.token.thrift.data.WriteToken
+import io.warp10.quasar.trl.QuasarTRL
+import io.warp10.sensision.Sensision
+import org.junit.Test
+
+class TestTokenCache extends TokenTestCase {
+    private QuasarTokenEncoder tokenEncoder = new QuasarTokenEncoder()
+
+    @Test
+    void testHitsAndMisses() {
+        String uuid = UUID.randomUUID().toString()
+        String readToken = tokenEncoder.deliverReadToken("app", uuid, uuid, ["app"], 32468, getKeyStore())
+        String writeToken = tokenEncoder.deliverWriteToken("app", uuid, uuid, 32468, getKeyStore())
+
+        QuasarTokenFilter tokenFilter = new QuasarTokenFilter(getConfig(), getKeyStore())
+
+        long readHits = counter(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_HITS, "READ")
+        long readMisses = counter(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_MISSES, "READ")
+        long writeHits = counter(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_HITS, "WRITE")
+        long writeMisses = counter(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_MISSES, "WRITE")
+
+        // The first call decodes the token, the following ones are served from the cache
+        ReadToken first = tokenFilter.getReadToken(readToken)
+        ReadToken second = tokenFilter.getReadToken(readToken)
+        ReadToken third = tokenFilter.getReadToken(readToken)
+
+        assertEquals(readMisses + 1, counter(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_MISSES, "READ"))
+        assertEquals(readHits + 2, counter(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_HITS, "READ"))
+
+        // Callers get their own copy of the token
+        assertEquals(first, second)
+        assertEquals(first, third)
+        assertNotSame(second, third)
+
+        WriteToken wfirst = tokenFilter.getWriteToken(writeToken)
+        WriteToken wsecond = tokenFilter.getWriteToken(writeToken)
+
+        assertEquals(writeMisses + 1, counter(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_MISSES, "WRITE"))
+        assertEquals(writeHits + 1, counter(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_HITS, "WRITE"))
+        assertEquals(wfirst, wsecond)
+        assertNotSame(wfirst, wsecond)
+
+        // Read and write tokens are cached separately
+        assertEquals(readHits + 2, counter(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_HITS, "READ"))
+    }
+
+    @Test
+    void testDisabled() {
+        String uuid = UUID.randomUUID().toString()
+        String readToken = tokenEncoder.deliverReadToken("app", uuid, uuid, ["app"], 32468, getKeyStore())
+
+        Properties conf = getConfig()
+        conf.setProperty(QuasarConfiguration.WARP_TOKEN_CACHE_SIZE, "0")
+
+        QuasarTokenFilter tokenFilter = new QuasarTokenFilter(conf, getKeyStore())
+
+        long readHits = counter(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_HITS, "READ")
+        long readMisses = counter(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_MISSES, "READ")
+
+        tokenFilter.getReadToken(readToken)
+        tokenFilter.getReadToken(readToken)
+
+        assertEquals(readHits, counter(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_HITS, "READ"))
+        assertEquals(readMisses, counter(QuasarTokenFilterSensisionConstants.SENSISION_CLASS_QUASAR_FILTER_TOKEN_CACHE_MISSES, "READ"))
+    }
+
+    @Test
+    void testTTLEviction() {
+        QuasarTokenCache<String> cache = new QuasarTokenCache<String>(10, 50)
+
+        cache.put("token", "value", Long.MAX_VALUE, 0)
+        assertEquals("value", cache.get("token", 0))
+
+        Thread.sleep(100)
+
+        assertNull(cache.get("token", 0))
+    }
+
+    @Test
+    void testTokenExpiryEviction() {
+        // The entry expires with the token even though the TTL of the cache is much longer
+        QuasarTokenCache<String> cache = new QuasarTokenCache<String>(10, 60000)
+
+        cache.put("token", "value", System.currentTimeMillis() + 50, 0)
+        assertEquals("value", cache.get("token", 0))
+
+        Thread.sleep(100)
+
+        assertNull(cache.get("token", 0))
+
+        // An expired token is decoded again by the filter and rejected
+        String uuid = UUID.randomUUID().toString()
+        String readToken = tokenEncoder.deliverReadToken("app", uuid, uuid, ["app"], 200, getKeyStore())
+
+        QuasarTokenFilter tokenFilter = new QuasarTokenFilter(getConfig(), getKeyStore())
+
+        tokenFilter.getReadToken(readToken)
+        tokenFilter.getReadToken(readToken)
+
+        Thread.sleep(300)
+
+        shouldFail(QuasarTokenExpired.class) {
+            tokenFilter.getReadToken(readToken)
+        }
+    }
+
+    @Test
+    void testGenerationInvalidation() {
+        QuasarTokenCache<String> cache = new QuasarTokenCache<String>(10, 60000)
+
+        cache.put("a", "A", Long.MAX_VALUE, 1)
+        cache.put("b", "B", Long.MAX_VALUE, 1)
+        assertEquals("A", cache.get("a", 1))
+
+        // A new generation drops all the entries
+        assertNull(cache.get("b", 2))
+        assertNull(cache.get("a", 2))
+
+        // A token verified against an older TRL is not cached
+        cache.put("a", "A", Long.MAX_VALUE, 1)
+        assertNull(cache.get("a", 2))
+
+        cache.put("a", "A", Long.MAX_VALUE, 2)
+        assertEquals("A", cache.get("a", 2))
+
+        // A token revoked by a new TRL is no longer served from the cache
+        String producer = UUID.randomUUID().toString()
+        String readToken = tokenEncoder.deliverReadToken("warp10.test", producer, producer, ["warp10.test"], 32468, getKeyStore())
+
+        QuasarTokenFilter tokenFilter = new QuasarTokenFilter(getConfig(), getKeyStore())
+
+        tokenFilter.getReadToken(readToken)
+        tokenFilter.getReadToken(readToken)
+
+        QuasarTRL trl = new QuasarTRL()
+        trl.revokeToken(tokenFilter.getTokenSipHash(readToken.getBytes()))
+        tokenFilter.quasarTokenRevoked.onQuasarTRL(trl)
+
+        shouldFail(QuasarTokenRevoked.class) {
+            tokenFilter.getReadToken(readToken)
+        }
+    }
+
+    @Test
+    void testLRUBound() {
+        QuasarTokenCache<String> cache = new QuasarTokenCache<String>(2, 60000)
+
+        cache.put("a", "A", Long.MAX_VALUE, 0)
+        cache.put("b", "B", Long.MAX_VALUE, 0)
+
+        // Access 'a' so 'b' is the least recently used entry
+        assertEquals("A", cache.get("a", 0))
+
+        cache.put("c", "C", Long.MAX_VALUE, 0)
+
+        assertNull(cache.get("b", 0))
+        assertEquals("A", cache.get("a", 0))
+        assertEquals("C", cache.get("c", 0))
+
+        assertFalse(new QuasarTokenCache<String>(0, 60000).isEnabled())
+        assertFalse(new QuasarTokenCache<String>(10, 0).isEnabled())
+        assertTrue(cache.isEnabled())
+    }
+
+    private static long counter(String cls, String type) {
+        Object value = Sensision.getValue(cls, [type: type])
+        return null == value ? 0L : ((Number) value).longValue()
+    }
+}
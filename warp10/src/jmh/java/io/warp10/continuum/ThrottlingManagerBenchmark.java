@@ -0,0 +1,182 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.store.thrift.data.Metadata;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ingestion throughput (in datapoints per second) of the checks done by Ingress and
+ * StandaloneIngressHandler for each encoder they flush, with throttling enabled and disabled.
+ *
+ * When enabled, the throttling file sets MADS and rate limits high enough for no
+ * encoder to be rejected, so the benchmark measures the cost of the checks themselves.
+ * Each trial runs in its own JVM as the configuration can only be set once.
+ * Use '-Pjmh.args=-t 64' to change the number of threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(32)
+public class ThrottlingManagerBenchmark {
+
+  private static final String PRODUCER = "4d4f4f4e-0000-4000-8000-000000000001";
+
+  private static final String APPLICATION = "benchmark";
+
+  /**
+   * Number of distinct GTS pushed by the producer
+   */
+  private static final int SERIES = 100000;
+
+  /**
+   * Number of datapoints per flushed encoder
+   */
+  private static final int DATAPOINTS = 100;
+
+  private static final long CLASS_ID = 42L;
+
+  private static final long SEED = 42L;
+
+  @Param({ "true", "false" })
+  public boolean throttling;
+
+  private File dir;
+
+  private Metadata metadata;
+
+  private long[] labelsIds;
+
+  private final AtomicInteger threads = new AtomicInteger(0);
+
+  @State(Scope.Thread)
+  public static class Stream {
+    private int idx;
+
+    @Setup
+    public void setup(ThrottlingManagerBenchmark benchmark) {
+      // Start each thread on a different GTS
+      this.idx = (int) ((benchmark.threads.getAndIncrement() * 7919L) % SERIES);
+    }
+
+    long next(long[] labelsIds) {
+      this.idx++;
+      if (this.idx >= labelsIds.length) {
+        this.idx = 0;
+      }
+      return labelsIds[this.idx];
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    StringBuilder sb = new StringBuilder();
+
+    if (this.throttling) {
+      this.dir = Files.createTempDirectory("throttling").toFile();
+
+      PrintWriter pw = new PrintWriter(new File(this.dir, "benchmark.throttle"));
+      pw.println(PRODUCER + ":" + (SERIES * 10) + ":1000000000000::#");
+      pw.println("+" + APPLICATION + ":" + (SERIES * 10) + ":1000000000000::#");
+      pw.close();
+
+      sb.append(Configuration.THROTTLING_MANAGER_DIR + " = " + this.dir.getAbsolutePath() + "\n");
+      sb.append(Configuration.THROTTLING_MANAGER_PERIOD + " = 1000\n");
+    }
+
+    WarpConfig.setProperties(new StringReader(sb.toString()));
+
+    ThrottlingManager.init();
+    ThrottlingManager.enable();
+
+    if (this.throttling) {
+      while (!ThrottlingManager.getLimits(PRODUCER, APPLICATION).containsKey(ThrottlingManager.LIMITS_APPLICATION_RATE_CURRENT)) {
+        Thread.sleep(100L);
+      }
+      // Leave time for the loading thread to flag the configuration as loaded
+      Thread.sleep(1000L);
+    }
+
+    this.metadata = new Metadata();
+    this.metadata.setName("benchmark");
+    this.metadata.setLabels(new HashMap<String,String>());
+    this.metadata.getLabels().put("series", "0");
+
+    Random random = new Random(SEED);
+
+    this.labelsIds = new long[SERIES];
+
+    for (int i = 0; i < SERIES; i++) {
+      this.labelsIds[i] = random.nextLong();
+    }
+
+    //
+    // Feed the estimators with all the GTS, the benchmark measures the steady state
+    // where the flushed GTS are already known
+    //
+
+    for (int i = 0; i < SERIES; i++) {
+      ThrottlingManager.checkMADS(this.metadata, PRODUCER, PRODUCER, APPLICATION, CLASS_ID, this.labelsIds[i]);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void teardown() {
+    if (null != this.dir) {
+      for (File file: this.dir.listFiles()) {
+        file.delete();
+      }
+      this.dir.delete();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DATAPOINTS)
+  public void flush(Stream stream) throws Exception {
+    long labelsId = stream.next(this.labelsIds);
+    ThrottlingManager.checkMADS(this.metadata, PRODUCER, PRODUCER, APPLICATION, CLASS_ID, labelsId);
+    ThrottlingManager.checkDDP(this.metadata, PRODUCER, PRODUCER, APPLICATION, DATAPOINTS);
+  }
+}
@@ -0,0 +1,172 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.util.Random;
+
+import com.geoxp.GeoXPLib;
+
+/**
+ * Generate the datapoints used by the benchmarks.
+ *
+ * All generators are seeded so successive runs, and runs of successive
+ * releases, work on the same data.
+ */
+class BenchmarkData {
+
+  /**
+   * Interval between regular ticks, 10s in platform time units
+   */
+  static final long PERIOD = 10000000L;
+
+  static final long SEED = 42L;
+
+  final long[] ticks;
+  final long[] locations;
+  final long[] elevations;
+  final Object[] values;
+
+  /**
+   * @param size Number of datapoints
+   * @param regular Generate regularly spaced timestamps or jittered ones
+   * @param type One of LONG, DOUBLE, STRING or BOOLEAN
+   * @param geo Generate locations and elevations
+   */
+  BenchmarkData(int size, boolean regular, String type, boolean geo) {
+    Random prng = new Random(SEED);
+
+    this.ticks = new long[size];
+    this.locations = new long[size];
+    this.elevations = new long[size];
+    this.values = new Object[size];
+
+    long ts = 1500000000000000L;
+
+    // Values evolve slowly like most sensor readings do
+    long lvalue = 1000L;
+    double dvalue = 20.0D;
+    double lat = 48.0D;
+    double lon = -4.5D;
+
+    for (int i = 0; i < size; i++) {
+      if (regular) {
+        ts += PERIOD;
+      } else {
+        ts += PERIOD / 2 + (long) (prng.nextDouble() * PERIOD);
+      }
+
+      this.ticks[i] = ts;
+
+      if (geo) {
+        lat += (prng.nextDouble() - 0.5D) / 1000.0D;
+        lon += (prng.nextDouble() - 0.5D) / 1000.0D;
+        this.locations[i] = GeoXPLib.toGeoXPPoint(lat, lon);
+        this.elevations[i] = 100000L + prng.nextInt(1000);
+      } else {
+        this.locations[i] = GeoTimeSerie.NO_LOCATION;
+        this.elevations[i] = GeoTimeSerie.NO_ELEVATION;
+      }
+
+      if ("LONG".equals(type)) {
+        lvalue += prng.nextInt(21) - 10;
+        this.values[i] = lvalue;
+      } else if ("DOUBLE".equals(type)) {
+        dvalue += prng.nextGaussian() / 10.0D;
+        this.values[i] = dvalue;
+      } else if ("STRING".equals(type)) {
+        this.values[i] = "state-" + prng.nextInt(16);
+      } else if ("BOOLEAN".equals(type)) {
+        this.values[i] = 0 == prng.nextInt(8);
+      } else {
+        throw new IllegalArgumentException("Unknown value type " + type);
+      }
+    }
+  }
+
+  GTSEncoder encode() throws Exception {
+    GTSEncoder encoder = new GTSEncoder(0L);
+
+    for (int i = 0; i < this.ticks.length; i++) {
+      encoder.addValue(this.ticks[i], this.locations[i], this.elevations[i], this.values[i]);
+    }
+
+    return encoder;
+  }
+
+  GeoTimeSerie toGTS() {
+    GeoTimeSerie gts = new GeoTimeSerie(this.ticks.length);
+
+    for (int i = 0; i < this.ticks.length; i++) {
+      GTSHelper.setValue(gts, this.ticks[i], this.locations[i], this.elevations[i], this.values[i], false);
+    }
+
+    return gts;
+  }
+
+  /**
+   * Return the datapoints in the input format of /update
+   *
+   * @param continuation Emit all lines but the first one as continuation lines
+   */
+  String[] toInputFormat(String classname, String labels, boolean continuation) {
+    String[] lines = new String[this.ticks.length];
+
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < this.ticks.length; i++) {
+      sb.setLength(0);
+      if (continuation && i > 0) {
+        sb.append("=");
+      }
+      sb.append(this.ticks[i]);
+      sb.append("/");
+      if (GeoTimeSerie.NO_LOCATION != this.locations[i]) {
+        double[] latlon = GeoXPLib.fromGeoXPPoint(this.locations[i]);
+        sb.append(latlon[0]);
+        sb.append(":");
+        sb.append(latlon[1]);
+      }
+      sb.append("/");
+      if (GeoTimeSerie.NO_ELEVATION != this.elevations[i]) {
+        sb.append(this.elevations[i]);
+      }
+      sb.append(" ");
+      if (!continuation || 0 == i) {
+        sb.append(classname);
+        sb.append("{");
+        sb.append(labels);
+        sb.append("} ");
+      }
+
+      Object value = this.values[i];
+
+      if (value instanceof String) {
+        sb.append("'");
+        sb.append(value);
+        sb.append("'");
+      } else if (value instanceof Boolean) {
+        sb.append(Boolean.TRUE.equals(value) ? "T" : "F");
+      } else {
+        sb.append(value);
+      }
+
+      lines[i] = sb.toString();
+    }
+
+    return lines;
+  }
+}
@@ -0,0 +1,111 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of GTSDecoder.next, in datapoints per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GTSDecoderBenchmark {
+
+  private static final int DATAPOINTS = 10000;
+
+  @Param({ "true", "false" })
+  public boolean regular;
+
+  @Param({ "LONG", "DOUBLE", "STRING", "BOOLEAN" })
+  public String type;
+
+  @Param({ "false", "true" })
+  public boolean geo;
+
+  private GTSEncoder encoder;
+
+  @Setup
+  public void setup() throws Exception {
+    this.encoder = new BenchmarkData(DATAPOINTS, this.regular, this.type, this.geo).encode();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DATAPOINTS)
+  public void next(Blackhole bh) {
+    GTSDecoder decoder = this.encoder.getUnsafeDecoder(false);
+
+    while(decoder.next()) {
+      bh.consume(decoder.getTimestamp());
+      bh.consume(decoder.getLocation());
+      bh.consume(decoder.getElevation());
+      bh.consume(decoder.getValue());
+    }
+  }
+
+  /**
+   * Decode values through the primitive accessors, without boxing
+   */
+  @Benchmark
+  @OperationsPerInvocation(DATAPOINTS)
+  public void nextPrimitive(Blackhole bh) {
+    GTSDecoder decoder = this.encoder.getUnsafeDecoder(false);
+
+    while(decoder.next()) {
+      bh.consume(decoder.getTimestamp());
+      bh.consume(decoder.getLocation());
+      bh.consume(decoder.getElevation());
+
+      TYPE type = decoder.getType();
+
+      if (TYPE.LONG == type) {
+        bh.consume(decoder.getLongValue());
+      } else if (TYPE.DOUBLE == type) {
+        bh.consume(decoder.getDoubleValue());
+      } else if (TYPE.BOOLEAN == type) {
+        bh.consume(decoder.getBooleanValue());
+      } else {
+        bh.consume(decoder.getValue());
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DATAPOINTS)
+  public GeoTimeSerie decode() {
+    return this.encoder.getUnsafeDecoder(false).decode();
+  }
+}
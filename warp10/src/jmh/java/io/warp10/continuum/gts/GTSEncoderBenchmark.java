@@ -0,0 +1,95 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of GTSEncoder.addValue, in datapoints per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GTSEncoderBenchmark {
+
+  private static final int DATAPOINTS = 10000;
+
+  @Param({ "true", "false" })
+  public boolean regular;
+
+  @Param({ "LONG", "DOUBLE", "STRING", "BOOLEAN" })
+  public String type;
+
+  @Param({ "false", "true" })
+  public boolean geo;
+
+  private BenchmarkData data;
+
+  @Setup
+  public void setup() {
+    this.data = new BenchmarkData(DATAPOINTS, this.regular, this.type, this.geo);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DATAPOINTS)
+  public GTSEncoder addValue() throws Exception {
+    return this.data.encode();
+  }
+
+  /**
+   * Use the primitive overloads of addValue when the values allow it
+   */
+  @Benchmark
+  @OperationsPerInvocation(DATAPOINTS)
+  public GTSEncoder addPrimitiveValue() throws Exception {
+    GTSEncoder encoder = new GTSEncoder(0L);
+
+    long[] ticks = this.data.ticks;
+    long[] locations = this.data.locations;
+    long[] elevations = this.data.elevations;
+    Object[] values = this.data.values;
+
+    for (int i = 0; i < ticks.length; i++) {
+      Object value = values[i];
+      if (value instanceof Long) {
+        encoder.addValue(ticks[i], locations[i], elevations[i], ((Long) value).longValue());
+      } else if (value instanceof Double) {
+        encoder.addValue(ticks[i], locations[i], elevations[i], ((Double) value).doubleValue());
+      } else {
+        encoder.addValue(ticks[i], locations[i], elevations[i], value);
+      }
+    }
+
+    return encoder;
+  }
+}
@@ -0,0 +1,133 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptMapperFunction;
+import io.warp10.script.aggregator.Max;
+import io.warp10.script.aggregator.Mean;
+import io.warp10.script.aggregator.Sum;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the GTSHelper functions behind BUCKETIZE, MAP and REDUCE, in input datapoints per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GTSHelperBenchmark {
+
+  private static final int DATAPOINTS = 10000;
+
+  /**
+   * Number of series and datapoints per series reduced together
+   */
+  private static final int REDUCE_SERIES = 100;
+  private static final int REDUCE_DATAPOINTS = 1000;
+
+  @Param({ "true", "false" })
+  public boolean regular;
+
+  @Param({ "LONG", "DOUBLE" })
+  public String type;
+
+  @Param({ "false", "true" })
+  public boolean geo;
+
+  private GeoTimeSerie gts;
+
+  private List<GeoTimeSerie> series;
+
+  private final Sum sum = new Sum("sum", true);
+
+  private final Max max = new Max("max", true);
+
+  /**
+   * Mean wrapped so MAP goes through the generic per tick path instead of the sliding window one
+   */
+  private final WarpScriptMapperFunction mean = new WarpScriptMapperFunction() {
+    private final Mean mean = new Mean("mean", false);
+
+    @Override
+    public Object apply(Object[] args) throws WarpScriptException {
+      return mean.apply(args);
+    }
+  };
+
+  @Setup
+  public void setup() {
+    this.gts = new BenchmarkData(DATAPOINTS, this.regular, this.type, this.geo).toGTS();
+    GTSHelper.sort(this.gts);
+
+    this.series = new ArrayList<GeoTimeSerie>(REDUCE_SERIES);
+
+    for (int i = 0; i < REDUCE_SERIES; i++) {
+      GeoTimeSerie gts = new BenchmarkData(REDUCE_DATAPOINTS, this.regular, this.type, this.geo).toGTS();
+      gts.setName("benchmark");
+      gts.setLabel("dc", "dc" + (i % 4));
+      gts.setLabel("host", "host" + i);
+      this.series.add(gts);
+    }
+  }
+
+  /**
+   * Bucketize into 1 minute buckets
+   */
+  @Benchmark
+  @OperationsPerInvocation(DATAPOINTS)
+  public GeoTimeSerie bucketize() throws Exception {
+    return GTSHelper.bucketize(this.gts, 6L * BenchmarkData.PERIOD, 0, 0L, this.sum, Long.MAX_VALUE);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DATAPOINTS)
+  public List<GeoTimeSerie> mapSlidingWindow() throws Exception {
+    return GTSHelper.map(this.gts, this.max, 10L, 0L, 0L, false, 1, false);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DATAPOINTS)
+  public List<GeoTimeSerie> mapPerTick() throws Exception {
+    return GTSHelper.map(this.gts, this.mean, 10L, 0L, 0L, false, 1, false);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(REDUCE_SERIES * REDUCE_DATAPOINTS)
+  public List<GeoTimeSerie> reduce() throws Exception {
+    return GTSHelper.reduce(this.sum, this.series, Arrays.asList("dc"));
+  }
+}
@@ -0,0 +1,77 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of GTSHelper.parse on input lines of /update, in lines per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GTSHelperParseBenchmark {
+
+  private static final int LINES = 10000;
+
+  @Param({ "LONG", "DOUBLE", "STRING", "BOOLEAN" })
+  public String type;
+
+  @Param({ "false", "true" })
+  public boolean geo;
+
+  /**
+   * Use continuation lines or repeat the class and labels on each line
+   */
+  @Param({ "false", "true" })
+  public boolean continuation;
+
+  private String[] lines;
+
+  @Setup
+  public void setup() {
+    this.lines = new BenchmarkData(LINES, true, this.type, this.geo).toInputFormat("io.warp10.benchmark", "host=server-042,dc=paris,rack=r12", this.continuation);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LINES)
+  public GTSEncoder parse() throws Exception {
+    GTSEncoder encoder = null;
+
+    for (String line: this.lines) {
+      encoder = GTSHelper.parse(encoder, line, null, null, Long.MAX_VALUE);
+    }
+
+    return encoder;
+  }
+}
@@ -0,0 +1,180 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import io.warp10.script.MemoryWarpScriptStack;
+import io.warp10.script.StackUtils;
+import io.warp10.script.WarpScriptStack;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.boon.json.JsonSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.geoxp.GeoXPLib;
+
+/**
+ * Throughput of the JSON rendering of a stack holding GTS, as done for /exec responses, in datapoints per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StackUtilsJSONBenchmark {
+
+  private static final int SERIES = 100;
+  private static final int DATAPOINTS = 1000;
+
+  /**
+   * Writer discarding its output, so only the rendering is measured
+   */
+  private static final Writer NULL_WRITER = new Writer() {
+    @Override
+    public void write(char[] cbuf, int off, int len) {}
+    @Override
+    public void flush() {}
+    @Override
+    public void close() {}
+  };
+
+  @Param({ "LONG", "DOUBLE" })
+  public String type;
+
+  @Param({ "false", "true" })
+  public boolean geo;
+
+  private List<GeoTimeSerie> series;
+
+  private WarpScriptStack stack;
+
+  @Setup
+  public void setup() throws Exception {
+    this.series = new ArrayList<GeoTimeSerie>(SERIES);
+
+    for (int i = 0; i < SERIES; i++) {
+      GeoTimeSerie gts = new BenchmarkData(DATAPOINTS, true, this.type, this.geo).toGTS();
+      gts.setName("benchmark");
+      gts.setLabel("host", "host" + i);
+      this.series.add(gts);
+    }
+
+    this.stack = new MemoryWarpScriptStack(null, null, new Properties());
+    this.stack.push(this.series);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SERIES * DATAPOINTS)
+  public void toJSON() throws Exception {
+    PrintWriter out = new PrintWriter(NULL_WRITER);
+    StackUtils.toJSON(out, this.stack);
+    out.flush();
+  }
+
+  /**
+   * Rendering of the same stack through PrintWriter and the boon serializer, as StackUtils.toJSON did before JSONWriter
+   */
+  @Benchmark
+  @OperationsPerInvocation(SERIES * DATAPOINTS)
+  public void printWriter() throws Exception {
+    PrintWriter out = new PrintWriter(NULL_WRITER);
+    JsonSerializer serializer = StackUtils.getSerializer();
+
+    out.print("[[");
+
+    boolean firstgts = true;
+
+    for (GeoTimeSerie gts: this.series) {
+      if (!firstgts) {
+        out.print(",");
+      }
+      firstgts = false;
+
+      out.print("{\"c\":");
+      out.print(serializer.serialize(gts.getMetadata().getName()));
+      out.print(",\"l\":");
+      print(serializer, out, gts.getMetadata().getLabels());
+      out.print(",\"a\":");
+      print(serializer, out, gts.getMetadata().getAttributes());
+      out.print(",\"la\":");
+      out.print(serializer.serialize(gts.getMetadata().getLastActivity()));
+      out.print(",\"v\":[");
+
+      for (int i = 0; i < gts.size(); i++) {
+        if (i > 0) {
+          out.print(",");
+        }
+        long location = GTSHelper.locationAtIndex(gts, i);
+        long elevation = GTSHelper.elevationAtIndex(gts, i);
+        out.print("[");
+        out.print(GTSHelper.tickAtIndex(gts, i));
+        if (GeoTimeSerie.NO_LOCATION != location) {
+          double[] latlon = GeoXPLib.fromGeoXPPoint(location);
+          out.print(",");
+          out.print(latlon[0]);
+          out.print(",");
+          out.print(latlon[1]);
+        }
+        if (GeoTimeSerie.NO_ELEVATION != elevation) {
+          out.print(",");
+          out.print(elevation);
+        }
+        out.print(",");
+        out.print(serializer.serialize(GTSHelper.valueAtIndex(gts, i)));
+        out.print("]");
+      }
+
+      out.print("]}");
+    }
+
+    out.print("]]");
+    out.flush();
+  }
+
+  private static void print(JsonSerializer serializer, PrintWriter out, Map<String,String> map) {
+    out.print("{");
+    boolean first = true;
+    for (Map.Entry<String,String> entry: map.entrySet()) {
+      if (!first) {
+        out.print(",");
+      }
+      first = false;
+      out.print(serializer.serialize(entry.getKey()));
+      out.print(":");
+      out.print(serializer.serialize(entry.getValue()));
+    }
+    out.print("}");
+  }
+}
@@ -0,0 +1,107 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of Varint encoding and decoding, in values per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VarintBenchmark {
+
+  private static final int VALUES = 4096;
+
+  /**
+   * Maximum number of significant bits of the values. Deltas of regular
+   * timestamps need about 24 bits, raw timestamps 51.
+   */
+  @Param({ "7", "24", "51", "64" })
+  public int bits;
+
+  private long[] values;
+
+  private ByteBuffer encoded;
+
+  private byte[] buf = new byte[10];
+
+  @Setup
+  public void setup() {
+    Random prng = new Random(BenchmarkData.SEED);
+
+    this.values = new long[VALUES];
+
+    this.encoded = ByteBuffer.allocate(VALUES * 10);
+
+    for (int i = 0; i < VALUES; i++) {
+      this.values[i] = 64 == this.bits ? prng.nextLong() : prng.nextLong() & ((1L << this.bits) - 1);
+      this.encoded.put(Varint.encodeUnsignedLong(this.values[i]));
+    }
+
+    this.encoded.flip();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(VALUES)
+  public void encodeUnsignedLong(Blackhole bh) {
+    for (long value: this.values) {
+      bh.consume(Varint.encodeUnsignedLong(value));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(VALUES)
+  public int encodeUnsignedLongInBuf() {
+    int len = 0;
+    for (long value: this.values) {
+      len += Varint.encodeUnsignedLongInBuf(value, this.buf);
+    }
+    return len;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(VALUES)
+  public long decodeUnsignedLong() {
+    ByteBuffer bb = this.encoded.duplicate();
+    long sum = 0L;
+    for (int i = 0; i < VALUES; i++) {
+      sum += Varint.decodeUnsignedLong(bb);
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,115 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.TimeSource;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.Constants;
+import io.warp10.crypto.KeyStore;
+import io.warp10.crypto.UnsecureKeyStore;
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ingestion throughput (in datapoints per second) of StandaloneChunkedMemoryStore when
+ * several threads store data concurrently.
+ *
+ * Use '-Pjmh.args=-t 1' (or any other thread count) to measure the scalability of the store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(Threads.MAX)
+public class ChunkedMemoryStoreIngestionBenchmark {
+
+  /**
+   * Number of distinct GTS
+   */
+  private static final int SERIES = 100000;
+
+  /**
+   * Number of datapoints per stored encoder
+   */
+  private static final int DATAPOINTS = 10;
+
+  private StandaloneChunkedMemoryStore store;
+
+  private long now;
+
+  private final AtomicInteger threads = new AtomicInteger(0);
+
+  @State(Scope.Thread)
+  public static class Stream {
+    private Random prng;
+
+    @Setup
+    public void setup(ChunkedMemoryStoreIngestionBenchmark benchmark) {
+      this.prng = new Random(benchmark.threads.getAndIncrement());
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    KeyStore keystore = new UnsecureKeyStore();
+    keystore.setKey(KeyStore.SIPHASH_CLASS, new byte[16]);
+    keystore.setKey(KeyStore.SIPHASH_LABELS, new byte[16]);
+
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.IN_MEMORY_CHUNK_COUNT, "3");
+    properties.setProperty(Configuration.IN_MEMORY_CHUNK_LENGTH, Long.toString(3600L * Constants.TIME_UNITS_PER_S));
+
+    this.store = new StandaloneChunkedMemoryStore(properties, keystore);
+    this.now = TimeSource.getTime();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DATAPOINTS)
+  public void store(Stream stream) throws Exception {
+    int id = stream.prng.nextInt(SERIES);
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.setClassId(id % 100);
+    encoder.setLabelsId(id);
+
+    for (int i = 0; i < DATAPOINTS; i++) {
+      encoder.addValue(this.now + i, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, stream.prng.nextLong());
+    }
+
+    this.store.store(encoder);
+  }
+}
@@ -114,7 +114,19 @@ public class Configuration {
    * The safest behavior is to leave this undefined or set to 'false'.
    */
   public static final String WARPSCRIPT_DEF_UNSHADOW = "warpscript.def.unshadow";
-  
+
+  /**
+   * Number of threads used to apply REDUCE and APPLY to partitions in parallel.
+   * Only functions which implement WarpScriptThreadSafeFunction are applied in parallel.
+   * Defaults to 0 which disables parallel execution.
+   */
+  public static final String WARPSCRIPT_PARALLELISM = "warpscript.parallelism";
+
+  /**
+   * Minimum number of partitions for REDUCE and APPLY to be executed in parallel, defaults to 16
+   */
+  public static final String WARPSCRIPT_PARALLEL_MINPARTITIONS = "warpscript.parallel.minpartitions";
+
   public static final String WARPSCRIPT_MAX_OPS = "warpscript.maxops";
   public static final String WARPSCRIPT_MAX_BUCKETS = "warpscript.maxbuckets";
   public static final String WARPSCRIPT_MAX_GEOCELLS = "warpscript.maxgeocells";
@@ -477,6 +489,12 @@ public class Configuration {
    * Number of threads to use for the initial loading of Metadata
    */
   public static final String DIRECTORY_INIT_NTHREADS = "directory.init.nthreads";
+
+  /**
+   * Number of key ranges the Metadata are split into and scanned in parallel during the initial loading.
+   * Defaults to the number of init threads.
+   */
+  public static final String DIRECTORY_INIT_RANGES = "directory.init.ranges";
   
   /**
    * Boolean indicating whether or not we should initialized Directory by reading HBase
@@ -875,10 +893,16 @@ public class Configuration {
   public static final String STORE_KAFKA_DATA_INTERCOMMITS_MAXTIME = "store.kafka.data.intercommits.maxtime";
   
   /**
-   * Maximum size we allow the Puts list to grow to
+   * Size of the write buffer of the HBase BufferedMutator, when it is exceeded the buffered Puts are sent in the background
    */
   public static final String STORE_HBASE_DATA_MAXPENDINGPUTSSIZE = "store.hbase.data.maxpendingputssize";
   
+  /**
+   * Maximum number of bytes each consumer may send to HBase since its last flush, when it is exceeded the consumer
+   * waits for all its Puts to be acknowledged. Defaults to 4 times 'store.hbase.data.maxpendingputssize'
+   */
+  public static final String STORE_HBASE_DATA_MAXINFLIGHTBYTES = "store.hbase.data.maxinflightbytes";
+  
   /**
    * How many threads to spawn for consuming
    */
@@ -1277,6 +1301,56 @@ public class Configuration {
    */
   public static final String LEVELDB_DATA_SYNCRATE = "leveldb.data.syncrate";
 
+  /**
+   * Set to 'true' to have a single thread write the datapoints of all ingestion threads, coalescing
+   * their batches so they share the synchronous writes.
+   */
+  public static final String LEVELDB_DATA_GROUPCOMMIT = "leveldb.data.groupcommit";
+
+  /**
+   * Maximum size (in bytes) of the batches coalesced in a single write by the group committer
+   */
+  public static final String LEVELDB_DATA_GROUPCOMMIT_MAXSIZE = "leveldb.data.groupcommit.maxsize";
+
+  /**
+   * Maximum number of GTS whose most recent value is kept in memory to serve fetches of the last value
+   * without reading LevelDB. Defaults to 0 which disables the cache.
+   */
+  public static final String LEVELDB_LASTVALUE_CACHE_SIZE = "leveldb.lastvalue.cache.size";
+
+  /**
+   * Span (in platform time units) of the windows in which datapoints are packed into blocks.
+   * Defaults to 0 which disables packing. Once set, the span cannot be changed for a given LevelDB.
+   */
+  public static final String LEVELDB_DATA_BLOCK_SPAN = "leveldb.data.block.span";
+
+  /**
+   * Delay (in ms) between two passes packing the datapoints of closed windows into blocks.
+   */
+  public static final String LEVELDB_DATA_BLOCK_REPACK_PERIOD = "leveldb.data.block.repack.period";
+
+  /**
+   * Default TTL (in ms) of the datapoints stored in LevelDB. Defaults to 0 which disables retention.
+   */
+  public static final String LEVELDB_RETENTION_TTL = "leveldb.retention.ttl";
+
+  /**
+   * Prefix of the keys setting the TTL (in ms) of the datapoints of a class, the class name follows the prefix.
+   * A TTL of 0 keeps the datapoints of the class forever.
+   */
+  public static final String LEVELDB_RETENTION_TTL_CLASS_PREFIX = "leveldb.retention.ttl.class.";
+
+  /**
+   * Prefix of the keys setting the TTL (in ms) of the datapoints of an application, i.e. of the GTS whose
+   * '.app' label is the application name which follows the prefix.
+   */
+  public static final String LEVELDB_RETENTION_TTL_APP_PREFIX = "leveldb.retention.ttl.app.";
+
+  /**
+   * Delay (in ms) between two passes deleting the expired datapoints
+   */
+  public static final String LEVELDB_RETENTION_PERIOD = "leveldb.retention.period";
+
   /**
    * Rate of synchronous writes for the directory writes.
    * This is a double between 0.0 (all writes asynchronous) and 1.0 (all writes synchronous)
@@ -1284,6 +1358,24 @@ public class Configuration {
    */
   public static final String LEVELDB_DIRECTORY_SYNCRATE = "leveldb.directory.syncrate";
 
+  /**
+   * Path of the file where snapshots of the in memory directory are written. When set, the
+   * directory is loaded from the last snapshot at startup and only the changes which occurred
+   * since it was written are read from LevelDB.
+   */
+  public static final String LEVELDB_DIRECTORY_SNAPSHOT = "leveldb.directory.snapshot";
+
+  /**
+   * Period (in ms) between two snapshots of the in memory directory, defaults to one hour
+   */
+  public static final String LEVELDB_DIRECTORY_SNAPSHOT_PERIOD = "leveldb.directory.snapshot.period";
+
+  /**
+   * Set to 'true' to maintain an in memory index of the label and attribute values of the GTS, used by
+   * find and stats when selectors have exact label values. Disabled by default as it uses more memory.
+   */
+  public static final String LEVELDB_DIRECTORY_INDEX = "leveldb.directory.index";
+
   /**
    * Flag to disable the use of the native LevelDB implementation
    */
@@ -1540,6 +1632,16 @@ public class Configuration {
    */
   public static final String IN_MEMORY_CHUNK_LENGTH = "in.memory.chunk.length";
   
+  /**
+   * Set to 'true' to store the data of the chunked in-memory store off heap
+   */
+  public static final String IN_MEMORY_OFFHEAP = "in.memory.offheap";
+  
+  /**
+   * Size (in bytes) of the slabs allocated for off heap storage, defaults to 64 MB
+   */
+  public static final String IN_MEMORY_OFFHEAP_SLABSIZE = "in.memory.offheap.slabsize";
+  
   /**
    * Path to a dump file containing the state of an in-memory Warp 10 to restore.
    */
@@ -1581,6 +1683,17 @@ public class Configuration {
    */
   public static final String EGRESS_CLIENTS_EXPOSE = "egress.clients.expose";
   
+  /**
+   * Number of parsed /exec scripts to keep in cache, 0 (the default) disables the cache.
+   * Scripts are cached by a hash of their content, so identical scripts sent repeatedly are only parsed once.
+   */
+  public static final String EGRESS_EXEC_CACHE_SIZE = "egress.exec.cache.size";
+  
+  /**
+   * Size in characters above which /exec scripts are not cached, defaults to 65536.
+   */
+  public static final String EGRESS_EXEC_CACHE_MAXSCRIPTSIZE = "egress.exec.cache.maxscriptsize";
+  
   /**
    * Comma separated list of Egress related HBase configuration keys to extract from the Warp 10 configuration.
    * The listed keys will be extracted from 'egress.' prefixed configuration keys.
@@ -0,0 +1,93 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Determine if URLs designate an endpoint of the current JVM, so the in-process writers
+ * (StandaloneLocalWriter, Ingress) can be used instead of issuing an HTTP request.
+ *
+ * Resolving a host and looking up the network interfaces is costly, so the outcome is
+ * cached per host name. Entries expire so changes of the name resolution or of the
+ * interfaces are eventually taken into account.
+ */
+public class LocalEndpoints {
+
+  private static final int CACHE_SIZE = 1024;
+
+  private static final long CACHE_TTL_MS = 5L * 60000L;
+
+  private static final Cache<String,Boolean> hosts = CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).expireAfterWrite(CACHE_TTL_MS, TimeUnit.MILLISECONDS).build();
+
+  /**
+   * Check if 'url' designates the plain HTTP endpoint 'endpoint' served on port 'port' by this host.
+   *
+   * @param url URL to check
+   * @param endpoint Path of the expected endpoint (Constants.API_ENDPOINT_xxx)
+   * @param port Port of the local HTTP server
+   */
+  public static boolean isLocal(URL url, String endpoint, int port) {
+    if (null == url) {
+      return false;
+    }
+
+    if (!"http".equals(url.getProtocol()) || !endpoint.equals(url.getPath())) {
+      return false;
+    }
+
+    int urlPort = -1 == url.getPort() ? url.getDefaultPort() : url.getPort();
+
+    if (urlPort != port) {
+      return false;
+    }
+
+    return isLocalHost(url.getHost());
+  }
+
+  /**
+   * Check if 'host' resolves to an address of this host
+   */
+  public static boolean isLocalHost(String host) {
+    Boolean local = hosts.getIfPresent(host);
+
+    if (null == local) {
+      local = resolve(host);
+      hosts.put(host, local);
+    }
+
+    return local;
+  }
+
+  private static boolean resolve(String host) {
+    try {
+      InetAddress addr = InetAddress.getByName(host);
+
+      return addr.isLoopbackAddress() || addr.isAnyLocalAddress() || null != NetworkInterface.getByInetAddress(addr);
+    } catch (IOException ioe) {
+      // Unknown host or no interface, consider the endpoint is remote
+      return false;
+    }
+  }
+}
@@ -18,6 +18,7 @@ package io.warp10.continuum;
 
 import io.warp10.continuum.gts.GTSHelper;
 import io.warp10.continuum.gts.UnsafeString;
+import io.warp10.continuum.store.CompactMetadata;
 import io.warp10.continuum.store.Constants;
 import io.warp10.continuum.store.Store;
 import io.warp10.continuum.store.thrift.data.Metadata;
@@ -55,6 +56,11 @@ public class MetadataUtils {
       this.classId = metadata.getClassId();
       this.labelsId = metadata.getLabelsId();
     }
+
+    public MetadataID(CompactMetadata metadata) {
+      this.classId = metadata.getClassId();
+      this.labelsId = metadata.getLabelsId();
+    }
     
     @Override
     public boolean equals(Object obj) {
@@ -185,6 +191,21 @@ public class MetadataUtils {
     
     return id;
   }
+
+  public static MetadataID id(CompactMetadata meta) {
+    return new MetadataID(meta);
+  }
+
+  public static MetadataID id(MetadataID id, CompactMetadata meta) {
+    if (null == id) {
+      return id(meta);
+    }
+
+    id.classId = meta.getClassId();
+    id.labelsId = meta.getLabelsId();
+
+    return id;
+  }
   
   /**
    * Compare Metadata according to class/labels Ids
@@ -0,0 +1,173 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum;
+
+import io.warp10.script.HyperLogLogPlus;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * MADS estimator of the ThrottlingManager.
+ *
+ * It wraps a HyperLogLogPlus in NORMAL mode whose registers are mirrored in an AtomicLongArray
+ * (10 registers of 6 bits per slot). The mirror is only written while holding the lock of the
+ * HyperLogLogPlus and never holds a register greater than the estimator, so a hash which is not
+ * new for the mirror is not new for the estimator either. This is the outcome of the vast
+ * majority of the checks done at ingestion time, they are therefore done without locking.
+ */
+class ThrottlingEstimator {
+
+  private static final int REGISTERS_PER_SLOT = 10;
+
+  /**
+   * Sequence used to evict the oldest estimators first
+   */
+  private static final AtomicLong SEQUENCE = new AtomicLong(0L);
+
+  private final HyperLogLogPlus hllp;
+
+  private final AtomicLongArray registers;
+
+  private final int m;
+  private final int _64minusp;
+  private final long pmask;
+
+  private final long sequence;
+
+  /**
+   * Cardinality of the estimator as of the last update
+   */
+  private volatile long cardinality;
+
+  ThrottlingEstimator(HyperLogLogPlus hllp) throws IOException {
+    // MADS estimators have always been used in NORMAL mode, this also lets the mirror be built right away
+    hllp.toNormal();
+    this.hllp = hllp;
+    this.m = 1 << hllp.getP();
+    this._64minusp = 64 - hllp.getP();
+    this.pmask = (1L << this._64minusp) - 1;
+    this.registers = new AtomicLongArray((this.m + REGISTERS_PER_SLOT - 1) / REGISTERS_PER_SLOT);
+    this.sequence = SEQUENCE.incrementAndGet();
+    refresh();
+  }
+
+  /**
+   * Check if 'hash' could modify the cardinality estimation, without locking
+   */
+  boolean isNew(long hash) {
+    int idx = (int) (hash >>> this._64minusp);
+    byte rho = rho(hash & this.pmask, this._64minusp);
+    long slot = this.registers.get(idx / REGISTERS_PER_SLOT);
+    return ((slot >>> ((idx % REGISTERS_PER_SLOT) * 6)) & 0x3FL) < rho;
+  }
+
+  /**
+   * Add 'hash' to the estimator and return the updated cardinality
+   */
+  long aggregate(long hash) throws IOException {
+    synchronized(this.hllp) {
+      this.hllp.aggregate(hash);
+      int idx = (int) (hash >>> this._64minusp);
+      int slot = idx / REGISTERS_PER_SLOT;
+      this.registers.set(slot, slot(slot));
+      this.cardinality = this.hllp.cardinality();
+      return this.cardinality;
+    }
+  }
+
+  /**
+   * Fuse the registers of 'other' into this estimator
+   */
+  void fuse(HyperLogLogPlus other) throws IOException {
+    synchronized(this.hllp) {
+      this.hllp.fuse(other);
+      refresh();
+    }
+  }
+
+  /**
+   * Fuse the registers of this estimator into 'other'
+   */
+  void fuseInto(HyperLogLogPlus other) throws IOException {
+    synchronized(this.hllp) {
+      other.fuse(this.hllp);
+    }
+  }
+
+  long cardinality() {
+    return this.cardinality;
+  }
+
+  boolean hasExpired() {
+    return this.hllp.hasExpired();
+  }
+
+  long getInitTime() {
+    return this.hllp.getInitTime();
+  }
+
+  long getSequence() {
+    return this.sequence;
+  }
+
+  byte[] toBytes() throws IOException {
+    synchronized(this.hllp) {
+      return this.hllp.toBytes();
+    }
+  }
+
+  /**
+   * Copy all the registers of the estimator into the mirror
+   */
+  private void refresh() throws IOException {
+    synchronized(this.hllp) {
+      for (int i = 0; i < this.registers.length(); i++) {
+        this.registers.set(i, slot(i));
+      }
+      this.cardinality = this.hllp.cardinality();
+    }
+  }
+
+  /**
+   * Build the content of a mirror slot from the registers of the estimator
+   */
+  private long slot(int slot) {
+    long value = 0L;
+    int first = slot * REGISTERS_PER_SLOT;
+    int last = Math.min(first + REGISTERS_PER_SLOT, this.m);
+    for (int idx = first; idx < last; idx++) {
+      int rho = this.hllp.getRho(idx);
+      // Clamp the value so the mirror leads to the same decisions as HyperLogLogPlus.isNew
+      if (rho < 0) {
+        rho = 0;
+      } else if (rho > 0x3F) {
+        rho = 0x3F;
+      }
+      value |= ((long) rho) << ((idx - first) * 6);
+    }
+    return value;
+  }
+
+  /**
+   * Same computation as HyperLogLogPlus.rho
+   */
+  private static byte rho(long x, int n) {
+    return (byte) (Long.numberOfLeadingZeros((x << (64 - n)) | (long) (1 << ((64 -n) - 1))) + 1);
+  }
+}
@@ -40,12 +40,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -61,12 +62,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Charsets;
-import com.google.common.util.concurrent.RateLimiter;
 
 /**
  * This class manages the throttling of data ingestion.
  * It controls both DDP (Daily Data Points) and MADS (Monthly Active Device Streams).
  * 
+ * The checks are done by all ingestion threads, they therefore do not take any lock
+ * in the common case, i.e. when the GTS is already known by the estimators and the
+ * rate limiters have enough permits.
  */
 public class ThrottlingManager {
 
@@ -83,7 +86,7 @@ public class ThrottlingManager {
   public static final String LIMITS_APPLICATION_MADS_CURRENT = "application.mads.current";
 
   /**
-   * Minimal limit (1 per hour) because 0 is not acceptable by RateLimiter.
+   * Minimal limit (1 per hour) because 0 is not acceptable by TokenBucket.
    */
   public static double MINIMUM_RATE_LIMIT = 1.0D/3600.0D;
   
@@ -118,7 +121,7 @@ public class ThrottlingManager {
   private static final long[] SIP_KEYS = { 0x01L, 0x02L };
 
   /**
-   * Maximum number of milliseconds to wait for RateLimiter permits
+   * Maximum number of milliseconds to wait for TokenBucket permits
    */
   private static long MAXWAIT_PER_DATAPOINT;
   
@@ -147,58 +150,28 @@ public class ThrottlingManager {
   /**
    * Rate limiters to control the rate of datapoints ingestion per producer
    */
-  private static Map<String,RateLimiter> producerRateLimiters = new HashMap<String, RateLimiter>();
+  private static ConcurrentHashMap<String,TokenBucket> producerRateLimiters = new ConcurrentHashMap<String, TokenBucket>();
 
   /**
    * Rate limiters to control the rate of datapoints ingestion per application
    */
-  private static Map<String,RateLimiter> applicationRateLimiters = new HashMap<String, RateLimiter>();
+  private static ConcurrentHashMap<String,TokenBucket> applicationRateLimiters = new ConcurrentHashMap<String, TokenBucket>();
 
   /**
-   * Map of estimators for producers
+   * Map of estimators for producers, bounded by ESTIMATOR_CACHE_SIZE
    */
-  private static Map<String,HyperLogLogPlus> producerHLLPEstimators = new LinkedHashMap<String, HyperLogLogPlus>() {
-    @Override
-    protected boolean removeEldestEntry(java.util.Map.Entry<String, HyperLogLogPlus> eldest) {
-      //
-      // Update estimator cache size
-      //
-
-      boolean overflow = this.size() > ESTIMATOR_CACHE_SIZE;
-      
-      if (!overflow) {
-        Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED, Sensision.EMPTY_LABELS, this.size());
-      }
-      
-      return overflow;
-    }
-  };
+  private static Map<String,ThrottlingEstimator> producerHLLPEstimators = new ConcurrentHashMap<String, ThrottlingEstimator>();
 
   /**
-   * Map of estimators for applications
+   * Map of estimators for applications, bounded by ESTIMATOR_CACHE_SIZE
    */
-  private static Map<String,HyperLogLogPlus> applicationHLLPEstimators = new LinkedHashMap<String, HyperLogLogPlus>() {
-    @Override
-    protected boolean removeEldestEntry(java.util.Map.Entry<String, HyperLogLogPlus> eldest) {
-      //
-      // Update estimator cache size
-      //
-
-      boolean overflow = this.size() > ESTIMATOR_CACHE_SIZE;
-      
-      if (!overflow) {
-        Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED_PER_APP, Sensision.EMPTY_LABELS, this.size());
-      }
-      
-      return overflow;
-    }
-  };
+  private static Map<String,ThrottlingEstimator> applicationHLLPEstimators = new ConcurrentHashMap<String, ThrottlingEstimator>();
 
   private static AtomicBoolean initialized = new AtomicBoolean(false);
 
-  private static boolean loaded = false;
+  private static volatile boolean loaded = false;
   
-  private static boolean enabled = false;
+  private static volatile boolean enabled = false;
   
   private static Producer<byte[],byte[]> throttlingProducer = null;
   private static String throttlingTopic = null;
@@ -213,12 +186,12 @@ public class ThrottlingManager {
   /**
    * Map of per producer MADS (Monthly Active Data Streams) limits
    */
-  private static Map<String,Long> producerMADSLimits = new HashMap<String, Long>();
+  private static Map<String,Long> producerMADSLimits = new ConcurrentHashMap<String, Long>();
 
   /**
    * Map of per application MADS (Monthly Active Data Streams) limits
    */
-  private static Map<String,Long> applicationMADSLimits = new HashMap<String, Long>();
+  private static Map<String,Long> applicationMADSLimits = new ConcurrentHashMap<String, Long>();
 
   /**
    * Check compatibility of a GTS with the current MADS limit
@@ -241,13 +214,13 @@ public class ThrottlingManager {
     // Retrieve per producer limit
     //
     
-    Long oProducerLimit = producerMADSLimits.get(producer);
+    Long oProducerLimit = get(producerMADSLimits, producer);
 
     //
     // Extract per application limit
     //
     
-    Long oApplicationLimit = applicationMADSLimits.get(application);
+    Long oApplicationLimit = get(applicationMADSLimits, application);
     
     // If there is no per producer limit, check the default one
     
@@ -286,23 +259,10 @@ public class ThrottlingManager {
     // was created in the previous 30 days period, allocate a new one
     //
     
-    HyperLogLogPlus producerHLLP = null;
+    ThrottlingEstimator producerHLLP = null;
     
     if (-1 != producerLimit) {
-      synchronized(producerHLLPEstimators) {
-        producerHLLP = producerHLLPEstimators.get(producer);
-        // If the HyperLogLogPlus is older than 30 days or not yet created, generate a new one
-        if (null == producerHLLP || producerHLLP.hasExpired()) {
-          producerHLLP = new HyperLogLogPlus(DEFAULT_P, DEFAULT_PPRIME);
-          try {
-            producerHLLP.toNormal();
-          } catch (IOException ioe) {
-            throw new WarpException(ioe);
-          }
-          producerHLLP.setKey(producer);
-          producerHLLPEstimators.put(producer, producerHLLP);
-        }
-      }      
+      producerHLLP = getEstimator(producerHLLPEstimators, producer, producer, SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED);
     }
     
     //
@@ -321,27 +281,14 @@ public class ThrottlingManager {
       return;
     }
     
-    HyperLogLogPlus applicationHLLP = null;
+    ThrottlingEstimator applicationHLLP = null;
     
     long applicationLimit = Long.MIN_VALUE;
     
     if (null != oApplicationLimit) {
       applicationLimit = oApplicationLimit;
       
-      synchronized(applicationHLLPEstimators) {
-        applicationHLLP = applicationHLLPEstimators.get(application);
-        // If the HyperLogLogPlus is older than 30 days or not yet created, generate a new one
-        if (null == applicationHLLP || applicationHLLP.hasExpired()) {
-          applicationHLLP = new HyperLogLogPlus(DEFAULT_P, DEFAULT_PPRIME);
-          try {
-            applicationHLLP.toNormal();
-          } catch (IOException ioe) {
-            throw new WarpException(ioe);
-          }
-          applicationHLLP.setKey(APPLICATION_PREFIX_CHAR + application);
-          applicationHLLPEstimators.put(application, applicationHLLP);
-        }
-      }
+      applicationHLLP = getEstimator(applicationHLLPEstimators, application, APPLICATION_PREFIX_CHAR + application, SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED_PER_APP);
     }
     
     //
@@ -372,9 +319,9 @@ public class ThrottlingManager {
           throw new WarpException(sb.toString());          
         }
         
-        applicationHLLP.aggregate(hash);
+        cardinality = applicationHLLP.aggregate(hash);
         
-        Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, applicationHLLP.cardinality());
+        Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, cardinality);
       } catch (IOException ioe){
         // Ignore for now...
       }
@@ -407,9 +354,9 @@ public class ThrottlingManager {
         throw new WarpException(sb.toString());
       }
 
-      producerHLLP.aggregate(hash);
+      cardinality = producerHLLP.aggregate(hash);
       
-      Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels, producerHLLP.cardinality());
+      Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels, cardinality);
     } catch (IOException ioe) {
       // Ignore for now...
     }
@@ -432,11 +379,11 @@ public class ThrottlingManager {
     }
     
     //
-    // Extract RateLimiter
+    // Extract rate limiters
     //
     
-    RateLimiter producerLimiter = producerRateLimiters.get(producer);
-    RateLimiter applicationLimiter = applicationRateLimiters.get(application);
+    TokenBucket producerLimiter = get(producerRateLimiters, producer);
+    TokenBucket applicationLimiter = get(applicationRateLimiters, application);
     
     //
     // TODO(hbs): store per producer/per app maxwait values? Extract them from the throttling file?
@@ -448,78 +395,169 @@ public class ThrottlingManager {
     // -1.0 as the default rate means do not enforce DDP limit
     if (null == producerLimiter && null == applicationLimiter && -1.0D == DEFAULT_RATE_PRODUCER) {      
       return;
-    } else if (null == producerLimiter && -1.0D != DEFAULT_RATE_PRODUCER) {
-      // Create a rate limiter with the default rate      
-      producerLimiter = RateLimiter.create(Math.max(MINIMUM_RATE_LIMIT,DEFAULT_RATE_PRODUCER));
-      producerRateLimiters.put(producer, producerLimiter);
+    } else if (null == producerLimiter && -1.0D != DEFAULT_RATE_PRODUCER && null != producer) {
+      // Create a rate limiter with the default rate, unless another thread did it concurrently
+      producerLimiter = new TokenBucket(Math.max(MINIMUM_RATE_LIMIT,DEFAULT_RATE_PRODUCER));
+      TokenBucket current = producerRateLimiters.putIfAbsent(producer, producerLimiter);
+      if (null != current) {
+        producerLimiter = current;
+      }
     }
      
     // Check per application limiter
     if (null != applicationLimiter) {
-      synchronized(applicationLimiter) {
-        if (!applicationLimiter.tryAcquire(count, appMaxWait * count, TimeUnit.MILLISECONDS)) {
-          StringBuilder sb = new StringBuilder();
-          sb.append("Storing data for ");
-          if (null != metadata) {
-            GTSHelper.metadataToString(sb, metadata.getName(), metadata.getLabels());
-          }
-          sb.append(" would incur a wait greater than ");
-          sb.append(appMaxWait);
-          sb.append(" ms per datapoint due to your Daily Data Points limit being already exceeded for application '" + application + "'. Current max rate is " + applicationLimiter.getRate() + " datapoints/s.");
-
-          Map<String,String> labels = new HashMap<String, String>();
-          labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, application);
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_PER_APP, labels, 1);
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_PER_APP_GLOBAL, Sensision.EMPTY_LABELS, 1);
-          
-          throw new WarpException(sb.toString());      
-        }
-      }      
-    }
-    
-    if (null == producerLimiter) {
-      return;
-    }
-    
-    synchronized(producerLimiter) {
-      if (!producerLimiter.tryAcquire(count, producerMaxWait * count, TimeUnit.MILLISECONDS)) {
+      if (!applicationLimiter.tryAcquire(count, appMaxWait * count, TimeUnit.MILLISECONDS)) {
         StringBuilder sb = new StringBuilder();
         sb.append("Storing data for ");
         if (null != metadata) {
           GTSHelper.metadataToString(sb, metadata.getName(), metadata.getLabels());
         }
         sb.append(" would incur a wait greater than ");
-        sb.append(producerMaxWait);
-        sb.append(" ms per datapoint due to your Daily Data Points limit being already exceeded. Current maximum rate is " + producerLimiter.getRate() + " datapoints/s.");
+        sb.append(appMaxWait);
+        sb.append(" ms per datapoint due to your Daily Data Points limit being already exceeded for application '" + application + "'. Current max rate is " + applicationLimiter.getRate() + " datapoints/s.");
 
         Map<String,String> labels = new HashMap<String, String>();
-        labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, producer);
-        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE, labels, 1);
-        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_GLOBAL, Sensision.EMPTY_LABELS, 1);
+        labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, application);
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_PER_APP, labels, 1);
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_PER_APP_GLOBAL, Sensision.EMPTY_LABELS, 1);
         
         throw new WarpException(sb.toString());      
       }
     }
+    
+    if (null == producerLimiter) {
+      return;
+    }
+    
+    if (!producerLimiter.tryAcquire(count, producerMaxWait * count, TimeUnit.MILLISECONDS)) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("Storing data for ");
+      if (null != metadata) {
+        GTSHelper.metadataToString(sb, metadata.getName(), metadata.getLabels());
+      }
+      sb.append(" would incur a wait greater than ");
+      sb.append(producerMaxWait);
+      sb.append(" ms per datapoint due to your Daily Data Points limit being already exceeded. Current maximum rate is " + producerLimiter.getRate() + " datapoints/s.");
+
+      Map<String,String> labels = new HashMap<String, String>();
+      labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, producer);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE, labels, 1);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_GLOBAL, Sensision.EMPTY_LABELS, 1);
+      
+      throw new WarpException(sb.toString());      
+    }
   }
 
   public static void checkDDP(Metadata metadata, String producer, String owner, String application, int count) throws WarpException {
     checkDDP(metadata, producer, owner, application, count, MAXWAIT_PER_DATAPOINT);
   }
   
+  /**
+   * Null safe lookup, ConcurrentHashMap does not accept null keys
+   */
+  private static <T> T get(Map<String,T> map, String key) {
+    if (null == key) {
+      return null;
+    }
+    return map.get(key);
+  }
+  
+  /**
+   * Retrieve the estimator for 'entity', allocating a new one if none is defined
+   * or if the current one has expired.
+   * Only the allocation is done while holding the lock of the map.
+   */
+  private static ThrottlingEstimator getEstimator(Map<String,ThrottlingEstimator> estimators, String entity, String key, String sensisionClass) throws WarpException {
+    ThrottlingEstimator estimator = estimators.get(entity);
+    
+    if (null != estimator && !estimator.hasExpired()) {
+      return estimator;
+    }
+    
+    synchronized(estimators) {
+      estimator = estimators.get(entity);
+      
+      // If the HyperLogLogPlus is older than 30 days or not yet created, generate a new one
+      if (null == estimator || estimator.hasExpired()) {
+        HyperLogLogPlus hllp = new HyperLogLogPlus(DEFAULT_P, DEFAULT_PPRIME);
+        hllp.setKey(key);
+        try {
+          estimator = new ThrottlingEstimator(hllp);
+        } catch (IOException ioe) {
+          throw new WarpException(ioe);
+        }
+        put(estimators, entity, estimator, sensisionClass);
+      }
+    }
+    
+    return estimator;
+  }
+  
+  /**
+   * Fuse 'hllp' with the current estimator of 'entity', keeping the most recent estimator as the base
+   */
+  private static void fuse(Map<String,ThrottlingEstimator> estimators, String entity, HyperLogLogPlus hllp, String sensisionClass) throws IOException {
+    synchronized(estimators) {
+      ThrottlingEstimator old = estimators.get(entity);
+      
+      if (null != old && old.hasExpired()) {
+        old = null;
+      }
+      
+      // Merge estimators and replace with the result, keeping the most recent estimator as the base
+      if (null == old || hllp.getInitTime() > old.getInitTime()) {
+        if (null != old) {
+          old.fuseInto(hllp);
+        }
+        put(estimators, entity, new ThrottlingEstimator(hllp), sensisionClass);
+      } else {
+        old.fuse(hllp);
+      }
+    }
+  }
+  
+  /**
+   * Add an estimator, evicting the oldest ones if there are more than ESTIMATOR_CACHE_SIZE.
+   * Must be called while holding the lock of 'estimators'.
+   */
+  private static void put(Map<String,ThrottlingEstimator> estimators, String entity, ThrottlingEstimator estimator, String sensisionClass) {
+    estimators.put(entity, estimator);
+    
+    while (estimators.size() > ESTIMATOR_CACHE_SIZE) {
+      String eldest = null;
+      long sequence = Long.MAX_VALUE;
+      
+      for (Entry<String,ThrottlingEstimator> entry: estimators.entrySet()) {
+        if (entry.getValue().getSequence() < sequence) {
+          sequence = entry.getValue().getSequence();
+          eldest = entry.getKey();
+        }
+      }
+      
+      estimators.remove(eldest);
+    }
+    
+    //
+    // Update estimator cache size
+    //
+    
+    Sensision.set(sensisionClass, Sensision.EMPTY_LABELS, estimators.size());
+  }
+  
   public static Map<String,Object> getLimits(String producer, String app) {
     Map<String,Object> limits = new HashMap<String, Object>();
     
-    RateLimiter producerLimiter = producerRateLimiters.get(producer);
-    RateLimiter applicationLimiter = applicationRateLimiters.get(app);
+    TokenBucket producerLimiter = get(producerRateLimiters, producer);
+    TokenBucket applicationLimiter = get(applicationRateLimiters, app);
 
-    Long oProducerLimit = producerMADSLimits.get(producer);
-    Long oApplicationLimit = applicationMADSLimits.get(app);
+    Long oProducerLimit = get(producerMADSLimits, producer);
+    Long oApplicationLimit = get(applicationMADSLimits, app);
 
     long producerLimit = Long.MAX_VALUE;
     long applicationLimit = Long.MAX_VALUE;
     
-    HyperLogLogPlus prodHLLP = producerHLLPEstimators.get(producer);
-    HyperLogLogPlus appHLLP = applicationHLLPEstimators.get(app);
+    ThrottlingEstimator prodHLLP = get(producerHLLPEstimators, producer);
+    ThrottlingEstimator appHLLP = get(applicationHLLPEstimators, app);
     
     if (null != producerLimiter) {
       limits.put(LIMITS_PRODUCER_RATE_CURRENT, producerLimiter.getRate());
@@ -540,35 +578,29 @@ public class ThrottlingManager {
     }
     
     if (null != prodHLLP) {
-      try {
-        long cardinality = prodHLLP.cardinality();
-        
-        // Change cardinality so it is capped by 'producerLimit', we don't want to expose the
-        // toleranceRatio
-        
-        if (cardinality > producerLimit) {
-          cardinality = producerLimit;
-        }        
-        
-        limits.put(LIMITS_PRODUCER_MADS_CURRENT, cardinality);
-      } catch (IOException ioe) {        
-      }
+      long cardinality = prodHLLP.cardinality();
+      
+      // Change cardinality so it is capped by 'producerLimit', we don't want to expose the
+      // toleranceRatio
+      
+      if (cardinality > producerLimit) {
+        cardinality = producerLimit;
+      }        
+      
+      limits.put(LIMITS_PRODUCER_MADS_CURRENT, cardinality);
     }
     
     if (null != appHLLP) {
-      try {
-        long cardinality = appHLLP.cardinality();
-        
-        // Change cardinality so it is capped by 'producerLimit', we don't want to expose the
-        // toleranceRatio
-        
-        if (cardinality > applicationLimit) {
-          cardinality = applicationLimit;
-        }        
-        
-        limits.put(LIMITS_APPLICATION_MADS_CURRENT, cardinality);
-      } catch (IOException ioe) {        
-      }      
+      long cardinality = appHLLP.cardinality();
+      
+      // Change cardinality so it is capped by 'producerLimit', we don't want to expose the
+      // toleranceRatio
+      
+      if (cardinality > applicationLimit) {
+        cardinality = applicationLimit;
+      }        
+      
+      limits.put(LIMITS_APPLICATION_MADS_CURRENT, cardinality);
     }
     
     return limits;
@@ -782,23 +814,19 @@ public class ThrottlingManager {
                   //
                   
                   if (isProducer) {
-                    synchronized(producerHLLPEstimators) {
-                      producerHLLPEstimators.remove(entity);
-                      Map<String,String> labels = new HashMap<String, String>();
-                      labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, entity);
-                      Sensision.clear(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels);
-                      Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels, 0);
-                      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATOR_RESETS, labels, 1);
-                    }
+                    producerHLLPEstimators.remove(entity);
+                    Map<String,String> labels = new HashMap<String, String>();
+                    labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, entity);
+                    Sensision.clear(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels);
+                    Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT, labels, 0);
+                    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATOR_RESETS, labels, 1);
                   } else {
-                    synchronized(applicationHLLPEstimators) {
-                      applicationHLLPEstimators.remove(entity);
-                      Map<String,String> labels = new HashMap<String, String>();
-                      labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, entity);
-                      Sensision.clear(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels);
-                      Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, 0);
-                      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATOR_RESETS_PER_APP, labels, 1);
-                    }
+                    applicationHLLPEstimators.remove(entity);
+                    Map<String,String> labels = new HashMap<String, String>();
+                    labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, entity);
+                    Sensision.clear(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels);
+                    Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_GTS_DISTINCT_PER_APP, labels, 0);
+                    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATOR_RESETS_PER_APP, labels, 1);
                   }
                 } else if (!"".equals(estimator)) {                  
                   byte[] ser = OrderPreservingBase64.decode(estimator.getBytes(Charsets.US_ASCII));
@@ -820,43 +848,11 @@ public class ThrottlingManager {
                   // Retrieve current estimator
                   
                   if (isProducer) {
-                
-                    isProducer = true;
-                    
-                    HyperLogLogPlus old = producerHLLPEstimators.get(entity);
-
-                    // Merge estimators and replace with the result, keeping the most recent estimator as the base
-                    if (null == old || hllp.getInitTime() > old.getInitTime()) {
-                      if (null != old){
-                        hllp.fuse(old);
-                      }
-                      
-                      hllp.setKey(entity);
-                      
-                      synchronized(producerHLLPEstimators) {
-                        producerHLLPEstimators.put(entity, hllp);                      
-                      }
-                    } else {
-                      old.fuse(hllp);
-                    }                    
+                    hllp.setKey(entity);
+                    fuse(producerHLLPEstimators, entity, hllp, SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED);
                   } else {
-                    HyperLogLogPlus old = applicationHLLPEstimators.get(entity);
-
-                    // Merge estimators and replace with the result, keeping the most recent estimator as the base
-                    if (null == old || hllp.getInitTime() > old.getInitTime()) {
-                      if (null != old) {
-                        hllp.fuse(old);
-                      }
-
-                      hllp.setKey(APPLICATION_PREFIX_CHAR + entity);
-                      
-                      synchronized(applicationHLLPEstimators) {
-                        applicationHLLPEstimators.put(entity, hllp);                      
-                      }
-                    } else {
-                      old.fuse(hllp);
-                    }
-
+                    hllp.setKey(APPLICATION_PREFIX_CHAR + entity);
+                    fuse(applicationHLLPEstimators, entity, hllp, SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED_PER_APP);
                   }
                 }
                 
@@ -884,11 +880,11 @@ public class ThrottlingManager {
                   double rlimit = Double.parseDouble(rate);
                   
                   if (isProducer) {
-                    producerRateLimiters.put(entity, RateLimiter.create(Math.max(MINIMUM_RATE_LIMIT, rlimit)));
+                    producerRateLimiters.put(entity, new TokenBucket(Math.max(MINIMUM_RATE_LIMIT, rlimit)));
                     labels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, entity);
                     Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_LIMIT, labels, rlimit);
                   } else {
-                    applicationRateLimiters.put(entity, RateLimiter.create(Math.max(MINIMUM_RATE_LIMIT, rlimit)));
+                    applicationRateLimiters.put(entity, new TokenBucket(Math.max(MINIMUM_RATE_LIMIT, rlimit)));
                     labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, entity);
                     Sensision.event(SensisionConstants.SENSISION_CLASS_CONTINUUM_THROTTLING_RATE_LIMIT_PER_APP, labels, rlimit);
                   }
@@ -929,7 +925,7 @@ public class ThrottlingManager {
             keys.addAll(producerHLLPEstimators.keySet());
 
             for (String key: keys) {
-              HyperLogLogPlus hllp = producerHLLPEstimators.get(key);
+              ThrottlingEstimator hllp = producerHLLPEstimators.get(key);
               
               if (null == hllp) {
                 continue;
@@ -956,7 +952,7 @@ public class ThrottlingManager {
             keys.addAll(applicationHLLPEstimators.keySet());
             
             for (String key: keys) {
-              HyperLogLogPlus hllp = applicationHLLPEstimators.get(key);
+              ThrottlingEstimator hllp = applicationHLLPEstimators.get(key);
               
               if (null == hllp) {
                 continue;
@@ -1049,43 +1045,9 @@ public class ThrottlingManager {
     }
     
     if (isApp) {
-      HyperLogLogPlus old = applicationHLLPEstimators.get(hllp.getKey().substring(1));
-
-      if (null != old && old.hasExpired()) {
-        old = null;
-      }
-      
-      // Merge estimators and replace with the result, keeping the most recent estimator as the base
-      if (null == old || hllp.getInitTime() > old.getInitTime()) {
-        if (null != old) {
-          hllp.fuse(old);
-        }
-
-        synchronized(applicationHLLPEstimators) {
-          applicationHLLPEstimators.put(hllp.getKey().substring(1), hllp);                      
-        }
-      } else {
-        old.fuse(hllp);
-      }      
+      fuse(applicationHLLPEstimators, hllp.getKey().substring(1), hllp, SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED_PER_APP);
     } else {
-      HyperLogLogPlus old = producerHLLPEstimators.get(hllp.getKey());
-
-      if (null != old && old.hasExpired()) {
-        old = null;
-      }
-      
-      // Merge estimators and replace with the result, keeping the most recent estimator as the base
-      if (null == old || hllp.getInitTime() > old.getInitTime()) {
-        if (null != old){
-          hllp.fuse(old);
-        }
-        
-        synchronized(producerHLLPEstimators) {
-          producerHLLPEstimators.put(hllp.getKey(), hllp);                      
-        }
-      } else {
-        old.fuse(hllp);
-      }                          
+      fuse(producerHLLPEstimators, hllp.getKey(), hllp, SensisionConstants.SENSISION_CLASS_CONTINUUM_ESTIMATORS_CACHED);
     }
   }
   
@@ -1105,7 +1067,7 @@ public class ThrottlingManager {
         pw.println("### Automatic throttling configuration dumped on " + ISODateTimeFormat.dateTime().print(System.currentTimeMillis()));
         pw.println("###");
         
-        Set<String> keys = producerHLLPEstimators.keySet();
+        Set<String> keys = new HashSet<String>(producerHLLPEstimators.keySet());
         keys.addAll(producerRateLimiters.keySet());
         
         for (String key: keys) {
@@ -1116,18 +1078,19 @@ public class ThrottlingManager {
             pw.print(limit);
           }
           pw.print(":");
-          RateLimiter limiter = producerRateLimiters.get(key);
+          TokenBucket limiter = producerRateLimiters.get(key);
           if (null != limiter) {
             pw.print(limiter.getRate());
           }
           pw.print(":");
-          if (producerHLLPEstimators.containsKey(key)) {
-            pw.print(new String(OrderPreservingBase64.encode(producerHLLPEstimators.get(key).toBytes()), Charsets.US_ASCII));
+          ThrottlingEstimator estimator = producerHLLPEstimators.get(key);
+          if (null != estimator) {
+            pw.print(new String(OrderPreservingBase64.encode(estimator.toBytes()), Charsets.US_ASCII));
           }
           pw.println(":#");
         }
         
-        keys = applicationHLLPEstimators.keySet();
+        keys = new HashSet<String>(applicationHLLPEstimators.keySet());
         keys.addAll(applicationRateLimiters.keySet());
         
         for (String key: keys) {
@@ -1139,13 +1102,14 @@ public class ThrottlingManager {
             pw.print(limit);
           }
           pw.print(":");
-          RateLimiter limiter = applicationRateLimiters.get(key);
+          TokenBucket limiter = applicationRateLimiters.get(key);
           if (null != limiter) {
             pw.print(limiter.getRate());
           }
           pw.print(":");
-          if (applicationHLLPEstimators.containsKey(key)) {
-            pw.print(new String(OrderPreservingBase64.encode(applicationHLLPEstimators.get(key).toBytes()), Charsets.US_ASCII));
+          ThrottlingEstimator estimator = applicationHLLPEstimators.get(key);
+          if (null != estimator) {
+            pw.print(new String(OrderPreservingBase64.encode(estimator.toBytes()), Charsets.US_ASCII));
           }
           pw.println(":#");
         }
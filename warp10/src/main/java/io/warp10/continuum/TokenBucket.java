@@ -0,0 +1,108 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Lock free rate limiter used by the ThrottlingManager.
+ *
+ * It behaves like a Guava RateLimiter created with RateLimiter.create(rate): permits unused
+ * during the last second are stored and a request only waits for the permits reserved by the
+ * previous ones. The whole state is the theoretical time at which all reserved permits
+ * will have been issued, it is updated with a single CAS.
+ */
+public class TokenBucket {
+
+  private static final long NANOS_PER_SECOND = 1000000000L;
+
+  /**
+   * Maximum cost (in ns) of a single request, so 'tat' cannot overflow
+   */
+  private static final long MAX_COST = 100L * 365L * 86400L * NANOS_PER_SECOND;
+
+  /**
+   * Number of permits per second
+   */
+  private final double rate;
+
+  /**
+   * Number of ns between two permits
+   */
+  private final double interval;
+
+  /**
+   * Maximum span (in ns) of stored permits
+   */
+  private final long burst;
+
+  /**
+   * Theoretical arrival time (System.nanoTime) of the next free permit
+   */
+  private final AtomicLong tat;
+
+  public TokenBucket(double rate) {
+    if (!(rate > 0.0D)) {
+      throw new IllegalArgumentException("Rate must be positive.");
+    }
+    this.rate = rate;
+    this.interval = NANOS_PER_SECOND / rate;
+    this.burst = NANOS_PER_SECOND;
+    this.tat = new AtomicLong(System.nanoTime());
+  }
+
+  public double getRate() {
+    return this.rate;
+  }
+
+  /**
+   * Acquire 'permits' permits if they can be obtained without waiting more than 'timeout'.
+   *
+   * @return true if the permits were acquired (after waiting if needed), false otherwise
+   */
+  public boolean tryAcquire(int permits, long timeout, TimeUnit unit) {
+    if (permits <= 0) {
+      return true;
+    }
+
+    long timeoutNanos = Math.max(0L, unit.toNanos(timeout));
+    long cost = (long) Math.min(permits * this.interval, (double) MAX_COST);
+
+    while(true) {
+      long now = System.nanoTime();
+      long current = this.tat.get();
+
+      // Permits unused during the last 'burst' ns are still available
+      long start = current - (now - this.burst) > 0 ? current : now - this.burst;
+      long wait = start - now;
+
+      if (wait > timeoutNanos) {
+        return false;
+      }
+
+      if (this.tat.compareAndSet(current, start + cost)) {
+        if (wait > 0) {
+          Uninterruptibles.sleepUninterruptibly(wait, TimeUnit.NANOSECONDS);
+        }
+        return true;
+      }
+    }
+  }
+}
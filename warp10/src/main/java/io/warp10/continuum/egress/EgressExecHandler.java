@@ -35,6 +35,7 @@ import io.warp10.script.WarpScriptLib;
 import io.warp10.script.WarpScriptStack;
 import io.warp10.script.WarpScriptStopException;
 import io.warp10.script.MemoryWarpScriptStack;
+import io.warp10.script.ParsedScript;
 import io.warp10.script.StackUtils;
 import io.warp10.script.WarpScriptStack.StackContext;
 import io.warp10.sensision.Sensision;
@@ -47,6 +48,8 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.URL;
 import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.EmptyStackException;
 import java.util.Enumeration;
@@ -63,11 +66,15 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.codec.binary.Hex;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.inject.Singleton;
 
 @Singleton
@@ -86,6 +93,23 @@ public class EgressExecHandler extends AbstractHandler {
 
   private final BootstrapManager bootstrapManager;
   
+  /**
+   * Placeholder cached for scripts which cannot be parsed independently of the stack executing them
+   */
+  private static final Object UNCACHEABLE = new Object();
+  
+  private static final String DEFAULT_CACHE_MAXSCRIPTSIZE = "65536";
+  
+  /**
+   * Parsed scripts keyed by the SHA-256 of their content, null if caching is disabled
+   */
+  private final Cache<String,Object> scripts;
+  
+  /**
+   * Size in characters above which scripts are not cached
+   */
+  private final long maxScriptSize;
+  
   public EgressExecHandler(KeyStore keyStore, Properties properties, DirectoryClient directoryClient, GeoDirectoryClient geoDirectoryClient, StoreClient storeClient) {
     this.keyStore = keyStore;
     this.storeClient = storeClient;
@@ -110,6 +134,16 @@ public class EgressExecHandler extends AbstractHandler {
       exposedStoreClient = storeClient;
       exposedDirectoryClient = directoryClient;
     }
+    
+    long cacheSize = Long.parseLong(properties.getProperty(Configuration.EGRESS_EXEC_CACHE_SIZE, "0"));
+    
+    if (cacheSize > 0) {
+      this.scripts = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+    } else {
+      this.scripts = null;
+    }
+    
+    this.maxScriptSize = Long.parseLong(properties.getProperty(Configuration.EGRESS_EXEC_CACHE_MAXSCRIPTSIZE, DEFAULT_CACHE_MAXSCRIPTSIZE));
   }    
   
   @Override
@@ -254,6 +288,46 @@ public class EgressExecHandler extends AbstractHandler {
         br = req.getReader();
       }
                   
+      //
+      // When the parsed script cache is enabled, read the body so it can be looked up
+      //
+      
+      List<String> lines = null;
+      ParsedScript parsed = null;
+      
+      if (null != this.scripts) {
+        if (!((MemoryWarpScriptStack) stack).getDefined().isEmpty() || Boolean.TRUE.equals(stack.getAttribute(WarpScriptStack.ATTRIBUTE_LINENO))) {
+          //
+          // Functions redefined by the bootstrap and line numbering change how the code is parsed
+          //
+          
+          Sensision.update(SensisionConstants.SENSISION_CLASS_EINSTEIN_CACHE_UNCACHEABLE, Sensision.EMPTY_LABELS, 1);
+        } else {
+          lines = new ArrayList<String>();
+          
+          //
+          // Large scripts usually carry inline data, do not let them fill the cache nor the memory.
+          // Buffering stops once the script is known to be too large, the buffered lines are then
+          // executed first and the rest of the script is read line by line.
+          //
+          
+          long size = 0L;
+          
+          String line;
+          
+          while(size <= this.maxScriptSize && null != (line = br.readLine())) {
+            lines.add(line);
+            size += line.length() + 1;
+          }
+          
+          if (size > this.maxScriptSize) {
+            Sensision.update(SensisionConstants.SENSISION_CLASS_EINSTEIN_CACHE_UNCACHEABLE, Sensision.EMPTY_LABELS, 1);
+          } else {
+            parsed = getParsedScript(lines);
+          }
+        }
+      }
+      
       List<Long> elapsed = (List<Long>) stack.getAttribute(WarpScriptStack.ATTRIBUTE_ELAPSED);
       
       elapsed.add(TimeSource.getNanoTime());
@@ -261,7 +335,13 @@ public class EgressExecHandler extends AbstractHandler {
       boolean terminate = false;
       
       while(!terminate) {
-        String line = br.readLine();
+        String line;
+        
+        if (null != lines && lineno < lines.size()) {
+          line = lines.get(lineno);
+        } else {
+          line = br.readLine();
+        }
         
         if (null == line) {
           break;
@@ -280,7 +360,11 @@ public class EgressExecHandler extends AbstractHandler {
             stack.exec("'[Line #" + Long.toString(lineno) + "]'");
             stack.exec(WarpScriptLib.SECTION);
           }
-          stack.exec(line);
+          if (null != parsed) {
+            parsed.exec((MemoryWarpScriptStack) stack, lineno);
+          } else {
+            stack.exec(line);
+          }
         } catch (WarpScriptStopException ese) {
           // Do nothing, this is simply an early termination which should not generate errors
           terminate = true;
@@ -459,6 +543,55 @@ public class EgressExecHandler extends AbstractHandler {
     }
   }
   
+  /**
+   * Return the parsed version of 'lines' from the cache, parsing them if needed.
+   * Return null if the lines must be executed by the stack itself.
+   */
+  private ParsedScript getParsedScript(List<String> lines) {
+    String key = hash(lines);
+    
+    Object parsed = this.scripts.getIfPresent(key);
+    
+    if (null != parsed) {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_EINSTEIN_CACHE_HITS, Sensision.EMPTY_LABELS, 1);
+    } else {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_EINSTEIN_CACHE_MISSES, Sensision.EMPTY_LABELS, 1);
+      
+      parsed = ParsedScript.parse(lines);
+      
+      if (null == parsed) {
+        parsed = UNCACHEABLE;
+      }
+      
+      this.scripts.put(key, parsed);
+    }
+    
+    if (UNCACHEABLE == parsed) {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_EINSTEIN_CACHE_UNCACHEABLE, Sensision.EMPTY_LABELS, 1);
+      return null;
+    }
+    
+    return (ParsedScript) parsed;
+  }
+  
+  /**
+   * Return the hex encoded SHA-256 of 'lines', each line being followed by a newline
+   */
+  private static String hash(List<String> lines) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      
+      for (String line: lines) {
+        md.update(line.getBytes(Charsets.UTF_8));
+        md.update((byte) '\n');
+      }
+      
+      return Hex.encodeHexString(md.digest());
+    } catch (NoSuchAlgorithmException nsae) {
+      throw new RuntimeException(nsae);
+    }
+  }
+  
   public static final StoreClient getExposedStoreClient() {
     return exposedStoreClient;
   }
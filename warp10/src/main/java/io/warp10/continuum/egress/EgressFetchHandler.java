@@ -19,11 +19,13 @@ package io.warp10.continuum.egress;
 import io.warp10.continuum.Configuration;
 import io.warp10.continuum.TimeSource;
 import io.warp10.continuum.Tokens;
+import io.warp10.continuum.gts.GTSColumnarWriter;
 import io.warp10.continuum.gts.GTSDecoder;
 import io.warp10.continuum.gts.GTSEncoder;
 import io.warp10.continuum.gts.GTSHelper;
 import io.warp10.continuum.gts.GTSWrapperHelper;
 import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
 import io.warp10.continuum.sensision.SensisionConstants;
 import io.warp10.continuum.store.Constants;
 import io.warp10.continuum.store.DirectoryClient;
@@ -713,90 +715,111 @@ public class EgressFetchHandler extends AbstractHandler {
           
       metas = new ArrayList<Metadata>();
 
-      PrintWriter pw = resp.getWriter();
+      PrintWriter pw = null;
+      GTSColumnarWriter columnar = null;
+      
+      if ("columnar".equals(format)) {
+        resp.setContentType(GTSColumnarWriter.CONTENT_TYPE);
+        columnar = new GTSColumnarWriter(resp.getOutputStream());
+      } else {
+        pw = resp.getWriter();
+      }
       
       AtomicReference<Metadata> lastMeta = new AtomicReference<Metadata>(null);
       AtomicLong lastCount = new AtomicLong(0L);
       
       long fetchtimespan = timespan;
       
-      for (Iterator<Metadata> itermeta: iterators) {
-        while(itermeta.hasNext()) {
-          metas.add(itermeta.next());
+      try {
+        for (Iterator<Metadata> itermeta: iterators) {
+          while(itermeta.hasNext()) {
+            metas.add(itermeta.next());
           
-          //
-          // Access the data store every 'FETCH_BATCHSIZE' GTS or at the end of each iterator
-          //
+            //
+            // Access the data store every 'FETCH_BATCHSIZE' GTS or at the end of each iterator
+            //
           
-          if (metas.size() > FETCH_BATCHSIZE || !itermeta.hasNext()) {
-            try(GTSDecoderIterator iterrsc = storeClient.fetch(rtoken, metas, now, fetchtimespan, fromArchive, writeTimestamp)) {
-              GTSDecoderIterator iter = iterrsc;
+            if (metas.size() > FETCH_BATCHSIZE || !itermeta.hasNext()) {
+              try(GTSDecoderIterator iterrsc = storeClient.fetch(rtoken, metas, now, fetchtimespan, fromArchive, writeTimestamp)) {
+                GTSDecoderIterator iter = iterrsc;
                           
-              if (unpack) {
-                iter = new UnpackingGTSDecoderIterator(iter, suffix);
-                timespan = Long.MIN_VALUE + 1;
-              }
+                if (unpack) {
+                  iter = new UnpackingGTSDecoderIterator(iter, suffix);
+                  timespan = Long.MIN_VALUE + 1;
+                }
               
-              if("text".equals(format)) {
-                textDump(pw, iter, now, timespan, false, dedup, signed, showAttr, lastMeta, lastCount, sortMeta);
-              } else if ("fulltext".equals(format)) {
-                textDump(pw, iter, now, timespan, true, dedup, signed, showAttr, lastMeta, lastCount, sortMeta);
-              } else if ("raw".equals(format)) {
-                rawDump(pw, iter, dedup, signed, timespan, lastMeta, lastCount, sortMeta);
-              } else if ("wrapper".equals(format)) {
-                wrapperDump(pw, iter, dedup, signed, fetchPSK, timespan, lastMeta, lastCount);
-              } else if ("json".equals(format)) {
-                jsonDump(pw, iter, now, timespan, dedup, signed, lastMeta, lastCount);
-              } else if ("tsv".equals(format)) {
-                tsvDump(pw, iter, now, timespan, false, dedup, signed, lastMeta, lastCount, sortMeta);
-              } else if ("fulltsv".equals(format)) {
-                tsvDump(pw, iter, now, timespan, true, dedup, signed, lastMeta, lastCount, sortMeta);
-              } else if ("pack".equals(format)) {
-                packedDump(pw, iter, now, timespan, dedup, signed, lastMeta, lastCount, maxDecoderLen, suffix, chunksize, sortMeta);
-              } else if ("null".equals(format)) {
-                nullDump(iter);
-              } else {
-                textDump(pw, iter, now, timespan, false, dedup, signed, showAttr, lastMeta, lastCount, sortMeta);
-              }
-            } catch (Throwable t) {
-              LOG.error("",t);
-              Sensision.update(SensisionConstants.CLASS_WARP_FETCH_ERRORS, Sensision.EMPTY_LABELS, 1);
-              if (showErrors) {
-                pw.println();
-                StringWriter sw = new StringWriter();
-                PrintWriter pw2 = new PrintWriter(sw);
-                t.printStackTrace(pw2);
-                pw2.close();
-                sw.flush();
-                String error = URLEncoder.encode(sw.toString(), "UTF-8");
-                pw.println(Constants.EGRESS_FETCH_ERROR_PREFIX + error);
-              }
-              throw new IOException(t);
-            } finally {      
-              if (!itermeta.hasNext() && (itermeta instanceof MetadataIterator)) {
-                try {
-                  ((MetadataIterator) itermeta).close();
-                } catch (Exception e) {          
+                if("text".equals(format)) {
+                  textDump(pw, iter, now, timespan, false, dedup, signed, showAttr, lastMeta, lastCount, sortMeta);
+                } else if ("fulltext".equals(format)) {
+                  textDump(pw, iter, now, timespan, true, dedup, signed, showAttr, lastMeta, lastCount, sortMeta);
+                } else if ("raw".equals(format)) {
+                  rawDump(pw, iter, dedup, signed, timespan, lastMeta, lastCount, sortMeta);
+                } else if ("wrapper".equals(format)) {
+                  wrapperDump(pw, iter, dedup, signed, fetchPSK, timespan, lastMeta, lastCount);
+                } else if ("json".equals(format)) {
+                  jsonDump(pw, iter, now, timespan, dedup, signed, lastMeta, lastCount);
+                } else if ("tsv".equals(format)) {
+                  tsvDump(pw, iter, now, timespan, false, dedup, signed, lastMeta, lastCount, sortMeta);
+                } else if ("fulltsv".equals(format)) {
+                  tsvDump(pw, iter, now, timespan, true, dedup, signed, lastMeta, lastCount, sortMeta);
+                } else if ("pack".equals(format)) {
+                  packedDump(pw, iter, now, timespan, dedup, signed, lastMeta, lastCount, maxDecoderLen, suffix, chunksize, sortMeta);
+                } else if ("columnar".equals(format)) {
+                  columnarDump(columnar, iter, now, timespan, dedup, signed, lastMeta, lastCount);
+                } else if ("null".equals(format)) {
+                  nullDump(iter);
+                } else {
+                  textDump(pw, iter, now, timespan, false, dedup, signed, showAttr, lastMeta, lastCount, sortMeta);
                 }
-              }
-            }                  
+              } catch (Throwable t) {
+                LOG.error("",t);
+                Sensision.update(SensisionConstants.CLASS_WARP_FETCH_ERRORS, Sensision.EMPTY_LABELS, 1);
+                if (showErrors && null != pw) {
+                  pw.println();
+                  StringWriter sw = new StringWriter();
+                  PrintWriter pw2 = new PrintWriter(sw);
+                  t.printStackTrace(pw2);
+                  pw2.close();
+                  sw.flush();
+                  String error = URLEncoder.encode(sw.toString(), "UTF-8");
+                  pw.println(Constants.EGRESS_FETCH_ERROR_PREFIX + error);
+                }
+                throw new IOException(t);
+              } finally {      
+                if (!itermeta.hasNext() && (itermeta instanceof MetadataIterator)) {
+                  try {
+                    ((MetadataIterator) itermeta).close();
+                  } catch (Exception e) {          
+                  }
+                }
+              }                  
             
-            //
-            // Reset 'metas'
-            //
+              //
+              // Reset 'metas'
+              //
             
-            metas.clear();
-          }        
-        }
+              metas.clear();
+            }        
+          }
         
-        if (!itermeta.hasNext() && (itermeta instanceof MetadataIterator)) {
-          try {
-            ((MetadataIterator) itermeta).close();
-          } catch (Exception e) {          
+          if (!itermeta.hasNext() && (itermeta instanceof MetadataIterator)) {
+            try {
+              ((MetadataIterator) itermeta).close();
+            } catch (Exception e) {          
+            }
           }
         }
-      }
 
+        if (null != columnar) {
+          columnar.close();
+        }
+      } finally {
+        // Release the compressor if the output was abandoned, this has no effect once it was closed
+        if (null != columnar) {
+          columnar.release();
+        }
+      }
+      
       Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_REQUESTS, labels, 1);      
     } catch (Exception e) {
       if (!resp.isCommitted()) {
@@ -889,7 +912,7 @@ public class EgressFetchHandler extends AbstractHandler {
         GTSEncoder enc = new GTSEncoder();
         enc.safeSetMetadata(decoder.getMetadata());
         while(decoder.next() && toDecodeCount > 0) {
-          enc.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getValue());
+          enc.addValue(decoder);
           toDecodeCount--;
         }
         encoder = enc;
@@ -918,6 +941,83 @@ public class EgressFetchHandler extends AbstractHandler {
     lastCount.set(currentCount);
   }
 
+  /**
+   * Output fetched data in the columnar format, datapoints are filtered the same way as in jsonDump.
+   */
+  private static void columnarDump(GTSColumnarWriter writer, GTSDecoderIterator iter, long now, long timespan, boolean dedup, boolean signed, AtomicReference<Metadata> lastMeta, AtomicLong lastCount) throws IOException {
+    
+    Metadata lastMetadata = lastMeta.get();
+    long currentCount = lastCount.get();
+    
+    while(iter.hasNext()) {
+      GTSDecoder decoder = iter.next();
+      
+      if (dedup) {
+        decoder = decoder.dedup();
+      }
+      
+      if (!decoder.next()) {
+        continue;
+      }
+      
+      long toDecodeCount = Long.MAX_VALUE;
+      
+      if (timespan < 0) {
+        Metadata meta = decoder.getMetadata();
+        if (!meta.equals(lastMetadata)) {
+          lastMetadata = meta;
+          currentCount = 0;
+        }
+        toDecodeCount = Math.max(0, -timespan - currentCount);
+      }
+      
+      //
+      // Only keep the class and labels, skipping owner/producer labels if the request is not signed
+      //
+      
+      Metadata metadata = new Metadata();
+      metadata.setName(decoder.getName());
+      metadata.setLabels(new HashMap<String,String>(decoder.getLabels()));
+      
+      if (!signed) {
+        metadata.getLabels().remove(Constants.PRODUCER_LABEL);
+        metadata.getLabels().remove(Constants.OWNER_LABEL);
+      }
+      
+      long decoded = 0L;
+      
+      do {
+        if (toDecodeCount == decoded) {
+          break;
+        }
+        
+        //
+        // Filter out any value not in the time range
+        //
+        
+        if (decoder.getTimestamp() > now || (timespan >= 0 && decoder.getTimestamp() <= (now - timespan))) {
+          continue;
+        }
+        
+        // Start the GTS only if we have at least one value to output
+        if (0 == decoded) {
+          writer.startSeries(metadata);
+        }
+        
+        decoded++;
+        
+        writer.addValue(decoder);
+      } while (decoder.next());
+      
+      if (timespan < 0) {
+        currentCount += decoded;
+      }
+    }
+    
+    lastMeta.set(lastMetadata);
+    lastCount.set(currentCount);
+  }
+  
   private static void wrapperDump(PrintWriter pw, GTSDecoderIterator iter, boolean dedup, boolean signed, byte[] fetchPSK, long timespan, AtomicReference<Metadata> lastMeta, AtomicLong lastCount) throws IOException {
 
     if (!signed) {
@@ -961,7 +1061,7 @@ public class EgressFetchHandler extends AbstractHandler {
         GTSEncoder enc = new GTSEncoder();
         enc.safeSetMetadata(decoder.getMetadata());
         while(decoder.next() && toDecodeCount > 0) {
-          enc.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getValue());
+          enc.addValue(decoder);
           toDecodeCount--;
         }
         encoder = enc;
@@ -1153,6 +1253,14 @@ public class EgressFetchHandler extends AbstractHandler {
       long timestamp = 0L;
       long location = GeoTimeSerie.NO_LOCATION;
       long elevation = GeoTimeSerie.NO_ELEVATION;
+      //
+      // LONG and DOUBLE values are kept as primitives so they are never boxed,
+      // 'value' holds values of other types and DOUBLE values encoded as BigDecimal
+      //
+      
+      TYPE type = null;
+      long longValue = 0L;
+      double doubleValue = 0.0D;
       Object value = null;
       
       boolean dup = true;
@@ -1183,31 +1291,36 @@ public class EgressFetchHandler extends AbstractHandler {
         
         long newLocation = decoder.getLocation();
         long newElevation = decoder.getElevation();
-        Object newValue = decoder.getValue();
+        TYPE newType = decoder.getType();
+        long newLongValue = 0L;
+        double newDoubleValue = 0.0D;
+        Object newValue = null;
+        
+        if (TYPE.LONG == newType) {
+          newLongValue = decoder.getLongValue();
+        } else if (TYPE.DOUBLE == newType && null == decoder.getBigDecimalValue()) {
+          newDoubleValue = decoder.getDoubleValue();
+        } else {
+          newValue = decoder.getValue();
+        }
         
         dup = true;
         
         if (dedup) {
-          if (location != newLocation || elevation != newElevation) {
+          if (location != newLocation || elevation != newElevation || type != newType) {
             dup = false;
-          } else {
-            if (null == newValue) {
-              // Consider nulls as duplicates (can't happen!)
+          } else if (TYPE.LONG == newType) {
+            if (newLongValue != longValue) {
               dup = false;
-            } else if (newValue instanceof Number) {
-              if (!((Number) newValue).equals(value)) {
-                dup = false;
-              }
-            } else if (newValue instanceof String) {
-              if (!((String) newValue).equals(value)) {
-                dup = false;
-              }
-            } else if (newValue instanceof Boolean) {
-              if (!((Boolean) newValue).equals(value)) {
-                dup = false;
-              }
             }
-          }          
+          } else if (null == newValue) {
+            // Consider nulls as duplicates (can't happen!), compare doubles like Double#equals
+            if (TYPE.DOUBLE != newType || null != value || Double.doubleToLongBits(newDoubleValue) != Double.doubleToLongBits(doubleValue)) {
+              dup = false;
+            }
+          } else if (!newValue.equals(value)) {
+            dup = false;
+          }
         }
 
         decoded++;
@@ -1215,26 +1328,26 @@ public class EgressFetchHandler extends AbstractHandler {
         location = newLocation;
         elevation = newElevation;
         timestamp = newTimestamp;
+        type = newType;
+        longValue = newLongValue;
+        doubleValue = newDoubleValue;
         value = newValue;
             
         if (raw) {
           if (!dedup || !dup) {
-            pw.println(GTSHelper.tickToString(sb, timestamp, location, elevation, value));
+            pw.println(GTSHelper.tickToString(sb, timestamp, location, elevation, type, longValue, doubleValue, value));
           }
         } else {
           // Display the name only if we have at least one value to display
           // We force 'dup' to be false when we must show the name
           if (displayName) {
-            pw.println(GTSHelper.tickToString(sb, decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getValue()));
+            pw.println(GTSHelper.tickToString(sb, timestamp, location, elevation, type, longValue, doubleValue, value));
             displayName = false;
             dup = false;
           } else {
             if (!dedup || !dup) {
               pw.print("=");
-              pw.println(GTSHelper.tickToString(timestamp,
-                  location,
-                  elevation,
-                  value));                                    
+              pw.println(GTSHelper.tickToString(null, timestamp, location, elevation, type, longValue, doubleValue, value));                                    
             }
           }
         }
@@ -1248,13 +1361,10 @@ public class EgressFetchHandler extends AbstractHandler {
       // Print any remaining value
       if (dedup && dup) {
         if (raw) {
-          pw.println(GTSHelper.tickToString(sb, timestamp, location, elevation, value));          
+          pw.println(GTSHelper.tickToString(sb, timestamp, location, elevation, type, longValue, doubleValue, value));          
         } else {
           pw.print("=");
-          pw.println(GTSHelper.tickToString(timestamp,
-              location,
-              elevation,
-              value));                                              
+          pw.println(GTSHelper.tickToString(null, timestamp, location, elevation, type, longValue, doubleValue, value));                                              
         }
       }
       
@@ -1443,15 +1553,24 @@ public class EgressFetchHandler extends AbstractHandler {
             pw.print(decoder.getElevation());
           }
           pw.print(",");
-          Object value = decoder.getValue();
           
-          if (value instanceof Number) {
-            pw.print(value);
-          } else if (value instanceof Boolean) {
-            pw.print(Boolean.TRUE.equals(value) ? "true" : "false");
+          TYPE type = decoder.getType();
+          
+          if (TYPE.LONG == type) {
+            pw.print(decoder.getLongValue());
+          } else if (TYPE.DOUBLE == type && null == decoder.getBigDecimalValue()) {
+            pw.print(decoder.getDoubleValue());
           } else {
-            //pw.print(gson.toJson(value.toString()));
-            pw.print(serializer.serialize(value.toString()));
+            Object value = decoder.getValue();
+            
+            if (value instanceof Number) {
+              pw.print(value);
+            } else if (value instanceof Boolean) {
+              pw.print(Boolean.TRUE.equals(value) ? "true" : "false");
+            } else {
+              //pw.print(gson.toJson(value.toString()));
+              pw.print(serializer.serialize(value.toString()));
+            }
           }
           pw.print("]");
         } while (decoder.next());        
@@ -1588,6 +1707,14 @@ public class EgressFetchHandler extends AbstractHandler {
       long timestamp = 0L;
       long location = GeoTimeSerie.NO_LOCATION;
       long elevation = GeoTimeSerie.NO_ELEVATION;
+      //
+      // LONG and DOUBLE values are kept as primitives so they are never boxed,
+      // 'value' holds values of other types and DOUBLE values encoded as BigDecimal
+      //
+      
+      TYPE type = null;
+      long longValue = 0L;
+      double doubleValue = 0.0D;
       Object value = null;
       
       boolean dup = true;
@@ -1616,31 +1743,36 @@ public class EgressFetchHandler extends AbstractHandler {
         
         long newLocation = decoder.getLocation();
         long newElevation = decoder.getElevation();
-        Object newValue = decoder.getValue();
+        TYPE newType = decoder.getType();
+        long newLongValue = 0L;
+        double newDoubleValue = 0.0D;
+        Object newValue = null;
+        
+        if (TYPE.LONG == newType) {
+          newLongValue = decoder.getLongValue();
+        } else if (TYPE.DOUBLE == newType && null == decoder.getBigDecimalValue()) {
+          newDoubleValue = decoder.getDoubleValue();
+        } else {
+          newValue = decoder.getValue();
+        }
         
         dup = true;
         
         if (dedup) {
-          if (location != newLocation || elevation != newElevation) {
+          if (location != newLocation || elevation != newElevation || type != newType) {
             dup = false;
-          } else {
-            if (null == newValue) {
-              // Consider nulls as duplicates (can't happen!)
+          } else if (TYPE.LONG == newType) {
+            if (newLongValue != longValue) {
               dup = false;
-            } else if (newValue instanceof Number) {
-              if (!((Number) newValue).equals(value)) {
-                dup = false;
-              }
-            } else if (newValue instanceof String) {
-              if (!((String) newValue).equals(value)) {
-                dup = false;
-              }
-            } else if (newValue instanceof Boolean) {
-              if (!((Boolean) newValue).equals(value)) {
-                dup = false;
-              }
             }
-          }          
+          } else if (null == newValue) {
+            // Consider nulls as duplicates (can't happen!), compare doubles like Double#equals
+            if (TYPE.DOUBLE != newType || null != value || Double.doubleToLongBits(newDoubleValue) != Double.doubleToLongBits(doubleValue)) {
+              dup = false;
+            }
+          } else if (!newValue.equals(value)) {
+            dup = false;
+          }
         }
                 
         decoded++;
@@ -1648,6 +1780,9 @@ public class EgressFetchHandler extends AbstractHandler {
         location = newLocation;
         elevation = newElevation;
         timestamp = newTimestamp;
+        type = newType;
+        longValue = newLongValue;
+        doubleValue = newDoubleValue;
         value = newValue;
             
         if (raw) {
@@ -1679,7 +1814,7 @@ public class EgressFetchHandler extends AbstractHandler {
             pw.print('\t');
             
             valueSB.setLength(0);
-            GTSHelper.encodeValue(valueSB, value);
+            GTSHelper.encodeValue(valueSB, type, longValue, doubleValue, value);
             pw.println(valueSB);
           }
         } else {
@@ -1718,7 +1853,7 @@ public class EgressFetchHandler extends AbstractHandler {
             pw.print('\t');
             
             valueSB.setLength(0);
-            GTSHelper.encodeValue(valueSB, value);
+            GTSHelper.encodeValue(valueSB, type, longValue, doubleValue, value);
             pw.println(valueSB);
           }
         }
@@ -1759,7 +1894,7 @@ public class EgressFetchHandler extends AbstractHandler {
           pw.print('\t');
             
           valueSB.setLength(0);
-          GTSHelper.encodeValue(valueSB, value);
+          GTSHelper.encodeValue(valueSB, type, longValue, doubleValue, value);
           pw.println(valueSB);
         } else {
           pw.print(timestamp);
@@ -1781,7 +1916,7 @@ public class EgressFetchHandler extends AbstractHandler {
           pw.print('\t');
             
           valueSB.setLength(0);
-          GTSHelper.encodeValue(valueSB, value);
+          GTSHelper.encodeValue(valueSB, type, longValue, doubleValue, value);
           pw.println(valueSB);
         }
         
@@ -1895,7 +2030,7 @@ public class EgressFetchHandler extends AbstractHandler {
         GTSEncoder enc = new GTSEncoder();
         enc.safeSetMetadata(decoder.getMetadata());
         while(decoder.next() && toDecodeCount > 0) {
-          enc.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getValue());
+          enc.addValue(decoder);
           toDecodeCount--;
         }
         encoder = enc;
@@ -1936,7 +2071,7 @@ public class EgressFetchHandler extends AbstractHandler {
          
           lastchunk = chunk;
           
-          chunkenc.addValue(ts, chunkdec.getLocation(), chunkdec.getElevation(), chunkdec.getValue());
+          chunkenc.addValue(chunkdec);
         }        
       }
             
@@ -1993,7 +2128,7 @@ public class EgressFetchHandler extends AbstractHandler {
             GTSDecoder deco = encoder.getDecoder(true);
             
             while(deco.next()) {
-              split.addValue(deco.getTimestamp(), deco.getLocation(), deco.getElevation(), deco.getValue());
+              split.addValue(deco);
               if (split.size() > threshold) {
                 split = new GTSEncoder(0L);
                 splits.add(split);
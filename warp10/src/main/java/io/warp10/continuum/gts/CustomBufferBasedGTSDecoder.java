@@ -477,6 +477,57 @@ public class CustomBufferBasedGTSDecoder extends GTSDecoder {
     }
   }
 
+  /**
+   * Return the type of the current value (post call to 'next'). Delete markers
+   * are reported as TYPE.UNDEFINED.
+   */
+  @Override
+  public TYPE getType() {
+    return lastType;
+  }
+  
+  /**
+   * Return the current value (post call to 'next') of a datapoint of type LONG.
+   */
+  @Override
+  public long getLongValue() {
+    return lastLongValue;
+  }
+  
+  /**
+   * Return the current value (post call to 'next') of a datapoint of type DOUBLE,
+   * values encoded as BigDecimal are converted.
+   */
+  @Override
+  public double getDoubleValue() {
+    return null == lastBDValue ? lastDoubleValue : lastBDValue.doubleValue();
+  }
+  
+  /**
+   * Return the current value (post call to 'next') of a datapoint of type DOUBLE if
+   * it was encoded as a BigDecimal, null otherwise.
+   */
+  @Override
+  public BigDecimal getBigDecimalValue() {
+    return lastBDValue;
+  }
+  
+  /**
+   * Return the current value (post call to 'next') of a datapoint of type BOOLEAN.
+   */
+  @Override
+  public boolean getBooleanValue() {
+    return lastBooleanValue;
+  }
+  
+  /**
+   * Return the current value (post call to 'next') of a datapoint of type STRING.
+   */
+  @Override
+  public String getStringValue() {
+    return lastStringValue;
+  }
+
   /**
    * Decode any remaining values into a GTS instance.
    * 
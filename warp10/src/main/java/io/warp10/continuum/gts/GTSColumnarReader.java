@@ -0,0 +1,524 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import io.warp10.continuum.store.thrift.data.Metadata;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Reader of the columnar GTS format produced by GTSColumnarWriter, each block is a record.
+ */
+public class GTSColumnarReader implements GTSInputReader {
+
+  /**
+   * Maximum size of a metadata record or of a block, compressed or not
+   */
+  private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+  private final InputStream in;
+
+  private final Map<String,String> extraLabels;
+
+  private final long[] classKey;
+  private final long[] labelsKey;
+
+  private final long maxValueSize;
+
+  private final Inflater inflater = new Inflater();
+
+  private final TDeserializer deserializer = new TDeserializer(new TCompactProtocol.Factory());
+
+  private boolean done = false;
+
+  /**
+   * Metadata of the current GTS as read and labels with the extra labels applied
+   */
+  private Metadata metadata = null;
+  private Map<String,String> labels = null;
+
+  /**
+   * Flag indicating a metadata record was read since the last block was returned
+   */
+  private boolean newSeries = false;
+
+  /**
+   * Name and Ids of the encoder returned for the current GTS
+   */
+  private String name = null;
+  private long classId = 0L;
+  private long labelsId = 0L;
+
+  //
+  // Content of the current block
+  //
+
+  private int count = 0;
+  private long[] ticks = new long[0];
+  private long[] locations = new long[0];
+  private long[] elevations = new long[0];
+  private byte[] types = new byte[0];
+  private long[] longs = new long[0];
+  private Object[] objects = new Object[0];
+
+  private byte[] compressed = new byte[0];
+  private byte[] raw = new byte[0];
+  private int rawidx = 0;
+  private int rawlen = 0;
+
+  /**
+   * @param in Stream to read
+   * @param extraLabels Labels to add to those of each GTS, may be null
+   * @param classKey SipHash key used to compute the class Id of new encoders, if null no class Id is computed
+   * @param labelsKey SipHash key used to compute the labels Id of new encoders, if null no labels Id is computed
+   * @param maxValueSize Maximum size of STRING values
+   */
+  public GTSColumnarReader(InputStream in, Map<String,String> extraLabels, long[] classKey, long[] labelsKey, long maxValueSize) throws IOException {
+    this.in = in;
+    this.extraLabels = extraLabels;
+    this.classKey = classKey;
+    this.labelsKey = labelsKey;
+    this.maxValueSize = maxValueSize;
+
+    try {
+      byte[] magic = new byte[GTSColumnarWriter.MAGIC.length];
+      readFully(magic, magic.length);
+
+      if (!Arrays.equals(GTSColumnarWriter.MAGIC, magic)) {
+        throw new IOException("Invalid columnar stream.");
+      }
+
+      int version = in.read();
+
+      if (GTSColumnarWriter.VERSION != version) {
+        throw new IOException("Unsupported columnar stream version " + version + ".");
+      }
+    } catch (IOException ioe) {
+      // The caller gets no reader to close
+      this.inflater.end();
+      throw ioe;
+    }
+  }
+
+  /**
+   * Check if 'contentType', the value of a Content-Type header, designates the columnar format.
+   * Only the media type is compared, case insensitively, parameters such as a charset are ignored.
+   */
+  public static boolean isColumnar(String contentType) {
+    if (null == contentType) {
+      return false;
+    }
+
+    int idx = contentType.indexOf(';');
+    String mediaType = (idx < 0 ? contentType : contentType.substring(0, idx)).trim();
+
+    return GTSColumnarWriter.CONTENT_TYPE.equalsIgnoreCase(mediaType);
+  }
+
+  @Override
+  public boolean next() throws IOException {
+    while(!this.done) {
+      int record = this.in.read();
+
+      if (-1 == record || GTSColumnarWriter.RECORD_END == record) {
+        this.done = true;
+        this.inflater.end();
+        break;
+      }
+
+      if (GTSColumnarWriter.RECORD_METADATA == record) {
+        int len = readLength();
+        byte[] bytes = new byte[len];
+        readFully(bytes, len);
+
+        Metadata metadata = new Metadata();
+
+        try {
+          this.deserializer.deserialize(metadata, bytes);
+        } catch (TException te) {
+          throw new IOException("Invalid metadata.", te);
+        }
+
+        if (null == metadata.getName()) {
+          throw new IOException("Missing class name.");
+        }
+
+        if (null == metadata.getLabels()) {
+          metadata.setLabels(new HashMap<String,String>());
+        }
+
+        this.metadata = metadata;
+        this.labels = null;
+        this.newSeries = true;
+      } else if (GTSColumnarWriter.RECORD_BLOCK == record) {
+        if (null == this.metadata) {
+          throw new IOException("Block with no metadata.");
+        }
+        readBlock();
+        return true;
+      } else {
+        throw new IOException("Invalid record type " + record + ".");
+      }
+    }
+
+    return false;
+  }
+
+  @Override
+  public int getCount() {
+    return this.count;
+  }
+
+  @Override
+  public GTSEncoder read(GTSEncoder encoder, Long now) throws ParseException, IOException {
+    encoder = encoder(encoder);
+
+    for (int i = 0; i < this.count; i++) {
+      switch (this.types[i]) {
+        case GTSColumnarWriter.TYPE_LONG:
+          encoder.addValue(this.ticks[i], this.locations[i], this.elevations[i], this.longs[i]);
+          break;
+        case GTSColumnarWriter.TYPE_DOUBLE:
+          encoder.addValue(this.ticks[i], this.locations[i], this.elevations[i], Double.longBitsToDouble(this.longs[i]));
+          break;
+        case GTSColumnarWriter.TYPE_STRING:
+          if (((String) this.objects[i]).length() > this.maxValueSize) {
+            throw new ParseException("Value too large at for GTS " + GTSHelper.buildSelector(encoder.getMetadata()), 0);
+          }
+          encoder.addValue(this.ticks[i], this.locations[i], this.elevations[i], this.objects[i]);
+          break;
+        default:
+          encoder.addValue(this.ticks[i], this.locations[i], this.elevations[i], this.objects[i]);
+          break;
+      }
+    }
+
+    return encoder;
+  }
+
+  @Override
+  public void close() throws IOException {
+    // Inflater.end may be called more than once
+    this.done = true;
+    this.inflater.end();
+  }
+
+  @Override
+  public String getText() {
+    StringBuilder sb = new StringBuilder();
+    StringBuilder clslbls = new StringBuilder(GTSHelper.buildSelector(this.metadata));
+
+    for (int i = 0; i < this.count; i++) {
+      if (i > 0) {
+        sb.append("\n=");
+      }
+
+      Object value;
+
+      switch (this.types[i]) {
+        case GTSColumnarWriter.TYPE_LONG:
+          value = this.longs[i];
+          break;
+        case GTSColumnarWriter.TYPE_DOUBLE:
+          value = Double.longBitsToDouble(this.longs[i]);
+          break;
+        default:
+          value = this.objects[i];
+          break;
+      }
+
+      sb.append(GTSHelper.tickToString(0 == i ? clslbls : null, this.ticks[i], this.locations[i], this.elevations[i], value));
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Return the encoder for the datapoints of the current block
+   */
+  private GTSEncoder encoder(GTSEncoder encoder) {
+    if (!this.newSeries && null != encoder && encoder.getName() == this.name
+        && encoder.getClassId() == this.classId && encoder.getLabelsId() == this.labelsId) {
+      return encoder;
+    }
+
+    this.newSeries = false;
+
+    if (null == this.labels) {
+      this.labels = new HashMap<String,String>(this.metadata.getLabels());
+
+      //
+      // Add any provided extra labels, removing those with null values
+      //
+
+      if (null != this.extraLabels) {
+        for (Entry<String,String> entry: this.extraLabels.entrySet()) {
+          if (null == entry.getValue()) {
+            this.labels.remove(entry.getKey());
+          } else {
+            this.labels.put(entry.getKey(), entry.getValue());
+          }
+        }
+      }
+    }
+
+    String name = this.metadata.getName();
+
+    if (null == encoder || !name.equals(encoder.getName()) || !this.labels.equals(encoder.getMetadata().getLabels())) {
+      encoder = new GTSEncoder(0L);
+      encoder.setName(name);
+      encoder.getMetadata().setLabels(new HashMap<String,String>(this.labels));
+
+      if (null != this.classKey) {
+        encoder.setClassId(GTSHelper.classId(this.classKey, name));
+      }
+      if (null != this.labelsKey) {
+        encoder.setLabelsId(GTSHelper.labelsId(this.labelsKey, this.labels));
+      }
+    }
+
+    this.name = encoder.getName();
+    this.classId = encoder.getClassId();
+    this.labelsId = encoder.getLabelsId();
+
+    return encoder;
+  }
+
+  private void readBlock() throws IOException {
+    int clen = readLength();
+    int len = readLength();
+
+    if (this.compressed.length < clen) {
+      this.compressed = new byte[clen];
+    }
+    if (this.raw.length < len) {
+      this.raw = new byte[len];
+    }
+
+    readFully(this.compressed, clen);
+
+    this.inflater.reset();
+    this.inflater.setInput(this.compressed, 0, clen);
+
+    try {
+      int inflated = 0;
+      while (inflated < len && !this.inflater.finished()) {
+        int n = this.inflater.inflate(this.raw, inflated, len - inflated);
+        if (0 == n && (this.inflater.needsInput() || this.inflater.needsDictionary())) {
+          break;
+        }
+        inflated += n;
+      }
+      if (inflated != len || !this.inflater.finished()) {
+        throw new IOException("Invalid block length.");
+      }
+    } catch (DataFormatException dfe) {
+      throw new IOException("Invalid block.", dfe);
+    }
+
+    this.rawidx = 0;
+    this.rawlen = len;
+
+    try {
+      decodeBlock();
+    } catch (ArrayIndexOutOfBoundsException|ClassCastException e) {
+      throw new IOException("Invalid block.", e);
+    }
+  }
+
+  private void decodeBlock() throws IOException {
+    long n = getVarint();
+
+    // Each datapoint uses at least one byte for its timestamp
+    if (n <= 0 || n > this.rawlen) {
+      throw new IOException("Invalid block size.");
+    }
+
+    int count = (int) n;
+
+    if (this.ticks.length < count) {
+      this.ticks = new long[count];
+      this.locations = new long[count];
+      this.elevations = new long[count];
+      this.types = new byte[count];
+      this.longs = new long[count];
+      this.objects = new Object[count];
+    }
+
+    int flags = getByte();
+
+    long previous = 0L;
+    long delta = 0L;
+
+    for (int i = 0; i < count; i++) {
+      delta += getZigZag();
+      previous += delta;
+      this.ticks[i] = previous;
+    }
+
+    if (0 != (flags & GTSColumnarWriter.FLAG_LOCATIONS)) {
+      previous = 0L;
+      for (int i = 0; i < count; i++) {
+        previous += getZigZag();
+        this.locations[i] = previous;
+      }
+    } else {
+      Arrays.fill(this.locations, 0, count, GeoTimeSerie.NO_LOCATION);
+    }
+
+    if (0 != (flags & GTSColumnarWriter.FLAG_ELEVATIONS)) {
+      previous = 0L;
+      for (int i = 0; i < count; i++) {
+        previous += getZigZag();
+        this.elevations[i] = previous;
+      }
+    } else {
+      Arrays.fill(this.elevations, 0, count, GeoTimeSerie.NO_ELEVATION);
+    }
+
+    int idx = 0;
+
+    while (idx < count) {
+      byte type = (byte) getByte();
+      long run = getVarint();
+
+      if (run <= 0 || run > count - idx) {
+        throw new IOException("Invalid type run.");
+      }
+
+      Arrays.fill(this.types, idx, idx + (int) run, type);
+      idx += (int) run;
+    }
+
+    long lastLong = 0L;
+    long lastDouble = 0L;
+
+    for (int i = 0; i < count; i++) {
+      this.objects[i] = null;
+
+      switch (this.types[i]) {
+        case GTSColumnarWriter.TYPE_LONG:
+          lastLong += getZigZag();
+          this.longs[i] = lastLong;
+          break;
+        case GTSColumnarWriter.TYPE_DOUBLE:
+          lastDouble ^= getVarint();
+          this.longs[i] = lastDouble;
+          break;
+        case GTSColumnarWriter.TYPE_DECIMAL:
+          long unscaled = getZigZag();
+          this.objects[i] = BigDecimal.valueOf(unscaled, (int) getZigZag());
+          break;
+        case GTSColumnarWriter.TYPE_STRING:
+          long len = getVarint();
+          if (len < 0 || len > this.rawlen - this.rawidx) {
+            throw new IOException("Invalid string length.");
+          }
+          this.objects[i] = new String(this.raw, this.rawidx, (int) len, Charsets.UTF_8);
+          this.rawidx += (int) len;
+          break;
+        case GTSColumnarWriter.TYPE_TRUE:
+          this.objects[i] = Boolean.TRUE;
+          break;
+        case GTSColumnarWriter.TYPE_FALSE:
+          this.objects[i] = Boolean.FALSE;
+          break;
+        default:
+          throw new IOException("Invalid value type " + this.types[i] + ".");
+      }
+    }
+
+    this.count = count;
+  }
+
+  private int getByte() {
+    if (this.rawidx >= this.rawlen) {
+      throw new ArrayIndexOutOfBoundsException();
+    }
+    return this.raw[this.rawidx++] & 0xFF;
+  }
+
+  private long getVarint() {
+    long value = 0L;
+    int shift = 0;
+    int b;
+
+    do {
+      if (shift > 63) {
+        throw new ArrayIndexOutOfBoundsException();
+      }
+      b = getByte();
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while (0 != (b & 0x80));
+
+    return value;
+  }
+
+  private long getZigZag() {
+    long value = getVarint();
+    return (value >>> 1) ^ -(value & 1L);
+  }
+
+  private int readLength() throws IOException {
+    long value = 0L;
+    int shift = 0;
+    int b;
+
+    do {
+      b = this.in.read();
+      if (-1 == b || shift > 63) {
+        throw new IOException("Truncated columnar stream.");
+      }
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while (0 != (b & 0x80));
+
+    if (value < 0 || value > MAX_RECORD_SIZE) {
+      throw new IOException("Invalid record length " + value + ".");
+    }
+
+    return (int) value;
+  }
+
+  private void readFully(byte[] buf, int len) throws IOException {
+    int off = 0;
+
+    while (off < len) {
+      int n = this.in.read(buf, off, len - off);
+      if (n < 0) {
+        throw new IOException("Truncated columnar stream.");
+      }
+      off += n;
+    }
+  }
+}
@@ -0,0 +1,396 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
+import io.warp10.continuum.store.thrift.data.Metadata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.zip.Deflater;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+import org.apache.thrift.protocol.TCompactProtocol;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Writer of the columnar GTS format.
+ *
+ * The stream starts with MAGIC followed by a version byte, then contains a sequence of records:
+ *
+ *   RECORD_METADATA  varint length, Metadata serialized with TCompactProtocol
+ *   RECORD_BLOCK     varint compressed length, varint raw length, deflated block
+ *   RECORD_END
+ *
+ * Blocks contain the datapoints of the GTS of the last metadata record, stored as columns:
+ *
+ *   varint count, flags byte (FLAG_LOCATIONS, FLAG_ELEVATIONS)
+ *   timestamps     first timestamp then delta of deltas, zig zag varints
+ *   locations      deltas, zig zag varints, if FLAG_LOCATIONS is set
+ *   elevations     deltas, zig zag varints, if FLAG_ELEVATIONS is set
+ *   types          runs of (type byte, varint run length)
+ *   values         LONG: zig zag delta to the previous LONG value
+ *                  DOUBLE: varint of the XOR of the bits with those of the previous DOUBLE value
+ *                  DECIMAL: zig zag varint unscaled value, zig zag varint scale
+ *                  STRING: varint length, UTF-8 bytes
+ *                  TRUE/FALSE: nothing
+ *
+ * Blocks are written as soon as BLOCK_SIZE datapoints have been added so the output
+ * can be streamed.
+ */
+public class GTSColumnarWriter implements Closeable {
+
+  public static final String CONTENT_TYPE = "application/x-warp10-columnar";
+
+  static final byte[] MAGIC = "W10C".getBytes(Charsets.US_ASCII);
+  static final byte VERSION = 1;
+
+  static final byte RECORD_END = 0;
+  static final byte RECORD_METADATA = 1;
+  static final byte RECORD_BLOCK = 2;
+
+  static final int FLAG_LOCATIONS = 0x01;
+  static final int FLAG_ELEVATIONS = 0x02;
+
+  static final byte TYPE_LONG = 1;
+  static final byte TYPE_DOUBLE = 2;
+  static final byte TYPE_DECIMAL = 3;
+  static final byte TYPE_STRING = 4;
+  static final byte TYPE_TRUE = 5;
+  static final byte TYPE_FALSE = 6;
+
+  /**
+   * Maximum number of datapoints per block
+   */
+  static final int BLOCK_SIZE = 4096;
+
+  private final OutputStream out;
+
+  private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+  private final TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
+
+  //
+  // Datapoints of the current block
+  //
+
+  private final long[] ticks = new long[BLOCK_SIZE];
+  private final long[] locations = new long[BLOCK_SIZE];
+  private final long[] elevations = new long[BLOCK_SIZE];
+  private final byte[] types = new byte[BLOCK_SIZE];
+  private final long[] longs = new long[BLOCK_SIZE];
+  private final Object[] objects = new Object[BLOCK_SIZE];
+
+  private int count = 0;
+
+  private boolean hasLocations = false;
+  private boolean hasElevations = false;
+
+  private boolean hasMetadata = false;
+
+  /**
+   * Uncompressed and compressed content of the block being written
+   */
+  private byte[] raw = new byte[BLOCK_SIZE * 16];
+  private int rawlen = 0;
+  private byte[] compressed = new byte[BLOCK_SIZE * 16];
+
+  private final byte[] varint = new byte[10];
+
+  public GTSColumnarWriter(OutputStream out) throws IOException {
+    this.out = out;
+
+    try {
+      this.out.write(MAGIC);
+      this.out.write(VERSION);
+    } catch (IOException ioe) {
+      // The caller gets no writer to close
+      this.deflater.end();
+      throw ioe;
+    }
+  }
+
+  /**
+   * Start a new GTS, the datapoints added next will belong to it
+   */
+  public void startSeries(Metadata metadata) throws IOException {
+    flush();
+
+    byte[] bytes;
+
+    try {
+      bytes = this.serializer.serialize(metadata);
+    } catch (TException te) {
+      throw new IOException(te);
+    }
+
+    this.out.write(RECORD_METADATA);
+    writeVarint(bytes.length);
+    this.out.write(bytes);
+
+    this.hasMetadata = true;
+  }
+
+  public void addValue(long timestamp, long location, long elevation, long value) throws IOException {
+    add(timestamp, location, elevation, TYPE_LONG, value, null);
+  }
+
+  public void addValue(long timestamp, long location, long elevation, double value) throws IOException {
+    add(timestamp, location, elevation, TYPE_DOUBLE, Double.doubleToRawLongBits(value), null);
+  }
+
+  public void addValue(long timestamp, long location, long elevation, Object value) throws IOException {
+    if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      addValue(timestamp, location, elevation, ((Number) value).longValue());
+    } else if (value instanceof BigDecimal && ((BigDecimal) value).unscaledValue().bitLength() < 64) {
+      add(timestamp, location, elevation, TYPE_DECIMAL, 0L, value);
+    } else if (value instanceof Number) {
+      addValue(timestamp, location, elevation, ((Number) value).doubleValue());
+    } else if (value instanceof Boolean) {
+      add(timestamp, location, elevation, Boolean.TRUE.equals(value) ? TYPE_TRUE : TYPE_FALSE, 0L, null);
+    } else if (value instanceof String) {
+      add(timestamp, location, elevation, TYPE_STRING, 0L, value);
+    } else {
+      throw new IOException("Unsupported value type " + (null == value ? null : value.getClass()));
+    }
+  }
+
+  /**
+   * Add the current datapoint of a decoder (post call to 'next')
+   */
+  public void addValue(GTSDecoder decoder) throws IOException {
+    TYPE type = decoder.getType();
+
+    if (TYPE.LONG == type) {
+      addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getLongValue());
+    } else if (TYPE.DOUBLE == type && null == decoder.getBigDecimalValue()) {
+      addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getDoubleValue());
+    } else {
+      addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getValue());
+    }
+  }
+
+  private void add(long timestamp, long location, long elevation, byte type, long value, Object object) throws IOException {
+    if (!this.hasMetadata) {
+      throw new IOException("No GTS was started.");
+    }
+
+    int idx = this.count;
+
+    this.ticks[idx] = timestamp;
+    this.locations[idx] = location;
+    this.elevations[idx] = elevation;
+    this.types[idx] = type;
+    this.longs[idx] = value;
+    this.objects[idx] = object;
+
+    this.hasLocations |= GeoTimeSerie.NO_LOCATION != location;
+    this.hasElevations |= GeoTimeSerie.NO_ELEVATION != elevation;
+
+    this.count++;
+
+    if (BLOCK_SIZE == this.count) {
+      flush();
+    }
+  }
+
+  /**
+   * Write the current block if it contains datapoints
+   */
+  public void flush() throws IOException {
+    if (0 == this.count) {
+      return;
+    }
+
+    this.rawlen = 0;
+
+    putVarint(this.count);
+    putByte((this.hasLocations ? FLAG_LOCATIONS : 0) | (this.hasElevations ? FLAG_ELEVATIONS : 0));
+
+    //
+    // Timestamps
+    //
+
+    long previous = 0L;
+    long delta = 0L;
+
+    for (int i = 0; i < this.count; i++) {
+      long d = this.ticks[i] - previous;
+      putZigZag(d - delta);
+      delta = d;
+      previous = this.ticks[i];
+    }
+
+    //
+    // Locations and elevations
+    //
+
+    if (this.hasLocations) {
+      previous = 0L;
+      for (int i = 0; i < this.count; i++) {
+        putZigZag(this.locations[i] - previous);
+        previous = this.locations[i];
+      }
+    }
+
+    if (this.hasElevations) {
+      previous = 0L;
+      for (int i = 0; i < this.count; i++) {
+        putZigZag(this.elevations[i] - previous);
+        previous = this.elevations[i];
+      }
+    }
+
+    //
+    // Types
+    //
+
+    int run = 0;
+
+    for (int i = 0; i < this.count; i++) {
+      if (i > 0 && this.types[i] != this.types[i - 1]) {
+        putByte(this.types[i - 1]);
+        putVarint(run);
+        run = 0;
+      }
+      run++;
+    }
+
+    putByte(this.types[this.count - 1]);
+    putVarint(run);
+
+    //
+    // Values
+    //
+
+    long lastLong = 0L;
+    long lastDouble = 0L;
+
+    for (int i = 0; i < this.count; i++) {
+      switch (this.types[i]) {
+        case TYPE_LONG:
+          putZigZag(this.longs[i] - lastLong);
+          lastLong = this.longs[i];
+          break;
+        case TYPE_DOUBLE:
+          putVarint(this.longs[i] ^ lastDouble);
+          lastDouble = this.longs[i];
+          break;
+        case TYPE_DECIMAL:
+          BigDecimal bd = (BigDecimal) this.objects[i];
+          putZigZag(bd.unscaledValue().longValue());
+          putZigZag(bd.scale());
+          break;
+        case TYPE_STRING:
+          byte[] bytes = ((String) this.objects[i]).getBytes(Charsets.UTF_8);
+          putVarint(bytes.length);
+          ensure(bytes.length);
+          System.arraycopy(bytes, 0, this.raw, this.rawlen, bytes.length);
+          this.rawlen += bytes.length;
+          break;
+        default:
+          break;
+      }
+      this.objects[i] = null;
+    }
+
+    //
+    // Compress the block
+    //
+
+    this.deflater.reset();
+    this.deflater.setInput(this.raw, 0, this.rawlen);
+    this.deflater.finish();
+
+    int clen = 0;
+
+    while (!this.deflater.finished()) {
+      if (clen == this.compressed.length) {
+        byte[] newbuf = new byte[this.compressed.length * 2];
+        System.arraycopy(this.compressed, 0, newbuf, 0, clen);
+        this.compressed = newbuf;
+      }
+      clen += this.deflater.deflate(this.compressed, clen, this.compressed.length - clen);
+    }
+
+    this.out.write(RECORD_BLOCK);
+    writeVarint(clen);
+    writeVarint(this.rawlen);
+    this.out.write(this.compressed, 0, clen);
+
+    this.count = 0;
+    this.hasLocations = false;
+    this.hasElevations = false;
+  }
+
+  /**
+   * Write the current block and the end marker, the underlying stream is flushed but not closed
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+      this.out.write(RECORD_END);
+      this.out.flush();
+    } finally {
+      this.deflater.end();
+    }
+  }
+
+  /**
+   * Release the native resources of the writer without writing the end marker, used when the output
+   * is abandoned after an error. Calling it after 'close' has no effect.
+   */
+  public void release() {
+    this.deflater.end();
+  }
+
+  private void writeVarint(long value) throws IOException {
+    int len = Varint.encodeUnsignedLongInBuf(value, this.varint);
+    this.out.write(this.varint, 0, len);
+  }
+
+  private void ensure(int len) {
+    if (this.rawlen + len > this.raw.length) {
+      byte[] newbuf = new byte[Math.max(this.raw.length * 2, this.rawlen + len)];
+      System.arraycopy(this.raw, 0, newbuf, 0, this.rawlen);
+      this.raw = newbuf;
+    }
+  }
+
+  private void putByte(int b) {
+    ensure(1);
+    this.raw[this.rawlen++] = (byte) b;
+  }
+
+  private void putVarint(long value) {
+    ensure(10);
+    while ((value & ~0x7FL) != 0L) {
+      this.raw[this.rawlen++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    this.raw[this.rawlen++] = (byte) value;
+  }
+
+  private void putZigZag(long value) {
+    putVarint((value << 1) ^ (value >> 63));
+  }
+}
@@ -507,6 +507,51 @@ public class GTSDecoder {
         return null;
     }
   }
+
+  /**
+   * Return the type of the current value (post call to 'next'). Delete markers
+   * are reported as TYPE.UNDEFINED.
+   */
+  public TYPE getType() {
+    return lastType;
+  }
+  
+  /**
+   * Return the current value (post call to 'next') of a datapoint of type LONG.
+   */
+  public long getLongValue() {
+    return lastLongValue;
+  }
+  
+  /**
+   * Return the current value (post call to 'next') of a datapoint of type DOUBLE,
+   * values encoded as BigDecimal are converted.
+   */
+  public double getDoubleValue() {
+    return null == lastBDValue ? lastDoubleValue : lastBDValue.doubleValue();
+  }
+  
+  /**
+   * Return the current value (post call to 'next') of a datapoint of type DOUBLE if
+   * it was encoded as a BigDecimal, null otherwise.
+   */
+  public BigDecimal getBigDecimalValue() {
+    return lastBDValue;
+  }
+  
+  /**
+   * Return the current value (post call to 'next') of a datapoint of type BOOLEAN.
+   */
+  public boolean getBooleanValue() {
+    return lastBooleanValue;
+  }
+  
+  /**
+   * Return the current value (post call to 'next') of a datapoint of type STRING.
+   */
+  public String getStringValue() {
+    return lastStringValue;
+  }
   
   /**
    * Decode any remaining values into a GTS instance.
@@ -522,8 +567,18 @@ public class GTSDecoder {
     
     gts.setMetadata(this.getMetadata());
     
+    //
+    // Values of type LONG and DOUBLE are handed over as primitives to avoid boxing them
+    //
+    
     while(next()) {
-      GTSHelper.setValue(gts, getTimestamp(), getLocation(), getElevation(), getValue(), false);
+      if (TYPE.LONG == lastType) {
+        GTSHelper.setValue(gts, lastTimestamp, lastGeoXPPoint, lastElevation, lastLongValue, false);
+      } else if (TYPE.DOUBLE == lastType && null == lastBDValue) {
+        GTSHelper.setValue(gts, lastTimestamp, lastGeoXPPoint, lastElevation, lastDoubleValue, false);
+      } else {
+        GTSHelper.setValue(gts, lastTimestamp, lastGeoXPPoint, lastElevation, getValue(), false);
+      }
     }
     
     return gts;
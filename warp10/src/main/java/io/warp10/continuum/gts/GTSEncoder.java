@@ -16,6 +16,7 @@
 
 package io.warp10.continuum.gts;
 
+import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
 import io.warp10.continuum.store.thrift.data.Metadata;
 
 import java.io.ByteArrayOutputStream;
@@ -280,6 +281,51 @@ public class GTSEncoder {
   private byte[] buf8 = new byte[10];
   private byte[] buf10 = buf8;
   public synchronized int addValue(long timestamp, long location, long elevation, Object value) throws IOException {
+    return addValue(timestamp, location, elevation, null, 0L, 0.0D, value);
+  }
+
+  /**
+   * Encode an additional LONG value in the GTS, without boxing it.
+   * 
+   * @see #addValue(long, long, long, Object)
+   */
+  public synchronized int addValue(long timestamp, long location, long elevation, long value) throws IOException {
+    return addValue(timestamp, location, elevation, TYPE.LONG, value, 0.0D, null);
+  }
+
+  /**
+   * Encode an additional DOUBLE value in the GTS, without boxing it.
+   * 
+   * @see #addValue(long, long, long, Object)
+   */
+  public synchronized int addValue(long timestamp, long location, long elevation, double value) throws IOException {
+    return addValue(timestamp, location, elevation, TYPE.DOUBLE, 0L, value, null);
+  }
+
+  /**
+   * Encode the current datapoint of a decoder (post call to 'next') in the GTS,
+   * without boxing its value.
+   * 
+   * @param decoder Decoder whose current datapoint should be encoded
+   */
+  public synchronized int addValue(GTSDecoder decoder) throws IOException {
+    TYPE type = decoder.getType();
+    
+    if (TYPE.LONG == type) {
+      return addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), TYPE.LONG, decoder.getLongValue(), 0.0D, null);
+    } else if (TYPE.DOUBLE == type && null == decoder.getBigDecimalValue()) {
+      return addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), TYPE.DOUBLE, 0L, decoder.getDoubleValue(), null);
+    } else {
+      return addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), null, 0L, 0.0D, decoder.getValue());
+    }
+  }
+
+  /**
+   * Encode an additional value in the GTS.
+   * 
+   * @param primitive TYPE.LONG or TYPE.DOUBLE if the value is passed as 'primitiveLong' or 'primitiveDouble', null if it is passed as 'value'
+   */
+  private int addValue(long timestamp, long location, long elevation, TYPE primitive, long primitiveLong, double primitiveDouble, Object value) throws IOException {
     
     if (this.readonly) {
       throw new IOException("Encoder is read-only.");
@@ -344,11 +390,16 @@ public class GTSEncoder {
     // Determine the value type and encoding
     //
 
-    if (value instanceof BigInteger || value instanceof Long
+    boolean hasValue = null != value || null != primitive;
+    
+    long longValue = 0L;
+    double ieee754Value = 0.0D;
+    
+    if (TYPE.LONG == primitive || value instanceof BigInteger || value instanceof Long
         || value instanceof Integer || value instanceof Short
         || value instanceof Byte) {
       tsTypeFlag |= FLAGS_TYPE_LONG;
-      long longValue = ((Number) value).longValue();
+      longValue = TYPE.LONG == primitive ? primitiveLong : ((Number) value).longValue();
       
       if (!noDeltaValue && Long.MAX_VALUE != lastLongValue && longValue == lastLongValue) {
         tsTypeFlag |= FLAGS_VALUE_IDENTICAL;
@@ -378,10 +429,11 @@ public class GTSEncoder {
       if (((String) value).equals(lastStringValue)) {
         tsTypeFlag |= FLAGS_VALUE_IDENTICAL;
       }
-    } else if (value instanceof Double || value instanceof Float) {
+    } else if (TYPE.DOUBLE == primitive || value instanceof Double || value instanceof Float) {
       tsTypeFlag |= FLAGS_TYPE_DOUBLE;
+      ieee754Value = TYPE.DOUBLE == primitive ? primitiveDouble : ((Number) value).doubleValue();
       // Only compare to the previous double value if the last floating point value was NOT encoded as a BigDecimal
-      if (null == lastBDValue && lastDoubleValue == ((Number) value).doubleValue()) {
+      if (null == lastBDValue && lastDoubleValue == ieee754Value) {
         tsTypeFlag |= FLAGS_VALUE_IDENTICAL;
       } else {
         tsTypeFlag |= FLAGS_DOUBLE_IEEE754;
@@ -425,7 +477,7 @@ public class GTSEncoder {
 
     byte locElevFlag = 0x0;
 
-    if (GeoTimeSerie.NO_LOCATION != location && null != value) {
+    if (GeoTimeSerie.NO_LOCATION != location && hasValue) {
       tsTypeFlag |= FLAGS_CONTINUATION;
 
       locElevFlag |= FLAGS_LOCATION;
@@ -454,7 +506,7 @@ public class GTSEncoder {
       lastGeoXPPoint = GeoTimeSerie.NO_LOCATION;
     }
 
-    if (GeoTimeSerie.NO_ELEVATION != elevation && null != value) {
+    if (GeoTimeSerie.NO_ELEVATION != elevation && hasValue) {
       tsTypeFlag |= FLAGS_CONTINUATION;
 
       locElevFlag |= FLAGS_ELEVATION;
@@ -634,7 +686,7 @@ public class GTSEncoder {
 
       case FLAGS_TYPE_LONG:
         if (FLAGS_VALUE_IDENTICAL != (tsTypeFlag & FLAGS_VALUE_IDENTICAL)) {
-          long lvalue = ((Number) value).longValue();
+          long lvalue = longValue;
           long toencode = lvalue;
 
           if (FLAGS_LONG_DELTA_PREVIOUS == (tsTypeFlag & FLAGS_LONG_DELTA_PREVIOUS)) {
@@ -677,7 +729,7 @@ public class GTSEncoder {
             ByteBuffer bb = ByteBuffer.wrap(buf);
             bb.order(ByteOrder.BIG_ENDIAN);
             // Keep track of last value
-            lastDoubleValue = ((Number) value).doubleValue();
+            lastDoubleValue = value instanceof BigDecimal ? ((BigDecimal) value).doubleValue() : ieee754Value;
             bb.putDouble(lastDoubleValue);
             this.stream.write(buf, 0, 8);
             // Clear the last BDValue otherwise we might incorrectly encode the next value specified as a BigDecimal
@@ -792,7 +844,16 @@ public class GTSEncoder {
    */
   public synchronized void encode(GeoTimeSerie gts) throws IOException {
     for (int i = 0; i < gts.values; i++) {
-      addValue(gts.ticks[i], null != gts.locations ? gts.locations[i] : GeoTimeSerie.NO_LOCATION, null != gts.elevations ? gts.elevations[i] : GeoTimeSerie.NO_ELEVATION, GTSHelper.valueAtIndex(gts, i));
+      long location = null != gts.locations ? gts.locations[i] : GeoTimeSerie.NO_LOCATION;
+      long elevation = null != gts.elevations ? gts.elevations[i] : GeoTimeSerie.NO_ELEVATION;
+      
+      if (TYPE.LONG == gts.type) {
+        addValue(gts.ticks[i], location, elevation, TYPE.LONG, gts.longValues[i], 0.0D, null);
+      } else if (TYPE.DOUBLE == gts.type) {
+        addValue(gts.ticks[i], location, elevation, TYPE.DOUBLE, 0L, gts.doubleValues[i], null);
+      } else {
+        addValue(gts.ticks[i], location, elevation, GTSHelper.valueAtIndex(gts, i));
+      }
     }
   }
 
@@ -1268,6 +1329,44 @@ public class GTSEncoder {
     this.stream.writeTo(out);    
   }
 
+  /**
+   * Move the encoded data to a ByteBuffer and empty the output stream.
+   *
+   * Unlike 'flush', the state of the encoder is kept so values added afterwards are
+   * delta encoded relative to the transferred ones. The transferred data and the data
+   * encoded after the transfer MUST therefore be decoded as a single stream.
+   *
+   * @param bb ByteBuffer into which to write the encoded data, it MUST have at least 'size()' bytes remaining.
+   * @return The number of bytes transferred
+   * @throws IOException if the encoder is encrypted
+   */
+  public synchronized int transferTo(final ByteBuffer bb) throws IOException {
+    if (this.readonly) {
+      throw new RuntimeException("Encoder is read-only.");
+    }
+
+    if (null != this.wrappingKey) {
+      throw new IOException("Cannot transfer the data of an encrypted encoder.");
+    }
+
+    int size = this.stream.size();
+
+    this.stream.writeTo(new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        bb.put((byte) b);
+      }
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        bb.put(b, off, len);
+      }
+    });
+
+    this.stream.reset();
+
+    return size;
+  }
+
   public GTSEncoder cloneEmpty() {
     GTSEncoder encoder = new GTSEncoder(this.baseTimestamp);
     if (null != this.wrappingKey) {
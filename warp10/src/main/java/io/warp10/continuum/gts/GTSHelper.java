@@ -34,8 +34,11 @@ import io.warp10.script.WarpScriptLib;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptNAryFunction;
 import io.warp10.script.WarpScriptReducerFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction.SlidingWindow;
 import io.warp10.script.WarpScriptStack;
 import io.warp10.script.WarpScriptStack.Macro;
+import io.warp10.script.WarpScriptTypedAggregatorFunction;
 import io.warp10.script.functions.MACROMAPPER;
 import io.warp10.script.functions.METASORT;
 import io.warp10.script.functions.TOQUATERNION;
@@ -66,6 +69,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -724,7 +728,29 @@ public class GTSHelper {
       return null;
     }
   }
-  
+
+  /**
+   * Return the value at a given index of a GTS instance of type LONG, without boxing it.
+   *
+   * @param gts GeoTimeSerie instance of type LONG from which to extract the value.
+   * @param idx Index at which to read the value, must be less than the number of values.
+   * @return The value at the given index.
+   */
+  public static long longValueAtIndex(GeoTimeSerie gts, int idx) {
+    return gts.longValues[idx];
+  }
+
+  /**
+   * Return the value at a given index of a GTS instance of type DOUBLE, without boxing it.
+   *
+   * @param gts GeoTimeSerie instance of type DOUBLE from which to extract the value.
+   * @param idx Index at which to read the value, must be less than the number of values.
+   * @return The value at the given index.
+   */
+  public static double doubleValueAtIndex(GeoTimeSerie gts, int idx) {
+    return gts.doubleValues[idx];
+  }
+
   /**
    * Return the location in a Geo Time Serie at a given timestamp.
    * 
@@ -1030,6 +1056,74 @@ public class GTSHelper {
     return gts.values;
   }
 
+  /**
+   * Add a LONG measurement at the given timestamp/location/elevation.
+   *
+   * When appending to a GTS of type LONG which has enough room, the value is stored
+   * without being boxed, otherwise this defers to the generic version of setValue.
+   */
+  public static final int setValue(GeoTimeSerie gts, long timestamp, long geoxppoint, long elevation, long value, boolean overwrite) {
+    if (!overwrite && TYPE.LONG == gts.type && null != gts.ticks && gts.values < gts.ticks.length
+        && (GeoTimeSerie.NO_LOCATION == geoxppoint || null != gts.locations)
+        && (GeoTimeSerie.NO_ELEVATION == elevation || null != gts.elevations)) {
+      int idx = gts.values;
+
+      // Reset 'sorted' flag as we add a value
+      gts.sorted = false;
+
+      gts.ticks[idx] = timestamp;
+
+      if (null != gts.locations) {
+        gts.locations[idx] = geoxppoint;
+      }
+
+      if (null != gts.elevations) {
+        gts.elevations[idx] = elevation;
+      }
+
+      gts.longValues[idx] = value;
+      gts.values++;
+
+      return gts.values;
+    }
+
+    return setValue(gts, timestamp, geoxppoint, elevation, (Object) value, overwrite);
+  }
+
+  /**
+   * Add a DOUBLE measurement at the given timestamp/location/elevation.
+   *
+   * When appending to a GTS of type DOUBLE which has enough room, the value is stored
+   * without being boxed, otherwise this defers to the generic version of setValue.
+   */
+  public static final int setValue(GeoTimeSerie gts, long timestamp, long geoxppoint, long elevation, double value, boolean overwrite) {
+    if (!overwrite && TYPE.DOUBLE == gts.type && null != gts.ticks && gts.values < gts.ticks.length
+        && (GeoTimeSerie.NO_LOCATION == geoxppoint || null != gts.locations)
+        && (GeoTimeSerie.NO_ELEVATION == elevation || null != gts.elevations)) {
+      int idx = gts.values;
+
+      // Reset 'sorted' flag as we add a value
+      gts.sorted = false;
+
+      gts.ticks[idx] = timestamp;
+
+      if (null != gts.locations) {
+        gts.locations[idx] = geoxppoint;
+      }
+
+      if (null != gts.elevations) {
+        gts.elevations[idx] = elevation;
+      }
+
+      gts.doubleValues[idx] = value;
+      gts.values++;
+
+      return gts.values;
+    }
+
+    return setValue(gts, timestamp, geoxppoint, elevation, (Object) value, overwrite);
+  }
+
   public static final int setValue(GeoTimeSerie gts, long timestamp, long geoxppoint, Object value) {
     return setValue(gts, timestamp, geoxppoint, GeoTimeSerie.NO_ELEVATION, value, false);
   }
@@ -1267,6 +1361,85 @@ public class GTSHelper {
   public static final GeoTimeSerie subSerie(GeoTimeSerie gts, long starttimestamp, long stoptimestamp, boolean overwrite) {
     return subSerie(gts, starttimestamp, stoptimestamp, overwrite, true, null);
   }
+
+  /**
+   * Fill 'subgts' with the values of 'gts' which lie between two indices.
+   *
+   * Values are copied array by array, 'gts' MUST be sorted by ascending ticks.
+   * Arrays of 'subgts' are reused when they are large enough.
+   *
+   * @param gts GeoTimeSerie from which to extract values.
+   * @param from Index of the first value to extract (inclusive)
+   * @param to Index of the last value to extract (exclusive)
+   * @param subgts GeoTimeSerie to fill, its name and labels are left untouched
+   * @return subgts
+   */
+  static final GeoTimeSerie subSerie(GeoTimeSerie gts, int from, int to, GeoTimeSerie subgts) {
+    GTSHelper.reset(subgts);
+
+    int len = to - from;
+
+    if (len <= 0) {
+      return subgts;
+    }
+
+    subgts.type = gts.type;
+
+    //
+    // All arrays must have the same capacity as the ticks array
+    //
+    
+    if (null == subgts.ticks || subgts.ticks.length < len) {
+      subgts.ticks = new long[len];
+    }
+    
+    int capacity = subgts.ticks.length;
+    
+    System.arraycopy(gts.ticks, from, subgts.ticks, 0, len);
+
+    if (null != gts.locations) {
+      if (null == subgts.locations || subgts.locations.length != capacity) {
+        subgts.locations = new long[capacity];
+      }
+      System.arraycopy(gts.locations, from, subgts.locations, 0, len);
+    } else {
+      subgts.locations = null;
+    }
+
+    if (null != gts.elevations) {
+      if (null == subgts.elevations || subgts.elevations.length != capacity) {
+        subgts.elevations = new long[capacity];
+      }
+      System.arraycopy(gts.elevations, from, subgts.elevations, 0, len);
+    } else {
+      subgts.elevations = null;
+    }
+
+    if (TYPE.LONG == gts.type) {
+      if (null == subgts.longValues || subgts.longValues.length != capacity) {
+        subgts.longValues = new long[capacity];
+      }
+      System.arraycopy(gts.longValues, from, subgts.longValues, 0, len);
+    } else if (TYPE.DOUBLE == gts.type) {
+      if (null == subgts.doubleValues || subgts.doubleValues.length != capacity) {
+        subgts.doubleValues = new double[capacity];
+      }
+      System.arraycopy(gts.doubleValues, from, subgts.doubleValues, 0, len);
+    } else if (TYPE.STRING == gts.type) {
+      if (null == subgts.stringValues || subgts.stringValues.length != capacity) {
+        subgts.stringValues = new String[capacity];
+      }
+      System.arraycopy(gts.stringValues, from, subgts.stringValues, 0, len);
+    } else if (TYPE.BOOLEAN == gts.type) {
+      subgts.booleanValues = gts.booleanValues.get(from, to);
+    }
+
+    subgts.values = len;
+    subgts.sorted = true;
+    subgts.reversed = false;
+
+    return subgts;
+  }
   
   /**
    * Return a new GeoTimeSerie instance containing only the values of 'gts'
@@ -1455,41 +1628,79 @@ public class GTSHelper {
     Map<String,String> labels = gts.getLabels();
     
     //
-    // Loop on all buckets
+    // Sweep the sorted ticks once, from the last one backwards. The bucket of the current
+    // tick is computed directly so empty buckets are skipped without being visited, the
+    // datapoints of the bucket are the slice [lo,hi) of the arrays of 'gts'.
+    //
+    // Empty buckets are never passed to the aggregator.
     //
 
+    sort(gts);
+
     //
-    // We can't skip buckets which are before the first tick or after the last one
-    // because the bucketizer function might set a default value when it encounters an
-    // empty sub serie
+    // Numeric GTS bucketized by a typed aggregator are aggregated directly on the slices,
+    // other functions are passed copies of the slices and macros a single reused sub serie.
     //
-      
-    // Allocate a stable GTS instance which we will reuse when calling subserie
-    GeoTimeSerie subgts = null;
     
-    for (int i = 0; i < bucketcount; i++) {
-      
-      long bucketend = lastbucket - i * bucketspan;
+    boolean typed = null == stack
+        && aggregator instanceof WarpScriptBucketizerFunction
+        && aggregator instanceof WarpScriptTypedAggregatorFunction
+        && (TYPE.LONG == gts.type || TYPE.DOUBLE == gts.type);
+    
+    Object[] result = typed ? new Object[4] : null;
+    
+    long[] longs = TYPE.LONG == gts.type ? gts.longValues : null;
+    double[] doubles = TYPE.DOUBLE == gts.type ? gts.doubleValues : null;
+
+    GeoTimeSerie subgts = null;
+
+    if (null != stack) {
+      if (!(aggregator instanceof Macro)) {
+        throw new WarpScriptException("Expected a macro as bucketizer.");
+      }
+    } else if (!(aggregator instanceof WarpScriptBucketizerFunction)) {
+      throw new WarpScriptException("Invalid bucketizer function.");
+    }
+
+    int hi = gts.values;
+
+    // Skip the ticks after the last bucket
+    while (hi > 0 && gts.ticks[hi - 1] > lastbucket) {
+      hi--;
+    }
+
+    while (hi > 0) {
       
-      //
-      // Extract GTS containing the values that fall in the bucket
-      // Keep multiple values that fall on the same timestamp, the
-      // aggregator functions will deal with them.
-      //
+      long delta = lastbucket - gts.ticks[hi - 1];
       
-      subgts = subSerie(gts, bucketend - bucketspan + 1, bucketend, false, false, subgts);
+      // A negative delta means the subtraction overflowed, the tick is way before the first bucket
+      if (delta < 0 || delta / bucketspan >= bucketcount) {
+        break;
+      }
 
-      if (0 == subgts.values) {
-        continue;
+      long bucketend = lastbucket - (delta / bucketspan) * bucketspan;
+      long bucketstart = bucketend - bucketspan + 1;
+
+      int lo = hi - 1;
+
+      while (lo > 0 && gts.ticks[lo - 1] >= bucketstart) {
+        lo--;
       }
       
       Object[] aggregated = null;
-      
+
       if (null != stack) {
-        if (!(aggregator instanceof Macro)) {
-          throw new WarpScriptException("Expected a macro as bucketizer.");
+        if (null == subgts) {
+          subgts = new GeoTimeSerie(128);
         }
         
+        //
+        // Extract GTS containing the values that fall in the bucket
+        // Keep multiple values that fall on the same timestamp, the
+        // aggregator functions will deal with them.
+        //
+        
+        subgts = subSerie(gts, lo, hi, subgts);
         subgts.safeSetMetadata(bucketized.getMetadata());
         stack.push(subgts);
         stack.exec((Macro) aggregator);
@@ -1501,58 +1712,18 @@ public class GTSHelper {
         } else {
           aggregated = MACROMAPPER.stackToObjects(stack);
         }                
+      } else if (typed && ((WarpScriptTypedAggregatorFunction) aggregator).aggregate(bucketend, gts.ticks, gts.locations, gts.elevations, longs, doubles, lo, hi - lo, result)) {
+        aggregated = result;
       } else {
-        if (!(aggregator instanceof WarpScriptBucketizerFunction)) {
-          throw new WarpScriptException("Invalid bucketizer function.");
-        }
-        //
-        // Call the aggregation functions on this sub serie and add the resulting value
-        //
-        
         //
-        // Aggregator functions have 8 parameters (so mappers or reducers can be used as aggregators)
-        //
-        // bucket timestamp: end timestamp of the bucket we're currently computing a value for
-        // names: array of GTS names
-        // labels: array of GTS labels
-        // ticks: array of ticks being aggregated
-        // locations: array of locations being aggregated
-        // elevations: array of elevations being aggregated
-        // values: array of values being aggregated
-        // bucket span: width (in microseconds) of bucket
+        // Call the aggregation functions on this slice and add the resulting value
         //
         
-        Object[] parms = new Object[8];
-
-        int idx = 0;
-        parms[idx++] = bucketend;
-        parms[idx] = new String[1];
-        ((String[]) parms[idx++])[0] = bucketized.getName();
-        parms[idx] = new Map[1];
-        ((Map[]) parms[idx++])[0] = labels;
-        parms[idx++] = Arrays.copyOf(subgts.ticks, subgts.values);
-        if (null != subgts.locations) {
-          parms[idx++] = Arrays.copyOf(subgts.locations, subgts.values);
-        } else {
-          parms[idx++] = new long[subgts.values];
-          Arrays.fill((long[]) parms[idx - 1], GeoTimeSerie.NO_LOCATION);
-        }
-        if (null != subgts.elevations) {
-          parms[idx++] = Arrays.copyOf(subgts.elevations, subgts.values);
-        } else {
-          parms[idx++] = new long[subgts.values];
-          Arrays.fill((long[]) parms[idx - 1], GeoTimeSerie.NO_ELEVATION);
-        }
-        parms[idx++] = new Object[subgts.values];
-        parms[idx++] = new long[] { 0, -bucketspan, bucketend - bucketspan, bucketend };
-        
-        for (int j = 0; j < subgts.values; j++) {
-          ((Object[]) parms[6])[j] = valueAtIndex(subgts, j);
-        }
-
-        aggregated = (Object[]) ((WarpScriptBucketizerFunction) aggregator).apply(parms);        
+        aggregated = (Object[]) ((WarpScriptBucketizerFunction) aggregator).apply(bucketizerParams(bucketend, bucketspan, bucketized.getName(), labels, gts, lo, hi));
       }
 
+      hi = lo;
+
       //
       // Only set value if it was non null
       //
@@ -1566,6 +1737,52 @@ public class GTSHelper {
     return bucketized;
   }
 
+  /**
+   * Build the parameters passed to a bucketizer function for the datapoints of 'gts' at indices 'from' (inclusive) to 'to' (exclusive).
+   * 
+   * Aggregator functions have 8 parameters (so mappers or reducers can be used as aggregators)
+   *
+   * bucket timestamp: end timestamp of the bucket we're currently computing a value for
+   * names: array of GTS names
+   * labels: array of GTS labels
+   * ticks: array of ticks being aggregated
+   * locations: array of locations being aggregated
+   * elevations: array of elevations being aggregated
+   * values: array of values being aggregated
+   * bucket span: width (in microseconds) of bucket
+   */
+  private static Object[] bucketizerParams(long bucketend, long bucketspan, String name, Map<String,String> labels, GeoTimeSerie gts, int from, int to) {
+    Object[] parms = new Object[8];
+
+    int idx = 0;
+    parms[idx++] = bucketend;
+    parms[idx] = new String[1];
+    ((String[]) parms[idx++])[0] = name;
+    parms[idx] = new Map[1];
+    ((Map[]) parms[idx++])[0] = labels;
+    parms[idx++] = Arrays.copyOfRange(gts.ticks, from, to);
+    if (null != gts.locations) {
+      parms[idx++] = Arrays.copyOfRange(gts.locations, from, to);
+    } else {
+      parms[idx++] = new long[to - from];
+      Arrays.fill((long[]) parms[idx - 1], GeoTimeSerie.NO_LOCATION);
+    }
+    if (null != gts.elevations) {
+      parms[idx++] = Arrays.copyOfRange(gts.elevations, from, to);
+    } else {
+      parms[idx++] = new long[to - from];
+      Arrays.fill((long[]) parms[idx - 1], GeoTimeSerie.NO_ELEVATION);
+    }
+    parms[idx++] = new Object[to - from];
+    parms[idx++] = new long[] { 0, -bucketspan, bucketend - bucketspan, bucketend };
+    
+    for (int j = from; j < to; j++) {
+      ((Object[]) parms[6])[j - from] = valueAtIndex(gts, j);
+    }
+    
+    return parms;
+  }
+  
   public static void unbucketize(GeoTimeSerie gts) {
     gts.bucketcount = 0;
     gts.bucketspan = 0L;
@@ -2775,6 +2992,16 @@ public class GTSHelper {
    * @return String representation of a GTS measurement at 'tick'.
    */
   public static String tickToString(StringBuilder clslbls, long timestamp, long location, long elevation, Object value) {
+    return tickToString(clslbls, timestamp, location, elevation, null, 0L, 0.0D, value);
+  }
+
+  /**
+   * Return a string representation of a GTS measurement at 'tick' whose value
+   * is passed as a primitive if it is of type LONG or DOUBLE.
+   * 
+   * @see #encodeValue(StringBuilder, TYPE, long, double, Object)
+   */
+  public static String tickToString(StringBuilder clslbls, long timestamp, long location, long elevation, TYPE type, long longValue, double doubleValue, Object value) {
     try {
       StringBuilder sb = new StringBuilder();
       
@@ -2797,7 +3024,7 @@ public class GTSHelper {
         sb.append(" ");
       }
       
-      encodeValue(sb, value);
+      encodeValue(sb, type, longValue, doubleValue, value);
       return sb.toString();
       
     } catch (Exception e) {
@@ -2810,6 +3037,24 @@ public class GTSHelper {
     return tickToString(null, timestamp, location, elevation, value);
   }
 
+  /**
+   * Encode a value which is passed as a primitive if it is of type LONG or DOUBLE
+   * 
+   * @param type Type of the value or null if it is passed as 'value'
+   * @param longValue Value to encode if 'type' is LONG
+   * @param doubleValue Value to encode if 'type' is DOUBLE and 'value' is null
+   * @param value Value to encode for other types
+   */
+  public static void encodeValue(StringBuilder sb, TYPE type, long longValue, double doubleValue, Object value) {
+    if (TYPE.LONG == type) {
+      sb.append(longValue);
+    } else if (TYPE.DOUBLE == type && null == value) {
+      sb.append(doubleValue);
+    } else {
+      encodeValue(sb, value);
+    }
+  }
+  
   public static void encodeValue(StringBuilder sb, Object value) {
     if (value instanceof Long || value instanceof Double) {
       sb.append(value);
@@ -3707,32 +3952,33 @@ public class GTSHelper {
     List<GeoTimeSerie> results = new ArrayList<GeoTimeSerie>();
     
     //
-    // Clone gts
+    // Create an empty clone of gts which will receive the mapped values
     //
     
-    GeoTimeSerie mapped = gts.clone();
+    GeoTimeSerie mapped = gts.cloneEmpty();
     
     //
     // Do nothing if there are no values and gts was not bucketized
     //
     
-    if (0 == mapped.values && !isBucketized(mapped)) {
+    if (0 == gts.values && !isBucketized(gts)) {
       results.add(mapped);
       return results;
     }
     
-    // Sort ticks
-    sort(mapped, reversed);
-    // Retrieve ticks if GTS is not bucketized.        
-    long[] ticks = isBucketized(gts) ? null : Arrays.copyOf(mapped.ticks, gts.values);
+    //
+    // Sort gts in natural order of ticks, the window on which the mapper is applied
+    // is a range of indices in the sorted arrays of gts, no values are copied to build it.
+    //
     
+    sort(gts);
+    
+    boolean bucketized = isBucketized(gts);
+    int nvalues = gts.values;
     
-    // Clear clone
-    GTSHelper.clear(mapped);
-
     int idx = 0;
     // Number of ticks for which to run the mapper
-    int nticks = null != ticks ? ticks.length : mapped.bucketcount;
+    int nticks = bucketized ? mapped.bucketcount : nvalues;
 
     // Call getLabels once so we don't waste CPU cycles, this will create a clone of the labels map
     Map<String,String> labels = gts.getLabels();
@@ -3741,6 +3987,43 @@ public class GTSHelper {
     
     GeoTimeSerie subgts = null;
     
+    //
+    // Bounds of the current window, [lo,hi[ in the sorted arrays of gts. When
+    // computing ticks backwards the window slides from the end of the arrays.
+    //
+    
+    int lo = reversed ? nvalues : 0;
+    int hi = lo;
+
+    //
+    // Check if the mapper can maintain its result incrementally as the window slides
+    //
+    
+    SlidingWindow window = null;
+    
+    if (null == stack && mapper instanceof WarpScriptSlidingWindowMapperFunction) {
+      window = ((WarpScriptSlidingWindowMapperFunction) mapper).newWindow(gts, reversed);
+    }
+    
+    //
+    // Otherwise check if the mapper can be applied directly to the arrays of numeric GTS,
+    // the result array is then reused across ticks.
+    //
+    
+    Object[] typedResult = null;
+    long[] typedLongs = null;
+    double[] typedDoubles = null;
+    
+    if (null == stack && null == window && mapper instanceof WarpScriptMapperFunction && mapper instanceof WarpScriptTypedAggregatorFunction) {
+      if (TYPE.LONG == gts.type) {
+        typedLongs = gts.longValues;
+        typedResult = new Object[4];
+      } else if (TYPE.DOUBLE == gts.type) {
+        typedDoubles = gts.doubleValues;
+        typedResult = new Object[4];
+      }
+    }
+    
     boolean hasOccurrences = (0 != occurrences);
     
     Map<String,GeoTimeSerie> multipleMapped = new TreeMap<String,GeoTimeSerie>();
@@ -3753,14 +4036,20 @@ public class GTSHelper {
         break;
       }
       
+      //
+      // Index of the current tick in the sorted arrays of gts
+      //
+      
+      int pos = reversed ? nvalues - 1 - idx : idx;
+      
       if (reversed) {
-        tick = null != ticks ? ticks[idx] : mapped.lastbucket - idx * mapped.bucketspan;
+        tick = bucketized ? mapped.lastbucket - idx * mapped.bucketspan : gts.ticks[pos];
       } else {
-        tick = null != ticks ? ticks[idx] : mapped.lastbucket - (mapped.bucketcount - 1 - idx) * mapped.bucketspan;
+        tick = bucketized ? mapped.lastbucket - (mapped.bucketcount - 1 - idx) * mapped.bucketspan : gts.ticks[pos];
       }
       
       //
-      // Determine start/stop timestamp for extracting subserie
+      // Determine start/stop timestamp of the window
       //
       
       long start = tick;
@@ -3770,14 +4059,10 @@ public class GTSHelper {
         start = tick + prewindow;
       } else if (prewindow > 0) {
         // window is a number of ticks
-        if (null == ticks) {
+        if (bucketized) {
           start = prewindow <= mapped.bucketcount ? tick - prewindow * mapped.bucketspan : Long.MIN_VALUE;
         } else {
-          if (reversed) {
-            start = idx + prewindow < ticks.length ? (ticks[idx + (int) prewindow]) : Long.MIN_VALUE;
-          } else {
-            start = idx - prewindow >= 0 ? (ticks[idx - (int) prewindow]) : Long.MIN_VALUE;
-          }
+          start = pos - prewindow >= 0 ? gts.ticks[(int) (pos - prewindow)] : Long.MIN_VALUE;
         }
       }
       
@@ -3785,27 +4070,84 @@ public class GTSHelper {
         stop = tick - postwindow;
       } else if (postwindow > 0) {
         // window is a number of ticks
-        if (null == ticks) {
+        if (bucketized) {
           stop = postwindow <= mapped.bucketcount ? tick + postwindow * mapped.bucketspan : Long.MAX_VALUE;
         } else {
-          if (reversed) {
-            stop = idx - postwindow >= 0 ? (ticks[idx - (int) postwindow]) : Long.MAX_VALUE;
-          } else {
-            stop = idx + postwindow < ticks.length ? (ticks[idx + (int) postwindow]) : Long.MAX_VALUE;
-          }
+          stop = pos + postwindow < nvalues ? gts.ticks[(int) (pos + postwindow)] : Long.MAX_VALUE;
         }
       }
       
       //
-      // Extract values 
+      // Move the window bounds so they enclose the ticks between start and stop.
+      // As start and stop are monotonic, this is amortized O(1) per tick.
       //
       
-      subgts = GTSHelper.subSerie(gts, start, stop, false, false, subgts);
+      int from = lo;
+      while (from < nvalues && gts.ticks[from] < start) {
+        from++;
+      }
+      while (from > 0 && gts.ticks[from - 1] >= start) {
+        from--;
+      }
+      
+      int to = hi;
+      while (to < nvalues && gts.ticks[to] <= stop) {
+        to++;
+      }
+      while (to > 0 && gts.ticks[to - 1] > stop) {
+        to--;
+      }
+      
+      if (null != window) {
+        //
+        // Notify the window of the datapoints entering and leaving it. If
+        // the new window does not overlap the previous one, start afresh.
+        //
+        if (!reversed) {
+          if (from < lo || to < hi || from >= hi) {
+            window.clear();
+            lo = from;
+            hi = from;
+          }
+          while (hi < to) {
+            window.add(hi++);
+          }
+          while (lo < from) {
+            window.remove(lo++);
+          }
+        } else {
+          if (from > lo || to > hi || to <= lo) {
+            window.clear();
+            lo = to;
+            hi = to;
+          }
+          while (lo > from) {
+            window.add(--lo);
+          }
+          while (hi > to) {
+            window.remove(--hi);
+          }
+        }
+      } else {
+        lo = from;
+        hi = to;
+      }
       
       Object mapResult = null;
       
       if (null != stack) {
         if (mapper instanceof Macro) {
+          //
+          // Extract values, the subserie is reused across ticks
+          //
+          
+          if (null == subgts) {
+            subgts = new GeoTimeSerie(128);
+            subgts.setName(gts.getName());
+          }
+          
+          subgts = GTSHelper.subSerie(gts, from, to, subgts);
+
           subgts.safeSetMetadata(mapped.getMetadata());
           stack.push(subgts);
           stack.exec((Macro) mapper);
@@ -3837,6 +4179,10 @@ public class GTSHelper {
         } else {
           throw new WarpScriptException("Invalid mapper function.");
         }        
+      } else if (null != window) {
+        mapResult = window.getResult(tick, from, to);
+      } else if (null != typedResult && to > from && ((WarpScriptTypedAggregatorFunction) mapper).aggregate(tick, gts.ticks, gts.locations, gts.elevations, typedLongs, typedDoubles, from, to - from, typedResult)) {
+        mapResult = typedResult;
       } else {
         if (!(mapper instanceof WarpScriptMapperFunction)) {
           throw new WarpScriptException("Expected a mapper function.");
@@ -3866,6 +4212,8 @@ public class GTSHelper {
         // value: computed value
         //
         
+        int count = to - from;
+        
         Object[] parms = new Object[8];
 
         int i = 0;
@@ -3876,40 +4224,32 @@ public class GTSHelper {
         // having a rogue mapper modify them.
         //
         
-        parms[i++] = new String[subgts.values];
+        parms[i++] = new String[count];
         Arrays.fill((Object[]) parms[i-1], gts.getName());
 
-        parms[i++] = new Map[subgts.values]; 
+        parms[i++] = new Map[count]; 
         Arrays.fill((Object[]) parms[i-1], labels);
 
-        parms[i++] = subgts.values > 0 ? Arrays.copyOf(subgts.ticks, subgts.values) : new long[0];
-        if (null != subgts.locations) {
-          parms[i++] = subgts.values > 0 ? Arrays.copyOf(subgts.locations, subgts.values) : new long[0];
+        parms[i++] = count > 0 ? Arrays.copyOfRange(gts.ticks, from, to) : new long[0];
+        if (null != gts.locations && count > 0) {
+          parms[i++] = Arrays.copyOfRange(gts.locations, from, to);
         } else {
-          if (subgts.values > 0) {
-            parms[i++] = new long[subgts.values];
-            Arrays.fill((long[]) parms[i - 1], GeoTimeSerie.NO_LOCATION);
-          } else {
-            parms[i++] = new long[0];
-          }
+          parms[i++] = new long[count];
+          Arrays.fill((long[]) parms[i - 1], GeoTimeSerie.NO_LOCATION);
         }
-        if (null != subgts.elevations) {
-          parms[i++] = subgts.values > 0 ? Arrays.copyOf(subgts.elevations, subgts.values) : new long[0];
+        if (null != gts.elevations && count > 0) {
+          parms[i++] = Arrays.copyOfRange(gts.elevations, from, to);
         } else {
-          if (subgts.values > 0) {
-            parms[i++] = new long[subgts.values];
-            Arrays.fill((long[]) parms[i - 1], GeoTimeSerie.NO_ELEVATION);
-          } else {
-            parms[i++] = new long[0];
-          }
+          parms[i++] = new long[count];
+          Arrays.fill((long[]) parms[i - 1], GeoTimeSerie.NO_ELEVATION);
         }
-        parms[i++] = new Object[subgts.values];      
+        parms[i++] = new Object[count];      
 
         int tickidx = -1;
         
-        for (int j = 0; j < subgts.values; j++) {
-          ((Object[]) parms[6])[j] = valueAtIndex(subgts, j);
-          if (-1 == tickidx && tick == tickAtIndex(subgts, j)) {
+        for (int j = 0; j < count; j++) {
+          ((Object[]) parms[6])[j] = valueAtIndex(gts, from + j);
+          if (-1 == tickidx && tick == gts.ticks[from + j]) {
             tickidx = j;
           }
         }
@@ -4674,7 +5014,7 @@ public class GTSHelper {
    * @throws WarpScriptException if the function is invalid.
    */
   @SafeVarargs
-  public static Map<Map<String,String>,List<GeoTimeSerie>> partitionAndApplyUnflattened(Object function, WarpScriptStack stack, Macro validator, Collection<String> bylabels, List<GeoTimeSerie>... series) throws WarpScriptException {
+  public static Map<Map<String,String>,List<GeoTimeSerie>> partitionAndApplyUnflattened(final Object function, WarpScriptStack stack, Macro validator, Collection<String> bylabels, List<GeoTimeSerie>... series) throws WarpScriptException {
 
     //
     // Gather all GTS instances together so we can partition them
@@ -4711,28 +5051,37 @@ public class GTSHelper {
     
     Map<Map<String,String>, List<GeoTimeSerie>> results = new LinkedHashMap<Map<String,String>,List<GeoTimeSerie>>();
     
+    //
+    // Sort the 'series' so we can perform a binary search instead of using 'contains'
+    //
+
+    for (int i = 0; i < series.length; i++) {
+      Collections.sort(series[i], METASORT.META_COMPARATOR);
+    }
+    
+    //
+    // When the function can be applied to the partitions in parallel, the validator is still called
+    // on the calling thread, only the calls to the function are deferred to the pool.
+    //
+    
+    boolean parallel = PartitionExecutor.isParallel(function, partition.size());
+    
+    List<Map<String,String>> deferredLabels = new ArrayList<Map<String,String>>();
+    List<Callable<List<GeoTimeSerie>>> tasks = new ArrayList<Callable<List<GeoTimeSerie>>>();
+    
     //
     // Loop on each partition
     //
     
     for (Map<String,String> partitionlabels: partition.keySet()) {
-      Map<String,String> commonlabels = Collections.unmodifiableMap(partitionlabels);
+      final Map<String,String> commonlabels = Collections.unmodifiableMap(partitionlabels);
       
-      List<GeoTimeSerie> result = new ArrayList<GeoTimeSerie>();
-
       //
       // Make N (cardinality of 'series') sublists of GTS instances.
       //
       
-      List<GeoTimeSerie>[] subseries = new List[series.length];
+      final List<GeoTimeSerie>[] subseries = new List[series.length];
       for (int i = 0; i < series.length; i++) {
-        
-        //
-        // Sort the 'series' so we can perform a binary search instead of using 'contains'
-        //
-
-        Collections.sort(series[i], METASORT.META_COMPARATOR);
-
         subseries[i] = new ArrayList<GeoTimeSerie>();
        
         //
@@ -4751,40 +5100,66 @@ public class GTSHelper {
           }          
         }
       }
+      
+      if (!(function instanceof WarpScriptFilterFunction) && !(function instanceof WarpScriptNAryFunction)) {
+        throw new WarpScriptException("Invalid function to apply.");
+      }
+      
       //
-      // Call the function
+      // If we have a stack and a validator, push the commonlabels and the list of subseries onto the stack,
+      // call the validator and check if it left true or false onto the stack.
       //
       
-      if (function instanceof WarpScriptFilterFunction) {
-        List<GeoTimeSerie> filtered = ((WarpScriptFilterFunction) function).filter(commonlabels, subseries);
-        if (null != filtered) {
-          result.addAll(filtered);
+      if (function instanceof WarpScriptNAryFunction && null != stack && null != validator) {
+        stack.push(Arrays.asList(subseries));
+        stack.push(commonlabels);
+        stack.exec(validator);
+        if (!Boolean.TRUE.equals(stack.pop())) {
+          results.put(commonlabels, new ArrayList<GeoTimeSerie>());
+          continue;
+        }
+      }
+
+      Callable<List<GeoTimeSerie>> task = new Callable<List<GeoTimeSerie>>() {
+        @Override
+        public List<GeoTimeSerie> call() throws Exception {
+          return applyPartition(function, commonlabels, subseries);
         }
-      } else if (function instanceof WarpScriptNAryFunction) {
+      };
+      
+      if (parallel) {
         //
-        // If we have a stack and a validator, push the commonlabels and the list of subseries onto the stack,
-        // call the validator and check if it left true or false onto the stack.
+        // Singleton series are shared by all partitions, sort all GTS instances
+        // now so the function does not sort them concurrently
         //
         
-        boolean proceed = true;
-        
-        if (null != stack && null != validator) {
-          stack.push(Arrays.asList(subseries));
-          stack.push(commonlabels);
-          stack.exec(validator);
-          if (!Boolean.TRUE.equals(stack.pop())) {
-            proceed = false;
+        for (List<GeoTimeSerie> l: subseries) {
+          for (GeoTimeSerie gts: l) {
+            GTSHelper.sort(gts);
           }
         }
         
-        if (proceed) {
-          result.add(GTSHelper.applyNAryFunction((WarpScriptNAryFunction) function, commonlabels, subseries));
-        }
+        // Reserve the slot so the results are in the partition order
+        results.put(commonlabels, null);
+        deferredLabels.add(commonlabels);
+        tasks.add(task);
       } else {
-        throw new WarpScriptException("Invalid function to apply.");
+        try {
+          results.put(commonlabels, task.call());
+        } catch (WarpScriptException wse) {
+          throw wse;
+        } catch (Exception e) {
+          throw new WarpScriptException(e);
+        }
       }
+    }
+    
+    if (!tasks.isEmpty()) {
+      List<List<GeoTimeSerie>> applied = PartitionExecutor.invokeAll(tasks);
       
-      results.put(commonlabels, result);
+      for (int i = 0; i < applied.size(); i++) {
+        results.put(deferredLabels.get(i), applied.get(i));
+      }
     }
     
     //
@@ -4802,6 +5177,24 @@ public class GTSHelper {
     return results;
   }
 
+  /**
+   * Apply a filter or N-ary function to the subseries of a single partition
+   */
+  private static List<GeoTimeSerie> applyPartition(Object function, Map<String,String> commonlabels, List<GeoTimeSerie>[] subseries) throws WarpScriptException {
+    List<GeoTimeSerie> result = new ArrayList<GeoTimeSerie>();
+    
+    if (function instanceof WarpScriptFilterFunction) {
+      List<GeoTimeSerie> filtered = ((WarpScriptFilterFunction) function).filter(commonlabels, subseries);
+      if (null != filtered) {
+        result.addAll(filtered);
+      }
+    } else {
+      result.add(GTSHelper.applyNAryFunction((WarpScriptNAryFunction) function, commonlabels, subseries));
+    }
+    
+    return result;
+  }
+  
   @SafeVarargs
   public static GeoTimeSerie applyNAryFunction(WarpScriptNAryFunction function, Map<String,String> commonlabels, List<GeoTimeSerie>... subseries) throws WarpScriptException {
     
@@ -5352,7 +5745,7 @@ public class GTSHelper {
     return results;
   }
   
-  public static Map<Map<String,String>,List<GeoTimeSerie>> reduceUnflattened(WarpScriptReducerFunction reducer, Collection<GeoTimeSerie> series, Collection<String> bylabels) throws WarpScriptException {
+  public static Map<Map<String,String>,List<GeoTimeSerie>> reduceUnflattened(final WarpScriptReducerFunction reducer, Collection<GeoTimeSerie> series, Collection<String> bylabels) throws WarpScriptException {
     //
     // Partition the GTS instances using the given labels
     //
@@ -5361,207 +5754,300 @@ public class GTSHelper {
     
     Map<Map<String,String>,List<GeoTimeSerie>> results = new LinkedHashMap<Map<String,String>, List<GeoTimeSerie>>();
     
+    //
+    // Partitions are independent, reduce them in parallel if possible.
+    // Each GTS belongs to a single partition so the sorting done in reducePartition is safe.
+    //
     
-    for (Map<String,String> partitionLabels: partitions.keySet()) {
-      boolean singleGTSResult = false;
-
-      List<GeoTimeSerie> partitionSeries = partitions.get(partitionLabels);
-      
-      //
-      // Extract labels and common labels
-      //
+    if (PartitionExecutor.isParallel(reducer, partitions.size())) {
+      List<Callable<List<GeoTimeSerie>>> tasks = new ArrayList<Callable<List<GeoTimeSerie>>>(partitions.size());
       
-      Map[] partlabels = new Map[partitionSeries.size() + 1];
-      
-      for (int i = 0; i < partitionSeries.size(); i++) {
-        partlabels[i] = partitionSeries.get(i).getLabels();
+      for (final Entry<Map<String,String>,List<GeoTimeSerie>> entry: partitions.entrySet()) {
+        tasks.add(new Callable<List<GeoTimeSerie>>() {
+          @Override
+          public List<GeoTimeSerie> call() throws Exception {
+            return reducePartition(reducer, entry.getKey(), entry.getValue());
+          }
+        });
       }
       
-      partlabels[partitionSeries.size()] = Collections.unmodifiableMap(partitionLabels);
+      List<List<GeoTimeSerie>> reduced = PartitionExecutor.invokeAll(tasks);
       
-      //
-      // Determine if result should be bucketized or not.
-      // Result will be bucketized if all GTS instances in the partition are
-      // bucketized, have the same bucketspan and have congruent lastbucket values
-      //
+      int i = 0;
       
-      long endbucket = Long.MIN_VALUE;
-      long startbucket = Long.MAX_VALUE;
-      long lastbucket = Long.MIN_VALUE;
-      long bucketspan = 0L;
-      
-      for (GeoTimeSerie gts: partitionSeries) {
-        // One GTS instance is not bucketized, result won't be either
-        if (!isBucketized(gts)) {
-          bucketspan = 0L;          
-          break;
-        }
-        if (0L == bucketspan) {
-          bucketspan = gts.bucketspan;
-        } else if (bucketspan != gts.bucketspan) {
-          // GTS has a bucketspan which differs from the previous one,
-          // so result won't be bucketized.
-          bucketspan = 0L;
-          break;
-        }
-        if (Long.MIN_VALUE == lastbucket) {
-          lastbucket = gts.lastbucket;
-        }
-        if (lastbucket % bucketspan != gts.lastbucket % gts.bucketspan) {
-          // GTS has a lastbucket value which is not congruent to the other
-          // lastbucket values, so result GTS won't be bucketized.
-          bucketspan = 0L;
-          break;
-        }
-        //
-        // Update start/end bucket
-        //
-        
-        if (gts.lastbucket > endbucket) {
-          endbucket = gts.lastbucket;
-        }
-        if (gts.lastbucket - gts.bucketcount * gts.bucketspan < startbucket) {
-          startbucket = gts.lastbucket - gts.bucketcount * gts.bucketspan;
-        }
+      for (Map<String,String> partitionLabels: partitions.keySet()) {
+        results.put(partitionLabels, reduced.get(i++));
       }
-      
-      //
-      // Determine bucketcount if result is to be bucketized
-      // startbucket is the end of the first bucket not considered
-      //
-      
-      int bucketcount = 0;
-      
-      if (0L != bucketspan) {
-        bucketcount = (int) ((endbucket - startbucket) / bucketspan);
+    } else {
+      for (Entry<Map<String,String>,List<GeoTimeSerie>> entry: partitions.entrySet()) {
+        results.put(entry.getKey(), reducePartition(reducer, entry.getKey(), entry.getValue()));
+      }
+    }
+    
+    return results;
+  }
+  
+  /**
+   * Reduce the GTS instances of a single partition
+   * 
+   * @return The list of GTS produced by the reducer for the partition
+   */
+  private static List<GeoTimeSerie> reducePartition(WarpScriptReducerFunction reducer, Map<String,String> partitionLabels, List<GeoTimeSerie> partitionSeries) throws WarpScriptException {
+    boolean singleGTSResult = false;
+    
+    //
+    // Extract labels and common labels
+    //
+    
+    Map[] partlabels = new Map[partitionSeries.size() + 1];
+    
+    for (int i = 0; i < partitionSeries.size(); i++) {
+      partlabels[i] = partitionSeries.get(i).getLabels();
+    }
+    
+    partlabels[partitionSeries.size()] = Collections.unmodifiableMap(partitionLabels);
+    
+    //
+    // Determine if result should be bucketized or not.
+    // Result will be bucketized if all GTS instances in the partition are
+    // bucketized, have the same bucketspan and have congruent lastbucket values
+    //
+    
+    long endbucket = Long.MIN_VALUE;
+    long startbucket = Long.MAX_VALUE;
+    long lastbucket = Long.MIN_VALUE;
+    long bucketspan = 0L;
+    
+    for (GeoTimeSerie gts: partitionSeries) {
+      // One GTS instance is not bucketized, result won't be either
+      if (!isBucketized(gts)) {
+        bucketspan = 0L;          
+        break;
+      }
+      if (0L == bucketspan) {
+        bucketspan = gts.bucketspan;
+      } else if (bucketspan != gts.bucketspan) {
+        // GTS has a bucketspan which differs from the previous one,
+        // so result won't be bucketized.
+        bucketspan = 0L;
+        break;
+      }
+      if (Long.MIN_VALUE == lastbucket) {
+        lastbucket = gts.lastbucket;
+      }
+      if (lastbucket % bucketspan != gts.lastbucket % gts.bucketspan) {
+        // GTS has a lastbucket value which is not congruent to the other
+        // lastbucket values, so result GTS won't be bucketized.
+        bucketspan = 0L;
+        break;
       }
-      
       //
-      // Create target GTS
+      // Update start/end bucket
       //
       
-      GeoTimeSerie result;
-      
-      if (0L != bucketspan) {
-        result = new GeoTimeSerie(lastbucket, bucketcount, bucketspan, 0);
-      } else {
-        result = new GeoTimeSerie();
+      if (gts.lastbucket > endbucket) {
+        endbucket = gts.lastbucket;
+      }
+      if (gts.lastbucket - gts.bucketcount * gts.bucketspan < startbucket) {
+        startbucket = gts.lastbucket - gts.bucketcount * gts.bucketspan;
       }
+    }
+    
+    //
+    // Determine bucketcount if result is to be bucketized
+    // startbucket is the end of the first bucket not considered
+    //
+    
+    int bucketcount = 0;
+    
+    if (0L != bucketspan) {
+      bucketcount = (int) ((endbucket - startbucket) / bucketspan);
+    }
+    
+    //
+    // Create target GTS
+    //
+    
+    GeoTimeSerie result;
+    
+    if (0L != bucketspan) {
+      result = new GeoTimeSerie(lastbucket, bucketcount, bucketspan, 0);
+    } else {
+      result = new GeoTimeSerie();
+    }
 
-      result.setName("");
-      result.setLabels(partitionLabels);
+    result.setName("");
+    result.setLabels(partitionLabels);
+    
+    //
+    // Sort all series in the partition so we can scan their ticks in order
+    //
       
+    String resultName = null;
+    
+    for (GeoTimeSerie gts: partitionSeries) {
+      sort(gts, false);
+      if (null == resultName) {
+        resultName = gts.getName();
+      } else if (!resultName.equals(gts.getName())) {
+        resultName = "";
+      }
+    }
+    
+    result.setName(resultName);
+    
+    Map<String,GeoTimeSerie> multipleResults = new TreeMap<String,GeoTimeSerie>();
+    
+    //
+    // Initialize indices for each serie
+    //
+    
+    int[] idx = new int[partitionSeries.size()];
+
+    //
+    // Initialize names/labels/location/elevation/value arrays
+    //
+    
+    long[] ticks = new long[idx.length];
+    String[] names = new String[idx.length];
+    // Allocate 1 more slot for labels so we can store the common labels at the end of the array
+    Map<String,String>[] lbls = Arrays.copyOf(partlabels, partlabels.length);
+    
+    long[] locations = new long[idx.length];
+    long[] elevations = new long[idx.length];
+    Object[] values = new Object[idx.length];
+    
+    //
+    // Reducers have 7 parameters (similar to those of binary ops and mappers)
+    //
+    // tick for which value is computed
+    // array of ticks
+    // array of names
+    // array of labels
+    // array of locations
+    // array of elevations
+    // array of values
+    //
+    
+    Object[] params = new Object[7];
+    
+    //
+    // If all series are of the same numeric type and the reducer can be applied directly to
+    // primitive arrays, values are also gathered in a long[] or double[] and the reducer is
+    // called on those for the ticks at which all series have a value.
+    //
+    
+    TYPE partitionType = partitionSeries.isEmpty() ? TYPE.UNDEFINED : partitionSeries.get(0).type;
+    
+    for (GeoTimeSerie gts: partitionSeries) {
+      if (partitionType != gts.type) {
+        partitionType = TYPE.UNDEFINED;
+        break;
+      }
+    }
+    
+    Object[] typedResult = null;
+    long[] typedLongs = null;
+    double[] typedDoubles = null;
+    
+    if (reducer instanceof WarpScriptTypedAggregatorFunction) {
+      if (TYPE.LONG == partitionType) {
+        typedLongs = new long[idx.length];
+        typedResult = new Object[4];
+      } else if (TYPE.DOUBLE == partitionType) {
+        typedDoubles = new double[idx.length];
+        typedResult = new Object[4];
+      }
+    }
+    
+    while(true) {
       //
-      // Sort all series in the partition so we can scan their ticks in order
+      // Determine the tick span at the given indices
       //
-        
-      String resultName = null;
+
+      long smallest = Long.MAX_VALUE;
       
-      for (GeoTimeSerie gts: partitionSeries) {
-        sort(gts, false);
-        if (null == resultName) {
-          resultName = gts.getName();
-        } else if (!resultName.equals(gts.getName())) {
-          resultName = "";
+      for (int i = 0; i < idx.length; i++) {
+        GeoTimeSerie gts = partitionSeries.get(i); 
+        if (idx[i] < gts.values) {
+          if (gts.ticks[idx[i]] < smallest) {
+            smallest = gts.ticks[idx[i]];
+          }
         }
       }
-      
-      result.setName(resultName);
-      
-      Map<String,GeoTimeSerie> multipleResults = new TreeMap<String,GeoTimeSerie>();
-      
+
       //
-      // Initialize indices for each serie
+      // No smallest tick, this means we've exhausted all values
       //
       
-      int[] idx = new int[partitionSeries.size()];
-
+      if (Long.MAX_VALUE == smallest) {
+        break;
+      }
+      
       //
-      // Initialize names/labels/location/elevation/value arrays
+      // Now fill the locations/elevations/values arrays for all GTS
+      // instances whose current tick is 'smallest'
       //
       
-      long[] ticks = new long[idx.length];
-      String[] names = new String[idx.length];
-      // Allocate 1 more slot for labels so we can store the common labels at the end of the array
-      Map<String,String>[] lbls = Arrays.copyOf(partlabels, partlabels.length);
+      boolean complete = true;
       
-      long[] locations = new long[idx.length];
-      long[] elevations = new long[idx.length];
-      Object[] values = new Object[idx.length];
+      for (int i = 0; i < idx.length; i++) {
+        GeoTimeSerie gts = partitionSeries.get(i); 
+        if (idx[i] < gts.values && smallest == gts.ticks[idx[i]]) {
+          ticks[i] = smallest;
+          names[i] = gts.getName();
+
+          locations[i] = null != gts.locations ? gts.locations[idx[i]] : GeoTimeSerie.NO_LOCATION;
+          elevations[i] = null != gts.elevations ? gts.elevations[idx[i]] : GeoTimeSerie.NO_ELEVATION;
+          // For typed reducers, values are only boxed if 'apply' ends up being called, until then a non null marker records their presence
+          if (null != typedLongs) {
+            typedLongs[i] = gts.longValues[idx[i]];
+            values[i] = Boolean.TRUE;
+          } else if (null != typedDoubles) {
+            typedDoubles[i] = gts.doubleValues[idx[i]];
+            values[i] = Boolean.TRUE;
+          } else {
+            values[i] = GTSHelper.valueAtIndex(gts, idx[i]);
+          }
+          // Advance idx[i] since it was the smallest tick.
+          idx[i]++;
+        } else {
+          ticks[i] = Long.MIN_VALUE;
+          names[i] = gts.getName();
+
+          locations[i] = GeoTimeSerie.NO_LOCATION;
+          elevations[i] = GeoTimeSerie.NO_ELEVATION;
+          values[i] = null;
+          complete = false;
+        }
+      }
       
       //
-      // Reducers have 7 parameters (similar to those of binary ops and mappers)
+      // Call the reducer for the current tick
       //
-      // tick for which value is computed
-      // array of ticks
-      // array of names
-      // array of labels
-      // array of locations
-      // array of elevations
-      // array of values
+      // Return value will be an array [tick, location, elevation, value]
       //
       
-      Object[] params = new Object[7];
+      // TODO(hbs): extend reducers to use a window instead of a single value when reducing.
+      //            ticks/locations/elevations/values would be arrays of arrays and an 8th param
+      //            could contain the values.
       
-      while(true) {
+      Object reducerResult;
+      
+      if (null != typedResult && complete && ((WarpScriptTypedAggregatorFunction) reducer).aggregate(smallest, ticks, locations, elevations, typedLongs, typedDoubles, 0, idx.length, typedResult)) {
+        reducerResult = typedResult;
+      } else {
         //
-        // Determine the tick span at the given indices
+        // Box the values gathered for the typed reducer, non null entries are those present at this tick
         //
-
-        long smallest = Long.MAX_VALUE;
         
-        for (int i = 0; i < idx.length; i++) {
-          GeoTimeSerie gts = partitionSeries.get(i); 
-          if (idx[i] < gts.values) {
-            if (gts.ticks[idx[i]] < smallest) {
-              smallest = gts.ticks[idx[i]];
+        if (null != typedResult) {
+          for (int i = 0; i < values.length; i++) {
+            if (null != values[i]) {
+              values[i] = null != typedLongs ? (Object) typedLongs[i] : (Object) typedDoubles[i];
             }
           }
         }
-
-        //
-        // No smallest tick, this means we've exhausted all values
-        //
-        
-        if (Long.MAX_VALUE == smallest) {
-          break;
-        }
-        
-        //
-        // Now fill the locations/elevations/values arrays for all GTS
-        // instances whose current tick is 'smallest'
-        //
-        
-        for (int i = 0; i < idx.length; i++) {
-          GeoTimeSerie gts = partitionSeries.get(i); 
-          if (idx[i] < gts.values && smallest == gts.ticks[idx[i]]) {
-            ticks[i] = smallest;
-            names[i] = gts.getName();
-
-            locations[i] = null != gts.locations ? gts.locations[idx[i]] : GeoTimeSerie.NO_LOCATION;
-            elevations[i] = null != gts.elevations ? gts.elevations[idx[i]] : GeoTimeSerie.NO_ELEVATION;
-            values[i] = GTSHelper.valueAtIndex(gts, idx[i]);
-            // Advance idx[i] since it was the smallest tick.
-            idx[i]++;
-          } else {
-            ticks[i] = Long.MIN_VALUE;
-            names[i] = gts.getName();
-
-            locations[i] = GeoTimeSerie.NO_LOCATION;
-            elevations[i] = GeoTimeSerie.NO_ELEVATION;
-            values[i] = null;
-          }
-        }
-        
-        //
-        // Call the reducer for the current tick
-        //
-        // Return value will be an array [tick, location, elevation, value]
-        //
-        
-        // TODO(hbs): extend reducers to use a window instead of a single value when reducing.
-        //            ticks/locations/elevations/values would be arrays of arrays and an 8th param
-        //            could contain the values.
         
         params[0] = smallest;
         params[1] = names;
@@ -5570,51 +6056,49 @@ public class GTSHelper {
         params[4] = locations;
         params[5] = elevations;
         params[6] = values;
-                
-        Object reducerResult = reducer.apply(params);
-        
-        if (reducerResult instanceof Map) {
-          for (Entry<Object,Object> entry: ((Map<Object,Object>) reducerResult).entrySet()) {
-            GeoTimeSerie gts = multipleResults.get(entry.getKey().toString());
-            if (null == gts) {
-              if (0L != bucketspan) {
-                gts = new GeoTimeSerie(lastbucket, bucketcount, bucketspan, 0);
-              } else {
-                gts = new GeoTimeSerie();
-              }
-
-              gts.setName(entry.getKey().toString());
-              gts.setLabels(partitionLabels);
-              multipleResults.put(entry.getKey().toString(), gts);
-            }
-            
-            Object[] reduced = (Object[]) entry.getValue();
-            
-            if (null != reduced[3]) {
-              GTSHelper.setValue(gts, smallest, (long) reduced[1], (long) reduced[2], reduced[3], false);
+        
+        reducerResult = reducer.apply(params);
+      }
+      
+      if (reducerResult instanceof Map) {
+        for (Entry<Object,Object> entry: ((Map<Object,Object>) reducerResult).entrySet()) {
+          GeoTimeSerie gts = multipleResults.get(entry.getKey().toString());
+          if (null == gts) {
+            if (0L != bucketspan) {
+              gts = new GeoTimeSerie(lastbucket, bucketcount, bucketspan, 0);
+            } else {
+              gts = new GeoTimeSerie();
             }
+
+            gts.setName(entry.getKey().toString());
+            gts.setLabels(partitionLabels);
+            multipleResults.put(entry.getKey().toString(), gts);
           }
-        } else {
-          Object[] reduced = (Object[]) reducerResult;
-          singleGTSResult = true;
+          
+          Object[] reduced = (Object[]) entry.getValue();
+          
           if (null != reduced[3]) {
-            GTSHelper.setValue(result, smallest, (long) reduced[1], (long) reduced[2], reduced[3], false);
+            GTSHelper.setValue(gts, smallest, (long) reduced[1], (long) reduced[2], reduced[3], false);
           }
         }
-        
+      } else {
+        Object[] reduced = (Object[]) reducerResult;
+        singleGTSResult = true;
+        if (null != reduced[3]) {
+          GTSHelper.setValue(result, smallest, (long) reduced[1], (long) reduced[2], reduced[3], false);
+        }
       }
       
-      if (!results.containsKey(partitionLabels)) {
-        results.put(partitionLabels, new ArrayList<GeoTimeSerie>());
-      }
+    }
+    
+    List<GeoTimeSerie> results = new ArrayList<GeoTimeSerie>();
 
-      if (singleGTSResult) {
-        results.get(partitionLabels).add(result);
-      }
+    if (singleGTSResult) {
+      results.add(result);
+    }
 
-      if (!multipleResults.isEmpty()) {
-        results.get(partitionLabels).addAll(multipleResults.values());
-      }            
+    if (!multipleResults.isEmpty()) {
+      results.addAll(multipleResults.values());
     }
     
     return results;
@@ -0,0 +1,655 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import io.warp10.continuum.TimeSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.net.URLDecoder;
+import java.text.ParseException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.geoxp.GeoXPLib;
+import com.google.common.base.Charsets;
+
+/**
+ * Streaming parser for the GTS input format used by /update.
+ *
+ * Lines are parsed directly from the bytes read from the input stream, no String is
+ * created for the timestamp, location, elevation or numeric values. The class and
+ * labels of the last parsed line are remembered so lines which repeat them are attached
+ * to the current encoder without parsing or hashing them again.
+ *
+ * The semantics are those of GTSHelper.parse with parseAttributes set to false.
+ */
+public class GTSInputParser implements GTSInputReader {
+
+  private static final int DEFAULT_BUFFER_SIZE = 65536;
+
+  /**
+   * Powers of 10 which are exactly representable as doubles
+   */
+  private static final double[] POWERS_OF_TEN = new double[23];
+
+  static {
+    POWERS_OF_TEN[0] = 1.0D;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0D;
+    }
+  }
+
+  /**
+   * Maximum length of a decimal value which is returned as a BigDecimal, see GTSHelper.parseValue
+   */
+  private static final int MAX_BIGDECIMAL_LENGTH = 15;
+
+  private final InputStream in;
+
+  private final Map<String,String> extraLabels;
+
+  private final long[] classKey;
+  private final long[] labelsKey;
+
+  private final long maxValueSize;
+
+  private byte[] buf;
+
+  /**
+   * Offset of the first byte not yet consumed and offset past the last byte read
+   */
+  private int pos = 0;
+  private int limit = 0;
+
+  private boolean eof = false;
+
+  /**
+   * Boundaries of the current line, trimmed
+   */
+  private int start = 0;
+  private int end = 0;
+
+  /**
+   * Raw bytes of the class{labels} of the last parsed line and attributes of the
+   * encoder which was returned for it.
+   */
+  private byte[] prefix = new byte[256];
+  private int prefixlen = -1;
+  private String name = null;
+  private long classId = 0L;
+  private long labelsId = 0L;
+
+  /**
+   * @param in Stream to read, UTF-8 encoded
+   * @param extraLabels Labels to add to those of each parsed GTS, may be null
+   * @param classKey SipHash key used to compute the class Id of new encoders, if null no class Id is computed
+   * @param labelsKey SipHash key used to compute the labels Id of new encoders, if null no labels Id is computed
+   * @param maxValueSize Maximum size of STRING values
+   */
+  public GTSInputParser(InputStream in, Map<String,String> extraLabels, long[] classKey, long[] labelsKey, long maxValueSize) {
+    this.in = in;
+    this.extraLabels = extraLabels;
+    this.classKey = classKey;
+    this.labelsKey = labelsKey;
+    this.maxValueSize = maxValueSize;
+    this.buf = new byte[DEFAULT_BUFFER_SIZE];
+  }
+
+  /**
+   * Advance to the next line which is neither empty nor a comment.
+   *
+   * @return false if the end of the stream was reached
+   */
+  @Override
+  public boolean next() throws IOException {
+    while(true) {
+      int idx = this.pos;
+
+      while(idx < this.limit && '\n' != this.buf[idx] && '\r' != this.buf[idx]) {
+        idx++;
+      }
+
+      if (idx == this.limit && !this.eof) {
+        fill();
+        continue;
+      }
+
+      if (this.pos == this.limit && this.eof) {
+        return false;
+      }
+
+      int s = this.pos;
+      int e = idx;
+
+      this.pos = idx < this.limit ? idx + 1 : idx;
+
+      // Trim the line like String.trim would
+      while(s < e && (this.buf[s] & 0xFF) <= ' ') {
+        s++;
+      }
+      while(e > s && (this.buf[e - 1] & 0xFF) <= ' ') {
+        e--;
+      }
+
+      if (s == e || '#' == this.buf[s]) {
+        continue;
+      }
+
+      this.start = s;
+      this.end = e;
+
+      return true;
+    }
+  }
+
+  /**
+   * Read more data, moving the unconsumed bytes at the beginning of the buffer
+   */
+  private void fill() throws IOException {
+    if (this.pos > 0) {
+      System.arraycopy(this.buf, this.pos, this.buf, 0, this.limit - this.pos);
+      this.limit -= this.pos;
+      this.pos = 0;
+    }
+
+    if (this.limit == this.buf.length) {
+      byte[] newbuf = new byte[this.buf.length * 2];
+      System.arraycopy(this.buf, 0, newbuf, 0, this.limit);
+      this.buf = newbuf;
+    }
+
+    int len = this.in.read(this.buf, this.limit, this.buf.length - this.limit);
+
+    if (len < 0) {
+      this.eof = true;
+    } else {
+      this.limit += len;
+    }
+  }
+
+  /**
+   * Return the current line
+   */
+  @Override
+  public void close() throws IOException {
+    // Nothing to release, the underlying stream belongs to the caller
+  }
+
+  @Override
+  public String getText() {
+    return string(this.start, this.end);
+  }
+
+  @Override
+  public int getCount() {
+    return 1;
+  }
+
+  private String string(int from, int to) {
+    return new String(this.buf, from, to - from, Charsets.UTF_8);
+  }
+
+  private int indexOf(byte b, int from) {
+    for (int i = from; i < this.end; i++) {
+      if (b == this.buf[i]) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Parse the current line.
+   *
+   * @param encoder Encoder of the previous line or an encoder with the same metadata
+   * @param now Time to use for lines with no timestamp, if null the current time is used
+   * @return The encoder to which the datapoint was added, either 'encoder' or a new one
+   */
+  @Override
+  public GTSEncoder read(GTSEncoder encoder, Long now) throws ParseException, IOException {
+    try {
+      return parseLine(encoder, now);
+    } catch (NumberFormatException nfe) {
+      ParseException pe = new ParseException(getText(), 0);
+      pe.initCause(nfe);
+      throw pe;
+    }
+  }
+
+  private GTSEncoder parseLine(GTSEncoder encoder, Long now) throws ParseException, IOException {
+
+    int tsoffset = this.start;
+
+    if ('=' == this.buf[this.start]) {
+      if (null == encoder) {
+        throw new ParseException("Invalid continuation.", 0);
+      }
+      tsoffset++;
+    }
+
+    int idx = indexOf((byte) '/', this.start);
+
+    if (-1 == idx) {
+      throw new ParseException("Missing timestamp separator.", idx);
+    }
+
+    long timestamp;
+
+    if (tsoffset == idx) {
+      // No timestamp provided, use 'now'
+      timestamp = null != now ? (long) now : TimeSource.getTime();
+    } else if ('T' == this.buf[tsoffset]) {
+      // Timestamp relative to 'now'
+      timestamp = (null != now ? (long) now : TimeSource.getTime()) + parseLong(tsoffset + 1, idx);
+    } else {
+      timestamp = parseLong(tsoffset, idx);
+    }
+
+    // Advance past the '/'
+    idx++;
+
+    int idx2 = indexOf((byte) '/', idx);
+
+    if (-1 == idx2) {
+      throw new ParseException("Missing location/elevation separator.", idx - this.start);
+    }
+
+    long location = GeoTimeSerie.NO_LOCATION;
+
+    if (idx != idx2) {
+      int colon = idx;
+      while(colon < idx2 && ':' != this.buf[colon]) {
+        colon++;
+      }
+
+      if (colon < idx2) {
+        location = GeoXPLib.toGeoXPPoint(parseDouble(idx, colon), parseDouble(colon + 1, idx2));
+      } else {
+        location = parseLong(idx, idx2);
+      }
+    }
+
+    // Advance past the second '/'
+    idx = idx2 + 1;
+
+    idx2 = indexOf((byte) ' ', idx);
+
+    if (-1 == idx2) {
+      throw new ParseException(getText(), idx - this.start);
+    }
+
+    long elevation = GeoTimeSerie.NO_ELEVATION;
+
+    if (idx != idx2) {
+      elevation = parseLong(idx, idx2);
+    }
+
+    // Advance past the ' '
+    idx = idx2 + 1;
+
+    while(idx < this.end && ' ' == this.buf[idx]) {
+      idx++;
+    }
+
+    // If line started with '=', assume there is no class+labels component
+    if (tsoffset > this.start) {
+      idx2 = -1;
+    } else {
+      idx2 = indexOf((byte) '{', idx);
+    }
+
+    if (-1 == idx2) {
+      // If we are over the end of the line, we're missing a value
+      if (idx >= this.end) {
+        throw new ParseException("Missing value", idx - this.start);
+      }
+      // No class+labels, assume same class+labels as those in encoder
+      if (null == encoder) {
+        throw new ParseException(getText(), idx - this.start);
+      }
+    } else {
+      int nameStart = idx;
+
+      // Advance past the '{'
+      idx = idx2 + 1;
+
+      idx2 = indexOf((byte) '}', idx);
+
+      if (-1 == idx2) {
+        throw new ParseException(getText(), idx - this.start);
+      }
+
+      encoder = metadata(encoder, nameStart, idx - 1, idx2);
+
+      // Advance past the '}', skipping attributes if present
+      idx = idx2 + 1;
+
+      if (idx < this.end && '{' == this.buf[idx]) {
+        while(idx < this.end && '}' != this.buf[idx]) {
+          idx++;
+        }
+        idx++;
+      }
+
+      while(idx < this.end && ' ' == this.buf[idx]) {
+        idx++;
+      }
+
+      if (idx >= this.end) {
+        throw new ParseException("Missing value.", idx2 - this.start);
+      }
+    }
+
+    Object value = parseValue(idx, this.end);
+
+    if (value instanceof String && ((String) value).length() > this.maxValueSize) {
+      throw new ParseException("Value too large at for GTS " + GTSHelper.buildSelector(encoder.getMetadata()), 0);
+    }
+
+    if (value instanceof Long) {
+      encoder.addValue(timestamp, location, elevation, ((Long) value).longValue());
+    } else {
+      encoder.addValue(timestamp, location, elevation, value);
+    }
+
+    return encoder;
+  }
+
+  /**
+   * Return the encoder for the class{labels} found in the current line.
+   *
+   * @param encoder Current encoder
+   * @param nameStart Offset of the class name
+   * @param brace Offset of the '{' which opens the labels
+   * @param closing Offset of the '}' which closes the labels
+   */
+  private GTSEncoder metadata(GTSEncoder encoder, int nameStart, int brace, int closing) throws ParseException {
+    int len = closing + 1 - nameStart;
+
+    //
+    // If class and labels are those of the previous line, reuse the encoder
+    //
+
+    if (null != encoder && len == this.prefixlen && encoder.getName() == this.name
+        && encoder.getClassId() == this.classId && encoder.getLabelsId() == this.labelsId) {
+      boolean same = true;
+      for (int i = 0; i < len; i++) {
+        if (this.prefix[i] != this.buf[nameStart + i]) {
+          same = false;
+          break;
+        }
+      }
+      if (same) {
+        return encoder;
+      }
+    }
+
+    String name = string(nameStart, brace);
+
+    if (name.indexOf('%') >= 0) {
+      try {
+        name = URLDecoder.decode(name, "UTF-8");
+      } catch (UnsupportedEncodingException uee) {
+        // Can't happen, we're using UTF-8
+      }
+    }
+
+    Map<String,String> labels = GTSHelper.parseLabels(null != this.extraLabels ? this.extraLabels.size() : 0, string(brace + 1, closing));
+
+    //
+    // Add any provided extra labels
+    //
+
+    if (null != this.extraLabels) {
+      labels.putAll(this.extraLabels);
+
+      //
+      // Remove labels with null values
+      //
+
+      if (this.extraLabels.containsValue(null)) {
+        Set<Entry<String,String>> entries = this.extraLabels.entrySet();
+
+        for (Entry<String,String> entry: entries) {
+          if (null == entry.getValue()) {
+            labels.remove(entry.getKey());
+          }
+        }
+      }
+    }
+
+    // Allocate a new Encoder if need be, with a base timestamp of 0L.
+    if (null == encoder || !name.equals(encoder.getName()) || !labels.equals(encoder.getMetadata().getLabels())) {
+      encoder = new GTSEncoder(0L);
+      encoder.setName(name);
+      encoder.getMetadata().setLabels(labels);
+
+      if (null != this.classKey) {
+        encoder.setClassId(GTSHelper.classId(this.classKey, name));
+      }
+      if (null != this.labelsKey) {
+        encoder.setLabelsId(GTSHelper.labelsId(this.labelsKey, labels));
+      }
+    }
+
+    //
+    // Remember the raw class{labels} for the next line
+    //
+
+    if (this.prefix.length < len) {
+      this.prefix = new byte[len];
+    }
+    System.arraycopy(this.buf, nameStart, this.prefix, 0, len);
+    this.prefixlen = len;
+    this.name = encoder.getName();
+    this.classId = encoder.getClassId();
+    this.labelsId = encoder.getLabelsId();
+
+    return encoder;
+  }
+
+  /**
+   * Parse a value, only decimal numbers and booleans are handled here, other
+   * values are handed to GTSHelper.parseValue
+   */
+  private Object parseValue(int from, int to) throws ParseException {
+    byte first = this.buf[from];
+    int len = to - from;
+
+    if (('\'' == first || '"' == first) && len > 1 && first == this.buf[to - 1]) {
+      String value = string(from + 1, to - 1);
+      if (value.indexOf('%') >= 0) {
+        try {
+          value = URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+          // Can't happen, we're using UTF-8
+        } catch (IllegalArgumentException iae) {
+          throw new ParseException(value, 0);
+        }
+      }
+      return value;
+    }
+
+    if (1 == len) {
+      if ('T' == first || 't' == first) {
+        return Boolean.TRUE;
+      } else if ('F' == first || 'f' == first) {
+        return Boolean.FALSE;
+      }
+    }
+
+    //
+    // Decimal numbers, [+-]DIGITS[.DIGITS]
+    //
+
+    int i = from;
+    boolean negative = false;
+
+    if ('-' == first || '+' == first) {
+      negative = '-' == first;
+      i++;
+    }
+
+    int digitsStart = i;
+    int dot = -1;
+
+    while(i < to) {
+      byte b = this.buf[i];
+      if (b >= '0' && b <= '9') {
+        i++;
+      } else if ('.' == b && -1 == dot) {
+        dot = i;
+        i++;
+      } else {
+        break;
+      }
+    }
+
+    if (i < to || digitsStart == to || '.' == this.buf[digitsStart]) {
+      // Not a plain decimal number
+      return GTSHelper.parseValue(string(from, to));
+    }
+
+    if (-1 == dot) {
+      try {
+        return parseLong(from, to);
+      } catch (NumberFormatException nfe) {
+        throw new ParseException(string(from, to), 0);
+      }
+    }
+
+    int ndigits = to - digitsStart - 1;
+    int scale = to - dot - 1;
+
+    if (len <= MAX_BIGDECIMAL_LENGTH) {
+      long unscaled = 0L;
+      for (int k = digitsStart; k < to; k++) {
+        if (k != dot) {
+          unscaled = unscaled * 10L + (this.buf[k] - '0');
+        }
+      }
+      return BigDecimal.valueOf(negative ? -unscaled : unscaled, scale);
+    }
+
+    if (ndigits <= 15) {
+      return fastDouble(digitsStart, to, dot, negative);
+    }
+
+    return Double.parseDouble(string(from, to));
+  }
+
+  /**
+   * Parse a double, numbers with at most 15 digits and no exponent are converted without
+   * creating a String. The result is the same as that of Double.parseDouble since both the
+   * mantissa and the power of 10 are exact.
+   */
+  private double parseDouble(int from, int to) {
+    int i = from;
+    boolean negative = false;
+
+    if (i < to && ('-' == this.buf[i] || '+' == this.buf[i])) {
+      negative = '-' == this.buf[i];
+      i++;
+    }
+
+    int digitsStart = i;
+    int dot = -1;
+
+    while(i < to) {
+      byte b = this.buf[i];
+      if (b >= '0' && b <= '9') {
+        i++;
+      } else if ('.' == b && -1 == dot) {
+        dot = i;
+        i++;
+      } else {
+        break;
+      }
+    }
+
+    int ndigits = to - digitsStart - (-1 == dot ? 0 : 1);
+
+    if (i < to || 0 == ndigits || ndigits > 15) {
+      return Double.parseDouble(string(from, to));
+    }
+
+    return fastDouble(digitsStart, to, dot, negative);
+  }
+
+  private double fastDouble(int from, int to, int dot, boolean negative) {
+    long mantissa = 0L;
+
+    for (int k = from; k < to; k++) {
+      if (k != dot) {
+        mantissa = mantissa * 10L + (this.buf[k] - '0');
+      }
+    }
+
+    double value = -1 == dot ? (double) mantissa : mantissa / POWERS_OF_TEN[to - dot - 1];
+
+    return negative ? -value : value;
+  }
+
+  /**
+   * Parse a long the way Long.parseLong does
+   */
+  private long parseLong(int from, int to) {
+    if (from >= to) {
+      throw new NumberFormatException("Empty number.");
+    }
+
+    int i = from;
+    boolean negative = false;
+    long limit = -Long.MAX_VALUE;
+
+    if ('-' == this.buf[i] || '+' == this.buf[i]) {
+      if ('-' == this.buf[i]) {
+        negative = true;
+        limit = Long.MIN_VALUE;
+      }
+      i++;
+      if (i == to) {
+        throw new NumberFormatException(string(from, to));
+      }
+    }
+
+    long multmin = limit / 10L;
+    long result = 0L;
+
+    while(i < to) {
+      int digit = this.buf[i++] - '0';
+
+      if (digit < 0 || digit > 9 || result < multmin) {
+        throw new NumberFormatException(string(from, to));
+      }
+
+      result *= 10L;
+
+      if (result < limit + digit) {
+        throw new NumberFormatException(string(from, to));
+      }
+
+      result -= digit;
+    }
+
+    return negative ? result : -result;
+  }
+}
@@ -0,0 +1,62 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.text.ParseException;
+
+/**
+ * Reader of the records of an /update request body.
+ *
+ * A record is either a line of the text input format or a block of datapoints
+ * of the columnar format.
+ */
+public interface GTSInputReader extends Closeable {
+  /**
+   * Advance to the next record.
+   *
+   * @return false if there are no more records
+   */
+  public boolean next() throws IOException;
+
+  /**
+   * Add the datapoints of the current record to 'encoder' if they belong to the same GTS,
+   * or to a new encoder otherwise.
+   *
+   * @param encoder Encoder returned for the previous record or an encoder with the same metadata, may be null
+   * @param now Time to use for datapoints with no timestamp, if null the current time is used
+   * @return The encoder the datapoints were added to
+   */
+  public GTSEncoder read(GTSEncoder encoder, Long now) throws ParseException, IOException;
+
+  /**
+   * Return the number of datapoints in the current record
+   */
+  public int getCount();
+
+  /**
+   * Return the current record in the text input format, used for logging and error reporting
+   */
+  public String getText();
+
+  /**
+   * Release the resources held by the reader, the underlying stream is not closed
+   */
+  @Override
+  public void close() throws IOException;
+}
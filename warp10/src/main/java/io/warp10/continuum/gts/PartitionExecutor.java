@@ -0,0 +1,127 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Executes the per partition work of REDUCE and APPLY on a bounded ForkJoin pool.
+ *
+ * Parallel execution is only used when 'warpscript.parallelism' is set to a strictly positive
+ * value, the function to apply is a WarpScriptThreadSafeFunction and there are at least
+ * 'warpscript.parallel.minpartitions' partitions. Results are returned in the order of the tasks.
+ */
+public final class PartitionExecutor {
+
+  private static final int DEFAULT_MIN_PARTITIONS = 16;
+
+  private static volatile boolean initialized = false;
+
+  private static volatile ForkJoinPool pool = null;
+
+  private static volatile int minPartitions = DEFAULT_MIN_PARTITIONS;
+
+  private PartitionExecutor() {}
+
+  private static synchronized void init() {
+    if (initialized) {
+      return;
+    }
+
+    Properties properties = WarpConfig.getProperties();
+
+    if (null != properties) {
+      configure(Integer.parseInt(properties.getProperty(Configuration.WARPSCRIPT_PARALLELISM, "0")),
+          Integer.parseInt(properties.getProperty(Configuration.WARPSCRIPT_PARALLEL_MINPARTITIONS, Integer.toString(DEFAULT_MIN_PARTITIONS))));
+    }
+
+    initialized = true;
+  }
+
+  /**
+   * Replace the pool with one of 'parallelism' threads (none if 'parallelism' is not strictly positive).
+   * The configuration is otherwise read once from WarpConfig, this lets tests change it.
+   */
+  static synchronized void configure(int parallelism, int minPartitions) {
+    ForkJoinPool previous = pool;
+
+    pool = parallelism > 0 ? new ForkJoinPool(parallelism) : null;
+    PartitionExecutor.minPartitions = minPartitions;
+    initialized = true;
+
+    if (null != previous) {
+      previous.shutdown();
+    }
+  }
+
+  /**
+   * Return true if 'function' should be applied to 'partitions' partitions in parallel
+   */
+  public static boolean isParallel(Object function, int partitions) {
+    if (!initialized) {
+      init();
+    }
+
+    return null != pool && function instanceof WarpScriptThreadSafeFunction && partitions >= minPartitions && partitions > 1;
+  }
+
+  /**
+   * Execute the tasks on the pool and return their results in order.
+   * If some tasks fail, the exception of the first failed task (in task order) is rethrown.
+   */
+  public static <T> List<T> invokeAll(List<Callable<T>> tasks) throws WarpScriptException {
+    if (!initialized) {
+      init();
+    }
+
+    List<Future<T>> futures = pool.invokeAll(tasks);
+
+    List<T> results = new ArrayList<T>(futures.size());
+
+    try {
+      for (Future<T> future: futures) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new WarpScriptException("Interrupted while waiting for partitions to be processed.", ie);
+    } catch (ExecutionException ee) {
+      Throwable cause = ee.getCause();
+      if (cause instanceof WarpScriptException) {
+        throw (WarpScriptException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new WarpScriptException(cause);
+    }
+
+    return results;
+  }
+}
@@ -29,6 +29,7 @@ import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.math.BigInteger;
+import java.net.URL;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.text.ParseException;
@@ -91,6 +92,7 @@ import io.warp10.continuum.JettyUtil;
 import io.warp10.continuum.KafkaProducerPool;
 import io.warp10.continuum.KafkaSynchronizedConsumerPool;
 import io.warp10.continuum.KafkaSynchronizedConsumerPool.ConsumerFactory;
+import io.warp10.continuum.LocalEndpoints;
 import io.warp10.continuum.MetadataUtils;
 import io.warp10.continuum.TextFileShuffler;
 import io.warp10.continuum.ThrottlingManager;
@@ -102,6 +104,10 @@ import io.warp10.continuum.egress.EgressFetchHandler;
 import io.warp10.continuum.egress.ThriftDirectoryClient;
 import io.warp10.continuum.gts.GTSEncoder;
 import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GTSColumnarReader;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSInputParser;
+import io.warp10.continuum.gts.GTSInputReader;
 import io.warp10.continuum.sensision.SensisionConstants;
 import io.warp10.continuum.store.Constants;
 import io.warp10.continuum.store.DirectoryClient;
@@ -280,6 +286,16 @@ public class Ingress extends AbstractHandler implements Runnable {
   private final boolean metaActivity;
   final long activityWindow;
   
+  /**
+   * Port of the /update endpoint
+   */
+  private final int port;
+  
+  /**
+   * Ingress instance running in this JVM, if any
+   */
+  private static Ingress instance = null;
+  
   public Ingress(KeyStore keystore, Properties props) {
 
     //
@@ -319,6 +335,7 @@ public class Ingress extends AbstractHandler implements Runnable {
     }
     
     int port = Integer.valueOf(props.getProperty(Configuration.INGRESS_PORT));
+    this.port = port;
     String host = props.getProperty(Configuration.INGRESS_HOST);
     int acceptors = Integer.valueOf(props.getProperty(Configuration.INGRESS_ACCEPTORS));
     int selectors = Integer.valueOf(props.getProperty(Configuration.INGRESS_SELECTORS));
@@ -558,6 +575,8 @@ public class Ingress extends AbstractHandler implements Runnable {
     t.setDaemon(true);
     t.setName("Continuum Ingress");
     t.start();
+    
+    instance = this;
   }
 
   @Override
@@ -638,6 +657,8 @@ public class Ingress extends AbstractHandler implements Runnable {
 
       long count = 0;
       
+      GTSInputReader parser = null;
+      
       try {
         if (null == producer || null == owner) {
           Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_UPDATE_INVALIDTOKEN, Sensision.EMPTY_LABELS, 1);
@@ -677,13 +698,22 @@ public class Ingress extends AbstractHandler implements Runnable {
           gzipped = true;
         }
         
-        BufferedReader br = null;
+        InputStream is = null;
             
         if (gzipped) {
-          GZIPInputStream is = new GZIPInputStream(request.getInputStream());
-          br = new BufferedReader(new InputStreamReader(is));
+          is = new GZIPInputStream(request.getInputStream());
         } else {    
-          br = request.getReader();
+          is = request.getInputStream();
+        }
+        
+        //
+        // Bodies in the columnar format are read block by block
+        //
+        
+        if (GTSColumnarReader.isColumnar(request.getHeader("Content-Type"))) {
+          parser = new GTSColumnarReader(is, extraLabels, this.classKey, this.labelsKey, maxValueSize);
+        } else {
+          parser = new GTSInputParser(is, extraLabels, this.classKey, this.labelsKey, maxValueSize);
         }
         
         Long now = TimeSource.getTime();
@@ -744,42 +774,17 @@ public class Ingress extends AbstractHandler implements Runnable {
         
         AtomicLong dms = this.dataMessagesSize.get();
         
-        do {
-          String line = br.readLine();
-          
-          if (null == line) {
-            break;
-          }
-        
-          if ("".equals(line)) {
-            continue;
-          }
-          
-          // Skip lines which start with '#'
-          if ('#' == line.charAt(0)) {
-            continue;
-          }
-          
+        // Empty lines and lines which start with '#' are skipped by the parser
+        while(parser.next()) {
           try {
-            encoder = GTSHelper.parse(lastencoder, line, extraLabels, now, maxValueSize, false);
-            count++;
+            encoder = parser.read(lastencoder, now);
+            count += parser.getCount();
           } catch (ParseException pe) {
             Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_UPDATE_PARSEERRORS, sensisionLabels, 1);
-            throw new IOException("Parse error at '" + line + "'", pe);
+            throw new IOException("Parse error at '" + parser.getText() + "'", pe);
           }
                   
           if (encoder != lastencoder || dms.get() + 16 + lastencoder.size() > DATA_MESSAGES_THRESHOLD) {
-            //
-            // Determine if we should push the metadata or not
-            //
-            
-            encoder.setClassId(GTSHelper.classId(this.classKey, encoder.getMetadata().getName()));
-            encoder.setLabelsId(GTSHelper.labelsId(this.labelsKey, encoder.getMetadata().getLabels()));
-
-            GTSHelper.fillGTSIds(bytes, 0, encoder.getClassId(), encoder.getLabelsId());
-
-            BigInteger metadataCacheKey = new BigInteger(bytes);
-
             //
             // Check throttling
             //
@@ -789,46 +794,11 @@ public class Ingress extends AbstractHandler implements Runnable {
               ThrottlingManager.checkDDP(lastencoder.getMetadata(), producer, owner, application, (int) lastencoder.getCount());
             }
             
-            boolean pushMeta = false;
+            //
+            // Push the metadata if needed, class and labels Ids were computed by the parser
+            //
             
-            Long val = this.metadataCache.getOrDefault(metadataCacheKey, NO_LAST_ACTIVITY);
-
-            if (NO_LAST_ACTIVITY.equals(val)) {
-              pushMeta = true;
-            } else if (activityTracking && updateActivity) {
-              Long lastActivity = val;
-              
-              if (null == lastActivity) {
-                pushMeta = true;
-              } else if (nowms - lastActivity > activityWindow) {
-                pushMeta = true;
-              }
-            }
-            
-            if (pushMeta) {
-              // Build metadata object to push
-              Metadata metadata = new Metadata();
-              // Set source to indicate we
-              metadata.setSource(Configuration.INGRESS_METADATA_SOURCE);
-              metadata.setName(encoder.getMetadata().getName());
-              metadata.setLabels(encoder.getMetadata().getLabels());
-              
-              if (this.activityTracking && updateActivity) {
-                metadata.setLastActivity(nowms);
-              }
-              
-              TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
-              try {
-                pushMetadataMessage(bytes, serializer.serialize(metadata));
-                
-                // Update metadataCache with the current key
-                synchronized(metadataCache) {
-                  this.metadataCache.put(metadataCacheKey, (activityTracking && updateActivity) ? nowms : null);
-                }
-              } catch (TException te) {
-                throw new IOException("Unable to push metadata.");
-              }
-            }
+            pushMetadataIfNeeded(bytes, encoder, nowms);
             
             if (null != lastencoder) {
               Map<String,String> labels = new HashMap<String, String>();
@@ -855,12 +825,12 @@ public class Ingress extends AbstractHandler implements Runnable {
             }
           }
 
-          if (0 == count % 1000) {
+          if (count >= 1000) {
             Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_UPDATE_DATAPOINTS_RAW, sensisionLabels, count);
             Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_UPDATE_DATAPOINTS_GLOBAL, Sensision.EMPTY_LABELS, count);
             count = 0;
           }
-        } while (true); 
+        }
         
         if (null != lastencoder && lastencoder.size() > 0) {
           Map<String,String> labels = new HashMap<String, String>();
@@ -892,6 +862,10 @@ public class Ingress extends AbstractHandler implements Runnable {
         
         Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_UPDATE_TIME_US, sensisionLabels, micros);
         Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_UPDATE_TIME_US_GLOBAL, Sensision.EMPTY_LABELS, micros);      
+        
+        if (null != parser) {
+          parser.close();
+        }
       }      
     } catch (Exception e) {
       if (!response.isCommitted()) {
@@ -1593,6 +1567,202 @@ public class Ingress extends AbstractHandler implements Runnable {
     this.keystore.forget();
   }
   
+  /**
+   * Return the Ingress running in this JVM if 'url' designates its /update endpoint, null otherwise.
+   * Plugins use it to hand over data without issuing an HTTP request.
+   */
+  public static Ingress getLocalIngress(URL url) {
+    Ingress ingress = instance;
+    
+    if (null == ingress || !LocalEndpoints.isLocal(url, Constants.API_ENDPOINT_UPDATE, ingress.port)) {
+      return null;
+    }
+    
+    return ingress;
+  }
+  
+  /**
+   * Push the datapoints of the given encoders as a POST to /update would.
+   * The labels forced by the token are added to those of the encoders and their
+   * class and labels Ids are computed. Encoders larger than the Kafka data message
+   * size are split.
+   * 
+   * @param token Write token
+   * @param encoders Encoders to push, their metadata are modified
+   */
+  public void update(String token, List<GTSEncoder> encoders) throws IOException {
+    
+    long nano = System.nanoTime();
+    long nowms = System.currentTimeMillis();
+    
+    WriteToken writeToken;
+    
+    try {
+      writeToken = Tokens.extractWriteToken(token);
+    } catch (WarpScriptException ee) {
+      throw new IOException(ee);
+    }
+    
+    String application = writeToken.getAppName();
+    String producer = Tokens.getUUID(writeToken.getProducerId());
+    String owner = Tokens.getUUID(writeToken.getOwnerId());
+
+    if (null == producer || null == owner) {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_UPDATE_INVALIDTOKEN, Sensision.EMPTY_LABELS, 1);
+      throw new IOException("Invalid token.");
+    }
+
+    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_UPDATE_REQUESTS, Sensision.EMPTY_LABELS, 1);
+
+    Map<String,String> sensisionLabels = new HashMap<String,String>();
+    sensisionLabels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, producer);
+
+    //
+    // Build extra labels
+    //
+    
+    Map<String,String> extraLabels = new HashMap<String,String>();
+    
+    // Add labels from the WriteToken if they exist
+    if (writeToken.getLabelsSize() > 0) {
+      extraLabels.putAll(writeToken.getLabels());
+    }
+    
+    // Force internal labels
+    extraLabels.put(Constants.PRODUCER_LABEL, producer);
+    extraLabels.put(Constants.OWNER_LABEL, owner);
+
+    if (null != application) {
+      extraLabels.put(Constants.APPLICATION_LABEL, application);
+      sensisionLabels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, application);
+    }
+
+    long count = 0;
+    
+    byte[] bytes = new byte[16];
+    
+    try {
+      for (GTSEncoder encoder: encoders) {
+        if (0 == encoder.size()) {
+          continue;
+        }
+        
+        Metadata metadata = new Metadata();
+        metadata.setName(encoder.getName());
+        metadata.setLabels(new HashMap<String,String>(encoder.getLabels()));
+        metadata.getLabels().putAll(extraLabels);
+        metadata.setAttributes(new HashMap<String,String>());
+        metadata.setClassId(GTSHelper.classId(this.classKey, metadata.getName()));
+        metadata.setLabelsId(GTSHelper.labelsId(this.labelsKey, metadata.getLabels()));
+        encoder.safeSetMetadata(metadata);
+        
+        ThrottlingManager.checkMADS(metadata, producer, owner, application, metadata.getClassId(), metadata.getLabelsId());
+        ThrottlingManager.checkDDP(metadata, producer, owner, application, (int) encoder.getCount());
+        
+        pushMetadataIfNeeded(bytes, encoder, nowms);
+        
+        if (encoder.size() + 16 <= DATA_MESSAGES_THRESHOLD) {
+          pushDataMessage(encoder);
+        } else {
+          //
+          // Split the encoder so each data message fits in a Kafka message
+          //
+          
+          GTSDecoder decoder = encoder.getDecoder(true);
+          GTSEncoder chunk = new GTSEncoder(0L);
+          chunk.safeSetMetadata(metadata);
+          
+          while(decoder.next()) {
+            chunk.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getValue());
+            if (chunk.size() + 16 > DATA_MESSAGES_THRESHOLD / 2) {
+              pushDataMessage(chunk);
+              chunk = new GTSEncoder(0L);
+              chunk.safeSetMetadata(metadata);
+            }
+          }
+          
+          if (chunk.size() > 0) {
+            pushDataMessage(chunk);
+          }
+        }
+        
+        count += encoder.getCount();
+      }
+    } catch (WarpException we) {
+      throw new IOException(we);
+    } finally {
+      //
+      // Flush message buffers into Kafka
+      //
+      
+      pushMetadataMessage(null, null);
+      pushDataMessage(null);
+
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_UPDATE_DATAPOINTS_RAW, sensisionLabels, count);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_UPDATE_DATAPOINTS_GLOBAL, Sensision.EMPTY_LABELS, count);
+      
+      long micros = (System.nanoTime() - nano) / 1000L;
+      
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_UPDATE_TIME_US, sensisionLabels, micros);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_INGRESS_UPDATE_TIME_US_GLOBAL, Sensision.EMPTY_LABELS, micros);      
+    }
+  }
+  
+  /**
+   * Push the Metadata of 'encoder' unless it is in the metadata cache and
+   * its last activity does not need to be updated.
+   * 
+   * @param bytes 16 bytes buffer to use for the class and labels Ids
+   * @param encoder Encoder whose class and labels Ids are set
+   * @param nowms Current time in ms
+   */
+  private void pushMetadataIfNeeded(byte[] bytes, GTSEncoder encoder, long nowms) throws IOException {
+    GTSHelper.fillGTSIds(bytes, 0, encoder.getClassId(), encoder.getLabelsId());
+
+    BigInteger metadataCacheKey = new BigInteger(bytes);
+
+    boolean pushMeta = false;
+    
+    Long val = this.metadataCache.getOrDefault(metadataCacheKey, NO_LAST_ACTIVITY);
+
+    if (NO_LAST_ACTIVITY.equals(val)) {
+      pushMeta = true;
+    } else if (activityTracking && updateActivity) {
+      Long lastActivity = val;
+      
+      if (null == lastActivity) {
+        pushMeta = true;
+      } else if (nowms - lastActivity > activityWindow) {
+        pushMeta = true;
+      }
+    }
+    
+    if (pushMeta) {
+      // Build metadata object to push
+      Metadata metadata = new Metadata();
+      // Set source to indicate we
+      metadata.setSource(Configuration.INGRESS_METADATA_SOURCE);
+      metadata.setName(encoder.getMetadata().getName());
+      metadata.setLabels(encoder.getMetadata().getLabels());
+      
+      if (this.activityTracking && updateActivity) {
+        metadata.setLastActivity(nowms);
+      }
+      
+      TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
+      try {
+        pushMetadataMessage(bytes, serializer.serialize(metadata));
+        
+        // Update metadataCache with the current key
+        synchronized(metadataCache) {
+          this.metadataCache.put(metadataCacheKey, (activityTracking && updateActivity) ? nowms : null);
+        }
+      } catch (TException te) {
+        throw new IOException("Unable to push metadata.");
+      }
+    }
+  }
+  
   void pushMetadataMessage(Metadata metadata) throws IOException {
     
     if (null == metadata) {
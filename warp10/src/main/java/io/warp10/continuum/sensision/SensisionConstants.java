@@ -120,6 +120,31 @@ public class SensisionConstants {
    */
   public static final String SENSISION_CLASS_CONTINUUM_DIRECTORY_OWNERS = "warp.directory.owners";
 
+  /**
+   * Number of GTS loaded so far while a Directory starts, per source (scan, snapshot, journal)
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_LOADED = "warp.directory.init.loaded";
+
+  /**
+   * Number of key ranges of the metadata which remain to be scanned while a Directory starts
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_RANGES_PENDING = "warp.directory.init.ranges.pending";
+
+  /**
+   * Time (in ms) it took a Directory to load its metadata
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_TIME_MS = "warp.directory.init.time.ms";
+
+  /**
+   * Number of snapshots of the in memory directory written
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_DIRECTORY_SNAPSHOTS = "warp.directory.snapshots";
+
+  /**
+   * Time (in ms) spent writing snapshots of the in memory directory
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_DIRECTORY_SNAPSHOTS_TIME_MS = "warp.directory.snapshots.time.ms";
+
   /**
    * Number of times the Thrift directory client cache was changed
    */
@@ -505,6 +530,42 @@ public class SensisionConstants {
    */
   public static final String SENSISION_CLASS_WARP_STANDALONE_LEVELDB_SNAPSHOT_TIME_NS = "warp.standalone.leveldb.snapshot.time.ns";
   
+  /**
+   * Number of blocks written by the LevelDB repacker
+   */
+  public static final String SENSISION_CLASS_WARP_STANDALONE_LEVELDB_REPACK_BLOCKS = "warp.standalone.leveldb.repack.blocks";
+  
+  /**
+   * Number of individual datapoints packed into blocks by the LevelDB repacker
+   */
+  public static final String SENSISION_CLASS_WARP_STANDALONE_LEVELDB_REPACK_DATAPOINTS = "warp.standalone.leveldb.repack.datapoints";
+  
+  /**
+   * Time spent packing datapoints into blocks
+   */
+  public static final String SENSISION_CLASS_WARP_STANDALONE_LEVELDB_REPACK_TIME_NS = "warp.standalone.leveldb.repack.time.ns";
+  
+  /**
+   * Number of LevelDB writes performed by the group committer
+   */
+  public static final String SENSISION_CLASS_WARP_STANDALONE_LEVELDB_GROUPCOMMIT_WRITES = "warp.standalone.leveldb.groupcommit.writes";
+  
+  /**
+   * Number of batches submitted to the group committer, the ratio to the number of writes is the coalescing factor
+   */
+  public static final String SENSISION_CLASS_WARP_STANDALONE_LEVELDB_GROUPCOMMIT_COMMITS = "warp.standalone.leveldb.groupcommit.commits";
+  
+  /**
+   * Number of expired datapoints deleted by the standalone retention. When datapoints are packed, the values
+   * of the blocks deleted as a whole are not counted.
+   */
+  public static final String SENSISION_CLASS_WARP_STANDALONE_RETENTION_DATAPOINTS = "warp.standalone.retention.datapoints";
+  
+  /**
+   * Time spent deleting expired datapoints
+   */
+  public static final String SENSISION_CLASS_WARP_STANDALONE_RETENTION_TIME_NS = "warp.standalone.retention.time.ns";
+  
   /**
    * Number of 'update' requests received by the streaming version of continuum
    */
@@ -580,6 +641,11 @@ public class SensisionConstants {
    */
   public static final String SENSISION_CLASS_CONTINUUM_STORE_HBASE_TIME_NANOS = "warp.store.hbase.time.nanos";
   
+  /**
+   * Number of times a consumer of 'Store' waited for HBase because too many bytes were not acknowledged
+   */
+  public static final String SENSISION_CLASS_CONTINUUM_STORE_HBASE_BACKPRESSURE = "warp.store.hbase.backpressure";
+  
   /**
    * Number of barrier synchronizations
    */
@@ -979,6 +1045,21 @@ public class SensisionConstants {
    */
   public static final String SENSISION_CLASS_EINSTEIN_RUN_FETCHED = "warp.script.run.fetched";
   
+  /**
+   * Number of /exec scripts found in the parsed script cache
+   */
+  public static final String SENSISION_CLASS_EINSTEIN_CACHE_HITS = "warp.script.cache.hits";
+  
+  /**
+   * Number of /exec scripts not found in the parsed script cache
+   */
+  public static final String SENSISION_CLASS_EINSTEIN_CACHE_MISSES = "warp.script.cache.misses";
+  
+  /**
+   * Number of /exec scripts which could not be executed from the parsed script cache
+   */
+  public static final String SENSISION_CLASS_EINSTEIN_CACHE_UNCACHEABLE = "warp.script.cache.uncacheable";
+  
   /**
    * Number of sessions with macros currently scheduled by Mobius
    */
@@ -1482,6 +1563,11 @@ public class SensisionConstants {
    * Table
    */
   public static final String SENSISION_LABEL_TABLE = "table";
+
+  /**
+   * Source of loaded data
+   */
+  public static final String SENSISION_LABEL_SOURCE = "source";
   
   //
   // TTLs (in ms)
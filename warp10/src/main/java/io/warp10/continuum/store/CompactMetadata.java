@@ -0,0 +1,325 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.store;
+
+import io.warp10.continuum.store.thrift.data.Metadata;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Compact representation of the Metadata of a GTS held by the directories.
+ *
+ * The class name is stored as a code of the MetadataDictionary, labels and attributes as
+ * arrays of (name, value) pairs sorted by name. This replaces the two HashMap instances of
+ * each Metadata, a Metadata is only rebuilt when it is returned to a caller.
+ *
+ * Names are the instances held by the MetadataDictionary. Values are not added to the dictionary,
+ * which never shrinks, they are shared through a weak interner instead so the values of the GTS
+ * which were deleted can be reclaimed.
+ */
+public class CompactMetadata {
+
+  /**
+   * Value of lastActivity when it is not set
+   */
+  private static final long NO_ACTIVITY = Long.MIN_VALUE;
+
+  private static final String[] EMPTY = new String[0];
+
+  private static final MetadataDictionary DICTIONARY = MetadataDictionary.getInstance();
+
+  private static final Interner<String> VALUES = Interners.newWeakInterner();
+
+  private final int name;
+
+  private final long classId;
+  private final long labelsId;
+
+  private final String[] labels;
+  private final String[] attributes;
+
+  private volatile long lastActivity;
+
+  /**
+   * Build the compact version of 'metadata', its classId and labelsId must be set
+   */
+  public CompactMetadata(Metadata metadata) {
+    this.name = DICTIONARY.code(metadata.getName());
+    this.classId = metadata.getClassId();
+    this.labelsId = metadata.getLabelsId();
+    this.labels = encode(metadata.getLabels());
+    this.attributes = encode(metadata.getAttributes());
+    this.lastActivity = metadata.isSetLastActivity() ? metadata.getLastActivity() : NO_ACTIVITY;
+  }
+
+  /**
+   * Build an instance from arrays of (name, value) pairs, used when loading a snapshot. The pairs are sorted in place.
+   */
+  CompactMetadata(String name, long classId, long labelsId, String[] labels, String[] attributes, long lastActivity) {
+    this.name = DICTIONARY.code(name);
+    this.classId = classId;
+    this.labelsId = labelsId;
+    this.labels = 0 == labels.length ? EMPTY : sort(share(labels));
+    this.attributes = 0 == attributes.length ? EMPTY : sort(share(attributes));
+    this.lastActivity = lastActivity;
+  }
+
+  String[] getLabelPairs() {
+    return this.labels;
+  }
+
+  String[] getAttributePairs() {
+    return this.attributes;
+  }
+
+  /**
+   * Return lastActivity as stored, i.e. Long.MIN_VALUE if it is not set
+   */
+  long getRawLastActivity() {
+    return this.lastActivity;
+  }
+
+  public String getName() {
+    return DICTIONARY.get(this.name);
+  }
+
+  public long getClassId() {
+    return this.classId;
+  }
+
+  public long getLabelsId() {
+    return this.labelsId;
+  }
+
+  public boolean isSetLastActivity() {
+    return NO_ACTIVITY != this.lastActivity;
+  }
+
+  public long getLastActivity() {
+    return NO_ACTIVITY == this.lastActivity ? 0L : this.lastActivity;
+  }
+
+  public void setLastActivity(long lastActivity) {
+    this.lastActivity = lastActivity;
+  }
+
+  /**
+   * Return the value of label 'name' or null if the GTS does not have this label
+   */
+  public String getLabel(String name) {
+    return get(this.labels, name);
+  }
+
+  /**
+   * Return the value of attribute 'name' or null if the GTS does not have this attribute
+   */
+  public String getAttribute(String name) {
+    return get(this.attributes, name);
+  }
+
+  public int getLabelsSize() {
+    return this.labels.length >>> 1;
+  }
+
+  public int getAttributesSize() {
+    return this.attributes.length >>> 1;
+  }
+
+  /**
+   * Return a read only view of the labels
+   */
+  public Map<String,String> getLabels() {
+    return new View(this.labels);
+  }
+
+  /**
+   * Return a read only view of the attributes
+   */
+  public Map<String,String> getAttributes() {
+    return new View(this.attributes);
+  }
+
+  /**
+   * Rebuild a Metadata instance with its own label and attribute maps
+   */
+  public Metadata toMetadata() {
+    Metadata metadata = new Metadata();
+    metadata.setName(getName());
+    metadata.setLabels(decode(this.labels));
+    metadata.setAttributes(decode(this.attributes));
+    metadata.setClassId(this.classId);
+    metadata.setLabelsId(this.labelsId);
+    if (isSetLastActivity()) {
+      metadata.setLastActivity(this.lastActivity);
+    }
+    return metadata;
+  }
+
+  private static String[] encode(Map<String,String> map) {
+    if (null == map || map.isEmpty()) {
+      return EMPTY;
+    }
+
+    String[] names = new String[map.size()];
+
+    int idx = 0;
+
+    for (String name: map.keySet()) {
+      names[idx++] = name;
+    }
+
+    Arrays.sort(names);
+
+    String[] encoded = new String[names.length << 1];
+
+    for (int i = 0; i < names.length; i++) {
+      encoded[i << 1] = names[i];
+      encoded[(i << 1) + 1] = map.get(names[i]);
+    }
+
+    return share(encoded);
+  }
+
+  /**
+   * Replace the names and values of an array of pairs by their shared instances
+   */
+  private static String[] share(String[] pairs) {
+    for (int i = 0; i < pairs.length; i += 2) {
+      pairs[i] = DICTIONARY.get(DICTIONARY.code(pairs[i]));
+      pairs[i + 1] = VALUES.intern(pairs[i + 1]);
+    }
+    return pairs;
+  }
+
+  /**
+   * Sort an array of (name, value) pairs by name, pairs read from a snapshot are already sorted
+   */
+  private static String[] sort(String[] pairs) {
+    for (int i = 2; i < pairs.length; i += 2) {
+      String name = pairs[i];
+      String value = pairs[i + 1];
+      int j = i - 2;
+      while (j >= 0 && pairs[j].compareTo(name) > 0) {
+        pairs[j + 2] = pairs[j];
+        pairs[j + 3] = pairs[j + 1];
+        j -= 2;
+      }
+      pairs[j + 2] = name;
+      pairs[j + 3] = value;
+    }
+    return pairs;
+  }
+
+  private static Map<String,String> decode(String[] pairs) {
+    Map<String,String> map = new HashMap<String,String>();
+
+    for (int i = 0; i < pairs.length; i += 2) {
+      map.put(pairs[i], pairs[i + 1]);
+    }
+
+    return map;
+  }
+
+  private static String get(String[] pairs, String name) {
+    int lo = 0;
+    int hi = (pairs.length >>> 1) - 1;
+
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int cmp = pairs[mid << 1].compareTo(name);
+
+      if (cmp < 0) {
+        lo = mid + 1;
+      } else if (cmp > 0) {
+        hi = mid - 1;
+      } else {
+        return pairs[(mid << 1) + 1];
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Map view of an array of pairs
+   */
+  private static final class View extends AbstractMap<String,String> {
+    private final String[] pairs;
+
+    private View(String[] pairs) {
+      this.pairs = pairs;
+    }
+
+    @Override
+    public String get(Object key) {
+      return key instanceof String ? CompactMetadata.get(this.pairs, (String) key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return null != get(key);
+    }
+
+    @Override
+    public int size() {
+      return this.pairs.length >>> 1;
+    }
+
+    @Override
+    public Set<Entry<String,String>> entrySet() {
+      return new AbstractSet<Entry<String,String>>() {
+        @Override
+        public int size() {
+          return pairs.length >>> 1;
+        }
+
+        @Override
+        public Iterator<Entry<String,String>> iterator() {
+          return new Iterator<Entry<String,String>>() {
+            private int idx = 0;
+
+            @Override
+            public boolean hasNext() {
+              return idx < pairs.length;
+            }
+
+            @Override
+            public Entry<String,String> next() {
+              if (idx >= pairs.length) {
+                throw new NoSuchElementException();
+              }
+              Entry<String,String> entry = new SimpleImmutableEntry<String,String>(pairs[idx], pairs[idx + 1]);
+              idx += 2;
+              return entry;
+            }
+          };
+        }
+      };
+    }
+  }
+}
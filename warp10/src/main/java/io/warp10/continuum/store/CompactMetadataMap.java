@@ -0,0 +1,244 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.store;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Map of labelsId to CompactMetadata for the GTS of a class.
+ *
+ * Entries are stored in an open addressing table indexed by their labelsId, which removes
+ * the boxed keys and the nodes of a general purpose map. Removed entries leave a tombstone
+ * which is purged when the table is rebuilt.
+ *
+ * Lookups and iterations are lock free and weakly consistent, updates are serialized.
+ */
+public class CompactMetadataMap {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  /**
+   * Marker of removed entries
+   */
+  private static final Object TOMBSTONE = new Object();
+
+  private volatile AtomicReferenceArray<Object> table = new AtomicReferenceArray<Object>(INITIAL_CAPACITY);
+
+  private volatile int size = 0;
+
+  /**
+   * Number of slots which are not null, entries and tombstones
+   */
+  private int used = 0;
+
+  public CompactMetadata get(long labelsId) {
+    AtomicReferenceArray<Object> table = this.table;
+
+    int mask = table.length() - 1;
+    int idx = hash(labelsId) & mask;
+
+    while(true) {
+      Object entry = table.get(idx);
+
+      if (null == entry) {
+        return null;
+      }
+
+      if (TOMBSTONE != entry && ((CompactMetadata) entry).getLabelsId() == labelsId) {
+        return (CompactMetadata) entry;
+      }
+
+      idx = (idx + 1) & mask;
+    }
+  }
+
+  public boolean containsKey(long labelsId) {
+    return null != get(labelsId);
+  }
+
+  /**
+   * Add 'metadata' under its labelsId, returning the entry it replaced if any
+   */
+  public synchronized CompactMetadata put(CompactMetadata metadata) {
+    AtomicReferenceArray<Object> table = this.table;
+
+    long labelsId = metadata.getLabelsId();
+    int mask = table.length() - 1;
+    int idx = hash(labelsId) & mask;
+    int free = -1;
+
+    while(true) {
+      Object entry = table.get(idx);
+
+      if (null == entry) {
+        break;
+      }
+
+      if (TOMBSTONE == entry) {
+        if (free < 0) {
+          free = idx;
+        }
+      } else if (((CompactMetadata) entry).getLabelsId() == labelsId) {
+        table.set(idx, metadata);
+        return (CompactMetadata) entry;
+      }
+
+      idx = (idx + 1) & mask;
+    }
+
+    if (free >= 0) {
+      table.set(free, metadata);
+    } else {
+      table.set(idx, metadata);
+      this.used++;
+    }
+
+    this.size++;
+
+    // Keep the load factor (tombstones included) under 3/4
+    if (this.used << 2 > table.length() * 3) {
+      rebuild();
+    }
+
+    return null;
+  }
+
+  public synchronized CompactMetadata remove(long labelsId) {
+    AtomicReferenceArray<Object> table = this.table;
+
+    int mask = table.length() - 1;
+    int idx = hash(labelsId) & mask;
+
+    while(true) {
+      Object entry = table.get(idx);
+
+      if (null == entry) {
+        return null;
+      }
+
+      if (TOMBSTONE != entry && ((CompactMetadata) entry).getLabelsId() == labelsId) {
+        table.set(idx, TOMBSTONE);
+        this.size--;
+        return (CompactMetadata) entry;
+      }
+
+      idx = (idx + 1) & mask;
+    }
+  }
+
+  public int size() {
+    return this.size;
+  }
+
+  public boolean isEmpty() {
+    return 0 == this.size;
+  }
+
+  /**
+   * Return a view of the entries of the map
+   */
+  public Collection<CompactMetadata> values() {
+    return new AbstractCollection<CompactMetadata>() {
+      @Override
+      public int size() {
+        return CompactMetadataMap.this.size;
+      }
+
+      @Override
+      public Iterator<CompactMetadata> iterator() {
+        final AtomicReferenceArray<Object> table = CompactMetadataMap.this.table;
+
+        return new Iterator<CompactMetadata>() {
+          private int idx = 0;
+          private CompactMetadata next = advance();
+
+          private CompactMetadata advance() {
+            while (idx < table.length()) {
+              Object entry = table.get(idx++);
+              if (null != entry && TOMBSTONE != entry) {
+                return (CompactMetadata) entry;
+              }
+            }
+            return null;
+          }
+
+          @Override
+          public boolean hasNext() {
+            return null != next;
+          }
+
+          @Override
+          public CompactMetadata next() {
+            if (null == next) {
+              throw new NoSuchElementException();
+            }
+            CompactMetadata current = next;
+            next = advance();
+            return current;
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Copy the entries in a new table, sized so it is half full
+   */
+  private void rebuild() {
+    AtomicReferenceArray<Object> table = this.table;
+
+    int capacity = INITIAL_CAPACITY;
+
+    while (capacity < this.size * 2) {
+      capacity <<= 1;
+    }
+
+    AtomicReferenceArray<Object> newtable = new AtomicReferenceArray<Object>(capacity);
+
+    int mask = capacity - 1;
+
+    for (int i = 0; i < table.length(); i++) {
+      Object entry = table.get(i);
+
+      if (null == entry || TOMBSTONE == entry) {
+        continue;
+      }
+
+      int idx = hash(((CompactMetadata) entry).getLabelsId()) & mask;
+
+      while (null != newtable.get(idx)) {
+        idx = (idx + 1) & mask;
+      }
+
+      newtable.set(idx, entry);
+    }
+
+    this.used = this.size;
+    this.table = newtable;
+  }
+
+  /**
+   * labelsIds are SipHash values, fold them so all their bits are used
+   */
+  private static int hash(long labelsId) {
+    return (int) (labelsId ^ (labelsId >>> 32));
+  }
+}
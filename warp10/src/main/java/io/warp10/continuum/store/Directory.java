@@ -302,7 +302,7 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
   /**
    * Maps of class name to labelsId to metadata
    */
-  private final Map<String,Map<Long,Metadata>> metadatas = new MapMaker().concurrencyLevel(64).makeMap();
+  private final Map<String,CompactMetadataMap> metadatas = new MapMaker().concurrencyLevel(64).makeMap();
 
   /**
    * Map of classId to class names
@@ -343,6 +343,11 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
 
   private final int initNThreads;
 
+  /**
+   * Number of key ranges scanned in parallel when populating the directory
+   */
+  private final int initRanges;
+
   private final long idleTimeout;
 
   /**
@@ -442,6 +447,7 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
     }
 
     this.initNThreads = Integer.parseInt(properties.getProperty(io.warp10.continuum.Configuration.DIRECTORY_INIT_NTHREADS, DIRECTORY_INIT_NTHREADS_DEFAULT));
+    this.initRanges = Integer.parseInt(properties.getProperty(io.warp10.continuum.Configuration.DIRECTORY_INIT_RANGES, Integer.toString(this.initNThreads)));
 
     String partition = properties.getProperty(io.warp10.continuum.Configuration.DIRECTORY_PARTITION);
     String[] tokens = partition.split(":");
@@ -669,11 +675,13 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
                   continue;
                 }
 
+                CompactMetadata compact = new CompactMetadata(metadata);
+
                 try {
                   metadatasLock.lockInterruptibly();
                   if (!metadatas.containsKey(metadata.getName())) {
-                    metadatas.put(metadata.getName(), new ConcurrentSkipListMap<Long, Metadata>(ID_COMPARATOR));
-                    classNames.put(classId, metadata.getName());
+                    metadatas.put(compact.getName(), new CompactMetadataMap());
+                    classNames.put(classId, compact.getName());
                   }
                 } finally {
                   if (metadatasLock.isHeldByCurrentThread()) {
@@ -703,7 +711,7 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
 
                 synchronized(metadatas.get(metadata.getName())) {
                   if (!metadatas.get(metadata.getName()).containsKey(labelsId)) {
-                    metadatas.get(metadata.getName()).put(labelsId, metadata);
+                    metadatas.get(metadata.getName()).put(compact);
                     continue;
                   } else if (!metadatas.get(metadata.getName()).get(labelsId).getLabels().equals(metadata.getLabels())) {
                     LOG.warn("LabelsId collision under class '" + metadata.getName() + "' " + metadata.getLabels() + " and " + metadatas.get(metadata.getName()).get(labelsId).getLabels());
@@ -734,89 +742,143 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
 
           long nano = System.nanoTime();
 
-          Table htable = null;
+          final AtomicLong count = new AtomicLong(0L);
 
-          long count = 0L;
+          //
+          // The metadata keyspace is split in ranges of classIds, delimited by their first byte,
+          // which are scanned in parallel, each range feeding the init threads.
+          //
 
-          boolean done = false;
+          final int nranges = Math.max(1, Math.min(256, self.initRanges));
+          final AtomicLong pending = new AtomicLong(nranges);
 
-          byte[] lastrow = HBASE_METADATA_KEY_PREFIX;
+          final Map<String,String> labels = new HashMap<String,String>();
+          labels.put(SensisionConstants.SENSISION_LABEL_SOURCE, "scan");
 
-          while(!done) {
-            try {
-              //
-              // Populate the metadata cache with initial data from HBase
-              //
+          Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_RANGES_PENDING, Sensision.EMPTY_LABELS, nranges);
+
+          Thread[] scanners = new Thread[nranges];
+
+          for (int i = 0; i < nranges; i++) {
+            final byte[] startrow = Arrays.copyOf(HBASE_METADATA_KEY_PREFIX, HBASE_METADATA_KEY_PREFIX.length + 1);
+            startrow[HBASE_METADATA_KEY_PREFIX.length] = (byte) ((i * 256) / nranges);
 
-              htable = self.conn.getTable(self.hbaseTable);
+            final byte[] stoprow;
 
-              Scan scan = new Scan();
-              scan.setStartRow(lastrow);
+            if (i == nranges - 1) {
               // FIXME(hbs): we know the prefix is 'M', so we use 'N' as the stoprow
-              scan.setStopRow("N".getBytes(Charsets.UTF_8));
-              scan.addFamily(self.colfam);
-              scan.setCaching(10000);
-              scan.setBatch(10000);
-              scan.setMaxResultSize(1000000L);
+              stoprow = "N".getBytes(Charsets.UTF_8);
+            } else {
+              stoprow = Arrays.copyOf(HBASE_METADATA_KEY_PREFIX, HBASE_METADATA_KEY_PREFIX.length + 1);
+              stoprow[HBASE_METADATA_KEY_PREFIX.length] = (byte) (((i + 1) * 256) / nranges);
+            }
 
-              ResultScanner scanner = htable.getScanner(scan);
+            scanners[i] = new Thread(new Runnable() {
+              @Override
+              public void run() {
+                Table htable = null;
 
-              do {
-                Result result = scanner.next();
+                boolean done = false;
 
-                if (null == result) {
-                  done = true;
-                  break;
-                }
+                byte[] lastrow = startrow;
 
-                //
-                // FIXME(hbs): this could be done in a filter on the RS side
-                //
+                while(!done) {
+                  try {
+                    //
+                    // Populate the metadata cache with initial data from HBase
+                    //
 
-                int r = (((int) result.getRow()[HBASE_METADATA_KEY_PREFIX.length + 8]) & 0xff) % self.modulus;
+                    htable = self.conn.getTable(self.hbaseTable);
 
-                //byte r = (byte) (result.getRow()[HBASE_METADATA_KEY_PREFIX.length + 8] % self.modulus);
+                    Scan scan = new Scan();
+                    scan.setStartRow(lastrow);
+                    scan.setStopRow(stoprow);
+                    scan.addFamily(self.colfam);
+                    scan.setCaching(10000);
+                    scan.setBatch(10000);
+                    scan.setMaxResultSize(1000000L);
 
-                // Skip metadata if its modulus is not the one we expect
-                if (self.remainder != r) {
-                  continue;
-                }
+                    ResultScanner scanner = htable.getScanner(scan);
 
-                //
-                // Store the current row so we can restart from there if an exception occurs
-                //
+                    do {
+                      Result result = scanner.next();
 
-                lastrow = result.getRow();
+                      if (null == result) {
+                        done = true;
+                        break;
+                      }
 
-                boolean interrupted = true;
+                      //
+                      // FIXME(hbs): this could be done in a filter on the RS side
+                      //
 
-                while(interrupted) {
-                  interrupted = false;
-                  try {
-                    resultQ.put(result);
-                    count++;
-                    if (0 == count % 1000 && null == plugin) {
-                      // We do not update this metric when using a Directory plugin
-                      Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_GTS, Sensision.EMPTY_LABELS, count);
-                    }
-                  } catch (InterruptedException ie) {
-                    interrupted = true;
+                      int r = (((int) result.getRow()[HBASE_METADATA_KEY_PREFIX.length + 8]) & 0xff) % self.modulus;
+
+                      //byte r = (byte) (result.getRow()[HBASE_METADATA_KEY_PREFIX.length + 8] % self.modulus);
+
+                      // Skip metadata if its modulus is not the one we expect
+                      if (self.remainder != r) {
+                        continue;
+                      }
+
+                      //
+                      // Store the current row so we can restart from there if an exception occurs
+                      //
+
+                      lastrow = result.getRow();
+
+                      boolean interrupted = true;
+
+                      while(interrupted) {
+                        interrupted = false;
+                        try {
+                          resultQ.put(result);
+                          long n = count.incrementAndGet();
+                          if (0 == n % 1000) {
+                            Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_LOADED, labels, n);
+                            if (null == plugin) {
+                              // We do not update this metric when using a Directory plugin
+                              Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_GTS, Sensision.EMPTY_LABELS, n);
+                            }
+                          }
+                        } catch (InterruptedException ie) {
+                          interrupted = true;
+                        }
+                      }
+
+                    } while (true);
+
+                  } catch (Exception e) {
+                    LOG.error("Caught exception in scanning loop, will attempt to continue where we stopped", e);
+                  } finally {
+                    if (null != htable) { try { htable.close(); } catch (Exception e) {} }
                   }
                 }
 
-              } while (true);
-
-            } catch (Exception e) {
-              LOG.error("Caught exception in scanning loop, will attempt to continue where we stopped", e);
-            } finally {
-              if (null != htable) { try { htable.close(); } catch (Exception e) {} }
-              if (null == plugin) {
-                // We do not update this metric when using a Directory plugin
-                Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_GTS, Sensision.EMPTY_LABELS, count);
+                Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_RANGES_PENDING, Sensision.EMPTY_LABELS, pending.decrementAndGet());
               }
+            });
+
+            scanners[i].setName("[Directory scanner #" + i + "]");
+            scanners[i].setDaemon(true);
+            scanners[i].start();
+          }
+
+          for (int i = 0; i < nranges; i++) {
+            try {
+              scanners[i].join();
+            } catch (InterruptedException ie) {
+              i--;
             }
           }
 
+          Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_LOADED, labels, count.get());
+
+          if (null == plugin) {
+            // We do not update this metric when using a Directory plugin
+            Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_GTS, Sensision.EMPTY_LABELS, count.get());
+          }
+
           //
           // Wait until resultQ is empty
           //
@@ -837,7 +899,9 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
 
           nano = System.nanoTime() - nano;
 
-          LOG.info("Loaded " + count + " GTS in " + (nano / 1000000.0D) + " ms");
+          Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_TIME_MS, Sensision.EMPTY_LABELS, nano / 1000000L);
+
+          LOG.info("Loaded " + count.get() + " GTS in " + (nano / 1000000.0D) + " ms");
         }
       });
 
@@ -1553,7 +1617,7 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
                 }
 
                 // Remove cache entry
-                Map<Long,Metadata> metamap = directory.metadatas.get(metadata.getName());
+                CompactMetadataMap metamap = directory.metadatas.get(metadata.getName());
                 if (null != metamap && null != metamap.remove(labelsId)) {
                   if (metamap.isEmpty()) {
                     try {
@@ -1678,7 +1742,7 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
                 // We need to keep track of the activity
                 //
 
-                Metadata meta = directory.metadatas.get(metadata.getName()).get(labelsId);
+                CompactMetadata meta = directory.metadatas.get(metadata.getName()).get(labelsId);
 
                 // If none of the Metadata instances has a last activity recorded, do nothing
                 if (!metadata.isSetLastActivity() && !meta.isSetLastActivity()) {
@@ -1702,10 +1766,10 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
                 metadata.setLastActivity(meta.getLastActivity());
 
                 // Copy attributes from the currently store Metadata instance
-                metadata.setAttributes(meta.getAttributes());
+                metadata.setAttributes(new HashMap<String,String>(meta.getAttributes()));
 
                 TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
-                metadataBytes = serializer.serialize(meta);
+                metadataBytes = serializer.serialize(meta.toMetadata());
 
                 id = MetadataUtils.id(metadata);
                 directory.serializedMetadataCache.remove(id);
@@ -1735,7 +1799,7 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
               //
 
               if (null == directory.plugin) {
-                Metadata meta = directory.metadatas.get(metadata.getName()).get(labelsId);
+                CompactMetadata meta = directory.metadatas.get(metadata.getName()).get(labelsId);
 
                 boolean hasChanged = false;
 
@@ -1751,7 +1815,7 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
                 if (hasChanged) {
                   // We re-serialize metadata
                   TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
-                  metadataBytes = serializer.serialize(meta);
+                  metadataBytes = serializer.serialize(meta.toMetadata());
                 }
               }
             }
@@ -1823,9 +1887,8 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
               try {
                 directory.metadatasLock.lockInterruptibly();
                 if (!directory.metadatas.containsKey(metadata.getName())) {
-                  //directory.metadatas.put(metadata.getName(), new ConcurrentHashMap<Long,Metadata>());
                   // This is done under the synchronization of actionsLock
-                  directory.metadatas.put(metadata.getName(), new ConcurrentSkipListMap<Long,Metadata>(ID_COMPARATOR));
+                  directory.metadatas.put(metadata.getName(), new CompactMetadataMap());
                   directory.classNames.put(classId, metadata.getName());
                   Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_CLASSES, Sensision.EMPTY_LABELS, 1);
                 }
@@ -1862,7 +1925,7 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
               metadata.setLabelsId(labelsId);
 
               // 128bits
-              if (null == directory.metadatas.get(metadata.getName()).put(labelsId, metadata)) {
+              if (null == directory.metadatas.get(metadata.getName()).put(new CompactMetadata(metadata))) {
                 Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_GTS, Sensision.EMPTY_LABELS, 1);
               }
 
@@ -2090,7 +2153,11 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
           //
 
           if (classSmartPattern.matches(className)) {
-            for (Metadata metadata: this.metadatas.get(className).values()) {
+            CompactMetadataMap classMetadatas = this.metadatas.get(className);
+            if (null == classMetadatas) {
+              continue;
+            }
+            for (CompactMetadata metadata: classMetadatas.values()) {
               boolean exclude = false;
 
               int idx = 0;
@@ -2101,10 +2168,10 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
                 // labels for which we have patterns either in labels or in attributes
                 //
 
-                String labelValue = metadata.getLabels().get(labelName);
+                String labelValue = metadata.getLabel(labelName);
 
                 if (null == labelValue) {
-                  labelValue = metadata.getAttributes().get(labelName);
+                  labelValue = metadata.getAttribute(labelName);
                   if (null == labelValue) {
                     if (labelPatterns.get(labelName).isEmpty()) {
                       labelValue = "";
@@ -2158,8 +2225,8 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
               meta.setLabels(new HashMap<String, String>(metadata.getLabels()));
               //meta.setAttributes(ImmutableMap.copyOf(metadata.getAttributes()));
               meta.setAttributes(new HashMap<String,String>(metadata.getAttributes()));
-              meta.setClassId(GTSHelper.classId(SIPHASH_CLASS_LONGS, meta.getName()));
-              meta.setLabelsId(GTSHelper.labelsId(SIPHASH_LABELS_LONGS, meta.getLabels()));
+              meta.setClassId(metadata.getClassId());
+              meta.setLabelsId(metadata.getLabelsId());
 
               metas.add(meta);
 
@@ -2279,10 +2346,12 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
 
     String name = this.classNames.get(request.getClassId());
 
-    if (null != name) {
-      Metadata metadata = this.metadatas.get(name).get(request.getLabelsId());
+    CompactMetadataMap classMetadatas = null == name ? null : this.metadatas.get(name);
+
+    if (null != classMetadatas) {
+      CompactMetadata metadata = classMetadatas.get(request.getLabelsId());
       if (null != metadata) {
-        response.setMetadata(metadata);
+        response.setMetadata(metadata.toMetadata());
       }
     }
 
@@ -2453,11 +2522,11 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
           //
 
           if (classSmartPattern.matches(className)) {
-            Map<Long,Metadata> classMetadatas = this.metadatas.get(className);
+            CompactMetadataMap classMetadatas = this.metadatas.get(className);
             if (null == classMetadatas) {
               continue;
             }
-            for (Metadata metadata: classMetadatas.values()) {
+            for (CompactMetadata metadata: classMetadatas.values()) {
 
               boolean exclude = false;
 
@@ -2469,10 +2538,10 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
                 // labels for which we have patterns either in labels or in attributes
                 //
 
-                String labelValue = metadata.getLabels().get(labelName);
+                String labelValue = metadata.getLabel(labelName);
 
                 if (null == labelValue) {
-                  labelValue = metadata.getAttributes().get(labelName);
+                  labelValue = metadata.getAttribute(labelName);
                   if (null == labelValue) {
                     exclude = true;
                     break;
@@ -2984,11 +3053,11 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
 
         if (classSmartPattern.matches(className)) {
           classesMatched++;
-          Map<Long,Metadata> classMetadatas = this.metadatas.get(className);
+          CompactMetadataMap classMetadatas = this.metadatas.get(className);
           if (null == classMetadatas) {
             continue;
           }
-          for (Metadata metadata: classMetadatas.values()) {
+          for (CompactMetadata metadata: classMetadatas.values()) {
             metadataInspected++;
             boolean exclude = false;
 
@@ -3012,10 +3081,10 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
               // labels for which we have patterns either in labels or in attributes
               //
 
-              String labelValue = metadata.getLabels().get(labelName);
+              String labelValue = metadata.getLabel(labelName);
 
               if (null == labelValue) {
-                labelValue = metadata.getAttributes().get(labelName);
+                labelValue = metadata.getAttribute(labelName);
                 if (null == labelValue) {
                   exclude = true;
                   break;
@@ -3064,7 +3133,7 @@ public class Directory extends AbstractHandler implements DirectoryService.Iface
               byte[] data = serializedMetadataCache.get(id);
 
               if (null == data) {
-                data = serializer.serialize(metadata);
+                data = serializer.serialize(metadata.toMetadata());
                 synchronized(serializedMetadataCache) {
                   // cache content
                   serializedMetadataCache.put(MetadataUtils.id(metadata),data);
@@ -0,0 +1,341 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Binary snapshot of the CompactMetadata held by a directory.
+ *
+ * The file starts with a header (magic, version, snapshot id, sequence) followed by one record per GTS,
+ * an end of records marker, the table of the strings referenced by the records and a trailer
+ * (offset of the string table, number of records, CRC32 of all the preceding bytes).
+ *
+ * Records reference their class name, label and attribute names and values by their index in the
+ * string table, which only contains the strings of the GTS in the snapshot. The file is read through
+ * memory mapped windows so loading does not go through the heap more than needed.
+ */
+public class DirectorySnapshot {
+
+  private static final int MAGIC = 0x57313044;
+
+  private static final int VERSION = 2;
+
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+
+  private static final int TRAILER_SIZE = 8 + 8 + 8;
+
+  private static final byte RECORD = 1;
+  private static final byte END = 0;
+
+  /**
+   * Size of the windows mapped when reading
+   */
+  private static final long WINDOW_SIZE = 64L * 1024L * 1024L;
+
+  public static interface Visitor {
+    public void visit(CompactMetadata metadata);
+  }
+
+  /**
+   * Write a snapshot of 'maps' in 'file'. The snapshot is written in a temporary file which
+   * is synced and then renamed, so 'file' always contains a complete snapshot.
+   *
+   * @return the number of records written
+   */
+  public static long write(File file, long id, long sequence, Iterable<CompactMetadataMap> maps) throws IOException {
+    File tmp = new File(file.getAbsolutePath() + ".tmp");
+
+    FileOutputStream fos = new FileOutputStream(tmp);
+
+    long count = 0L;
+
+    //
+    // Strings referenced by the records, indexed by their position in the string table
+    //
+
+    Map<String,Integer> codes = new HashMap<String,Integer>();
+    List<String> strings = new ArrayList<String>();
+
+    try {
+      CRC32 crc = new CRC32();
+      CheckedOutputStream cos = new CheckedOutputStream(new BufferedOutputStream(fos, 1024 * 1024), crc);
+      DataOutputStream out = new DataOutputStream(cos);
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(id);
+      out.writeLong(sequence);
+
+      for (CompactMetadataMap map: maps) {
+        for (CompactMetadata metadata: map.values()) {
+          out.writeByte(RECORD);
+          out.writeInt(code(codes, strings, metadata.getName()));
+          out.writeLong(metadata.getClassId());
+          out.writeLong(metadata.getLabelsId());
+          out.writeLong(metadata.getRawLastActivity());
+          writeStrings(out, codes, strings, metadata.getLabelPairs());
+          writeStrings(out, codes, strings, metadata.getAttributePairs());
+          count++;
+        }
+      }
+
+      out.writeByte(END);
+
+      //
+      // The string table is written after the records so it contains all the strings they reference
+      //
+
+      // DataOutputStream.size() wraps at 2GB, use the position of the flushed file instead
+      out.flush();
+
+      long stringsOffset = fos.getChannel().position();
+
+      out.writeInt(strings.size());
+
+      for (String s: strings) {
+        byte[] bytes = s.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+
+      out.writeLong(stringsOffset);
+      out.writeLong(count);
+      out.flush();
+      out.writeLong(crc.getValue());
+      out.flush();
+
+      fos.getFD().sync();
+    } finally {
+      fos.close();
+    }
+
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    return count;
+  }
+
+  /**
+   * Return the id and sequence of the snapshot in 'file' or null if 'file' does not contain a snapshot
+   */
+  public static long[] readHeader(File file) throws IOException {
+    if (!file.exists() || file.length() < HEADER_SIZE + 1 + 4 + TRAILER_SIZE) {
+      return null;
+    }
+
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+    try {
+      if (MAGIC != raf.readInt() || VERSION != raf.readInt()) {
+        return null;
+      }
+      return new long[] { raf.readLong(), raf.readLong() };
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Load the snapshot in 'file', calling 'visitor' for each of its records.
+   *
+   * The CRC of the file is checked before any record is visited.
+   *
+   * @return the number of records read
+   * @throws IOException if the file is not a valid snapshot
+   */
+  public static long read(File file, Visitor visitor) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+    try {
+      FileChannel channel = raf.getChannel();
+
+      long length = channel.size();
+
+      if (length < HEADER_SIZE + 1 + 4 + TRAILER_SIZE) {
+        throw new IOException("Truncated snapshot.");
+      }
+
+      //
+      // Check the CRC of the whole file
+      //
+
+      CRC32 crc = new CRC32();
+
+      long end = length - 8;
+      long offset = 0L;
+
+      while (offset < end) {
+        long len = Math.min(WINDOW_SIZE, end - offset);
+        crc.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, len));
+        offset += len;
+      }
+
+      Input in = new Input(channel, length - TRAILER_SIZE);
+
+      long stringsOffset = in.getLong();
+      long count = in.getLong();
+
+      if (crc.getValue() != in.getLong()) {
+        throw new IOException("Invalid snapshot CRC.");
+      }
+
+      in = new Input(channel, stringsOffset);
+
+      String[] strings = new String[in.getInt()];
+
+      for (int i = 0; i < strings.length; i++) {
+        byte[] bytes = in.getBytes(in.getInt());
+        strings[i] = new String(bytes, Charsets.UTF_8);
+      }
+
+      in = new Input(channel, 0L);
+
+      if (MAGIC != in.getInt() || VERSION != in.getInt()) {
+        throw new IOException("Invalid snapshot header.");
+      }
+
+      in.getLong();
+      in.getLong();
+
+      long records = 0L;
+
+      while (RECORD == in.getByte()) {
+        String name = strings[in.getInt()];
+        long classId = in.getLong();
+        long labelsId = in.getLong();
+        long lastActivity = in.getLong();
+        String[] labels = readStrings(in, strings);
+        String[] attributes = readStrings(in, strings);
+
+        visitor.visit(new CompactMetadata(name, classId, labelsId, labels, attributes, lastActivity));
+        records++;
+      }
+
+      if (records != count) {
+        throw new IOException("Snapshot contains " + records + " records, expected " + count + ".");
+      }
+
+      return records;
+    } finally {
+      raf.close();
+    }
+  }
+
+  /**
+   * Return the index of 's' in the string table, adding it if needed
+   */
+  private static int code(Map<String,Integer> codes, List<String> strings, String s) {
+    Integer code = codes.get(s);
+
+    if (null == code) {
+      code = strings.size();
+      codes.put(s, code);
+      strings.add(s);
+    }
+
+    return code;
+  }
+
+  private static void writeStrings(DataOutputStream out, Map<String,Integer> codes, List<String> strings, String[] values) throws IOException {
+    out.writeInt(values.length);
+    for (String s: values) {
+      out.writeInt(code(codes, strings, s));
+    }
+  }
+
+  private static String[] readStrings(Input in, String[] strings) throws IOException {
+    String[] values = new String[in.getInt()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = strings[in.getInt()];
+    }
+    return values;
+  }
+
+  /**
+   * Sequential reader over a window of a file which is remapped as it is consumed
+   */
+  private static final class Input {
+    private final FileChannel channel;
+    private final long length;
+
+    private MappedByteBuffer buffer;
+
+    /**
+     * Offset in the file of the start of 'buffer'
+     */
+    private long base;
+
+    private Input(FileChannel channel, long offset) throws IOException {
+      this.channel = channel;
+      this.length = channel.size();
+      map(offset, 0);
+    }
+
+    private void map(long offset, int needed) throws IOException {
+      if (offset + needed > this.length) {
+        throw new IOException("Truncated snapshot.");
+      }
+      this.base = offset;
+      this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(Math.max(WINDOW_SIZE, needed), this.length - offset));
+    }
+
+    private void ensure(int needed) throws IOException {
+      if (this.buffer.remaining() < needed) {
+        map(this.base + this.buffer.position(), needed);
+      }
+    }
+
+    private byte getByte() throws IOException {
+      ensure(1);
+      return this.buffer.get();
+    }
+
+    private int getInt() throws IOException {
+      ensure(4);
+      return this.buffer.getInt();
+    }
+
+    private long getLong() throws IOException {
+      ensure(8);
+      return this.buffer.getLong();
+    }
+
+    private byte[] getBytes(int len) throws IOException {
+      ensure(len);
+      byte[] bytes = new byte[len];
+      this.buffer.get(bytes);
+      return bytes;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.store;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of the class names and of the label and attribute names of the GTS held
+ * by the directories, each distinct String is stored once and referenced by an int code.
+ *
+ * Codes are never reclaimed, like interned Strings the dictionary only grows with the
+ * number of distinct Strings, not with the number of GTS. Label and attribute values must
+ * not be added to it, their cardinality is unbounded and they would outlive their GTS.
+ *
+ * Lookups are lock free, only the creation of new codes is serialized.
+ */
+public class MetadataDictionary {
+
+  private static final MetadataDictionary INSTANCE = new MetadataDictionary();
+
+  private final Map<String,Integer> codes = new ConcurrentHashMap<String,Integer>();
+
+  private volatile String[] strings = new String[1024];
+
+  private int size = 0;
+
+  public static MetadataDictionary getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Return the code of 's', adding it to the dictionary if needed
+   */
+  public int code(String s) {
+    Integer code = this.codes.get(s);
+
+    if (null != code) {
+      return code;
+    }
+
+    synchronized(this) {
+      code = this.codes.get(s);
+
+      if (null != code) {
+        return code;
+      }
+
+      String[] strings = this.strings;
+
+      if (this.size == strings.length) {
+        strings = Arrays.copyOf(strings, strings.length * 2);
+      }
+
+      // Use the interned instance so the Strings are shared with the rest of the JVM
+      strings[this.size] = s.intern();
+
+      // Publish the array before the code so a reader obtaining the code sees the String
+      this.strings = strings;
+      this.codes.put(strings[this.size], this.size);
+
+      return this.size++;
+    }
+  }
+
+  /**
+   * Return the code of 's' or -1 if it is not part of the dictionary
+   */
+  public int lookup(String s) {
+    Integer code = this.codes.get(s);
+    return null == code ? -1 : code;
+  }
+
+  public String get(int code) {
+    return this.strings[code];
+  }
+
+  public int size() {
+    return this.codes.size();
+  }
+}
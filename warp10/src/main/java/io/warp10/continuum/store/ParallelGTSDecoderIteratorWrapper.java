@@ -25,6 +25,7 @@ import java.util.concurrent.locks.ReentrantLock;
 import io.warp10.WarpConfig;
 import io.warp10.continuum.Configuration;
 import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.MetadataIdComparator;
 import io.warp10.continuum.sensision.SensisionConstants;
 import io.warp10.continuum.store.thrift.data.Metadata;
 import io.warp10.crypto.KeyStore;
@@ -333,6 +334,12 @@ public class ParallelGTSDecoderIteratorWrapper extends GTSDecoderIterator {
       throw new IOException("Incompatible parallel scanner instantiated.");
     }
     
+    //
+    // Sort the Metadata so each scanner is assigned a contiguous range of keys
+    //
+    
+    Collections.sort(metadatas, MetadataIdComparator.COMPARATOR);
+    
     //
     // Allocate a queue for the GTSDecoders
     //
@@ -35,7 +35,6 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -53,7 +52,6 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -67,6 +65,8 @@ import kafka.message.MessageAndMetadata;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
 import org.apache.hadoop.hbase.client.Put;
@@ -161,10 +161,16 @@ public class Store extends Thread {
   private final long maxTimeBetweenCommits;
   
   /**
-   * Maximum size we allow the pending Puts list to grow
+   * Size of the write buffer of the BufferedMutator, when it is full its content is sent to HBase in the background
    */
   private final long maxPendingPutsSize;
   
+  /**
+   * Maximum number of bytes a consumer may hand to HBase since its last flush, when it is exceeded
+   * the consumer flushes its mutator, waiting for all its Puts to be acknowledged
+   */
+  private final long maxInflightBytes;
+  
   /**
    * Pool used to retrieve HTableInterface instances
    */
@@ -333,6 +339,11 @@ public class Store extends Thread {
     }
     
     maxPendingPutsSize = Long.parseLong(properties.getProperty(io.warp10.continuum.Configuration.STORE_HBASE_DATA_MAXPENDINGPUTSSIZE));
+    maxInflightBytes = Long.parseLong(properties.getProperty(io.warp10.continuum.Configuration.STORE_HBASE_DATA_MAXINFLIGHTBYTES, Long.toString(4L * maxPendingPutsSize)));
+    
+    if (maxInflightBytes < maxPendingPutsSize) {
+      throw new RuntimeException(io.warp10.continuum.Configuration.STORE_HBASE_DATA_MAXINFLIGHTBYTES + " MUST be set to a value above that of " + io.warp10.continuum.Configuration.STORE_HBASE_DATA_MAXPENDINGPUTSSIZE);
+    }
 
     final String groupid = properties.getProperty(io.warp10.continuum.Configuration.STORE_KAFKA_DATA_GROUPID);
 
@@ -347,6 +358,7 @@ public class Store extends Thread {
         
         StoreConsumer[] consumers = new StoreConsumer[nthreads];
         Table[] tables = new Table[nthreads];
+        BufferedMutator[] mutators = new BufferedMutator[nthreads];
         
         for (int i = 0; i < nthreads; i++) {
           try {
@@ -450,7 +462,23 @@ public class Store extends Thread {
                   throw new RuntimeException(t);
                 }
               }
-              consumers[idx] = new StoreConsumer(tables[idx], self, stream, counters);
+              //
+              // Each generation uses a new BufferedMutator
+              //
+              
+              BufferedMutator previous = mutators[idx];
+              mutators[idx] = null;
+              
+              try {
+                mutators[idx] = renewMutator(conn, previous, new BufferedMutatorParams(hbaseTable).writeBufferSize(maxPendingPutsSize));
+              } catch (Throwable t) {
+                LOG.error("Caught throwable while creating HBase BufferedMutator.", t);
+                // Force connection reset 
+                connReset.set(true);
+                throw new RuntimeException(t);
+              }
+              
+              consumers[idx] = new StoreConsumer(tables[idx], mutators[idx], self, stream, counters);
               executor.submit(consumers[idx]);
               idx++;
             }      
@@ -696,6 +724,23 @@ public class Store extends Thread {
     }
   }
   
+  /**
+   * Close the BufferedMutator of the previous generation of a consumer, if any, and create a new one.
+   * The mutations still pending in the previous mutator were not acknowledged so they will be replayed
+   * from Kafka, closing it releases its thread pool.
+   */
+  static BufferedMutator renewMutator(Connection conn, BufferedMutator previous, BufferedMutatorParams params) throws IOException {
+    if (null != previous) {
+      try {
+        previous.close();
+      } catch (Throwable t) {
+        LOG.error("Caught throwable while closing HBase BufferedMutator.", t);
+      }
+    }
+    
+    return conn.getBufferedMutator(params);
+  }
+  
   private static class StoreConsumer implements Runnable {
 
     private boolean resetHBase = false;
@@ -704,11 +749,15 @@ public class Store extends Thread {
     private final KafkaStream<byte[],byte[]> stream;
     private final byte[] hbaseAESKey;
     private Table table = null;
-    private final AtomicLong lastPut = new AtomicLong(0L);
-    private final List<Put> puts;
     
     /**
-     * Lock for protecting the access to the 'puts' list.
+     * BufferedMutator to which the Puts are handed. It sends its buffer to HBase in the background
+     * each time it exceeds 'maxPendingPutsSize', so the RPCs overlap with the consumption of Kafka.
+     */
+    private final StoreMutator mutator;
+    
+    /**
+     * Lock for protecting the access to 'mutator'.
      * This lock is also used to mutex the synchronization and the processing of
      * a message from Kafka so we do not commit and offset for an inflight message.
      * This lock is not created fair so technically there is a non zero probability
@@ -716,7 +765,6 @@ public class Store extends Thread {
      */
     private final ReentrantLock putslock = new ReentrantLock();
     
-    private final AtomicLong putsSize = new AtomicLong(0L);
     private final AtomicBoolean localabort = new AtomicBoolean(false);
     private final AtomicBoolean forcecommit = new AtomicBoolean(false);
     private final Semaphore flushsem = new Semaphore(0);
@@ -727,10 +775,10 @@ public class Store extends Thread {
     final AtomicBoolean inflightMessage = new AtomicBoolean(false);
     final AtomicBoolean needToSync = new AtomicBoolean(false);
 
-    public StoreConsumer(Table table, Store store, KafkaStream<byte[], byte[]> stream, KafkaOffsetCounters counters) {
+    public StoreConsumer(Table table, BufferedMutator mutator, Store store, KafkaStream<byte[], byte[]> stream, KafkaOffsetCounters counters) {
       this.store = store;
       this.stream = stream;
-      this.puts = new ArrayList<Put>();
+      this.mutator = new StoreMutator(mutator, store.maxInflightBytes, store.SKIP_WRITE);
       this.counters = counters;
       this.table = table;
       this.hbaseAESKey = store.keystore.getKey(KeyStore.AES_HBASE_DATA);
@@ -802,10 +850,10 @@ public class Store extends Thread {
               
               if (now - lastsync > store.commitPeriod
                   && (!inflightMessage.get() || !needToSync.get()
-                      || !(forcecommit.get() || (0 != lastPut.get() && (now - lastPut.get() > 500) || putsSize.get() > store.maxPendingPutsSize)))) {
+                      || !(forcecommit.get() || (0 != mutator.getLastPut() && (now - mutator.getLastPut() > 500))))) {
                 
                 //
-                // We synchronize on 'puts' so the main Thread does not add Puts to ht
+                // We lock 'putslock' so the main Thread does not add Puts to the mutator
                 //
                 
                 try {
@@ -836,54 +884,16 @@ public class Store extends Thread {
                   }
                   
                   //
-                  // Attempt to flush
+                  // Wait for the Puts handed to the mutator to be acknowledged. Most of them were sent
+                  // in the background while we were consuming, so this only waits for the tail.
                   //
                   
                   try {
-                    Object[] results = new Object[puts.size()];
-                    long nanos = System.nanoTime();
-                    if (!store.SKIP_WRITE) {
-                      if (LOG.isDebugEnabled()) {
-                        LOG.debug("HBase batch of " + puts.size() + " Puts.");
-                      }
-                      //
-                      // TODO(hbs): consider switching to streaming Puts???, i.e. setAutoFlush(false), then series of
-                      // calls to Table.put and finally a call to flushCommits to trigger the Kafka commit.
-                      //
-                      ht.batch(puts, results);
-                      // Check results for nulls
-                      for (Object o: results) {
-                        if (null == o) {
-                          throw new IOException("At least one Put failed.");
-                        }
-                      }    
-                    }
-                    
-                    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STORE_HBASE_PUTS_COMMITTED, Sensision.EMPTY_LABELS, puts.size());
-
-                    puts.clear();
-                    putsSize.set(0L);
-                    nanos = System.nanoTime() - nanos;
-                    if (LOG.isDebugEnabled()) {
-                      LOG.debug("HBase batch took " + nanos + " ns.");
-                    }
-                    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STORE_HBASE_COMMITS, Sensision.EMPTY_LABELS, 1);
-                    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STORE_HBASE_TIME_NANOS, Sensision.EMPTY_LABELS, nanos);
-                  } catch (InterruptedException ie) {
-                    // Clear list of Puts
-                    puts.clear();
-                    putsSize.set(0L);
-                    // If an exception is thrown, abort
-                    store.abort.set(true);
-                    LOG.error("Received InterruptedException", ie);
-                    return;                    
+                    mutator.flush(false);
                   } catch (Throwable t) {
                     if (t.getCause() instanceof RejectedExecutionException) {
                       store.connReset.set(true);
                     }
-                    // Clear list of Puts
-                    puts.clear();
-                    putsSize.set(0L);
                     // If an exception is thrown, abort
                     store.abort.set(true);
                     resetHBase = true;
@@ -925,9 +935,9 @@ public class Store extends Thread {
                 }
 //                synchronized (puts) {
 //                }
-              } else if (forcecommit.get() || (0 != lastPut.get() && (now - lastPut.get() > 500) || putsSize.get() > store.maxPendingPutsSize)) {
+              } else if (forcecommit.get() || (0 != mutator.getLastPut() && (now - mutator.getLastPut() > 500))) {
                 //
-                // If the last Put was added to 'puts' more than 500ms ago, force a flush
+                // If the last Put was handed to the mutator more than 500ms ago, force a flush
                 //
                 
                 try {
@@ -945,60 +955,21 @@ public class Store extends Thread {
                     throw new RuntimeException("Completed deletions had errors, aborting.");
                   }
                   
-                  if (!puts.isEmpty()) {
-                    try {
-                      Object[] results = new Object[puts.size()];
-                      long nanos = System.nanoTime();
-                      if (!store.SKIP_WRITE) {
-                        if (LOG.isDebugEnabled()) {
-                          LOG.debug("Forcing HBase batch of " + puts.size() + " Puts.");
-                        }
-                        ht.batch(puts, results);
-                        // Check results for nulls
-                        for (Object o: results) {
-                          if (null == o) {
-                            throw new IOException("At least one Put failed.");
-                          }
-                        }         
-                      }
-                      
-                      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STORE_HBASE_PUTS_COMMITTED, Sensision.EMPTY_LABELS, puts.size());
-
-                      puts.clear();
-                      putsSize.set(0L);
-                      nanos = System.nanoTime() - nanos;
-                      if (LOG.isDebugEnabled()) {
-                        LOG.debug("Forced HBase batch took " + nanos + " ns");
-                      }
-                      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STORE_HBASE_COMMITS, Sensision.EMPTY_LABELS, 1);
-                      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STORE_HBASE_TIME_NANOS, Sensision.EMPTY_LABELS, nanos);
-                      // Reset lastPut to 0
-                      lastPut.set(0L);
-                    } catch (InterruptedException ie) {
-                      // Clear list of Puts
-                      puts.clear();
-                      putsSize.set(0L);
-                      // If an exception is thrown, abort
-                      store.abort.set(true);
-                      LOG.error("Received InterrupedException", ie);
-                      return;                    
-                    } catch (Throwable t) {
-                      // Some errors of HBase are reported as RuntimeException, so we
-                      // handle those in a more general Throwable catch clause.
-                      // Mark the HBase connection as needing reset
-                      if (t.getCause() instanceof RejectedExecutionException) {
-                        store.connReset.set(true);
-                      }
-                      // Clear list of Puts
-                      puts.clear();
-                      putsSize.set(0L);
-                      // If an exception is thrown, abort
-                      store.abort.set(true);                      
-                      resetHBase = true;
-                      LOG.error("Received Throwable while forced writing to HBase - forcing HBase reset", t);
-                      return;
+                  try {
+                    mutator.flush(true);
+                  } catch (Throwable t) {
+                    // Some errors of HBase are reported as RuntimeException, so we
+                    // handle those in a more general Throwable catch clause.
+                    // Mark the HBase connection as needing reset
+                    if (t.getCause() instanceof RejectedExecutionException) {
+                      store.connReset.set(true);
                     }
-                  }                  
+                    // If an exception is thrown, abort
+                    store.abort.set(true);                      
+                    resetHBase = true;
+                    LOG.error("Received Throwable while forced writing to HBase - forcing HBase reset", t);
+                    return;
+                  }
                 } catch (InterruptedException ie) {
                   store.abort.set(true);
                   return;
@@ -1043,8 +1014,6 @@ public class Store extends Thread {
 
         TDeserializer deserializer = new TDeserializer(new TCompactProtocol.Factory());
 
-        // TODO(hbs): allow setting of writeBufferSize
-
         // The call to resetInflight is a hack, we need to reset inflightMessage BUT iter.hasNext() may block
         // so we add an artificial call to resetInflight which always returns true but has the side effect
         // of resetting inflightMessage, this makes the code cleaner as we don't have to add calls to inflightMessage.set(false)
@@ -1276,11 +1245,19 @@ public class Store extends Thread {
             LockSupport.parkNanos(10000000L);
           }
 
-          puts.add(put);
+          //
+          // If too many bytes were handed to the mutator since the last flush, this waits for HBase
+          // to acknowledge them before consuming more messages
+          //
+          
+          mutator.mutate(put, bytes.length);
           datapoints++;
-          // We should use put.heapSize()
-          putsSize.addAndGet(bytes.length);          
-          lastPut.set(System.currentTimeMillis());
+        } catch (IOException ioe) {
+          if (ioe.getCause() instanceof RejectedExecutionException) {
+            store.connReset.set(true);
+          }
+          resetHBase = true;
+          throw ioe;
         } catch (InterruptedException ie) {
           localabort.set(true);
           return;
@@ -1311,12 +1288,12 @@ public class Store extends Thread {
       // We need to wait for the current data to be flushed to HBase, otherwise we might have data to delete which
       // is not yet committed (depending on the commit period).
       // We don't need to commit the Kafka offsets as the DELETE would also be replayed if Kafka is read over.
-      // We only need to wait if 'puts' is not empty. We first set forcecommit to true then attempt to acquire the
+      // We only need to wait if some Puts were not acknowledged. We first set forcecommit to true then attempt to acquire the
       // 'flushsem' Semaphore every microsecond.
       // 'flushsem' is released by the Synchronizer thread
       //
       
-      if (!puts.isEmpty()) {
+      if (0 != mutator.getLastPut()) {
         forcecommit.set(true);
         while(!flushsem.tryAcquire()) {
           LockSupport.parkNanos(1000);
@@ -0,0 +1,165 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.store;
+
+import io.warp10.continuum.sensision.SensisionConstants;
+import io.warp10.sensision.Sensision;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.Put;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Puts handed by a Store consumer to its BufferedMutator and not yet acknowledged by HBase.
+ *
+ * The mutator sends its buffer in the background, 'flush' waits for all the Puts handed to it
+ * to be acknowledged, only then may the Kafka offsets of the messages they come from be committed.
+ *
+ * Calls to 'mutate', 'flush' and 'discard' MUST be serialized by the caller.
+ */
+class StoreMutator {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StoreMutator.class);
+
+  private final BufferedMutator mutator;
+
+  /**
+   * Maximum number of bytes handed to the mutator since the last flush, when it is exceeded
+   * 'mutate' flushes the mutator
+   */
+  private final long maxInflightBytes;
+
+  /**
+   * Flag indicating the Puts are only accounted for and not handed to the mutator
+   */
+  private final boolean skipWrite;
+
+  /**
+   * Number of Puts handed to 'mutator' which have not yet been acknowledged
+   */
+  private long pendingPuts = 0L;
+
+  /**
+   * Size of the Puts handed to 'mutator' which have not yet been acknowledged
+   */
+  private final AtomicLong putsSize = new AtomicLong(0L);
+
+  /**
+   * Timestamp of the last Put or 0 if none were added since the last flush
+   */
+  private final AtomicLong lastPut = new AtomicLong(0L);
+
+  StoreMutator(BufferedMutator mutator, long maxInflightBytes, boolean skipWrite) {
+    this.mutator = mutator;
+    this.maxInflightBytes = maxInflightBytes;
+    this.skipWrite = skipWrite;
+  }
+
+  /**
+   * Hand a Put to the mutator. If too many bytes were handed to the mutator since the last flush,
+   * wait for HBase to acknowledge them.
+   *
+   * @param put Put to store
+   * @param size Size of the value of the Put
+   * @return true if the call waited for HBase
+   */
+  boolean mutate(Put put, long size) throws IOException {
+    if (!this.skipWrite) {
+      this.mutator.mutate(put);
+    }
+
+    this.pendingPuts++;
+    // We should use put.heapSize()
+    this.putsSize.addAndGet(size);
+    this.lastPut.set(System.currentTimeMillis());
+
+    if (this.putsSize.get() > this.maxInflightBytes) {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STORE_HBASE_BACKPRESSURE, Sensision.EMPTY_LABELS, 1);
+      flush(true);
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Wait until HBase has acknowledged all the Puts handed to the mutator.
+   * If the flush fails, the pending Puts are forgotten, they will be replayed from Kafka.
+   *
+   * @param forced true if the flush was not triggered by an offsets commit
+   */
+  void flush(boolean forced) throws IOException {
+    if (0 == this.pendingPuts) {
+      return;
+    }
+
+    long nanos = System.nanoTime();
+
+    if (!this.skipWrite) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug((forced ? "Forcing" : "Waiting for") + " acknowledgement of " + this.pendingPuts + " Puts (" + this.putsSize.get() + " bytes).");
+      }
+      try {
+        this.mutator.flush();
+      } catch (IOException ioe) {
+        discard();
+        throw ioe;
+      } catch (RuntimeException re) {
+        // Some errors of HBase are reported as RuntimeException
+        discard();
+        throw re;
+      }
+    }
+
+    nanos = System.nanoTime() - nanos;
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("HBase flush took " + nanos + " ns.");
+    }
+
+    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STORE_HBASE_PUTS_COMMITTED, Sensision.EMPTY_LABELS, this.pendingPuts);
+    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STORE_HBASE_COMMITS, Sensision.EMPTY_LABELS, 1);
+    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STORE_HBASE_TIME_NANOS, Sensision.EMPTY_LABELS, nanos);
+
+    discard();
+  }
+
+  /**
+   * Forget about the pending Puts
+   */
+  void discard() {
+    this.pendingPuts = 0L;
+    this.putsSize.set(0L);
+    this.lastPut.set(0L);
+  }
+
+  long getPendingPuts() {
+    return this.pendingPuts;
+  }
+
+  long getPutsSize() {
+    return this.putsSize.get();
+  }
+
+  long getLastPut() {
+    return this.lastPut.get();
+  }
+}
@@ -1,16 +1,22 @@
 package io.warp10.plugins.influxdb;
 
 import io.warp10.continuum.Configuration;
-import io.warp10.continuum.TimeSource;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.ingress.Ingress;
 import io.warp10.continuum.store.Constants;
+import io.warp10.script.WarpScriptException;
+import io.warp10.standalone.StandaloneLocalWriter;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.text.ParseException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.ServletException;
@@ -21,10 +27,16 @@ import org.apache.commons.codec.binary.Base64;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Splitter;
 
 public class InfluxDBHandler extends AbstractHandler {
   
+  /**
+   * Size in bytes of the encoders above which the parsed lines are written
+   */
+  private static final long BATCH_SIZE = 1000000L;
+
   private final URL url;
   private final String token;
   
@@ -84,38 +96,78 @@ public class InfluxDBHandler extends AbstractHandler {
       throw new IOException("Missing password and no default token.");
     }
     
+    InfluxDBLineParser parser = new InfluxDBLineParser(request.getInputStream(), nsPerTimeUnit);
+
+    try {
+      while(parser.next()) {
+        try {
+          parser.read();
+        } catch (ParseException pe) {
+          response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Parse error at '" + parser.getText() + "'");
+          return;
+        }
+
+        if (parser.getBatchSize() > BATCH_SIZE) {
+          write(token, parser.flush());
+        }
+      }
+
+      write(token, parser.flush());
+    } catch (IOException ioe) {
+      response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ioe.getMessage());
+      return;
+    }
+
+    response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+  }
+
+  /**
+   * Write a batch of encoders, directly to the local standalone instance or Ingress
+   * when the endpoint targets them, with a POST to the endpoint otherwise.
+   */
+  private void write(String token, List<GTSEncoder> encoders) throws IOException {
+    if (encoders.isEmpty()) {
+      return;
+    }
+
+    StandaloneLocalWriter writer = StandaloneLocalWriter.getLocalWriter(this.url, Constants.API_ENDPOINT_UPDATE);
+
+    if (null != writer) {
+      try {
+        writer.update(token, Collections.<GeoTimeSerie>emptyList(), encoders);
+      } catch (WarpScriptException wse) {
+        throw new IOException(wse);
+      }
+      return;
+    }
+
+    Ingress ingress = Ingress.getLocalIngress(this.url);
+
+    if (null != ingress) {
+      ingress.update(token, encoders);
+      return;
+    }
+
     HttpURLConnection conn = null;
-    
+
     try {
-      
-      conn = (HttpURLConnection) url.openConnection();
-      
+      conn = (HttpURLConnection) this.url.openConnection();
+
       conn.setDoOutput(true);
       conn.setDoInput(true);
       conn.setRequestMethod("POST");
       conn.setRequestProperty(Constants.getHeader(Configuration.HTTP_HEADER_UPDATE_TOKENX), token);
-      //conn.setRequestProperty("Content-Type", "application/gzip");
       conn.setChunkedStreamingMode(16384);
       conn.connect();
-      
-      OutputStream os = conn.getOutputStream();
-      //GZIPOutputStream out = new GZIPOutputStream(os);
-      PrintWriter pw = new PrintWriter(os);
-
-      BufferedReader br = request.getReader();
-      
-      while(true) {
-        String line = br.readLine();
-        if (null == line) {
-          break;
-        }
-        parse(pw,line,nsPerTimeUnit);
+
+      PrintWriter pw = new PrintWriter(new OutputStreamWriter(conn.getOutputStream(), Charsets.UTF_8));
+
+      for (GTSEncoder encoder: encoders) {
+        encoder.getDecoder(true).dump(pw);
       }
-      
-      br.close();
-      
+
       pw.flush();
-      
+
       if (HttpServletResponse.SC_OK != conn.getResponseCode()) {
         throw new IOException(conn.getResponseMessage());
       }
@@ -125,65 +177,4 @@ public class InfluxDBHandler extends AbstractHandler {
       }
     }
   }
-  
-  private static void parse(PrintWriter pw, String line, long nsPerTimeUnit) throws IOException {
-    
-    //
-    // Replace escape sequences
-    //
-    
-    if (line.indexOf('\\') >= 0) {
-      line = line.replaceAll("%", "%25").replaceAll("\\=", "%3D").replaceAll("\\,", "%2C").replaceAll("\\ ", "%20").replaceAll("\\\"", "%22").replaceAll("\\{", "%7B").replaceAll("\\}", "%7D");
-    }
-    
-    String[] tokens = line.split(" ");
-    
-    String measurementtags = tokens[0];
-    String[] fields = tokens[1].split(",");
-    
-    long timestamp = tokens.length > 2 ? Long.parseLong(tokens[2]) * nsPerTimeUnit : TimeSource.getNanoTime();
-
-    timestamp = timestamp / (1000000000L / Constants.TIME_UNITS_PER_S);
-    
-    int comma = measurementtags.indexOf(',');
-    
-    String measurement = measurementtags.substring(0, comma);
-    String labels = measurementtags.substring(comma + 1);
-
-    StringBuilder sb = new StringBuilder();
-
-    for (String field: fields) {
-      sb.setLength(0);
-      int equal = field.indexOf('=');
-      
-      String name = field.substring(0, equal);
-      
-      sb.append(timestamp);
-      sb.append("// ");
-      sb.append(measurement);
-      sb.append(".");
-      sb.append(name);
-      sb.append("{");
-      sb.append(labels);
-      sb.append("}");
-      sb.append(" ");
-
-      String val = field.substring(equal + 1);
-      
-      if ("t".equals(val) || "T".equals(val) || "true".equals(val) || "TRUE".equals(val)) {
-        sb.append("T");
-      } else if ("f".equals(val) || "F".equals(val) || "false".equals(val) || "FALSE".equals(val)) {
-        sb.append("F");
-      } else if (val.endsWith("i")) {
-        sb.append(val.substring(0, val.length() - 1));
-      } else if (val.startsWith("\"") && val.endsWith("\"")) {
-        sb.append("'");
-        sb.append(val.substring(1, val.length() - 1));
-        sb.append("'");
-      } else {
-        sb.append(val);
-      }
-      pw.println(sb.toString());
-    }
-  }
 }
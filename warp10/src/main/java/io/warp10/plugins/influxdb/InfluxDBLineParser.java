@@ -0,0 +1,486 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.plugins.influxdb;
+
+import io.warp10.continuum.TimeSource;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.Constants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Streaming parser of the InfluxDB line protocol.
+ *
+ * Lines are read from the raw request bytes and their fields are added to GTSEncoders, one per
+ * field of each measurement and tag set, named 'measurement.field' and labelled with the tags.
+ * Encoders are shared by all the lines of the current batch which have the same measurement and
+ * tag set, so the tags of a series are only parsed once per batch.
+ */
+class InfluxDBLineParser {
+
+  private static final int DEFAULT_BUFFER_SIZE = 65536;
+
+  private final InputStream in;
+
+  /**
+   * Number of ns per unit of the timestamps
+   */
+  private final long nsPerTimeUnit;
+
+  private byte[] buf;
+
+  private int pos = 0;
+  private int limit = 0;
+
+  private boolean eof = false;
+
+  /**
+   * Boundaries of the current line
+   */
+  private int start = 0;
+  private int end = 0;
+
+  /**
+   * Series of the current batch, keyed by the raw measurement and tag set
+   */
+  private final Map<String,Map<String,GTSEncoder>> batch = new LinkedHashMap<String,Map<String,GTSEncoder>>();
+
+  /**
+   * Size of the encoders of the current batch
+   */
+  private long size = 0L;
+
+  /**
+   * Number of datapoints in the current batch
+   */
+  private long count = 0L;
+
+  InfluxDBLineParser(InputStream in, long nsPerTimeUnit) {
+    this.in = in;
+    this.nsPerTimeUnit = nsPerTimeUnit;
+    this.buf = new byte[DEFAULT_BUFFER_SIZE];
+  }
+
+  /**
+   * Advance to the next line which is neither empty nor a comment.
+   *
+   * @return false if the end of the stream was reached
+   */
+  boolean next() throws IOException {
+    while(true) {
+      int idx = this.pos;
+
+      while(idx < this.limit && '\n' != this.buf[idx]) {
+        idx++;
+      }
+
+      if (idx == this.limit && !this.eof) {
+        fill();
+        continue;
+      }
+
+      if (this.pos == this.limit && this.eof) {
+        return false;
+      }
+
+      int s = this.pos;
+      int e = idx;
+
+      this.pos = idx < this.limit ? idx + 1 : idx;
+
+      while(s < e && (this.buf[s] & 0xFF) <= ' ') {
+        s++;
+      }
+      while(e > s && (this.buf[e - 1] & 0xFF) <= ' ') {
+        e--;
+      }
+
+      if (s == e || '#' == this.buf[s]) {
+        continue;
+      }
+
+      this.start = s;
+      this.end = e;
+
+      return true;
+    }
+  }
+
+  /**
+   * Read more data, moving the unconsumed bytes at the beginning of the buffer
+   */
+  private void fill() throws IOException {
+    if (this.pos > 0) {
+      System.arraycopy(this.buf, this.pos, this.buf, 0, this.limit - this.pos);
+      this.limit -= this.pos;
+      this.pos = 0;
+    }
+
+    if (this.limit == this.buf.length) {
+      byte[] newbuf = new byte[this.buf.length * 2];
+      System.arraycopy(this.buf, 0, newbuf, 0, this.limit);
+      this.buf = newbuf;
+    }
+
+    int len = this.in.read(this.buf, this.limit, this.buf.length - this.limit);
+
+    if (len < 0) {
+      this.eof = true;
+    } else {
+      this.limit += len;
+    }
+  }
+
+  /**
+   * Return the current line
+   */
+  String getText() {
+    return new String(this.buf, this.start, this.end - this.start, Charsets.UTF_8);
+  }
+
+  /**
+   * Add the fields of the current line to the encoders of the batch
+   */
+  void read() throws ParseException, IOException {
+    try {
+      parseLine();
+    } catch (NumberFormatException nfe) {
+      ParseException pe = new ParseException(getText(), 0);
+      pe.initCause(nfe);
+      throw pe;
+    }
+  }
+
+  private void parseLine() throws ParseException, IOException {
+    //
+    // Measurement and tag set, up to the first unescaped space
+    //
+
+    int idx = scan(this.start, ' ', ' ');
+
+    if (idx == this.end) {
+      throw new ParseException("Missing fields.", 0);
+    }
+
+    int seriesEnd = idx;
+
+    //
+    // Timestamp, after the last unescaped space outside of a string field
+    //
+
+    int fieldsStart = idx + 1;
+
+    while(fieldsStart < this.end && ' ' == this.buf[fieldsStart]) {
+      fieldsStart++;
+    }
+
+    int fieldsEnd = scanFields(fieldsStart);
+
+    long timestamp;
+
+    if (fieldsEnd < this.end) {
+      int tsStart = fieldsEnd;
+      while(tsStart < this.end && ' ' == this.buf[tsStart]) {
+        tsStart++;
+      }
+      timestamp = Long.parseLong(new String(this.buf, tsStart, this.end - tsStart, Charsets.US_ASCII)) * this.nsPerTimeUnit;
+    } else {
+      timestamp = TimeSource.getNanoTime();
+    }
+
+    timestamp = timestamp / (1000000000L / Constants.TIME_UNITS_PER_S);
+
+    //
+    // Retrieve the encoders of the series, parsing the measurement and tags only
+    // if the series is not yet part of the batch
+    //
+
+    String key = new String(this.buf, this.start, seriesEnd - this.start, Charsets.UTF_8);
+
+    Map<String,GTSEncoder> fields = this.batch.get(key);
+
+    String measurement = null;
+    Map<String,String> tags = null;
+
+    if (null == fields) {
+      fields = new HashMap<String,GTSEncoder>();
+      this.batch.put(key, fields);
+    }
+
+    //
+    // Fields
+    //
+
+    idx = fieldsStart;
+
+    while(idx < fieldsEnd) {
+      int equal = scan(idx, '=', '=');
+
+      if (equal >= fieldsEnd || equal == idx) {
+        throw new ParseException("Invalid field.", idx - this.start);
+      }
+
+      int valueEnd;
+
+      if ('"' == this.buf[equal + 1]) {
+        valueEnd = endOfString(equal + 1) + 1;
+      } else {
+        valueEnd = scan(equal + 1, ',', ' ');
+      }
+
+      if (valueEnd > fieldsEnd) {
+        valueEnd = fieldsEnd;
+      }
+
+      String field = unescape(idx, equal);
+
+      GTSEncoder encoder = fields.get(field);
+
+      if (null == encoder) {
+        if (null == tags) {
+          int comma = scan(this.start, ',', ' ');
+          if (comma > seriesEnd) {
+            comma = seriesEnd;
+          }
+          measurement = unescape(this.start, comma);
+          tags = parseTags(comma, seriesEnd);
+        }
+
+        encoder = new GTSEncoder(0L);
+        encoder.setName(measurement + "." + field);
+        encoder.setLabels(tags);
+        fields.put(field, encoder);
+      }
+
+      Object value = parseValue(equal + 1, valueEnd);
+
+      int before = encoder.size();
+
+      encoder.addValue(timestamp, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, value);
+
+      this.size += encoder.size() - before;
+      this.count++;
+
+      idx = valueEnd + 1;
+    }
+  }
+
+  /**
+   * Parse the tags in [from,to), 'from' is the index of the comma preceding the first tag
+   */
+  private Map<String,String> parseTags(int from, int to) throws ParseException {
+    Map<String,String> tags = new HashMap<String,String>();
+
+    int idx = from;
+
+    while(idx < to) {
+      int equal = scan(idx + 1, '=', '=');
+
+      if (equal >= to) {
+        throw new ParseException("Invalid tag.", idx - this.start);
+      }
+
+      int next = scan(equal + 1, ',', ',');
+
+      if (next > to) {
+        next = to;
+      }
+
+      tags.put(unescape(idx + 1, equal), unescape(equal + 1, next));
+
+      idx = next;
+    }
+
+    return tags;
+  }
+
+  /**
+   * Return the index of the first unescaped 'a' or 'b' at or after 'from', or the end of the line
+   */
+  private int scan(int from, char a, char b) {
+    int idx = from;
+
+    while(idx < this.end) {
+      byte c = this.buf[idx];
+      if ('\\' == c) {
+        idx += 2;
+        continue;
+      }
+      if (a == c || b == c) {
+        return idx;
+      }
+      idx++;
+    }
+
+    return this.end;
+  }
+
+  /**
+   * Return the index of the first unescaped space after the fields starting at 'from', skipping string values
+   */
+  private int scanFields(int from) throws ParseException {
+    int idx = from;
+
+    while(idx < this.end) {
+      byte c = this.buf[idx];
+      if ('\\' == c) {
+        idx += 2;
+      } else if ('"' == c) {
+        idx = endOfString(idx) + 1;
+      } else if (' ' == c) {
+        return idx;
+      } else {
+        idx++;
+      }
+    }
+
+    return this.end;
+  }
+
+  /**
+   * Return the index of the double quote closing the string opened at 'from'
+   */
+  private int endOfString(int from) throws ParseException {
+    int idx = from + 1;
+
+    while(idx < this.end) {
+      byte c = this.buf[idx];
+      if ('\\' == c) {
+        idx += 2;
+        continue;
+      }
+      if ('"' == c) {
+        return idx;
+      }
+      idx++;
+    }
+
+    throw new ParseException("Unterminated string.", from - this.start);
+  }
+
+  /**
+   * Decode [from,to) as UTF-8, removing the backslashes of escape sequences
+   */
+  private String unescape(int from, int to) {
+    int idx = from;
+
+    while(idx < to && '\\' != this.buf[idx]) {
+      idx++;
+    }
+
+    if (idx == to) {
+      return new String(this.buf, from, to - from, Charsets.UTF_8);
+    }
+
+    byte[] bytes = new byte[to - from];
+    int len = 0;
+
+    for (int i = from; i < to; i++) {
+      if ('\\' == this.buf[i] && i + 1 < to) {
+        byte c = this.buf[i + 1];
+        if (',' == c || '=' == c || ' ' == c || '"' == c || '\\' == c) {
+          i++;
+        }
+      }
+      bytes[len++] = this.buf[i];
+    }
+
+    return new String(bytes, 0, len, Charsets.UTF_8);
+  }
+
+  private Object parseValue(int from, int to) throws ParseException {
+    int len = to - from;
+
+    if (0 == len) {
+      throw new ParseException("Missing value.", from - this.start);
+    }
+
+    byte first = this.buf[from];
+    byte last = this.buf[to - 1];
+
+    if ('"' == first) {
+      if (len < 2 || '"' != last) {
+        throw new ParseException("Invalid string value.", from - this.start);
+      }
+      return unescape(from + 1, to - 1);
+    }
+
+    // Integers (i) and unsigned integers (u)
+    if ('i' == last || 'u' == last) {
+      return Long.parseLong(new String(this.buf, from, len - 1, Charsets.US_ASCII));
+    }
+
+    switch(first) {
+      case 't':
+      case 'T':
+      case 'f':
+      case 'F':
+        String bool = new String(this.buf, from, len, Charsets.US_ASCII);
+        if ("t".equals(bool) || "T".equals(bool) || "true".equals(bool) || "True".equals(bool) || "TRUE".equals(bool)) {
+          return Boolean.TRUE;
+        } else if ("f".equals(bool) || "F".equals(bool) || "false".equals(bool) || "False".equals(bool) || "FALSE".equals(bool)) {
+          return Boolean.FALSE;
+        }
+        throw new ParseException("Invalid value.", from - this.start);
+      default:
+        // Numbers are converted as they would be in the Warp 10 input format
+        return GTSHelper.parseValue(new String(this.buf, from, len, Charsets.US_ASCII));
+    }
+  }
+
+  /**
+   * Return the size in bytes of the encoders of the current batch
+   */
+  long getBatchSize() {
+    return this.size;
+  }
+
+  /**
+   * Return the number of datapoints of the current batch
+   */
+  long getBatchCount() {
+    return this.count;
+  }
+
+  /**
+   * Return the encoders of the current batch and start a new one
+   */
+  List<GTSEncoder> flush() {
+    List<GTSEncoder> encoders = new ArrayList<GTSEncoder>();
+
+    for (Map<String,GTSEncoder> fields: this.batch.values()) {
+      encoders.addAll(fields.values());
+    }
+
+    this.batch.clear();
+    this.size = 0L;
+    this.count = 0L;
+
+    return encoders;
+  }
+}
@@ -0,0 +1,253 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Buffered writer used to render JSON, formatting longs and doubles directly in its buffer.
+ *
+ * Each time the buffer is full its content is written to the underlying writer which is then
+ * flushed, so large outputs are streamed to the client while they are rendered instead of being
+ * accumulated by the underlying writer. Buffers are kept per thread and reused.
+ *
+ * Instances are not thread safe and must be ended by calling 'end'.
+ */
+public class JSONWriter {
+
+  private static final int BUFFER_SIZE = 16384;
+
+  /**
+   * Maximum number of chars written by writeLong or writeDouble
+   */
+  private static final int MAX_NUMBER_LENGTH = 32;
+
+  /**
+   * Doubles from this value (included) to DOUBLE_MAX (excluded) are formatted as plain decimals by Double.toString
+   */
+  private static final double DOUBLE_MIN = 1.0E-3D;
+  private static final double DOUBLE_MAX = 1.0E7D;
+
+  /**
+   * 2**53, doubles below it can be converted to longs without loss
+   */
+  private static final double DOUBLE_EXACT_MAX = 9007199254740992.0D;
+
+  /**
+   * Powers of 10 which are exactly represented as doubles
+   */
+  private static final double[] DOUBLE_POW10 = new double[23];
+
+  private static final long[] LONG_POW10 = new long[19];
+
+  static {
+    DOUBLE_POW10[0] = 1.0D;
+    for (int i = 1; i < DOUBLE_POW10.length; i++) {
+      DOUBLE_POW10[i] = DOUBLE_POW10[i - 1] * 10.0D;
+    }
+
+    LONG_POW10[0] = 1L;
+    for (int i = 1; i < LONG_POW10.length; i++) {
+      LONG_POW10[i] = LONG_POW10[i - 1] * 10L;
+    }
+  }
+
+  private static final ThreadLocal<char[]> buffers = new ThreadLocal<char[]>();
+
+  private final Writer out;
+
+  private char[] buf;
+
+  private int len = 0;
+
+  public JSONWriter(Writer out) {
+    this.out = out;
+
+    //
+    // Take the buffer of the current thread, if it is in use by another instance, allocate a new one
+    //
+
+    this.buf = buffers.get();
+
+    if (null == this.buf) {
+      this.buf = new char[BUFFER_SIZE];
+    } else {
+      buffers.set(null);
+    }
+  }
+
+  public void write(char c) throws IOException {
+    if (this.len == this.buf.length) {
+      drain(true);
+    }
+    this.buf[this.len++] = c;
+  }
+
+  public void write(String s) throws IOException {
+    int off = 0;
+    int remaining = s.length();
+
+    while(remaining > 0) {
+      if (this.len == this.buf.length) {
+        drain(true);
+      }
+
+      int n = Math.min(remaining, this.buf.length - this.len);
+      s.getChars(off, off + n, this.buf, this.len);
+      this.len += n;
+      off += n;
+      remaining -= n;
+    }
+  }
+
+  /**
+   * Write the decimal representation of 'l', same as Long.toString
+   */
+  public void writeLong(long l) throws IOException {
+    if (Long.MIN_VALUE == l) {
+      write(Long.toString(l));
+      return;
+    }
+
+    if (this.len > this.buf.length - MAX_NUMBER_LENGTH) {
+      drain(true);
+    }
+
+    if (l < 0) {
+      this.buf[this.len++] = '-';
+      l = -l;
+    }
+
+    this.len = digits(l, numberOfDigits(l), this.buf, this.len);
+  }
+
+  /**
+   * Write a representation of 'd' which Double.parseDouble converts back to 'd'.
+   *
+   * Doubles in the range where Double.toString does not use scientific notation and which
+   * have at most 15 significant digits are formatted directly with the least number of
+   * fractional digits, which is what Double.toString does. The others use Double.toString.
+   */
+  public void writeDouble(double d) throws IOException {
+    double abs = Math.abs(d);
+
+    if (abs >= DOUBLE_MIN && abs < DOUBLE_MAX) {
+      //
+      // Find the least number of fractional digits 'k' such that d = m / 10**k with m an integer
+      //
+
+      for (int k = 0; k < DOUBLE_POW10.length; k++) {
+        double scaled = abs * DOUBLE_POW10[k];
+
+        if (scaled >= DOUBLE_EXACT_MAX) {
+          break;
+        }
+
+        double m = Math.rint(scaled);
+
+        if (m / DOUBLE_POW10[k] == abs) {
+          writeDecimal(d < 0.0D, (long) m, k);
+          return;
+        }
+      }
+    } else if (0.0D == d) {
+      write(1.0D / d < 0.0D ? "-0.0" : "0.0");
+      return;
+    }
+
+    write(Double.toString(d));
+  }
+
+  /**
+   * Write m / 10**k, with at least one fractional digit
+   */
+  private void writeDecimal(boolean negative, long m, int k) throws IOException {
+    if (this.len > this.buf.length - MAX_NUMBER_LENGTH) {
+      drain(true);
+    }
+
+    if (negative) {
+      this.buf[this.len++] = '-';
+    }
+
+    long intpart = m / LONG_POW10[k];
+    long fracpart = m % LONG_POW10[k];
+
+    this.len = digits(intpart, numberOfDigits(intpart), this.buf, this.len);
+    this.buf[this.len++] = '.';
+
+    if (0 == k) {
+      this.buf[this.len++] = '0';
+    } else {
+      // Fractional digits include the leading zeros
+      this.len = digits(fracpart, k, this.buf, this.len);
+    }
+  }
+
+  /**
+   * Number of digits of a positive long
+   */
+  private static int numberOfDigits(long l) {
+    int n = 1;
+    while(n < LONG_POW10.length && l >= LONG_POW10[n]) {
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Write the 'n' least significant digits of positive long 'l' at 'off' in 'buf'
+   *
+   * @return the offset following the last digit
+   */
+  private static int digits(long l, int n, char[] buf, int off) {
+    int end = off + n;
+
+    for (int i = end - 1; i >= off; i--) {
+      buf[i] = (char) ('0' + (int) (l % 10L));
+      l /= 10L;
+    }
+
+    return end;
+  }
+
+  /**
+   * Write the buffered chars to the underlying writer, flushing it if 'flush' is true
+   */
+  private void drain(boolean flush) throws IOException {
+    if (this.len > 0) {
+      this.out.write(this.buf, 0, this.len);
+      this.len = 0;
+    }
+
+    if (flush) {
+      this.out.flush();
+    }
+  }
+
+  /**
+   * Write the buffered chars to the underlying writer, without flushing it, and release the buffer
+   */
+  public void end() throws IOException {
+    try {
+      drain(false);
+    } finally {
+      buffers.set(this.buf);
+    }
+  }
+}
@@ -0,0 +1,260 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import io.warp10.script.WarpScriptStack.Macro;
+import io.warp10.script.functions.LOAD;
+import io.warp10.script.functions.STORE;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compile macros into a form which MemoryWarpScriptStack can execute without
+ * inspecting each statement.
+ *
+ * Every statement of a compiled macro is a function. Consecutive constants are
+ * pushed by a single statement and variable names followed by LOAD or STORE are
+ * replaced by statements which resolve the variable slot once per symbol table.
+ */
+final class MacroCompiler {
+
+  static final class CompiledMacro {
+    final WarpScriptStackFunction[] statements;
+
+    /**
+     * Number of statements of the original macro each compiled statement stands for
+     */
+    final int[] ops;
+
+    /**
+     * Index in the original macro of the statement reported when a compiled statement fails
+     */
+    final int[] origins;
+
+    private CompiledMacro(WarpScriptStackFunction[] statements, int[] ops, int[] origins) {
+      this.statements = statements;
+      this.ops = ops;
+      this.origins = origins;
+    }
+  }
+
+  private MacroCompiler() {}
+
+  /**
+   * Return the compiled form of a macro, compiling it if needed.
+   *
+   * @return The compiled macro or null if the macro cannot be compiled
+   */
+  static CompiledMacro compile(Macro macro) {
+    //
+    // Subclasses of Macro may compute their statements dynamically
+    //
+
+    if (Macro.class != macro.getClass()) {
+      return null;
+    }
+
+    CompiledMacro compiled = macro.getCompiled();
+
+    if (null != compiled) {
+      return compiled;
+    }
+
+    List<Object> stmts = macro.statements();
+
+    List<WarpScriptStackFunction> statements = new ArrayList<WarpScriptStackFunction>(stmts.size());
+    int[] ops = new int[stmts.size()];
+    int[] origins = new int[stmts.size()];
+
+    List<Object> constants = new ArrayList<Object>();
+    int firstconstant = 0;
+
+    for (int i = 0; i < stmts.size(); i++) {
+      Object stmt = stmts.get(i);
+      Object next = i + 1 < stmts.size() ? stmts.get(i + 1) : null;
+
+      boolean symbol = stmt instanceof String && (next instanceof LOAD || next instanceof STORE);
+
+      if (!symbol && !(stmt instanceof WarpScriptStackFunction)) {
+        if (constants.isEmpty()) {
+          firstconstant = i;
+        }
+        constants.add(stmt);
+        continue;
+      }
+
+      if (!constants.isEmpty()) {
+        ops[statements.size()] = constants.size();
+        origins[statements.size()] = firstconstant;
+        statements.add(new PushConstants(constants.toArray()));
+        constants.clear();
+      }
+
+      if (symbol) {
+        ops[statements.size()] = 2;
+        origins[statements.size()] = i + 1;
+        if (next instanceof LOAD) {
+          statements.add(new LoadSymbol((String) stmt, (LOAD) next));
+        } else {
+          statements.add(new StoreSymbol((String) stmt, (STORE) next));
+        }
+        i++;
+      } else {
+        ops[statements.size()] = 1;
+        origins[statements.size()] = i;
+        statements.add((WarpScriptStackFunction) stmt);
+      }
+    }
+
+    if (!constants.isEmpty()) {
+      ops[statements.size()] = constants.size();
+      origins[statements.size()] = firstconstant;
+      statements.add(new PushConstants(constants.toArray()));
+    }
+
+    int n = statements.size();
+    int[] cops = new int[n];
+    int[] corigins = new int[n];
+    System.arraycopy(ops, 0, cops, 0, n);
+    System.arraycopy(origins, 0, corigins, 0, n);
+
+    compiled = new CompiledMacro(statements.toArray(new WarpScriptStackFunction[n]), cops, corigins);
+
+    macro.setCompiled(compiled);
+
+    return compiled;
+  }
+
+  private static final class PushConstants implements WarpScriptStackFunction {
+    private final Object[] constants;
+
+    private PushConstants(Object[] constants) {
+      this.constants = constants;
+    }
+
+    @Override
+    public Object apply(WarpScriptStack stack) throws WarpScriptException {
+      for (Object constant: this.constants) {
+        stack.push(constant);
+      }
+      return stack;
+    }
+  }
+
+  /**
+   * Slot of a symbol resolved in a given symbol table. Compiled macros outlive the stacks
+   * which execute them, so neither the table nor the slot (and its value) are strongly referenced.
+   */
+  private static final class Binding extends WeakReference<SymbolTable> {
+    private final int epoch;
+    private final WeakReference<SymbolTable.Slot> slot;
+
+    private Binding(SymbolTable table, SymbolTable.Slot slot) {
+      super(table);
+      this.epoch = table.getEpoch();
+      this.slot = new WeakReference<SymbolTable.Slot>(slot);
+    }
+  }
+
+  private abstract static class SymbolStatement implements WarpScriptStackFunction {
+    protected final String symbol;
+
+    /**
+     * Last resolved slot. Compiled macros may be shared among stacks so the binding
+     * is replaced as a whole when the symbol is resolved in another table.
+     */
+    private Binding binding = null;
+
+    protected SymbolStatement(String symbol) {
+      this.symbol = symbol;
+    }
+
+    protected SymbolTable.Slot slot(SymbolTable table) {
+      Binding binding = this.binding;
+
+      //
+      // The slot cannot have been collected if the table and its epoch are unchanged,
+      // slots are only removed from a table when its epoch is incremented
+      //
+
+      SymbolTable.Slot slot = null;
+
+      if (null != binding && table == binding.get() && table.getEpoch() == binding.epoch) {
+        slot = binding.slot.get();
+      }
+
+      if (null == slot) {
+        slot = table.slot(this.symbol);
+        this.binding = new Binding(table, slot);
+      }
+
+      return slot;
+    }
+  }
+
+  private static final class LoadSymbol extends SymbolStatement {
+    private final LOAD load;
+
+    private LoadSymbol(String symbol, LOAD load) {
+      super(symbol);
+      this.load = load;
+    }
+
+    @Override
+    public Object apply(WarpScriptStack stack) throws WarpScriptException {
+      if (!(stack instanceof MemoryWarpScriptStack)) {
+        stack.push(this.symbol);
+        return this.load.apply(stack);
+      }
+
+      SymbolTable.Slot slot = slot(((MemoryWarpScriptStack) stack).symbols());
+
+      if (!slot.isBound()) {
+        throw new WarpScriptException(this.load.getName() + " symbol '" + this.symbol + "' does not exist.");
+      }
+
+      stack.push(slot.getValue());
+
+      return stack;
+    }
+  }
+
+  private static final class StoreSymbol extends SymbolStatement {
+    private final STORE store;
+
+    private StoreSymbol(String symbol, STORE store) {
+      super(symbol);
+      this.store = store;
+    }
+
+    @Override
+    public Object apply(WarpScriptStack stack) throws WarpScriptException {
+      if (!(stack instanceof MemoryWarpScriptStack)) {
+        stack.push(this.symbol);
+        return this.store.apply(stack);
+      }
+
+      MemoryWarpScriptStack mstack = (MemoryWarpScriptStack) stack;
+
+      mstack.store(slot(mstack.symbols()), stack.pop());
+
+      return stack;
+    }
+  }
+}
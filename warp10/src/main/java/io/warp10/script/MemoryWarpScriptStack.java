@@ -40,8 +40,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EmptyStackException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -50,10 +52,19 @@ import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.hadoop.util.Progressable;
 
+import com.google.common.collect.MapMaker;
+
 public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
 
   private AtomicLong[] counters;
   
+  /**
+   * Limits parsed from the Properties instances stacks were created with. Stacks created with
+   * an instance already seen reuse its limits, so changes made to an instance after a stack was
+   * created with it are ignored.
+   */
+  private static final Map<Properties,Map<String,Object>> LIMITS = new MapMaker().weakKeys().makeMap();
+  
   /**
    * Default maximum depth of the stack
    */
@@ -85,9 +96,20 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
    */
   private boolean inSecureMacro = false;
   
+  /**
+   * Name of the current section
+   */
+  private String sectionName = null;
+  
+  /**
+   * Flag indicating whether exec(Macro) can access the secure macro flag and section name
+   * directly, this is not the case for substacks which override the attribute accessors.
+   */
+  private final boolean directAttributes = MemoryWarpScriptStack.class == this.getClass();
+  
   private final List<Object> list = new ArrayList<Object>(32);
 
-  private final Map<String,Object> symbolTable = new HashMap<String,Object>();
+  private final SymbolTable symbolTable = new SymbolTable();
   
   /**
    * Map of stack attributes. This is used to store various values such as
@@ -176,43 +198,31 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
     this.unshadow = "true".equals(properties.getProperty(Configuration.WARPSCRIPT_DEF_UNSHADOW));
     
     if (init) {
-      setAttribute(WarpScriptStack.ATTRIBUTE_DEBUG_DEPTH, 0);
-      setAttribute(WarpScriptStack.ATTRIBUTE_JSON_STRICT, false);
+      //
+      // Set the limits, parsing them only once per Properties instance
+      //
+      
+      Map<String,Object> limits = LIMITS.get(properties);
+      
+      if (null == limits) {
+        limits = parseLimits(properties);
+        LIMITS.put(properties, limits);
+      }
+      
+      for (Entry<String,Object> limit: limits.entrySet()) {
+        setAttribute(limit.getKey(), limit.getValue());
+      }
+      
+      //
+      // Set the attributes which are modified during the execution
+      //
+      
       setAttribute(WarpScriptStack.ATTRIBUTE_FETCH_COUNT, new AtomicLong(0L));
       setAttribute(WarpScriptStack.ATTRIBUTE_GTS_COUNT, new AtomicLong(0L));
-      setAttribute(WarpScriptStack.ATTRIBUTE_FETCH_LIMIT, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_FETCH, Long.toString(WarpScriptStack.DEFAULT_FETCH_LIMIT))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_GTS_LIMIT, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_GTS, Long.toString(WarpScriptStack.DEFAULT_GTS_LIMIT))));
       setAttribute(WarpScriptStack.ATTRIBUTE_ELAPSED, new ArrayList<Long>());
-      setAttribute(WarpScriptStack.ATTRIBUTE_LOOP_MAXDURATION, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_LOOP_DURATION, Long.toString(WarpScriptStack.DEFAULT_MAX_LOOP_DURATION))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_RECURSION_MAXDEPTH, Integer.parseInt(properties.getProperty(Configuration.WARPSCRIPT_MAX_RECURSION, Integer.toString(WarpScriptStack.DEFAULT_MAX_RECURSION_LEVEL))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_OPS, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_OPS, Long.toString(WarpScriptStack.DEFAULT_MAX_OPS))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_SYMBOLS, Integer.parseInt(properties.getProperty(Configuration.WARPSCRIPT_MAX_SYMBOLS, Integer.toString(WarpScriptStack.DEFAULT_MAX_SYMBOLS))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_DEPTH, Integer.parseInt(properties.getProperty(Configuration.WARPSCRIPT_MAX_DEPTH, Integer.toString(WarpScriptStack.DEFAULT_MAX_DEPTH))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_WEBCALLS, new AtomicLong(Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_WEBCALLS, Integer.toString(WarpScriptStack.DEFAULT_MAX_WEBCALLS)))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_BUCKETS, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_BUCKETS, Integer.toString(WarpScriptStack.DEFAULT_MAX_BUCKETS))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_PIXELS, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_PIXELS, Long.toString(WarpScriptStack.DEFAULT_MAX_PIXELS))));
+      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_WEBCALLS, new AtomicLong((Long) limits.get(WarpScriptStack.ATTRIBUTE_MAX_WEBCALLS)));
       setAttribute(WarpScriptStack.ATTRIBUTE_URLFETCH_COUNT, new AtomicLong(0L));
       setAttribute(WarpScriptStack.ATTRIBUTE_URLFETCH_SIZE, new AtomicLong(0L));
-      setAttribute(WarpScriptStack.ATTRIBUTE_URLFETCH_LIMIT, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_URLFETCH_LIMIT, Long.toString(WarpScriptStack.DEFAULT_URLFETCH_LIMIT))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_URLFETCH_MAXSIZE, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_URLFETCH_MAXSIZE, Long.toString(WarpScriptStack.DEFAULT_URLFETCH_MAXSIZE))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_GEOCELLS, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_GEOCELLS, Integer.toString(WarpScriptStack.DEFAULT_MAX_GEOCELLS))));
-
-      //
-      // Set hard limits
-      //
-      
-      setAttribute(WarpScriptStack.ATTRIBUTE_LOOP_MAXDURATION_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_LOOP_DURATION_HARD, Long.toString(WarpScriptStack.DEFAULT_MAX_LOOP_DURATION))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_RECURSION_MAXDEPTH_HARD, Integer.parseInt(properties.getProperty(Configuration.WARPSCRIPT_MAX_RECURSION_HARD, Integer.toString(WarpScriptStack.DEFAULT_MAX_RECURSION_LEVEL))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_DEPTH_HARD, Integer.parseInt(properties.getProperty(Configuration.WARPSCRIPT_MAX_DEPTH_HARD, Integer.toString(WarpScriptStack.DEFAULT_MAX_DEPTH))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_OPS_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_OPS_HARD, Long.toString(WarpScriptStack.DEFAULT_MAX_OPS))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_SYMBOLS_HARD, Integer.parseInt(properties.getProperty(Configuration.WARPSCRIPT_MAX_SYMBOLS_HARD, Integer.toString(WarpScriptStack.DEFAULT_MAX_SYMBOLS))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_BUCKETS_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_BUCKETS_HARD, Integer.toString(WarpScriptStack.DEFAULT_MAX_BUCKETS))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_PIXELS_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_PIXELS_HARD, Long.toString(WarpScriptStack.DEFAULT_MAX_PIXELS))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_FETCH_LIMIT_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_FETCH_HARD, Long.toString(WarpScriptStack.DEFAULT_FETCH_LIMIT))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_GTS_LIMIT_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_GTS_HARD, Long.toString(WarpScriptStack.DEFAULT_GTS_LIMIT))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_URLFETCH_LIMIT_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_URLFETCH_LIMIT_HARD, Long.toString(WarpScriptStack.DEFAULT_URLFETCH_LIMIT))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_URLFETCH_MAXSIZE_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_URLFETCH_MAXSIZE_HARD, Long.toString(WarpScriptStack.DEFAULT_URLFETCH_MAXSIZE))));
-      setAttribute(WarpScriptStack.ATTRIBUTE_MAX_GEOCELLS_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_GEOCELLS_HARD, Integer.toString(WarpScriptStack.DEFAULT_MAX_GEOCELLS))));
 
       //
       // Set top level section name
@@ -234,6 +244,48 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
     }
   }
   
+  /**
+   * Parse the limits and other immutable attributes set on new stacks
+   */
+  private static Map<String,Object> parseLimits(Properties properties) {
+    Map<String,Object> limits = new LinkedHashMap<String,Object>();
+    
+    limits.put(WarpScriptStack.ATTRIBUTE_DEBUG_DEPTH, 0);
+    limits.put(WarpScriptStack.ATTRIBUTE_JSON_STRICT, false);
+    limits.put(WarpScriptStack.ATTRIBUTE_FETCH_LIMIT, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_FETCH, Long.toString(WarpScriptStack.DEFAULT_FETCH_LIMIT))));
+    limits.put(WarpScriptStack.ATTRIBUTE_GTS_LIMIT, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_GTS, Long.toString(WarpScriptStack.DEFAULT_GTS_LIMIT))));
+    limits.put(WarpScriptStack.ATTRIBUTE_LOOP_MAXDURATION, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_LOOP_DURATION, Long.toString(WarpScriptStack.DEFAULT_MAX_LOOP_DURATION))));
+    limits.put(WarpScriptStack.ATTRIBUTE_RECURSION_MAXDEPTH, Integer.parseInt(properties.getProperty(Configuration.WARPSCRIPT_MAX_RECURSION, Integer.toString(WarpScriptStack.DEFAULT_MAX_RECURSION_LEVEL))));
+    limits.put(WarpScriptStack.ATTRIBUTE_MAX_OPS, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_OPS, Long.toString(WarpScriptStack.DEFAULT_MAX_OPS))));
+    limits.put(WarpScriptStack.ATTRIBUTE_MAX_SYMBOLS, Integer.parseInt(properties.getProperty(Configuration.WARPSCRIPT_MAX_SYMBOLS, Integer.toString(WarpScriptStack.DEFAULT_MAX_SYMBOLS))));
+    limits.put(WarpScriptStack.ATTRIBUTE_MAX_DEPTH, Integer.parseInt(properties.getProperty(Configuration.WARPSCRIPT_MAX_DEPTH, Integer.toString(WarpScriptStack.DEFAULT_MAX_DEPTH))));
+    limits.put(WarpScriptStack.ATTRIBUTE_MAX_WEBCALLS, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_WEBCALLS, Integer.toString(WarpScriptStack.DEFAULT_MAX_WEBCALLS))));
+    limits.put(WarpScriptStack.ATTRIBUTE_MAX_BUCKETS, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_BUCKETS, Integer.toString(WarpScriptStack.DEFAULT_MAX_BUCKETS))));
+    limits.put(WarpScriptStack.ATTRIBUTE_MAX_PIXELS, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_PIXELS, Long.toString(WarpScriptStack.DEFAULT_MAX_PIXELS))));
+    limits.put(WarpScriptStack.ATTRIBUTE_URLFETCH_LIMIT, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_URLFETCH_LIMIT, Long.toString(WarpScriptStack.DEFAULT_URLFETCH_LIMIT))));
+    limits.put(WarpScriptStack.ATTRIBUTE_URLFETCH_MAXSIZE, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_URLFETCH_MAXSIZE, Long.toString(WarpScriptStack.DEFAULT_URLFETCH_MAXSIZE))));
+    limits.put(WarpScriptStack.ATTRIBUTE_MAX_GEOCELLS, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_GEOCELLS, Integer.toString(WarpScriptStack.DEFAULT_MAX_GEOCELLS))));
+
+    //
+    // Set hard limits
+    //
+
+    limits.put(WarpScriptStack.ATTRIBUTE_LOOP_MAXDURATION_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_LOOP_DURATION_HARD, Long.toString(WarpScriptStack.DEFAULT_MAX_LOOP_DURATION))));
+    limits.put(WarpScriptStack.ATTRIBUTE_RECURSION_MAXDEPTH_HARD, Integer.parseInt(properties.getProperty(Configuration.WARPSCRIPT_MAX_RECURSION_HARD, Integer.toString(WarpScriptStack.DEFAULT_MAX_RECURSION_LEVEL))));
+    limits.put(WarpScriptStack.ATTRIBUTE_MAX_DEPTH_HARD, Integer.parseInt(properties.getProperty(Configuration.WARPSCRIPT_MAX_DEPTH_HARD, Integer.toString(WarpScriptStack.DEFAULT_MAX_DEPTH))));
+    limits.put(WarpScriptStack.ATTRIBUTE_MAX_OPS_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_OPS_HARD, Long.toString(WarpScriptStack.DEFAULT_MAX_OPS))));
+    limits.put(WarpScriptStack.ATTRIBUTE_MAX_SYMBOLS_HARD, Integer.parseInt(properties.getProperty(Configuration.WARPSCRIPT_MAX_SYMBOLS_HARD, Integer.toString(WarpScriptStack.DEFAULT_MAX_SYMBOLS))));
+    limits.put(WarpScriptStack.ATTRIBUTE_MAX_BUCKETS_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_BUCKETS_HARD, Integer.toString(WarpScriptStack.DEFAULT_MAX_BUCKETS))));
+    limits.put(WarpScriptStack.ATTRIBUTE_MAX_PIXELS_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_PIXELS_HARD, Long.toString(WarpScriptStack.DEFAULT_MAX_PIXELS))));
+    limits.put(WarpScriptStack.ATTRIBUTE_FETCH_LIMIT_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_FETCH_HARD, Long.toString(WarpScriptStack.DEFAULT_FETCH_LIMIT))));
+    limits.put(WarpScriptStack.ATTRIBUTE_GTS_LIMIT_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_GTS_HARD, Long.toString(WarpScriptStack.DEFAULT_GTS_LIMIT))));
+    limits.put(WarpScriptStack.ATTRIBUTE_URLFETCH_LIMIT_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_URLFETCH_LIMIT_HARD, Long.toString(WarpScriptStack.DEFAULT_URLFETCH_LIMIT))));
+    limits.put(WarpScriptStack.ATTRIBUTE_URLFETCH_MAXSIZE_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_URLFETCH_MAXSIZE_HARD, Long.toString(WarpScriptStack.DEFAULT_URLFETCH_MAXSIZE))));
+    limits.put(WarpScriptStack.ATTRIBUTE_MAX_GEOCELLS_HARD, Long.parseLong(properties.getProperty(Configuration.WARPSCRIPT_MAX_GEOCELLS_HARD, Integer.toString(WarpScriptStack.DEFAULT_MAX_GEOCELLS))));
+    
+    return limits;
+  }
+  
   public void maxLimits() {
     setAttribute(WarpScriptStack.ATTRIBUTE_FETCH_LIMIT, Long.MAX_VALUE - 1);
     setAttribute(WarpScriptStack.ATTRIBUTE_GTS_LIMIT, Long.MAX_VALUE - 1);
@@ -897,20 +949,28 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
     // for each statement of the macro inside the loop
     incOps();
 
-    boolean secure = Boolean.TRUE.equals(this.getAttribute(WarpScriptStack.ATTRIBUTE_IN_SECURE_MACRO));
-    
-    //
-    // Save current section name
-    //
-    
-    String sectionname = (String) this.getAttribute(WarpScriptStack.ATTRIBUTE_SECTION_NAME);
+    boolean secure;
+    String sectionname;
     
     //
+    // Save the secure flag and the current section name.
     // If we are already in a secure macro, stay in this mode, otherwise an inner macro could lower the
     // secure level
     //
     
-    this.setAttribute(WarpScriptStack.ATTRIBUTE_IN_SECURE_MACRO, !secure ? macro.isSecure() : secure);
+    if (this.directAttributes) {
+      secure = this.inSecureMacro;
+      sectionname = this.sectionName;
+      if (!secure) {
+        this.inSecureMacro = macro.isSecure();
+      }
+    } else {
+      secure = Boolean.TRUE.equals(this.getAttribute(WarpScriptStack.ATTRIBUTE_IN_SECURE_MACRO));
+      sectionname = (String) this.getAttribute(WarpScriptStack.ATTRIBUTE_SECTION_NAME);
+      this.setAttribute(WarpScriptStack.ATTRIBUTE_IN_SECURE_MACRO, !secure ? macro.isSecure() : secure);
+    }
+    
+    MacroCompiler.CompiledMacro compiled = MacroCompiler.compile(macro);
     
     int i = 0;
     
@@ -918,31 +978,42 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
       
       recurseIn();
       
-      for (i = 0; i < macro.size(); i++) {
-        // Notify progress
-        progress();
-        
-        Object stmt = macro.get(i);
+      if (null != compiled) {
+        WarpScriptStackFunction[] statements = compiled.statements;
+        int[] ops = compiled.ops;
         
-        incOps();
-        
-        if (stmt instanceof WarpScriptStackFunction) {
-          WarpScriptStackFunction esf = (WarpScriptStackFunction) stmt;
+        for (i = 0; i < statements.length; i++) {
+          // Notify progress
+          progress();
+          
+          for (int k = 0; k < ops[i]; k++) {
+            incOps();
+          }
           
-          // FIXME(hbs): we do not count the number of calls or the time spent in individual functions
-          // called from macros - We could correct that but it would have a great impact on performance
-          // as we would be calling sensision update potentially several billion times per script
+          statements[i].apply(this);
+        }
+      } else {
+        for (i = 0; i < macro.size(); i++) {
+          // Notify progress
+          progress();
           
-          //long nano = System.nanoTime();
-
-          esf.apply(this);
+          Object stmt = macro.get(i);
           
-          //Sensision.update(SensisionConstants.SENSISION_CLASS_EINSTEIN_FUNCTION_COUNT, esf.getSensisionLabels(), 1);
-          //Sensision.update(SensisionConstants.SENSISION_CLASS_EINSTEIN_FUNCTION_TIME_US, esf.getSensisionLabels(), (System.nanoTime() - nano) / 1000L);          
-        } else {
-          push(stmt);
+          incOps();
+          
+          if (stmt instanceof WarpScriptStackFunction) {
+            WarpScriptStackFunction esf = (WarpScriptStackFunction) stmt;
+            
+            // FIXME(hbs): we do not count the number of calls or the time spent in individual functions
+            // called from macros - We could correct that but it would have a great impact on performance
+            // as we would be calling sensision update potentially several billion times per script
+            
+            esf.apply(this);
+          } else {
+            push(stmt);
+          }
         }
-      }     
+      }
     } catch (WarpScriptReturnException ere) {
       if (this.getCounter(WarpScriptStack.COUNTER_RETURN_DEPTH).decrementAndGet() > 0) {
         throw ere;
@@ -954,13 +1025,19 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
         throw ee;
       } else {
         String section = (String) this.getAttribute(WarpScriptStack.ATTRIBUTE_SECTION_NAME);
-        throw new WarpScriptException("Exception at statement '" + macro.get(i).toString() + "' in section '" + section + "' (" + ee.getMessage() + ")", ee);
+        Object stmt = macro.get(null != compiled ? compiled.origins[i] : i);
+        throw new WarpScriptException("Exception at statement '" + stmt.toString() + "' in section '" + section + "' (" + ee.getMessage() + ")", ee);
       }
     } finally {
-      this.setAttribute(WarpScriptStack.ATTRIBUTE_IN_SECURE_MACRO, secure);
       recurseOut();
-      // Restore section name
-      this.setAttribute(WarpScriptStack.ATTRIBUTE_SECTION_NAME, sectionname);
+      // Restore the secure flag and the section name
+      if (this.directAttributes) {
+        this.inSecureMacro = secure;
+        this.sectionName = sectionname;
+      } else {
+        this.setAttribute(WarpScriptStack.ATTRIBUTE_IN_SECURE_MACRO, secure);
+        this.setAttribute(WarpScriptStack.ATTRIBUTE_SECTION_NAME, sectionname);
+      }
     }
   }
   
@@ -1123,6 +1200,22 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
     this.symbolTable.put(symbol, value);
   }
   
+  /**
+   * Store a value in a slot of the symbol table, used by compiled macros
+   */
+  void store(SymbolTable.Slot slot, Object value) throws WarpScriptException {
+    
+    if (this.symbolTable.size() >= this.maxsymbols) {
+      throw new WarpScriptException("Symbol table has reached its maximum number of entries: " + this.maxsymbols);
+    }
+    
+    this.symbolTable.bind(slot, value);
+  }
+  
+  SymbolTable symbols() {
+    return this.symbolTable;
+  }
+  
   @Override
   public void forget(String symbol) {
     if (null == symbol) {
@@ -1149,6 +1242,16 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
   
   @Override
   public Object setAttribute(String key, Object value) {
+    //
+    // The section name is set by every macro execution, keep it in a field
+    //
+    
+    if (WarpScriptStack.ATTRIBUTE_SECTION_NAME.equals(key)) {
+      String old = this.sectionName;
+      this.sectionName = (String) value;
+      return old;
+    }
+    
     if (null == value) {
       return this.attributes.remove(key);
     }
@@ -1188,6 +1291,8 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
     // Manage the number of ops in a special way
     if (WarpScriptStack.ATTRIBUTE_IN_SECURE_MACRO.equals(key)) {
       return this.inSecureMacro;
+    } else if (WarpScriptStack.ATTRIBUTE_SECTION_NAME.equals(key)) {
+      return this.sectionName;
     } else if (WarpScriptStack.ATTRIBUTE_OPS.equals(key)) {
       return this.currentops;
     } else {
@@ -1354,6 +1459,13 @@ public class MemoryWarpScriptStack implements WarpScriptStack, Progressable {
   public boolean inMultiline() {
     return this.inMultiline.get();
   }
+
+  /**
+   * Return the outermost macro being defined or null if no macro is being defined
+   */
+  Macro getOuterMacro() {
+    return this.macros.isEmpty() ? null : this.macros.get(this.macros.size() - 1);
+  }
   
   /**
    * Create a 'sub' stack of the current one.
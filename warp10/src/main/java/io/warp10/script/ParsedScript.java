@@ -0,0 +1,158 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import io.warp10.script.WarpScriptStack.Macro;
+import io.warp10.script.functions.DEF;
+import io.warp10.script.functions.LINEON;
+import io.warp10.script.functions.RESTORE;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * WarpScript code parsed once so it can be executed many times without being tokenized again.
+ *
+ * The code is parsed as the body of a macro, recording after each line the statements it added
+ * to the body and the number of operations the stack counted while parsing it. Executing a line
+ * then pushes or applies those statements, which is what MemoryWarpScriptStack.exec does for a
+ * line executed outside of any macro.
+ *
+ * Code whose parsing depends on the executing stack is not parsed, i.e. code with immediate
+ * dereferences (!$), secure scripts, or functions changing how later lines are parsed (DEF,
+ * RESTORE, LINEON).
+ *
+ * The operations of a line are counted before its statements are executed, so when a statement
+ * fails the operations of the statements following it on the same line are counted too.
+ */
+public class ParsedScript {
+
+  /**
+   * Properties of the stacks used for parsing
+   */
+  private static final Properties PARSER_PROPERTIES = new Properties();
+
+  private final Macro body;
+
+  /**
+   * Statements of line i (starting at 0) are at indices boundaries[i] (included) to boundaries[i + 1] (excluded) of 'body'
+   */
+  private final int[] boundaries;
+
+  /**
+   * Number of operations counted for each line
+   */
+  private final long[] ops;
+
+  private ParsedScript(Macro body, int[] boundaries, long[] ops) {
+    this.body = body;
+    this.boundaries = boundaries;
+    this.ops = ops;
+  }
+
+  /**
+   * Parse 'lines'
+   *
+   * @return the parsed script or null if the lines cannot be parsed independently of the stack executing them
+   */
+  public static ParsedScript parse(List<String> lines) {
+    MemoryWarpScriptStack parser = new MemoryWarpScriptStack(null, null, PARSER_PROPERTIES);
+    parser.maxLimits();
+
+    int[] boundaries = new int[lines.size() + 1];
+    long[] ops = new long[lines.size()];
+
+    try {
+      parser.exec(WarpScriptStack.MACRO_START);
+
+      Macro body = parser.getOuterMacro();
+
+      for (int i = 0; i < lines.size(); i++) {
+        long before = (long) parser.getAttribute(WarpScriptStack.ATTRIBUTE_OPS);
+
+        parser.exec(lines.get(i));
+
+        // The line closed the body, the script has an unbalanced macro end
+        if (body != parser.getOuterMacro()) {
+          return null;
+        }
+
+        boundaries[i + 1] = body.size();
+        ops[i] = (long) parser.getAttribute(WarpScriptStack.ATTRIBUTE_OPS) - before;
+      }
+
+      parser.exec(WarpScriptStack.MACRO_END);
+      parser.checkBalanced();
+
+      // Secure scripts push their content at parse time
+      if (1 != parser.depth() || body != parser.peek()) {
+        return null;
+      }
+
+      if (!isStackIndependent(body)) {
+        return null;
+      }
+
+      return new ParsedScript(body, boundaries, ops);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  private static boolean isStackIndependent(Macro macro) {
+    for (Object stmt: macro.statements()) {
+      if (stmt instanceof DEF || stmt instanceof RESTORE || stmt instanceof LINEON) {
+        return false;
+      }
+      if (stmt instanceof Macro && !isStackIndependent((Macro) stmt)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int getLines() {
+    return this.ops.length;
+  }
+
+  /**
+   * Execute line 'lineno' (starting at 1) on 'stack'
+   */
+  public void exec(MemoryWarpScriptStack stack, int lineno) throws WarpScriptException {
+    try {
+      stack.recurseIn();
+
+      stack.progress();
+
+      for (long i = 0; i < this.ops[lineno - 1]; i++) {
+        stack.incOps();
+      }
+
+      for (int i = this.boundaries[lineno - 1]; i < this.boundaries[lineno]; i++) {
+        Object stmt = this.body.get(i);
+
+        if (stmt instanceof WarpScriptStackFunction) {
+          ((WarpScriptStackFunction) stmt).apply(stack);
+        } else {
+          stack.push(stmt);
+        }
+      }
+    } finally {
+      stack.recurseOut();
+    }
+  }
+}
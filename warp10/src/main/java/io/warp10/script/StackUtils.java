@@ -62,28 +62,36 @@ public class StackUtils {
     
     int depth = Math.min(stack.depth(), maxdepth);
     
-    out.print("[");
+    JSONWriter writer = new JSONWriter(out);
     
-    boolean first = true;
-    
-    JsonSerializer serializer = getSerializer();
-    
-    for (int i = 0; i < depth; i++) {
+    try {
+      writer.write('[');
       
-      if (!first) {
-        out.print(",");
-      }
-      first = false;
+      boolean first = true;
       
-      try {
-        Object o = stack.get(i);
+      JsonSerializer serializer = getSerializer();
+      
+      for (int i = 0; i < depth; i++) {
+        
+        if (!first) {
+          writer.write(',');
+        }
+        first = false;
         
-        objectToJSON(serializer, out, o, recursionLevel, strictJSON);
-      } catch (WarpScriptException ee) {
+        try {
+          Object o = stack.get(i);
+          
+          objectToJSON(serializer, writer, o, recursionLevel, strictJSON);
+        } catch (WarpScriptException ee) {
+        }
       }
+      
+      writer.write(']');
+      
+      writer.end();
+    } catch (IOException ioe) {
+      throw new WarpScriptException("Error while rendering JSON.", ioe);
     }
-    
-    out.print("]");
   }
 
   public static void toJSON(PrintWriter out, WarpScriptStack stack) throws WarpScriptException {
@@ -91,6 +99,17 @@ public class StackUtils {
   }
   
   public static void objectToJSON(JsonSerializer serializer, PrintWriter out, Object o, AtomicInteger recursionLevel, boolean strictJSON) {
+    JSONWriter writer = new JSONWriter(out);
+    
+    try {
+      objectToJSON(serializer, writer, o, recursionLevel, strictJSON);
+      writer.end();
+    } catch (IOException ioe) {
+      // PrintWriter does not throw IOException
+    }
+  }
+  
+  private static void objectToJSON(JsonSerializer serializer, JSONWriter out, Object o, AtomicInteger recursionLevel, boolean strictJSON) throws IOException {
     
     if (recursionLevel.addAndGet(1) > WarpScriptStack.DEFAULT_MAX_RECURSION_LEVEL && ((o instanceof Map) || (o instanceof List) || (o instanceof Macro))) {
       out.write(" ...NESTED_CONTENT_REMOVED... ");
@@ -104,155 +123,167 @@ public class StackUtils {
     }
 
     if (strictJSON && (o instanceof Double && (Double.isNaN((double) o) || Double.isInfinite((double) o)))) {
-      out.print("null");
+      out.write("null");
     } else if (strictJSON && (o instanceof Float && (Float.isNaN((float) o) || Float.isInfinite((float) o)))) {
-      out.print("null");
+      out.write("null");
+    } else if (o instanceof Long) {
+      out.writeLong((long) o);
+    } else if (o instanceof Double) {
+      out.writeDouble((double) o);
     } else if (o instanceof Number || o instanceof String || o instanceof Boolean) {
       //out.print(gson.toJson(o));
-      out.print(serializer.serialize(o));
+      out.write(String.valueOf(serializer.serialize(o)));
     } else if (o instanceof Map) {
-      out.print("{");
+      out.write('{');
       boolean first = true;
       for (Object key: ((Map) o).keySet()) {
         if (!first) {
-          out.print(",");
+          out.write(',');
         }
         if (null != key) {
           //out.print(gson.toJson(key.toString()));
-          out.print(serializer.serialize(key.toString()));
+          out.write(String.valueOf(serializer.serialize(key.toString())));
         } else {
-          out.print("null");
+          out.write("null");
         }
-        out.print(":");
+        out.write(':');
         objectToJSON(serializer, out, ((Map) o).get(key), recursionLevel, strictJSON);
         first = false;
       }
-      out.print("}");
+      out.write('}');
     } else if (o instanceof List) {
-      out.print("[");
+      out.write('[');
       boolean first  = true;
       for (Object elt: ((List) o)) {
         if (!first) {
-          out.print(",");
+          out.write(',');
         }
         objectToJSON(serializer, out, elt, recursionLevel, strictJSON);
         first = false;
       }
-      out.print("]");    
+      out.write(']');    
     } else if (o instanceof GeoTimeSerie) {
-      out.print("{");
-      out.print("\"c\":");
+      out.write('{');
+      out.write("\"c\":");
       //out.print(gson.toJson(((GeoTimeSerie) o).getMetadata().getName()));
       String name = ((GeoTimeSerie) o).getMetadata().getName();
       if (null == name) {
         name = "";
       }
-      out.print(serializer.serialize(name));
-      out.print(",\"l\":");
+      out.write(String.valueOf(serializer.serialize(name)));
+      out.write(",\"l\":");
       objectToJSON(serializer, out, ((GeoTimeSerie) o).getMetadata().getLabels(), recursionLevel, strictJSON);
-      out.print(",\"a\":");
+      out.write(",\"a\":");
       objectToJSON(serializer, out, ((GeoTimeSerie) o).getMetadata().getAttributes(), recursionLevel, strictJSON);
-      out.print(",\"la\":");
+      out.write(",\"la\":");
       objectToJSON(serializer, out, ((GeoTimeSerie) o).getMetadata().getLastActivity(), recursionLevel, strictJSON);
-      out.print(",\"v\":[");
+      out.write(",\"v\":[");
       boolean first = true;
       for (int i = 0; i < ((GeoTimeSerie) o).size(); i++) {
         if (!first) {
-          out.print(",");
+          out.write(',');
         }
         long ts = GTSHelper.tickAtIndex((GeoTimeSerie) o, i);
         long location = GTSHelper.locationAtIndex((GeoTimeSerie) o, i);
         long elevation = GTSHelper.elevationAtIndex((GeoTimeSerie) o, i);
         Object v = GTSHelper.valueAtIndex((GeoTimeSerie) o, i);
-        out.print("[");
-        out.print(ts);
+        out.write('[');
+        out.writeLong(ts);
         if (GeoTimeSerie.NO_LOCATION != location) {
           double[] latlon = GeoXPLib.fromGeoXPPoint(location);
-          out.print(",");
-          out.print(latlon[0]);
-          out.print(",");
-          out.print(latlon[1]);
+          out.write(',');
+          out.writeDouble(latlon[0]);
+          out.write(',');
+          out.writeDouble(latlon[1]);
         }
         if (GeoTimeSerie.NO_ELEVATION != elevation) {
-          out.print(",");
-          out.print(elevation);
+          out.write(',');
+          out.writeLong(elevation);
         }
-        out.print(",");
+        out.write(',');
         //out.print(gson.toJson(v));    
         if (strictJSON && (v instanceof Double) && (Double.isNaN((double) v) || Double.isInfinite((double) v))) {
-          out.print("null");
+          out.write("null");
+        } else if (v instanceof Long) {
+          out.writeLong((long) v);
+        } else if (v instanceof Double) {
+          out.writeDouble((double) v);
         } else {
-          out.print(serializer.serialize(v));
+          out.write(String.valueOf(serializer.serialize(v)));
         }
-        out.print("]");
+        out.write(']');
         first = false;
       }
-      out.print("]");
-      out.print("}");
+      out.write(']');
+      out.write('}');
     } else if (o instanceof GTSEncoder) {
-      out.print("{");
-      out.print("\"c\":");
+      out.write('{');
+      out.write("\"c\":");
       //out.print(gson.toJson(((GeoTimeSerie) o).getMetadata().getName()));
       String name = ((GTSEncoder) o).getMetadata().getName();
       if (null == name) {
         name = "";
       }
-      out.print(serializer.serialize(name));
-      out.print(",\"l\":");
+      out.write(String.valueOf(serializer.serialize(name)));
+      out.write(",\"l\":");
       objectToJSON(serializer, out, ((GTSEncoder) o).getMetadata().getLabels(), recursionLevel, strictJSON);
-      out.print(",\"a\":");
+      out.write(",\"a\":");
       objectToJSON(serializer, out, ((GTSEncoder) o).getMetadata().getAttributes(), recursionLevel, strictJSON);
-      out.print(",\"v\":[");
+      out.write(",\"v\":[");
       boolean first = true;
       GTSDecoder decoder = ((GTSEncoder) o).getUnsafeDecoder(false);
       while(decoder.next()) {
         if (!first) {
-          out.print(",");
+          out.write(',');
         }
         long ts = decoder.getTimestamp();
         long location = decoder.getLocation();
         long elevation = decoder.getElevation();
         Object v = decoder.getValue();
-        out.print("[");
-        out.print(ts);
+        out.write('[');
+        out.writeLong(ts);
         if (GeoTimeSerie.NO_LOCATION != location) {
           double[] latlon = GeoXPLib.fromGeoXPPoint(location);
-          out.print(",");
-          out.print(latlon[0]);
-          out.print(",");
-          out.print(latlon[1]);
+          out.write(',');
+          out.writeDouble(latlon[0]);
+          out.write(',');
+          out.writeDouble(latlon[1]);
         }
         if (GeoTimeSerie.NO_ELEVATION != elevation) {
-          out.print(",");
-          out.print(elevation);
+          out.write(',');
+          out.writeLong(elevation);
         }
-        out.print(",");
+        out.write(',');
         //out.print(gson.toJson(v));    
         if (strictJSON && (v instanceof Double) && (Double.isNaN((double) v) || Double.isInfinite((double) v))) {
-          out.print("null");
+          out.write("null");
+        } else if (v instanceof Long) {
+          out.writeLong((long) v);
+        } else if (v instanceof Double) {
+          out.writeDouble((double) v);
         } else {
-          out.print(serializer.serialize(v));
+          out.write(String.valueOf(serializer.serialize(v)));
         }
-        out.print("]");
+        out.write(']');
         first = false;
       }
-      out.print("]");
-      out.print("}");
+      out.write(']');
+      out.write('}');
       
     } else if (o instanceof Metadata) {
-      out.print("{");
-      out.print("\"c\":");
-      out.print(serializer.serialize(((Metadata) o).getName()));
-      out.print(",\"l\":");
+      out.write('{');
+      out.write("\"c\":");
+      out.write(String.valueOf(serializer.serialize(((Metadata) o).getName())));
+      out.write(",\"l\":");
       objectToJSON(serializer, out, ((Metadata) o).getLabels(), recursionLevel, strictJSON);
-      out.print(",\"a\":");
+      out.write(",\"a\":");
       objectToJSON(serializer, out, ((Metadata) o).getAttributes(), recursionLevel, strictJSON);
-      out.print("}");
+      out.write('}');
     //} else if (o instanceof JsonArray || o instanceof JsonElement || o instanceof JsonBuilder) {
     //  out.print(o.toString());
     } else if (o instanceof Macro) {
       //out.print(gson.toJson(o.toString()));
-      out.print(serializer.serialize(o.toString()));
+      out.write(String.valueOf(serializer.serialize(o.toString())));
     } else if (o instanceof NamedWarpScriptFunction) {
       StringBuilder sb = new StringBuilder();
       sb.append(WarpScriptStack.MACRO_START);
@@ -263,9 +294,9 @@ public class StackUtils {
       sb.append(" ");
       sb.append(WarpScriptLib.EVAL);
       //out.print(gson.toJson(sb.toString()));
-      out.print(serializer.serialize(sb.toString()));
+      out.write(String.valueOf(serializer.serialize(sb.toString())));
     } else {
-      out.print("null");
+      out.write("null");
     }
     
     recursionLevel.addAndGet(-1);
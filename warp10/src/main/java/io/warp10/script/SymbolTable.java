@@ -0,0 +1,250 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Symbol table of a MemoryWarpScriptStack.
+ *
+ * Each symbol is stored in a slot which is kept when the symbol is forgotten, so compiled
+ * macros can resolve a symbol once and then access its slot directly. Slots of forgotten
+ * symbols are purged when they outnumber the defined ones, the epoch of the table is then
+ * incremented so resolved slots can be detected as stale.
+ */
+class SymbolTable extends AbstractMap<String,Object> {
+
+  /**
+   * Number of unbound slots below which no purge happens
+   */
+  private static final int PURGE_THRESHOLD = 64;
+
+  static final class Slot implements Map.Entry<String,Object> {
+    private final String name;
+    private Object value;
+    private boolean bound = false;
+
+    private Slot(String name) {
+      this.name = name;
+    }
+
+    boolean isBound() {
+      return this.bound;
+    }
+
+    @Override
+    public String getKey() {
+      return this.name;
+    }
+
+    @Override
+    public Object getValue() {
+      return this.value;
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      Object old = this.value;
+      this.value = value;
+      return old;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+      Map.Entry<?,?> e = (Map.Entry<?,?>) o;
+      return this.name.equals(e.getKey()) && (null == this.value ? null == e.getValue() : this.value.equals(e.getValue()));
+    }
+
+    @Override
+    public int hashCode() {
+      return this.name.hashCode() ^ (null == this.value ? 0 : this.value.hashCode());
+    }
+  }
+
+  private final Map<String,Slot> slots = new HashMap<String,Slot>();
+
+  /**
+   * Number of bound slots
+   */
+  private int size = 0;
+
+  /**
+   * Incremented each time slots are purged
+   */
+  private int epoch = 0;
+
+  int getEpoch() {
+    return this.epoch;
+  }
+
+  /**
+   * Return the slot of a symbol, creating an unbound one if needed.
+   */
+  Slot slot(String name) {
+    Slot slot = this.slots.get(name);
+
+    if (null == slot) {
+      slot = new Slot(name);
+      this.slots.put(name, slot);
+    }
+
+    return slot;
+  }
+
+  void bind(Slot slot, Object value) {
+    if (!slot.bound) {
+      slot.bound = true;
+      this.size++;
+    }
+    slot.value = value;
+  }
+
+  private void unbind(Slot slot) {
+    if (slot.bound) {
+      slot.bound = false;
+      this.size--;
+    }
+    slot.value = null;
+  }
+
+  private void purge() {
+    int unbound = this.slots.size() - this.size;
+
+    if (unbound < PURGE_THRESHOLD || unbound < this.size) {
+      return;
+    }
+
+    Iterator<Slot> iter = this.slots.values().iterator();
+
+    while(iter.hasNext()) {
+      if (!iter.next().bound) {
+        iter.remove();
+      }
+    }
+
+    this.epoch++;
+  }
+
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    Slot slot = this.slots.get(key);
+    return null != slot && slot.bound;
+  }
+
+  @Override
+  public Object get(Object key) {
+    Slot slot = this.slots.get(key);
+    return null != slot ? slot.value : null;
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    Slot slot = slot(key);
+    Object old = slot.value;
+    bind(slot, value);
+    return old;
+  }
+
+  @Override
+  public Object remove(Object key) {
+    Slot slot = this.slots.get(key);
+
+    if (null == slot) {
+      return null;
+    }
+
+    Object old = slot.value;
+    unbind(slot);
+    purge();
+    return old;
+  }
+
+  @Override
+  public void clear() {
+    for (Slot slot: this.slots.values()) {
+      slot.bound = false;
+      slot.value = null;
+    }
+    this.size = 0;
+    purge();
+  }
+
+  @Override
+  public Set<Map.Entry<String,Object>> entrySet() {
+    return new AbstractSet<Map.Entry<String,Object>>() {
+      @Override
+      public int size() {
+        return SymbolTable.this.size;
+      }
+
+      @Override
+      public Iterator<Map.Entry<String,Object>> iterator() {
+        final Iterator<Slot> iter = SymbolTable.this.slots.values().iterator();
+
+        return new Iterator<Map.Entry<String,Object>>() {
+          private Slot next = null;
+          private Slot last = null;
+
+          @Override
+          public boolean hasNext() {
+            while (null == this.next && iter.hasNext()) {
+              Slot slot = iter.next();
+              if (slot.bound) {
+                this.next = slot;
+              }
+            }
+            return null != this.next;
+          }
+
+          @Override
+          public Map.Entry<String,Object> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            this.last = this.next;
+            this.next = null;
+            return this.last;
+          }
+
+          @Override
+          public void remove() {
+            if (null == this.last) {
+              throw new IllegalStateException();
+            }
+            // Slots are not removed while iterating, they will be purged later
+            unbind(this.last);
+            this.last = null;
+          }
+        };
+      }
+    };
+  }
+}
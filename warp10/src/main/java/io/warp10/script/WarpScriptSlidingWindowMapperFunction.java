@@ -0,0 +1,73 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import io.warp10.continuum.gts.GeoTimeSerie;
+
+/**
+ * Mapper which can maintain its result incrementally when applied
+ * on a sliding window by GTSHelper.map.
+ *
+ * Instead of being handed copies of the datapoints in the window for each tick,
+ * such mappers are notified of the indices of the datapoints entering and leaving
+ * the window. Indices refer to the GTS passed to newWindow, which is sorted by
+ * ascending ticks and will not be modified while the window is in use.
+ */
+public interface WarpScriptSlidingWindowMapperFunction extends WarpScriptMapperFunction {
+
+  /**
+   * Create a new sliding window on a GTS.
+   *
+   * @param gts GTS the mapper is applied to, sorted by ascending ticks.
+   * @param reversed If true, the window will slide from the most recent ticks to the oldest ones.
+   * @return A new window or null if 'gts' cannot be handled incrementally, in which case 'apply' will be called for each tick.
+   */
+  public SlidingWindow newWindow(GeoTimeSerie gts, boolean reversed) throws WarpScriptException;
+
+  public static interface SlidingWindow {
+    /**
+     * Add a datapoint to the window. Indices are added in increasing order, or
+     * in decreasing order if the window was created as reversed.
+     *
+     * @param idx Index of the datapoint in the GTS
+     */
+    public void add(int idx) throws WarpScriptException;
+
+    /**
+     * Remove a datapoint from the window. Indices are removed in the same order
+     * they were added.
+     *
+     * @param idx Index of the datapoint in the GTS
+     */
+    public void remove(int idx) throws WarpScriptException;
+
+    /**
+     * Remove all datapoints from the window.
+     */
+    public void clear();
+
+    /**
+     * Compute the result of the mapper for the current window content.
+     *
+     * @param tick Tick for which the mapper is applied
+     * @param from Index of the first datapoint in the window (inclusive)
+     * @param to Index of the last datapoint in the window (exclusive)
+     * @return An array of tick, location, elevation and value, as 'apply' would return.
+     */
+    public Object[] getResult(long tick, int from, int to) throws WarpScriptException;
+  }
+}
@@ -289,6 +289,12 @@ public interface WarpScriptStack {
     
     private ArrayList<Object> statements = new ArrayList<Object>();
     
+    /**
+     * Compiled form of the macro, reset when statements are added or removed
+     * through the methods of this class.
+     */
+    private volatile MacroCompiler.CompiledMacro compiled = null;
+    
     public boolean isExpired() {
       return (Long.MIN_VALUE != this.expiry) && (this.expiry < System.currentTimeMillis());
     }
@@ -298,6 +304,7 @@ public interface WarpScriptStack {
     }
     
     public void add(Object o) {
+      this.compiled = null;
       this.statements().add(o);
     }
     
@@ -310,6 +317,7 @@ public interface WarpScriptStack {
     }
     
     public void setSize(int size) {
+      this.compiled = null;
       if (size < this.statements.size() && size > 0) {
         int delta = this.statements.size() - size;
         while(delta > 0) {
@@ -326,6 +334,7 @@ public interface WarpScriptStack {
     }
     
     public void addAll(Macro macro) {
+      this.compiled = null;
       this.statements().addAll(macro.statements());
     }
     
@@ -349,6 +358,14 @@ public interface WarpScriptStack {
       this.expiry = expiry;
     }
     
+    MacroCompiler.CompiledMacro getCompiled() {
+      return this.compiled;
+    }
+    
+    void setCompiled(MacroCompiler.CompiledMacro compiled) {
+      this.compiled = compiled;
+    }
+    
     @Override
     public String snapshot() {
       StringBuilder sb = new StringBuilder();
@@ -0,0 +1,28 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+/**
+ * Marker interface for reducers and N-ary functions whose 'apply' method
+ * can be called concurrently from several threads.
+ *
+ * Such functions must not keep state between calls and must not access a
+ * stack, they can then be applied to several partitions in parallel by
+ * REDUCE and APPLY.
+ */
+public interface WarpScriptThreadSafeFunction {
+}
@@ -0,0 +1,46 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+/**
+ * Aggregator which can be applied directly to the primitive arrays of numeric GTS.
+ *
+ * When an aggregator used as a bucketizer, mapper or reducer implements this interface,
+ * GTSHelper calls 'aggregate' with a slice of the arrays of the GTS instead of building
+ * the Object[] of boxed values passed to 'apply'. The arrays MUST NOT be modified.
+ *
+ * Only non null LONG or DOUBLE values are passed, 'aggregate' must return the same
+ * result as 'apply' would for the same datapoints.
+ */
+public interface WarpScriptTypedAggregatorFunction {
+
+  /**
+   * Aggregate the datapoints at indices offset to offset + length - 1.
+   *
+   * @param tick Tick for which the aggregation is done (end of bucket, tick of the mapper or reducer)
+   * @param ticks Ticks of the datapoints
+   * @param locations Locations of the datapoints, or null if they have none
+   * @param elevations Elevations of the datapoints, or null if they have none
+   * @param longs Values of the datapoints if they are of type LONG, null otherwise
+   * @param doubles Values of the datapoints if they are of type DOUBLE, null otherwise
+   * @param offset Index of the first datapoint
+   * @param length Number of datapoints, at least 1
+   * @param result Array of 4 elements to fill with the tick, location, elevation and value 'apply' would return
+   * @return false if the aggregator cannot handle those datapoints, 'apply' will then be called instead
+   */
+  public boolean aggregate(long tick, long[] ticks, long[] locations, long[] elevations, long[] longs, double[] doubles, int offset, int length, Object[] result) throws WarpScriptException;
+}
@@ -28,6 +28,7 @@ import io.warp10.script.WarpScriptReducerFunction;
 import io.warp10.script.WarpScriptStackFunction;
 import io.warp10.script.WarpScriptException;
 import io.warp10.script.WarpScriptStack;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 import java.io.UnsupportedEncodingException;
 import java.util.BitSet;
@@ -43,7 +44,7 @@ import java.util.Map;
  * This reducer takes an additional LONG parameter to choose the maximum to report (use 0 to report them all),
  * and a String parameter to choose on which label it operates.
  */
-public class Argmax extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Argmax extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptThreadSafeFunction {
   
   /**
    * Label to report
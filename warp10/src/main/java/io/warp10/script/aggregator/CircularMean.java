@@ -30,13 +30,14 @@ import io.warp10.script.WarpScriptReducerFunction;
 import io.warp10.script.WarpScriptStackFunction;
 import io.warp10.script.WarpScriptException;
 import io.warp10.script.WarpScriptStack;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 /**
  * Compute the mean of circular quantities
  * 
  * @see https://en.wikipedia.org/wiki/Mean_of_circular_quantities
  */
-public class CircularMean extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptReducerFunction, WarpScriptBucketizerFunction {
+public class CircularMean extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptReducerFunction, WarpScriptBucketizerFunction, WarpScriptThreadSafeFunction {
   
   /**
    * Period of the circular quantity
@@ -23,12 +23,14 @@ import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
+import io.warp10.script.WarpScriptTypedAggregatorFunction;
 
 /**
  * Return the number of measures with elevation and location from
  * the latest measure.
  */
-public class Count extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Count extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptThreadSafeFunction, WarpScriptTypedAggregatorFunction {
   
   private final boolean omitNulls;
   
@@ -72,4 +74,26 @@ public class Count extends NamedWarpScriptFunction implements WarpScriptAggregat
     
     return new Object[] { tick, location, elevation, count };    
   }
+  
+  @Override
+  public boolean aggregate(long tick, long[] ticks, long[] locations, long[] elevations, long[] longs, double[] doubles, int offset, int length, Object[] result) {
+    //
+    // Values are never null so the count is the number of datapoints
+    //
+    
+    int latest = offset;
+    
+    for (int i = offset + 1; i < offset + length; i++) {
+      if (ticks[i] > ticks[latest]) {
+        latest = i;
+      }
+    }
+    
+    result[0] = tick;
+    result[1] = null == locations ? GeoTimeSerie.NO_LOCATION : locations[latest];
+    result[2] = null == elevations ? GeoTimeSerie.NO_ELEVATION : elevations[latest];
+    result[3] = (long) length;
+    
+    return true;
+  }
 }
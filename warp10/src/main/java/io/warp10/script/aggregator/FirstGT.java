@@ -29,12 +29,13 @@ import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
 import io.warp10.script.functions.SNAPSHOT;
 import io.warp10.script.functions.SNAPSHOT.Snapshotable;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 /**
  * Return the first value greater than a threshold
  *
  */
-public class FirstGT extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptReducerFunction, WarpScriptBucketizerFunction {
+public class FirstGT extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptReducerFunction, WarpScriptBucketizerFunction, WarpScriptThreadSafeFunction {
   
   private long lthreshold;
   private double dthreshold;
@@ -23,6 +23,7 @@ import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 import java.util.Arrays;
 import java.util.Comparator;
@@ -36,7 +37,7 @@ import com.geoxp.GeoXPLib;
  * 
  * Returned location and elevation are those of the tick being computed.
  */
-public class HDist extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class HDist extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptThreadSafeFunction {
   
   public HDist(String name) {
     super(name);
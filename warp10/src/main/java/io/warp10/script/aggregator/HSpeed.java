@@ -24,6 +24,7 @@ import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 import java.util.Arrays;
 import java.util.Comparator;
@@ -37,7 +38,7 @@ import com.geoxp.GeoXPLib;
  * 
  * Returned location and elevation are those of the tick being computed.
  */
-public class HSpeed extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class HSpeed extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptThreadSafeFunction {
   
   public HSpeed(String name) {
     super(name);
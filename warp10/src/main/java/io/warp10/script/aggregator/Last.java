@@ -23,11 +23,13 @@ import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
+import io.warp10.script.WarpScriptTypedAggregatorFunction;
 
 /**
  * Retain the last measurement of the interval
  */
-public class Last extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Last extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptThreadSafeFunction, WarpScriptTypedAggregatorFunction {
   
   public Last(String name) {
     super(name);
@@ -54,4 +56,22 @@ public class Last extends NamedWarpScriptFunction implements WarpScriptAggregato
     }
     return new Object[] { ticks[idx], locations[idx], elevations[idx], values[idx] };
   }
+  
+  @Override
+  public boolean aggregate(long tick, long[] ticks, long[] locations, long[] elevations, long[] longs, double[] doubles, int offset, int length, Object[] result) {
+    int idx = offset;
+    
+    for (int i = offset + 1; i < offset + length; i++) {
+      if (ticks[i] > ticks[idx]) {
+        idx = i;
+      }
+    }
+    
+    result[0] = ticks[idx];
+    result[1] = null == locations ? GeoTimeSerie.NO_LOCATION : locations[idx];
+    result[2] = null == elevations ? GeoTimeSerie.NO_ELEVATION : elevations[idx];
+    result[3] = null != longs ? (Object) longs[idx] : (Object) doubles[idx];
+    
+    return true;
+  }
 }
@@ -17,17 +17,20 @@
 package io.warp10.script.aggregator;
 
 import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
 import io.warp10.script.NamedWarpScriptFunction;
 import io.warp10.script.WarpScriptAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
-import io.warp10.script.WarpScriptMapperFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
+import io.warp10.script.WarpScriptTypedAggregatorFunction;
 
 /**
  * Retain the measurement with the highest value and timestamp
  */
-public class Max extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Max extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptSlidingWindowMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptThreadSafeFunction, WarpScriptTypedAggregatorFunction {
   
   private final boolean ignoreNulls;
   
@@ -138,4 +141,45 @@ public class Max extends NamedWarpScriptFunction implements WarpScriptAggregator
     
     return new Object[] { ticks[idx], locations[idx], elevations[idx], value };
   }
+  
+  @Override
+  public boolean aggregate(long tick, long[] ticks, long[] locations, long[] elevations, long[] longs, double[] doubles, int offset, int length, Object[] result) {
+    int idx = offset;
+    
+    if (null != longs) {
+      for (int i = offset + 1; i < offset + length; i++) {
+        int cmp = Long.compare(longs[idx], longs[i]);
+        if (cmp < 0 || (0 == cmp && ticks[i] < ticks[idx])) {
+          idx = i;
+        }
+      }
+      result[3] = longs[idx];
+    } else {
+      for (int i = offset + 1; i < offset + length; i++) {
+        int cmp = Double.compare(doubles[idx], doubles[i]);
+        if (cmp < 0 || (0 == cmp && ticks[i] < ticks[idx])) {
+          idx = i;
+        }
+      }
+      result[3] = doubles[idx];
+    }
+    
+    result[0] = ticks[idx];
+    result[1] = null == locations ? GeoTimeSerie.NO_LOCATION : locations[idx];
+    result[2] = null == elevations ? GeoTimeSerie.NO_ELEVATION : elevations[idx];
+    
+    return true;
+  }
+  
+  @Override
+  public SlidingWindow newWindow(GeoTimeSerie gts, boolean reversed) {
+    //
+    // Only numeric GTS are handled incrementally
+    //
+    if (TYPE.LONG != gts.getType() && TYPE.DOUBLE != gts.getType()) {
+      return null;
+    }
+    
+    return new SlidingExtremum(gts, reversed, true);
+  }
 }
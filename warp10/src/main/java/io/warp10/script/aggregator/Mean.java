@@ -16,14 +16,17 @@
 
 package io.warp10.script.aggregator;
 
+import io.warp10.continuum.gts.GTSHelper;
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
 import io.warp10.script.NamedWarpScriptFunction;
 import io.warp10.script.WarpScriptAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
-import io.warp10.script.WarpScriptMapperFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
+import io.warp10.script.WarpScriptTypedAggregatorFunction;
 
 import com.geoxp.GeoXPLib;
 
@@ -32,7 +35,7 @@ import com.geoxp.GeoXPLib;
  * The returned location will be the centroid of all locations.
  * The returned elevation will be the average of all elevations.
  */
-public class Mean extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Mean extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptSlidingWindowMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptThreadSafeFunction, WarpScriptTypedAggregatorFunction {
   
   private final boolean ignoreNulls;
   
@@ -142,4 +145,162 @@ public class Mean extends NamedWarpScriptFunction implements WarpScriptAggregato
     
     return new Object[] { ticks[0] + (ticksum / ticks.length), meanlocation, meanelevation, meanvalue };
   }
+  
+  @Override
+  public boolean aggregate(long tick, long[] ticks, long[] locations, long[] elevations, long[] longs, double[] doubles, int offset, int length, Object[] result) {
+    long ticksum = 0L;
+    long latitudes = 0L;
+    long longitudes = 0L;
+    int locationcount = 0;
+    long elev = 0L;
+    int elevationcount = 0;
+    
+    for (int i = offset; i < offset + length; i++) {
+      ticksum += ticks[i] - ticks[offset];
+      
+      if (null != locations && GeoTimeSerie.NO_LOCATION != locations[i]) {
+        long[] xy = GeoXPLib.xyFromGeoXPPoint(locations[i]);
+        latitudes += xy[0];
+        longitudes += xy[1];
+        locationcount++;
+      }
+      
+      if (null != elevations && GeoTimeSerie.NO_ELEVATION != elevations[i]) {
+        elev += elevations[i];
+        elevationcount++;
+      }
+    }
+    
+    if (null != longs) {
+      long suml = longs[offset];
+      for (int i = offset + 1; i < offset + length; i++) {
+        suml += longs[i];
+      }
+      result[3] = suml / (double) length;
+    } else {
+      double sumd = doubles[offset];
+      for (int i = offset + 1; i < offset + length; i++) {
+        sumd += doubles[i];
+      }
+      result[3] = sumd / length;
+    }
+    
+    result[0] = ticks[offset] + (ticksum / length);
+    result[1] = locationcount > 0 ? GeoXPLib.toGeoXPPoint(latitudes / locationcount, longitudes / locationcount) : GeoTimeSerie.NO_LOCATION;
+    result[2] = elevationcount > 0 ? elev / elevationcount : GeoTimeSerie.NO_ELEVATION;
+    
+    return true;
+  }
+  
+  @Override
+  public SlidingWindow newWindow(final GeoTimeSerie gts, boolean reversed) {
+    //
+    // Only numeric GTS are handled incrementally
+    //
+    if (TYPE.LONG != gts.getType() && TYPE.DOUBLE != gts.getType()) {
+      return null;
+    }
+
+    final boolean isLong = TYPE.LONG == gts.getType();
+    
+    // Ticks are summed relative to the first tick of the GTS
+    final long basetick = GTSHelper.tickAtIndex(gts, 0);
+    
+    return new SlidingWindow() {
+      
+      //
+      // Long sums wrap around, so additions and subtractions remain exact
+      //
+      
+      private long suml = 0L;
+      private final SlidingDoubleSum sumd = new SlidingDoubleSum(gts);
+      private long ticksum = 0L;
+      private long latitudes = 0L;
+      private long longitudes = 0L;
+      private int locationcount = 0;
+      private long elev = 0L;
+      private int elevationcount = 0;
+      
+      @Override
+      public void add(int idx) {
+        update(idx, 1);
+      }
+      
+      @Override
+      public void remove(int idx) {
+        update(idx, -1);
+      }
+      
+      private void update(int idx, int sign) {
+        if (isLong) {
+          suml += sign * GTSHelper.longValueAtIndex(gts, idx);
+        } else if (sign > 0) {
+          sumd.add(idx);
+        } else {
+          sumd.remove(idx);
+        }
+        
+        ticksum += sign * (GTSHelper.tickAtIndex(gts, idx) - basetick);
+        
+        long location = GTSHelper.locationAtIndex(gts, idx);
+        
+        if (GeoTimeSerie.NO_LOCATION != location) {
+          long[] xy = GeoXPLib.xyFromGeoXPPoint(location);
+          latitudes += sign * xy[0];
+          longitudes += sign * xy[1];
+          locationcount += sign;
+        }
+        
+        long elevation = GTSHelper.elevationAtIndex(gts, idx);
+        
+        if (GeoTimeSerie.NO_ELEVATION != elevation) {
+          elev += sign * elevation;
+          elevationcount += sign;
+        }
+      }
+      
+      @Override
+      public void clear() {
+        suml = 0L;
+        sumd.clear();
+        ticksum = 0L;
+        latitudes = 0L;
+        longitudes = 0L;
+        locationcount = 0;
+        elev = 0L;
+        elevationcount = 0;
+      }
+      
+      @Override
+      public Object[] getResult(long tick, int from, int to) {
+        int count = to - from;
+        
+        if (0 >= count) {
+          return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+        }
+        
+        long meanlocation = GeoTimeSerie.NO_LOCATION;
+        long meanelevation = GeoTimeSerie.NO_ELEVATION;
+        
+        if (locationcount > 0) {
+          meanlocation = GeoXPLib.toGeoXPPoint(latitudes / locationcount, longitudes / locationcount);
+        }
+        
+        if (elevationcount > 0) {
+          meanelevation = elev / elevationcount;
+        }
+        
+        Object meanvalue = isLong ? (Object) (suml / (double) count) : (Object) (sumd.get(from, to) / count);
+        
+        //
+        // Rebase the sum of ticks on the first tick of the window like 'apply' does
+        //
+        
+        long firsttick = GTSHelper.tickAtIndex(gts, from);
+        long windowticksum = ticksum - count * (firsttick - basetick);
+        
+        return new Object[] { firsttick + (windowticksum / count), meanlocation, meanelevation, meanvalue };
+      }
+    };
+  }
 }
@@ -26,6 +26,7 @@ import io.warp10.script.WarpScriptReducerFunction;
 import io.warp10.script.WarpScriptStackFunction;
 import io.warp10.script.WarpScriptException;
 import io.warp10.script.WarpScriptStack;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 import java.util.Comparator;
 import java.util.Arrays;
@@ -37,7 +38,7 @@ import com.geoxp.GeoXPLib;
  * The returned location will be that of the chosen value
  * The returned elevation will be that of the chosen value
  */
-public class Percentile extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Percentile extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptThreadSafeFunction {
   
   /**
    * Should we use linear interpolation?
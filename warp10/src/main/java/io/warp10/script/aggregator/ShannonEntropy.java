@@ -23,6 +23,7 @@ import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 /**
  * Compute a Shannon Entropy, considering GTS values to be number of occurrences of the underlying symbol.
@@ -31,7 +32,7 @@ import io.warp10.script.WarpScriptException;
  * 
  * The returned entropy is normalized by log(N) where N is the sum of occurrences.
  */
-public class ShannonEntropy extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class ShannonEntropy extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptThreadSafeFunction {
   
   private final boolean invert;
   
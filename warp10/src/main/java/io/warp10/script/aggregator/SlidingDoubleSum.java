@@ -0,0 +1,108 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script.aggregator;
+
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+
+/**
+ * Running sum of the DOUBLE values of a sliding window.
+ * 
+ * Non finite values are counted apart so they do not poison the sum once
+ * they have left the window. As subtracting values leaves rounding errors
+ * behind, the sum is recomputed from the window content once as many values
+ * as the window holds have been removed, which keeps the cost amortized O(1).
+ */
+class SlidingDoubleSum {
+  
+  private final GeoTimeSerie gts;
+  
+  private double sum = 0.0D;
+  
+  private int nans = 0;
+  private int posinfs = 0;
+  private int neginfs = 0;
+  
+  private int removals = 0;
+  
+  SlidingDoubleSum(GeoTimeSerie gts) {
+    this.gts = gts;
+  }
+  
+  void add(int idx) {
+    double value = GTSHelper.doubleValueAtIndex(gts, idx);
+    
+    if (Double.isNaN(value)) {
+      nans++;
+    } else if (Double.POSITIVE_INFINITY == value) {
+      posinfs++;
+    } else if (Double.NEGATIVE_INFINITY == value) {
+      neginfs++;
+    } else {
+      sum += value;
+    }
+  }
+  
+  void remove(int idx) {
+    double value = GTSHelper.doubleValueAtIndex(gts, idx);
+    
+    if (Double.isNaN(value)) {
+      nans--;
+    } else if (Double.POSITIVE_INFINITY == value) {
+      posinfs--;
+    } else if (Double.NEGATIVE_INFINITY == value) {
+      neginfs--;
+    } else {
+      sum -= value;
+      removals++;
+    }
+  }
+  
+  void clear() {
+    sum = 0.0D;
+    nans = 0;
+    posinfs = 0;
+    neginfs = 0;
+    removals = 0;
+  }
+  
+  /**
+   * Return the sum of the values of the window [from,to[
+   */
+  double get(int from, int to) {
+    if (nans > 0 || (posinfs > 0 && neginfs > 0)) {
+      return Double.NaN;
+    } else if (posinfs > 0) {
+      return Double.POSITIVE_INFINITY;
+    } else if (neginfs > 0) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    
+    if (removals >= to - from || Double.isInfinite(sum)) {
+      sum = 0.0D;
+      for (int i = from; i < to; i++) {
+        double value = GTSHelper.doubleValueAtIndex(gts, i);
+        if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+          sum += value;
+        }
+      }
+      removals = 0;
+    }
+    
+    return sum;
+  }
+}
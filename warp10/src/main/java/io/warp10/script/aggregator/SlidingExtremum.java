@@ -0,0 +1,165 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script.aggregator;
+
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction.SlidingWindow;
+
+/**
+ * Sliding window retaining the datapoint with the highest (or lowest) value,
+ * the one with the oldest tick winning ties as in Max and Min.
+ * 
+ * Candidates are kept in a monotonic deque of indices, each index is
+ * added and removed at most once so updates are amortized O(1).
+ */
+class SlidingExtremum implements SlidingWindow {
+  
+  private final GeoTimeSerie gts;
+  private final boolean reversed;
+  private final boolean max;
+  private final boolean isLong;
+  
+  private int[] deque = new int[16];
+  private int head = 0;
+  private int size = 0;
+  
+  /**
+   * @param gts GTS of type LONG or DOUBLE, sorted by ascending ticks
+   * @param reversed Whether indices are added in decreasing order
+   * @param max If true retain the highest value, otherwise the lowest one
+   */
+  SlidingExtremum(GeoTimeSerie gts, boolean reversed, boolean max) {
+    this.gts = gts;
+    this.reversed = reversed;
+    this.max = max;
+    this.isLong = TYPE.LONG == gts.getType();
+  }
+  
+  /**
+   * Compare the values at two indices, a positive result means
+   * the value at 'a' should be retained over that at 'b'.
+   */
+  private int compare(int a, int b) {
+    int cmp;
+    
+    if (isLong) {
+      cmp = Long.compare(GTSHelper.longValueAtIndex(gts, a), GTSHelper.longValueAtIndex(gts, b));
+    } else {
+      cmp = Double.compare(GTSHelper.doubleValueAtIndex(gts, a), GTSHelper.doubleValueAtIndex(gts, b));
+    }
+    
+    return max ? cmp : -cmp;
+  }
+  
+  private int first() {
+    return deque[head];
+  }
+  
+  private int last() {
+    return deque[(head + size - 1) & (deque.length - 1)];
+  }
+  
+  private void grow() {
+    int[] newdeque = new int[deque.length << 1];
+    for (int i = 0; i < size; i++) {
+      newdeque[i] = deque[(head + i) & (deque.length - 1)];
+    }
+    deque = newdeque;
+    head = 0;
+  }
+  
+  @Override
+  public void add(int idx) {
+    if (!reversed) {
+      //
+      // 'idx' is the most recent datapoint, it evicts the candidates with a strictly
+      // worse value as it will remain in the window longer than they will
+      //
+      while (size > 0 && compare(idx, last()) > 0) {
+        size--;
+      }
+      if (size == deque.length) {
+        grow();
+      }
+      deque[(head + size) & (deque.length - 1)] = idx;
+      size++;
+    } else {
+      //
+      // 'idx' is the oldest datapoint, it evicts the candidates with a worse or
+      // equal value as it will remain in the window longer and wins ties
+      //
+      while (size > 0 && compare(first(), idx) <= 0) {
+        head = (head + 1) & (deque.length - 1);
+        size--;
+      }
+      if (size == deque.length) {
+        grow();
+      }
+      head = (head - 1) & (deque.length - 1);
+      deque[head] = idx;
+      size++;
+    }
+  }
+  
+  @Override
+  public void remove(int idx) {
+    if (0 == size) {
+      return;
+    }
+    
+    if (!reversed) {
+      if (idx == first()) {
+        head = (head + 1) & (deque.length - 1);
+        size--;
+      }
+    } else {
+      if (idx == last()) {
+        size--;
+      }
+    }
+  }
+  
+  @Override
+  public void clear() {
+    head = 0;
+    size = 0;
+  }
+  
+  @Override
+  public Object[] getResult(long tick, int from, int to) {
+    if (0 == size) {
+      return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+    }
+    
+    //
+    // The retained datapoint is the one which will leave the window first
+    //
+    int idx = reversed ? last() : first();
+    
+    Object value;
+    
+    if (isLong) {
+      value = GTSHelper.longValueAtIndex(gts, idx);
+    } else {
+      value = GTSHelper.doubleValueAtIndex(gts, idx);
+    }
+    
+    return new Object[] { GTSHelper.tickAtIndex(gts, idx), GTSHelper.locationAtIndex(gts, idx), GTSHelper.elevationAtIndex(gts, idx), value };
+  }
+}
@@ -16,20 +16,23 @@
 
 package io.warp10.script.aggregator;
 
+import io.warp10.continuum.gts.GTSHelper;
 import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
 import io.warp10.script.NamedWarpScriptFunction;
 import io.warp10.script.WarpScriptAggregatorFunction;
 import io.warp10.script.WarpScriptBucketizerFunction;
-import io.warp10.script.WarpScriptMapperFunction;
+import io.warp10.script.WarpScriptSlidingWindowMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
+import io.warp10.script.WarpScriptTypedAggregatorFunction;
 
 /**
  * Return the sum of measures with elevation and location from
  * the latest measure.
  */
-public class Sum extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class Sum extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptSlidingWindowMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptThreadSafeFunction, WarpScriptTypedAggregatorFunction {
   
   private final boolean ignoreNulls;
   
@@ -111,4 +114,102 @@ public class Sum extends NamedWarpScriptFunction implements WarpScriptAggregator
     
     return new Object[] { 0L, location, elevation, sum };    
   }
+  
+  @Override
+  public boolean aggregate(long tick, long[] ticks, long[] locations, long[] elevations, long[] longs, double[] doubles, int offset, int length, Object[] result) {
+    //
+    // Location and elevation are those of the first datapoint with the latest tick
+    //
+    
+    int latest = offset;
+    
+    for (int i = offset + 1; i < offset + length; i++) {
+      if (ticks[i] > ticks[latest]) {
+        latest = i;
+      }
+    }
+    
+    if (null != longs) {
+      long suml = longs[offset];
+      for (int i = offset + 1; i < offset + length; i++) {
+        suml += longs[i];
+      }
+      result[3] = suml;
+    } else {
+      double sumd = doubles[offset];
+      for (int i = offset + 1; i < offset + length; i++) {
+        sumd += doubles[i];
+      }
+      result[3] = sumd;
+    }
+    
+    result[0] = 0L;
+    result[1] = null == locations ? GeoTimeSerie.NO_LOCATION : locations[latest];
+    result[2] = null == elevations ? GeoTimeSerie.NO_ELEVATION : elevations[latest];
+    
+    return true;
+  }
+  
+  @Override
+  public SlidingWindow newWindow(final GeoTimeSerie gts, boolean reversed) {
+    //
+    // Only numeric GTS are handled incrementally
+    //
+    if (TYPE.LONG != gts.getType() && TYPE.DOUBLE != gts.getType()) {
+      return null;
+    }
+
+    final boolean isLong = TYPE.LONG == gts.getType();
+    
+    return new SlidingWindow() {
+      
+      // Long sums wrap around, so additions and subtractions remain exact
+      private long suml = 0L;
+      private final SlidingDoubleSum sumd = new SlidingDoubleSum(gts);
+      
+      @Override
+      public void add(int idx) {
+        if (isLong) {
+          suml += GTSHelper.longValueAtIndex(gts, idx);
+        } else {
+          sumd.add(idx);
+        }
+      }
+      
+      @Override
+      public void remove(int idx) {
+        if (isLong) {
+          suml -= GTSHelper.longValueAtIndex(gts, idx);
+        } else {
+          sumd.remove(idx);
+        }
+      }
+      
+      @Override
+      public void clear() {
+        suml = 0L;
+        sumd.clear();
+      }
+      
+      @Override
+      public Object[] getResult(long tick, int from, int to) {
+        if (from >= to) {
+          return new Object[] { Long.MAX_VALUE, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, null };
+        }
+        
+        //
+        // Location and elevation are those of the first datapoint with the latest tick
+        //
+        
+        int latest = to - 1;
+        while (latest > from && GTSHelper.tickAtIndex(gts, latest - 1) == GTSHelper.tickAtIndex(gts, to - 1)) {
+          latest--;
+        }
+        
+        Object sum = isLong ? (Object) suml : (Object) sumd.get(from, to);
+        
+        return new Object[] { 0L, GTSHelper.locationAtIndex(gts, latest), GTSHelper.elevationAtIndex(gts, latest), sum };
+      }
+    };
+  }
 }
@@ -25,6 +25,7 @@ import io.warp10.script.WarpScriptBucketizerFunction;
 import io.warp10.script.WarpScriptMapperFunction;
 import io.warp10.script.WarpScriptReducerFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 /**
  * Compute the vertical speed from oldest tick to most recent, in m/s.
@@ -32,7 +33,7 @@ import io.warp10.script.WarpScriptException;
  * If one of those two ticks does not have an elevation, returned value is null.
  * Returned location and elevation are those of the tick being computed.
  */
-public class VSpeed extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction {
+public class VSpeed extends NamedWarpScriptFunction implements WarpScriptAggregatorFunction, WarpScriptMapperFunction, WarpScriptBucketizerFunction, WarpScriptReducerFunction, WarpScriptThreadSafeFunction {
   
   public VSpeed(String name) {
     super(name);
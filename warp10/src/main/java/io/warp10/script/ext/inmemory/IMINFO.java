@@ -6,6 +6,9 @@ import io.warp10.script.NamedWarpScriptFunction;
 import io.warp10.script.WarpScriptStack;
 import io.warp10.script.WarpScriptStackFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.standalone.StandaloneChunkedMemoryStore;
+import io.warp10.standalone.Warp;
+
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Properties;
@@ -35,15 +38,32 @@ public class IMINFO extends NamedWarpScriptFunction implements WarpScriptStackFu
             String chunkDurationStr = warpConfigProperties.getProperty(Configuration.IN_MEMORY_CHUNK_LENGTH);
             infos.put("chunkDuration", Long.parseLong(chunkDurationStr));
         }
+        infos.put("isOffHeap", "true".equals(warpConfigProperties.getProperty(Configuration.IN_MEMORY_OFFHEAP)));
     }
 
     @Override
     public Object apply(WarpScriptStack stack) throws WarpScriptException {
 
         long uptime = System.currentTimeMillis() - this.startTime;
-        this.infos.put("uptime", uptime * Constants.TIME_UNITS_PER_MS);
 
-        stack.push(this.infos);
+        Map<String,Object> infos = new HashMap<String, Object>(this.infos);
+        infos.put("uptime", uptime * Constants.TIME_UNITS_PER_MS);
+
+        //
+        // Add the size of the chunked store, datapoints and bytes are those of the last gc run
+        //
+
+        StandaloneChunkedMemoryStore store = Warp.getChunkedMemoryStore();
+
+        if (null != store) {
+            infos.put("gts", store.getGTSCount());
+            infos.put("datapoints", store.getDatapoints());
+            infos.put("bytes", store.getSize());
+            infos.put("offHeapAllocated", store.getOffHeapAllocated());
+            infos.put("offHeapUsed", store.getOffHeapUsed());
+        }
+
+        stack.push(infos);
         return stack;
     }
 }
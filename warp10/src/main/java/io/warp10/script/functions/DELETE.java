@@ -24,6 +24,7 @@ import io.warp10.script.NamedWarpScriptFunction;
 import io.warp10.script.WarpScriptException;
 import io.warp10.script.WarpScriptStack;
 import io.warp10.script.WarpScriptStackFunction;
+import io.warp10.standalone.StandaloneLocalWriter;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -125,6 +126,18 @@ public class DELETE extends NamedWarpScriptFunction implements WarpScriptStackFu
         }
       }
 
+      //
+      // If the endpoint is the local standalone instance, select and delete the GTS directly,
+      // the selected GTS are checked against the expected count before anything is deleted
+      //
+      
+      StandaloneLocalWriter writer = StandaloneLocalWriter.getLocalWriter(url, Constants.API_ENDPOINT_DELETE);
+      
+      if (null != writer) {
+        stack.push(writer.delete(token, selector, start, end, expected));
+        return stack;
+      }
+      
       StringBuilder qsurl = new StringBuilder(url.toString());
       
       if (null == url.getQuery()) {
@@ -25,6 +25,7 @@ import io.warp10.script.NamedWarpScriptFunction;
 import io.warp10.script.WarpScriptException;
 import io.warp10.script.WarpScriptStack;
 import io.warp10.script.WarpScriptStackFunction;
+import io.warp10.standalone.StandaloneLocalWriter;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -118,6 +119,17 @@ public class META extends NamedWarpScriptFunction implements WarpScriptStackFunc
         }
       }
 
+      //
+      // If the endpoint is the local standalone instance, update the directory directly
+      //
+      
+      StandaloneLocalWriter writer = StandaloneLocalWriter.getLocalWriter(url, Constants.API_ENDPOINT_META);
+      
+      if (null != writer) {
+        writer.meta(token, series);
+        return stack;
+      }
+      
       /*
       if (null == this.proxy) {
         conn = (HttpURLConnection) this.url.openConnection();
@@ -23,6 +23,7 @@ import io.warp10.script.WarpScriptLib;
 import io.warp10.script.WarpScriptReducerFunction;
 import io.warp10.script.WarpScriptStack;
 import io.warp10.script.WarpScriptStackFunction;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 /**
  * Wrap a Reducer so it is only applied if there are no missing (null) values for a given tick
@@ -33,7 +34,7 @@ public class STRICTREDUCER extends NamedWarpScriptFunction implements WarpScript
     super(name);
   }
   
-  private static final class StringentReducer extends NamedWarpScriptFunction implements WarpScriptReducerFunction {
+  private static class StringentReducer extends NamedWarpScriptFunction implements WarpScriptReducerFunction {
     
     private final WarpScriptReducerFunction reducer;
     
@@ -72,6 +73,15 @@ public class STRICTREDUCER extends NamedWarpScriptFunction implements WarpScript
     }
   }
   
+  /**
+   * StringentReducer wrapping a thread safe reducer
+   */
+  private static final class ThreadSafeStringentReducer extends StringentReducer implements WarpScriptThreadSafeFunction {
+    public ThreadSafeStringentReducer(String name, WarpScriptReducerFunction reducer) {
+      super(name, reducer);
+    }
+  }
+  
   @Override
   public Object apply(WarpScriptStack stack) throws WarpScriptException {
     Object o = stack.pop();
@@ -82,7 +92,11 @@ public class STRICTREDUCER extends NamedWarpScriptFunction implements WarpScript
     
     WarpScriptReducerFunction reducer = (WarpScriptReducerFunction) o;
     
-    stack.push(new StringentReducer(getName(), reducer));
+    if (reducer instanceof WarpScriptThreadSafeFunction) {
+      stack.push(new ThreadSafeStringentReducer(getName(), reducer));
+    } else {
+      stack.push(new StringentReducer(getName(), reducer));
+    }
     
     return stack;
   }
@@ -26,6 +26,7 @@ import io.warp10.script.NamedWarpScriptFunction;
 import io.warp10.script.WarpScriptException;
 import io.warp10.script.WarpScriptStack;
 import io.warp10.script.WarpScriptStackFunction;
+import io.warp10.standalone.StandaloneLocalWriter;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -163,6 +164,17 @@ public class UPDATE extends NamedWarpScriptFunction implements WarpScriptStackFu
         }
       }
 
+      //
+      // If the endpoint is the local standalone instance, hand the data directly to it
+      //
+      
+      StandaloneLocalWriter writer = StandaloneLocalWriter.getLocalWriter(url, Constants.API_ENDPOINT_UPDATE);
+      
+      if (null != writer) {
+        writer.update(token, series, encoders);
+        return stack;
+      }
+      
       /*
       if (null == this.proxy) {
         conn = (HttpURLConnection) this.url.openConnection();
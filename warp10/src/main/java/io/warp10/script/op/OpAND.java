@@ -20,13 +20,14 @@ import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.script.NamedWarpScriptFunction;
 import io.warp10.script.WarpScriptNAryFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 import java.util.Map;
 
 /**
  * AND values from multiple time series. The elevation and location are cleared.
  */
-public class OpAND extends NamedWarpScriptFunction implements WarpScriptNAryFunction {
+public class OpAND extends NamedWarpScriptFunction implements WarpScriptNAryFunction, WarpScriptThreadSafeFunction {
   
   /**
    * Should 'null' values (i.e. missing) be forbidden or ignored
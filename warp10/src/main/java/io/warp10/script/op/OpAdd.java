@@ -20,13 +20,14 @@ import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.script.NamedWarpScriptFunction;
 import io.warp10.script.WarpScriptNAryFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 import java.util.Map;
 
 /**
  * Add values from multiple time series. The elevation and location are cleared.
  */
-public class OpAdd extends NamedWarpScriptFunction implements WarpScriptNAryFunction {
+public class OpAdd extends NamedWarpScriptFunction implements WarpScriptNAryFunction, WarpScriptThreadSafeFunction {
   
   private final boolean forbidNulls;
   
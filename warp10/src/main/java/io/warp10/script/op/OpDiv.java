@@ -20,13 +20,14 @@ import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.script.NamedWarpScriptFunction;
 import io.warp10.script.WarpScriptNAryFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 import java.util.Map;
 
 /**
  * Perform a division from two time series. The elevation and location are cleared.
  */
-public class OpDiv extends NamedWarpScriptFunction implements WarpScriptNAryFunction {
+public class OpDiv extends NamedWarpScriptFunction implements WarpScriptNAryFunction, WarpScriptThreadSafeFunction {
   
   public OpDiv(String name) {
     super(name);
@@ -20,6 +20,7 @@ import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.script.NamedWarpScriptFunction;
 import io.warp10.script.WarpScriptNAryFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 import java.util.HashSet;
 import java.util.Map;
@@ -28,7 +29,7 @@ import java.util.Set;
 /**
  * Checks values from N time series for equality. The elevation and location are cleared.
  */
-public class OpEQ extends NamedWarpScriptFunction implements WarpScriptNAryFunction {
+public class OpEQ extends NamedWarpScriptFunction implements WarpScriptNAryFunction, WarpScriptThreadSafeFunction {
   
   public OpEQ(String name) {
     super(name);
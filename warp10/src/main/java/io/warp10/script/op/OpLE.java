@@ -20,6 +20,7 @@ import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.script.NamedWarpScriptFunction;
 import io.warp10.script.WarpScriptNAryFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 import java.util.HashSet;
 import java.util.Map;
@@ -28,7 +29,7 @@ import java.util.Set;
 /**
  * Checks that values from N time series are <= to each other (in the order they are passed). The elevation and location are cleared.
  */
-public class OpLE extends NamedWarpScriptFunction implements WarpScriptNAryFunction {
+public class OpLE extends NamedWarpScriptFunction implements WarpScriptNAryFunction, WarpScriptThreadSafeFunction {
   
   public OpLE(String name) {
     super(name);
@@ -20,6 +20,7 @@ import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.script.NamedWarpScriptFunction;
 import io.warp10.script.WarpScriptNAryFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 import java.util.Map;
 
@@ -29,7 +30,7 @@ import java.util.Map;
  * the location/elevation/value of the second serie, otherwise
  * output null (i.e. no value)
  */
-public class OpMask extends NamedWarpScriptFunction implements WarpScriptNAryFunction {
+public class OpMask extends NamedWarpScriptFunction implements WarpScriptNAryFunction, WarpScriptThreadSafeFunction {
   
   private final boolean negated;
   
@@ -20,13 +20,14 @@ import io.warp10.continuum.gts.GeoTimeSerie;
 import io.warp10.script.NamedWarpScriptFunction;
 import io.warp10.script.WarpScriptNAryFunction;
 import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptThreadSafeFunction;
 
 import java.util.Map;
 
 /**
  * OR values from multiple time series. The elevation and location are cleared.
  */
-public class OpOR extends NamedWarpScriptFunction implements WarpScriptNAryFunction {
+public class OpOR extends NamedWarpScriptFunction implements WarpScriptNAryFunction, WarpScriptThreadSafeFunction {
   
   /**
    * Should we ignore nulls (false) or forbid them (true)
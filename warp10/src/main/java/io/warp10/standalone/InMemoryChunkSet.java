@@ -17,11 +17,12 @@
 package io.warp10.standalone;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.BitSet;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import io.warp10.CapacityExtractorOutputStream;
 import io.warp10.continuum.TimeSource;
@@ -30,6 +31,18 @@ import io.warp10.continuum.gts.GTSEncoder;
 import io.warp10.continuum.sensision.SensisionConstants;
 import io.warp10.sensision.Sensision;
 
+/**
+ * Set of chunks holding the datapoints of a GTS.
+ * 
+ * Each chunk is guarded by its own lock, so writers storing data in different chunks
+ * do not contend. Readers only lock a chunk the time needed to extract a decoder
+ * from it and then decode a snapshot of the chunk without blocking writers.
+ * 
+ * When an OffHeapSlabAllocator is specified, the encoded datapoints of the chunks are
+ * periodically moved to off heap buffers, only the datapoints added since the last transfer
+ * are kept on heap. Readers decode the off heap buffers directly, the buffers are pinned
+ * while they are read so they are not freed and reused under their feet.
+ */
 public class InMemoryChunkSet {
   /**
    * Maximum number of wasted bytes per encoder returned by fetch. Any waste above this limit
@@ -37,22 +50,262 @@ public class InMemoryChunkSet {
    */
   private static final int ENCODER_MAX_WASTED = 1024;
   
-  private final GTSEncoder[] chunks;
-  
   /**
-   * End timestamp of each chunk
+   * Number of encoded bytes above which the data of an off heap chunk is moved off heap.
    */
-  private final long[] chunkends;
+  private static final int OFFHEAP_TRANSFER_THRESHOLD = 256;
   
-  /**
-   * Flags indicating if timestamps are increasingly monotonic
-   */
-  private final BitSet chronological;
+  private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+  
+  private static final class Chunk {
+    /**
+     * Encoder holding the chunk data, or for off heap chunks the data not yet transferred to 'buffer'
+     */
+    private final GTSEncoder encoder = new GTSEncoder(0L);
+    
+    /**
+     * End timestamp of the chunk
+     */
+    private final long end;
+    
+    /**
+     * Last timestamp encountered in the chunk
+     */
+    private long lasttimestamp;
+    
+    /**
+     * Flag indicating if timestamps are increasingly monotonic. The flag is cleared
+     * before an out of order datapoint is added to the encoder, so a reader checking it
+     * after having extracted a decoder will never consider out of order data as chronological.
+     */
+    private volatile boolean chronological = true;
+    
+    /**
+     * Allocator of the off heap buffers, null if the chunk is kept on heap
+     */
+    private final OffHeapSlabAllocator allocator;
+    
+    /**
+     * Off heap buffer containing the data transferred from 'encoder', its position is the end of the data
+     */
+    private ByteBuffer buffer = null;
+    
+    /**
+     * Off heap buffers replaced while being read, they will be freed once there are no more readers
+     */
+    private List<ByteBuffer> retired = null;
+    
+    /**
+     * Number of readers currently decoding 'buffer'
+     */
+    private int readers = 0;
+    
+    /**
+     * Flag set when the chunk was dropped, no data can be added to it afterwards
+     */
+    private boolean dropped = false;
+    
+    private Chunk(long end, long chunklen, OffHeapSlabAllocator allocator) {
+      this.end = end;
+      this.lasttimestamp = end - chunklen;
+      this.allocator = allocator;
+    }
+    
+    private synchronized void addValue(GTSDecoder decoder) throws IOException {
+      // The chunk was dropped after the writer retrieved it, the datapoint is lost as it would have been with the chunk
+      if (this.dropped) {
+        return;
+      }
+      
+      long timestamp = decoder.getTimestamp();
+      
+      if (timestamp < this.lasttimestamp) {
+        this.chronological = false;
+      }
+      this.lasttimestamp = timestamp;
+      
+      this.encoder.addValue(decoder);
+      
+      if (null != this.allocator && this.encoder.size() >= OFFHEAP_TRANSFER_THRESHOLD) {
+        transfer();
+      }
+    }
+    
+    /**
+     * Move the data of the encoder to the off heap buffer, growing it if needed.
+     * MUST be called with the chunk lock held.
+     */
+    private void transfer() throws IOException {
+      int size = this.encoder.size();
+      
+      if (0 == size || this.dropped) {
+        return;
+      }
+      
+      if (null == this.buffer || this.buffer.remaining() < size) {
+        int used = null == this.buffer ? 0 : this.buffer.position();
+        
+        ByteBuffer newbuffer = this.allocator.allocate(Math.max(used + size, 2 * used));
+        
+        if (null != this.buffer) {
+          ByteBuffer bb = this.buffer.duplicate();
+          bb.flip();
+          newbuffer.put(bb);
+          retire(this.buffer);
+        }
+        
+        this.buffer = newbuffer;
+      }
+      
+      this.encoder.transferTo(this.buffer);
+    }
+    
+    private void retire(ByteBuffer bb) {
+      if (0 == this.readers) {
+        this.allocator.free(bb);
+      } else {
+        if (null == this.retired) {
+          this.retired = new ArrayList<ByteBuffer>();
+        }
+        this.retired.add(bb);
+      }
+    }
+    
+    /**
+     * Return a decoder on a snapshot of the chunk data. For off heap chunks the
+     * data is pinned until 'release' is called.
+     */
+    private synchronized GTSDecoder acquire() throws IOException {
+      if (null == this.allocator) {
+        return this.encoder.getUnsafeDecoder(false);
+      }
+      
+      transfer();
+      
+      this.readers++;
+      
+      // The data of a dropped chunk is no longer visible
+      if (this.dropped || null == this.buffer) {
+        GTSDecoder decoder = new GTSDecoder(0L, null, EMPTY_BUFFER.duplicate());
+        decoder.setCount(0L);
+        return decoder;
+      }
+      
+      ByteBuffer bb = this.buffer.duplicate();
+      bb.flip();
+      
+      GTSDecoder decoder = new GTSDecoder(0L, null, bb);
+      decoder.setCount(this.encoder.getCount());
+      
+      return decoder;
+    }
+    
+    private synchronized void release() {
+      if (null == this.allocator) {
+        return;
+      }
+      
+      this.readers--;
+      
+      if (this.readers > 0) {
+        return;
+      }
+      
+      if (null != this.retired) {
+        for (ByteBuffer bb: this.retired) {
+          this.allocator.free(bb);
+        }
+        this.retired = null;
+      }
+      
+      if (this.dropped && null != this.buffer) {
+        this.allocator.free(this.buffer);
+        this.buffer = null;
+      }
+    }
+    
+    /**
+     * Mark the chunk as dropped and free its off heap buffer unless it is being read.
+     */
+    private synchronized void drop() {
+      this.dropped = true;
+      
+      if (null != this.allocator && 0 == this.readers && null != this.buffer) {
+        this.allocator.free(this.buffer);
+        this.buffer = null;
+      }
+    }
+    
+    /**
+     * Return the number of bytes of encoded data in the chunk
+     */
+    private synchronized long size() {
+      return (null != this.buffer ? this.buffer.position() : 0) + this.encoder.size();
+    }
+    
+    /**
+     * Shrink the storage of the chunk.
+     * 
+     * @return The number of bytes reclaimed
+     */
+    private synchronized long optimize(CapacityExtractorOutputStream out, AtomicLong allocation) throws IOException {
+      if (null == this.allocator) {
+        int size = this.encoder.size();
+        
+        this.encoder.writeTo(out);
+        int capacity = out.getCapacity();
+        
+        if (capacity > size) {
+          this.encoder.resize(size);
+          allocation.addAndGet(size);
+          return capacity - size;
+        }
+        
+        return 0L;
+      }
+      
+      transfer();
+      
+      if (null == this.buffer) {
+        return 0L;
+      }
+      
+      //
+      // Move the data to a smaller buffer if it fits in a buffer at most half the capacity of the current one
+      //
+      
+      int capacity = this.buffer.capacity();
+      int size = this.buffer.position();
+      
+      if (size > capacity / 2) {
+        return 0L;
+      }
+      
+      ByteBuffer newbuffer = this.allocator.allocate(size);
+      
+      if (newbuffer.capacity() >= capacity) {
+        this.allocator.free(newbuffer);
+        return 0L;
+      }
+      
+      ByteBuffer bb = this.buffer.duplicate();
+      bb.flip();
+      newbuffer.put(bb);
+      retire(this.buffer);
+      this.buffer = newbuffer;
+      
+      allocation.addAndGet(newbuffer.capacity());
+      
+      return capacity - newbuffer.capacity();
+    }
+  }
+  
+  private final AtomicReferenceArray<Chunk> chunks;
   
   /**
-   * Last timestamp encountered in a chunk
+   * Allocator for the off heap buffers, null if chunks are kept on heap
    */
-  private final long[] lasttimestamp;
+  private final OffHeapSlabAllocator allocator;
   
   /**
    * Length of chunks in time units
@@ -65,12 +318,14 @@ public class InMemoryChunkSet {
   private final int chunkcount;
   
   public InMemoryChunkSet(int chunkcount, long chunklen) {
-    this.chunks = new GTSEncoder[chunkcount];
-    this.chunkends = new long[chunkcount];
-    this.chronological = new BitSet(chunkcount);
-    this.lasttimestamp = new long[chunkcount];
+    this(chunkcount, chunklen, null);
+  }
+  
+  public InMemoryChunkSet(int chunkcount, long chunklen, OffHeapSlabAllocator allocator) {
+    this.chunks = new AtomicReferenceArray<Chunk>(chunkcount);
     this.chunklen = chunklen;
     this.chunkcount = chunkcount;
+    this.allocator = allocator;
   }
   
   /**
@@ -90,7 +345,7 @@ public class InMemoryChunkSet {
     
     int lastchunk = -1;
 
-    GTSEncoder chunkEncoder = null;
+    Chunk chunk = null;
 
     while(decoder.next()) {
       long timestamp = decoder.getTimestamp();
@@ -104,32 +359,33 @@ public class InMemoryChunkSet {
       int chunkid = chunk(timestamp);
     
       if (chunkid != lastchunk) {
-        chunkEncoder = null;
-      
-        synchronized(this.chunks) {
+        while(true) {
+          chunk = this.chunks.get(chunkid);
+          
           // Is the chunk non existent or has expired?
-          if (null == this.chunks[chunkid] || this.chunkends[chunkid] < firstChunkStart) {
-            long end = chunkEnd(timestamp);
-            this.chunks[chunkid] = new GTSEncoder(0L);
-            this.lasttimestamp[chunkid] = end - this.chunklen;
-            this.chronological.set(chunkid);
-            this.chunkends[chunkid] = end;          
+          if (null != chunk && chunk.end >= firstChunkStart) {
+            break;
           }
           
-          chunkEncoder = this.chunks[chunkid];          
+          Chunk newchunk = new Chunk(chunkEnd(timestamp), this.chunklen, this.allocator);
+          
+          // Another writer may have replaced the chunk concurrently, in which case we use its chunk
+          if (this.chunks.compareAndSet(chunkid, chunk, newchunk)) {
+            // Free the off heap storage of the expired chunk we replaced
+            if (null != chunk) {
+              chunk.drop();
+            }
+            chunk = newchunk;
+            break;
+          }
+
+          newchunk.drop();
         }
         
         lastchunk = chunkid;
       }
 
-      synchronized(this.chunks[chunkid]) {
-        if (timestamp < this.lasttimestamp[chunkid]) {
-          this.chronological.set(chunkid, false);
-        }
-        this.lasttimestamp[chunkid] = timestamp;
-      }
-      
-      chunkEncoder.addValue(timestamp, decoder.getLocation(), decoder.getElevation(), decoder.getValue());      
+      chunk.addValue(decoder);
     }
   }
   
@@ -200,16 +456,35 @@ public class InMemoryChunkSet {
     return fetch(now, timespan, null);
   }
   
-  public List<GTSDecoder> getDecoders() {
+  /**
+   * Return decoders on the content of each chunk. The content of off heap chunks is
+   * copied on heap as their buffers may be freed once the decoders are returned.
+   */
+  public List<GTSDecoder> getDecoders() throws IOException {
     List<GTSDecoder> decoders = new ArrayList<GTSDecoder>();
     
-    synchronized (this.chunks) {
-      for (int i = 0; i < this.chunks.length; i++) {
-        if (null == this.chunks[i]) {
-          continue;
+    for (int i = 0; i < this.chunkcount; i++) {
+      Chunk chunk = this.chunks.get(i);
+      if (null == chunk) {
+        continue;
+      }
+      
+      GTSDecoder decoder = chunk.acquire();
+      
+      if (null != this.allocator) {
+        try {
+          ByteBuffer bb = decoder.getBuffer();
+          byte[] data = new byte[bb.remaining()];
+          bb.get(data);
+          long count = decoder.getCount();
+          decoder = new GTSDecoder(0L, ByteBuffer.wrap(data));
+          decoder.setCount(count);
+        } finally {
+          chunk.release();
         }
-        decoders.add(this.chunks[i].getUnsafeDecoder(false));
       }
+      
+      decoders.add(decoder);
     }
     
     return decoders;
@@ -234,35 +509,33 @@ public class InMemoryChunkSet {
     GTSEncoder encoder = new GTSEncoder(0L);
     
     for (int i = 0; i < this.chunkcount; i++) {
-      int chunk = (nowchunk - i) % this.chunkcount;
-      
-      GTSDecoder chunkDecoder = null;
+      Chunk chunk = this.chunks.get((nowchunk - i) % this.chunkcount);
       
-      synchronized(this.chunks) {
-        // Ignore a given chunk if it does not intersect our current range
-        if (this.chunkends[chunk] < firstTimestamp || (this.chunkends[chunk] - this.chunklen) >= now) {
-          continue;
-        }
-        
-        // Extract a decoder to scan the chunk
-        if (null != this.chunks[chunk]) {
-          chunkDecoder = this.chunks[chunk].getUnsafeDecoder(false);
-        }
+      if (null == chunk) {
+        continue;
       }
       
-      if (null == chunkDecoder) {
+      // Ignore a given chunk if it does not intersect our current range
+      if (chunk.end < firstTimestamp || (chunk.end - this.chunklen) >= now) {
         continue;
       }
       
-      // Merge the data from chunkDecoder which is in the requested range in 'encoder'
-      while(chunkDecoder.next()) {
-        long ts = chunkDecoder.getTimestamp();
-        
-        if (ts > now || ts < firstTimestamp) {
-          continue;
+      // Extract a decoder to scan the chunk
+      GTSDecoder chunkDecoder = chunk.acquire();
+      
+      try {
+        // Merge the data from chunkDecoder which is in the requested range in 'encoder'
+        while(chunkDecoder.next()) {
+          long ts = chunkDecoder.getTimestamp();
+          
+          if (ts > now || ts < firstTimestamp) {
+            continue;
+          }
+          
+          encoder.addValue(chunkDecoder);
         }
-        
-        encoder.addValue(ts, chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getValue());
+      } finally {
+        chunk.release();
       }
     }
 
@@ -303,187 +576,183 @@ try {
         break;
       }
             
-      int chunk = (nowchunk - i) % this.chunkcount;
-      
-      GTSDecoder chunkDecoder = null;
-      boolean inorder = true;
-      long chunkEnd = -1;
+      Chunk chunk = this.chunks.get((nowchunk - i) % this.chunkcount);
       
-      synchronized(this.chunks) {
-        // Ignore a given chunk if it is after 'now'
-        if (this.chunkends[chunk] - this.chunklen >= now) {
-          continue;
-        }
-        
-        // Extract a decoder to scan the chunk
-        if (null != this.chunks[chunk]) {
-          chunkDecoder = this.chunks[chunk].getUnsafeDecoder(false);
-          inorder = this.chronological.get(chunk);
-          chunkEnd = this.chunkends[chunk];
-        }
+      if (null == chunk) {
+        continue;
       }
       
-      if (null == chunkDecoder) {
+      // Ignore a given chunk if it is after 'now'
+      if (chunk.end - this.chunklen >= now) {
         continue;
       }
       
-      // We now have a chunk, we will treat it differently depending if
-      // it is in chronological order or not
+      // Extract a decoder to scan the chunk, the flag MUST be read after the decoder was extracted
+      GTSDecoder chunkDecoder = chunk.acquire();
+      boolean inorder = chunk.chronological;
+      long chunkEnd = chunk.end;
       
-      if (inorder) {
+      try {
+        // We now have a chunk, we will treat it differently depending if
+        // it is in chronological order or not
+      
+        if (inorder) {
         
-        if (chunkEnd <= now && chunkDecoder.getCount() <= nvalues) {
-          //
-          // If the end timestamp of the chunk is before 'now' and the
-          // chunk contains less than the remaining values we need to fetch
-          // we can add everything.
-          //
-          while(chunkDecoder.next()) {
-            encoder.addValue(chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getValue());
-            nvalues--;
-          }
-        } else if (chunkDecoder.getCount() <= nvalues) {
-          //
-          // We have a chunk with chunkEnd > 'now' but which contains less than nvalues,
-          // so we add all the values whose timestamp is <= 'now'
-          //
-          while(chunkDecoder.next()) {
-            long ts = chunkDecoder.getTimestamp();
-            if (ts > now) {
-              // we can break because we know the encoder is in chronological order.
-              break;
-            }
-            encoder.addValue(ts, chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getValue());
-            nvalues--;
-          }          
-        } else {
-          //
-          // The chunk has more values than what we need.
-          // If the end of the chunk is <= now then we know we must skip count - nvalues and
-          // add the rest to the result.
-          // Otherwise it's a little trickier
-          //
-          
-          if (chunkEnd <= now) {
-            long skip = chunkDecoder.getCount() - nvalues;
-            while(skip > 0 && chunkDecoder.next()) {
-              skip--;
-            }
+          if (chunkEnd <= now && chunkDecoder.getCount() <= nvalues) {
+            //
+            // If the end timestamp of the chunk is before 'now' and the
+            // chunk contains less than the remaining values we need to fetch
+            // we can add everything.
+            //
             while(chunkDecoder.next()) {
-              encoder.addValue(chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getValue());
+              encoder.addValue(chunkDecoder);
               nvalues--;
-            }          
-          } else {            
-            // Duplicate the decoder so we can scan it again later
-            GTSDecoder dupdecoder = chunkDecoder.duplicate();
-            // We will count the number of datapoints whose timestamp is <= now
-            long valid = 0;
+            }
+          } else if (chunkDecoder.getCount() <= nvalues) {
+            //
+            // We have a chunk with chunkEnd > 'now' but which contains less than nvalues,
+            // so we add all the values whose timestamp is <= 'now'
+            //
             while(chunkDecoder.next()) {
               long ts = chunkDecoder.getTimestamp();
               if (ts > now) {
                 // we can break because we know the encoder is in chronological order.
                 break;
               }
-              valid++;
-            }
+              encoder.addValue(chunkDecoder);
+              nvalues--;
+            }          
+          } else {
+            //
+            // The chunk has more values than what we need.
+            // If the end of the chunk is <= now then we know we must skip count - nvalues and
+            // add the rest to the result.
+            // Otherwise it's a little trickier
+            //
+          
+            if (chunkEnd <= now) {
+              long skip = chunkDecoder.getCount() - nvalues;
+              while(skip > 0 && chunkDecoder.next()) {
+                skip--;
+              }
+              while(chunkDecoder.next()) {
+                encoder.addValue(chunkDecoder);
+                nvalues--;
+              }          
+            } else {            
+              // Duplicate the decoder so we can scan it again later
+              GTSDecoder dupdecoder = chunkDecoder.duplicate();
+              // We will count the number of datapoints whose timestamp is <= now
+              long valid = 0;
+              while(chunkDecoder.next()) {
+                long ts = chunkDecoder.getTimestamp();
+                if (ts > now) {
+                  // we can break because we know the encoder is in chronological order.
+                  break;
+                }
+                valid++;
+              }
             
-            chunkDecoder = dupdecoder;
-            long skip = valid - nvalues;
-            while(skip > 0 && chunkDecoder.next()) {
-              skip--;
-              valid--;
+              chunkDecoder = dupdecoder;
+              long skip = valid - nvalues;
+              while(skip > 0 && chunkDecoder.next()) {
+                skip--;
+                valid--;
+              }
+              while(valid > 0 && chunkDecoder.next()) {
+                encoder.addValue(chunkDecoder);
+                nvalues--;
+                valid--;
+              }                      
             }
-            while(valid > 0 && chunkDecoder.next()) {
-              encoder.addValue(chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getValue());
-              nvalues--;
-              valid--;
-            }                      
           }
-        }
-      } else {
-        // The chunk decoder is not in chronological order...
+        } else {
+          // The chunk decoder is not in chronological order...
         
-        // Create a duplicate of the buffer in case we need it later
-        GTSDecoder dupdecoder = chunkDecoder.duplicate();
+          // Create a duplicate of the buffer in case we need it later
+          GTSDecoder dupdecoder = chunkDecoder.duplicate();
                 
-        if (chunkEnd <= now && chunkDecoder.getCount() <= nvalues) {
-          //
-          // If the chunk decoder end is <= 'now' and the decoder contains less values than
-          // what is still needed, add everything.
-          //
-          while(chunkDecoder.next()) {
-            encoder.addValue(chunkDecoder.getTimestamp(), chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getValue());
-            nvalues--;
-          }          
-        } else if(chunkDecoder.getCount() <= nvalues) {
-          //
-          // We have a chunk with chunkEnd > 'now' but which contains less than nvalues,
-          // so we add all the values whose timestamp is <= 'now'
-          //
-          while(chunkDecoder.next()) {
-            long ts = chunkDecoder.getTimestamp();
-            if (ts > now) {
-              // we skip the value as the encoder is not in chronological order
-              continue;
-            }
-            encoder.addValue(ts, chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getValue());
-            nvalues--;
-          }          
-        } else {
-          // We have a chunk which has more values than what we need and/or whose end
-          // is after 'now'
-          // We will transfer the datapoints whose timestamp is <= now in an array so we can sort them
+          if (chunkEnd <= now && chunkDecoder.getCount() <= nvalues) {
+            //
+            // If the chunk decoder end is <= 'now' and the decoder contains less values than
+            // what is still needed, add everything.
+            //
+            while(chunkDecoder.next()) {
+              encoder.addValue(chunkDecoder);
+              nvalues--;
+            }          
+          } else if(chunkDecoder.getCount() <= nvalues) {
+            //
+            // We have a chunk with chunkEnd > 'now' but which contains less than nvalues,
+            // so we add all the values whose timestamp is <= 'now'
+            //
+            while(chunkDecoder.next()) {
+              long ts = chunkDecoder.getTimestamp();
+              if (ts > now) {
+                // we skip the value as the encoder is not in chronological order
+                continue;
+              }
+              encoder.addValue(chunkDecoder);
+              nvalues--;
+            }          
+          } else {
+            // We have a chunk which has more values than what we need and/or whose end
+            // is after 'now'
+            // We will transfer the datapoints whose timestamp is <= now in an array so we can sort them
           
-          long[] ticks = new long[(int) chunkDecoder.getCount()];
+            long[] ticks = new long[(int) chunkDecoder.getCount()];
 
-          int idx = 0;
+            int idx = 0;
           
-          while(chunkDecoder.next()) {
-            long ts = chunkDecoder.getTimestamp();
-            if (ts > now) {
-              continue;
-            }
+            while(chunkDecoder.next()) {
+              long ts = chunkDecoder.getTimestamp();
+              if (ts > now) {
+                continue;
+              }
             
-            ticks[idx++] = ts;
-          }
+              ticks[idx++] = ts;
+            }
           
-          if (idx > 1) {
-            Arrays.sort(ticks, 0, idx);
-          }
+            if (idx > 1) {
+              Arrays.sort(ticks, 0, idx);
+            }
         
-          chunkDecoder = dupdecoder;
+            chunkDecoder = dupdecoder;
           
-          // We must skip values whose timestamp is <= ticks[idx - nvalues]
+            // We must skip values whose timestamp is <= ticks[idx - nvalues]
           
-          if (idx > nvalues) {
-            long lowest = ticks[idx - (int) nvalues];
+            if (idx > nvalues) {
+              long lowest = ticks[idx - (int) nvalues];
             
-            while(chunkDecoder.next() && nvalues > 0) {
-              long ts = chunkDecoder.getTimestamp();
-              if (ts < lowest) {
-                continue;
-              }
-              encoder.addValue(ts, chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getValue());
-              nvalues--;
-            }                                  
-          } else {
-            // The intermediary decoder has less than nvalues whose ts is <= now, transfer everything
-            chunkDecoder = dupdecoder;
+              while(chunkDecoder.next() && nvalues > 0) {
+                long ts = chunkDecoder.getTimestamp();
+                if (ts < lowest) {
+                  continue;
+                }
+                encoder.addValue(chunkDecoder);
+                nvalues--;
+              }                                  
+            } else {
+              // The intermediary decoder has less than nvalues whose ts is <= now, transfer everything
+              chunkDecoder = dupdecoder;
             
-            int valid = idx;
+              int valid = idx;
             
-            while(valid > 0 && chunkDecoder.next()) {
-              long ts = chunkDecoder.getTimestamp();
-              if (ts > now) {
-                continue;
-              }
-              encoder.addValue(ts, chunkDecoder.getLocation(), chunkDecoder.getElevation(), chunkDecoder.getValue());
-              nvalues--;
-              valid--;
-            }                                              
+              while(valid > 0 && chunkDecoder.next()) {
+                long ts = chunkDecoder.getTimestamp();
+                if (ts > now) {
+                  continue;
+                }
+                encoder.addValue(chunkDecoder);
+                nvalues--;
+                valid--;
+              }                                              
+            }
           }
         }
-      }      
+      } finally {
+        chunk.release();
+      }
     }
         
     return encoder;
@@ -501,9 +770,10 @@ try {
   public long getCount() {
     long count = 0L;
     
-    for (GTSEncoder encoder: chunks) {
-      if (null != encoder) {
-        count += encoder.getCount();
+    for (int i = 0; i < this.chunkcount; i++) {
+      Chunk chunk = this.chunks.get(i);
+      if (null != chunk) {
+        count += chunk.encoder.getCount();
       }
     }
     
@@ -518,9 +788,10 @@ try {
   public long getSize() {
     long size = 0L;
     
-    for (GTSEncoder encoder: chunks) {
-      if (null != encoder) {
-        size += encoder.size();
+    for (int i = 0; i < this.chunkcount; i++) {
+      Chunk chunk = this.chunks.get(i);
+      if (null != chunk) {
+        size += chunk.size();
       }
     }
     
@@ -536,16 +807,17 @@ try {
     long cutoff = chunkEnd(now) - this.chunkcount * this.chunklen;
     int dropped = 0;
     long droppedDatapoints = 0L;
-    synchronized(this.chunks) {
-      for (int i = 0; i < this.chunks.length; i++) {
-        if (null == this.chunks[i]) {
-          continue;
-        }
-        if (this.chunkends[i] <= cutoff) {
-          droppedDatapoints += this.chunks[i].getCount();
-          this.chunks[i] = null;
-          dropped++;
-        }
+    for (int i = 0; i < this.chunkcount; i++) {
+      Chunk chunk = this.chunks.get(i);
+      if (null == chunk) {
+        continue;
+      }
+      // Only drop the chunk if it was not replaced in the meantime by a writer
+      if (chunk.end <= cutoff && this.chunks.compareAndSet(i, chunk, null)) {
+        droppedDatapoints += chunk.encoder.getCount();
+        // Free the off heap storage of the chunk
+        chunk.drop();
+        dropped++;
       }
     }
     
@@ -564,24 +836,16 @@ try {
     
     long reclaimed = 0L;
 
-    synchronized(this.chunks) {      
-      for (int i = 0; i < this.chunks.length; i++) {
-        if (null == this.chunks[i] || i == currentChunk) {
-          continue;
-        }
-        int size = this.chunks[i].size();
-        
-        try {
-          this.chunks[i].writeTo(out);
-          int capacity = out.getCapacity();
-          
-          if (capacity > size) {
-            this.chunks[i].resize(size);
-            allocation.addAndGet(size);
-            reclaimed += (capacity - size);
-          }          
-        } catch (IOException ioe) {          
-        }
+    for (int i = 0; i < this.chunkcount; i++) {
+      Chunk chunk = this.chunks.get(i);
+      
+      if (null == chunk || i == currentChunk) {
+        continue;
+      }
+      
+      try {
+        reclaimed += chunk.optimize(out, allocation);
+      } catch (IOException ioe) {          
       }
     }
     
@@ -0,0 +1,347 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Map of InMemoryChunkSet instances keyed by the classId and labelsId of
+ * the GTS they hold.
+ *
+ * The map is split in stripes, each stripe being an open addressing hash table
+ * protected by its own lock. Lookups are performed using optimistic reads and therefore
+ * do not block nor are blocked by concurrent modifications unless they hit a stripe
+ * which is being modified.
+ */
+class InMemoryChunkSetMap {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final Stripe[] stripes;
+
+  private final int stripeMask;
+
+  private static final class Table {
+    private final long[] classIds;
+    private final long[] labelsIds;
+    private final InMemoryChunkSet[] chunksets;
+    private final int mask;
+
+    private Table(int capacity) {
+      this.classIds = new long[capacity];
+      this.labelsIds = new long[capacity];
+      this.chunksets = new InMemoryChunkSet[capacity];
+      this.mask = capacity - 1;
+    }
+  }
+
+  private static final class Stripe {
+    private final StampedLock lock = new StampedLock();
+    private volatile Table table = new Table(INITIAL_CAPACITY);
+    private int size = 0;
+  }
+
+  /**
+   * @param concurrency Number of stripes, will be rounded up to the next power of 2.
+   */
+  public InMemoryChunkSetMap(int concurrency) {
+    int n = 1;
+    while (n < concurrency) {
+      n <<= 1;
+    }
+
+    this.stripes = new Stripe[n];
+    for (int i = 0; i < n; i++) {
+      this.stripes[i] = new Stripe();
+    }
+    this.stripeMask = n - 1;
+  }
+
+  private static long hash(long classId, long labelsId) {
+    long h = classId * 0x9E3779B97F4A7C15L + labelsId;
+    return h ^ (h >>> 29);
+  }
+
+  private Stripe stripe(long hash) {
+    return this.stripes[(int) hash & this.stripeMask];
+  }
+
+  /**
+   * Slot of a key in a table, the low bits of the hash select the stripe so we use the high ones.
+   */
+  private static int slot(long hash, int mask) {
+    return (int) (hash >>> 32) & mask;
+  }
+
+  public InMemoryChunkSet get(long classId, long labelsId) {
+    long hash = hash(classId, labelsId);
+    Stripe stripe = stripe(hash);
+
+    long stamp = stripe.lock.tryOptimisticRead();
+
+    if (0L != stamp) {
+      InMemoryChunkSet chunkset = lookup(stripe.table, hash, classId, labelsId);
+      if (stripe.lock.validate(stamp)) {
+        return chunkset;
+      }
+    }
+
+    //
+    // The stripe was modified while we were reading it, retry with a read lock
+    //
+
+    stamp = stripe.lock.readLock();
+    try {
+      return lookup(stripe.table, hash, classId, labelsId);
+    } finally {
+      stripe.lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Associate a chunk set with a GTS unless one is already associated with it.
+   *
+   * @return The chunk set currently associated with the GTS, i.e. 'chunkset' if there was none.
+   */
+  public InMemoryChunkSet putIfAbsent(long classId, long labelsId, InMemoryChunkSet chunkset) {
+    long hash = hash(classId, labelsId);
+    Stripe stripe = stripe(hash);
+
+    long stamp = stripe.lock.writeLock();
+
+    try {
+      Table table = stripe.table;
+
+      int idx = slot(hash, table.mask);
+
+      while (null != table.chunksets[idx]) {
+        if (classId == table.classIds[idx] && labelsId == table.labelsIds[idx]) {
+          return table.chunksets[idx];
+        }
+        idx = (idx + 1) & table.mask;
+      }
+
+      //
+      // Grow the table if it is more than half full
+      //
+
+      if (stripe.size + 1 > (table.mask + 1) >>> 1) {
+        table = grow(table);
+        stripe.table = table;
+        idx = slot(hash, table.mask);
+        while (null != table.chunksets[idx]) {
+          idx = (idx + 1) & table.mask;
+        }
+      }
+
+      table.classIds[idx] = classId;
+      table.labelsIds[idx] = labelsId;
+      table.chunksets[idx] = chunkset;
+      stripe.size++;
+
+      return chunkset;
+    } finally {
+      stripe.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Remove the chunk set associated with a GTS.
+   *
+   * @return The removed chunk set or null if there was none.
+   */
+  public InMemoryChunkSet remove(long classId, long labelsId) {
+    return remove(classId, labelsId, null);
+  }
+
+  /**
+   * Remove a chunk set if it is still associated with the given GTS and
+   * does not contain any datapoint.
+   *
+   * @return true if the chunk set was removed.
+   */
+  public boolean removeIfEmpty(long classId, long labelsId, InMemoryChunkSet chunkset) {
+    return null != remove(classId, labelsId, chunkset);
+  }
+
+  private InMemoryChunkSet remove(long classId, long labelsId, InMemoryChunkSet ifempty) {
+    long hash = hash(classId, labelsId);
+    Stripe stripe = stripe(hash);
+
+    long stamp = stripe.lock.writeLock();
+
+    try {
+      Table table = stripe.table;
+
+      int idx = slot(hash, table.mask);
+
+      while (null != table.chunksets[idx]) {
+        if (classId == table.classIds[idx] && labelsId == table.labelsIds[idx]) {
+          break;
+        }
+        idx = (idx + 1) & table.mask;
+      }
+
+      InMemoryChunkSet chunkset = table.chunksets[idx];
+
+      if (null == chunkset) {
+        return null;
+      }
+
+      if (null != ifempty && (ifempty != chunkset || 0 != chunkset.getCount())) {
+        return null;
+      }
+
+      //
+      // Shift back the entries which follow the removed one so lookups
+      // do not stop at the slot we free
+      //
+
+      int free = idx;
+      int next = idx;
+
+      while (true) {
+        next = (next + 1) & table.mask;
+
+        if (null == table.chunksets[next]) {
+          break;
+        }
+
+        int home = slot(hash(table.classIds[next], table.labelsIds[next]), table.mask);
+
+        // Leave the entry where it is if its home slot lies cyclically in ]free,next]
+        if (free <= next ? (free < home && home <= next) : (free < home || home <= next)) {
+          continue;
+        }
+
+        table.classIds[free] = table.classIds[next];
+        table.labelsIds[free] = table.labelsIds[next];
+        table.chunksets[free] = table.chunksets[next];
+        free = next;
+      }
+
+      table.chunksets[free] = null;
+      stripe.size--;
+
+      return chunkset;
+    } finally {
+      stripe.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Return the number of GTS in the map.
+   */
+  public int size() {
+    int size = 0;
+
+    for (Stripe stripe: this.stripes) {
+      long stamp = stripe.lock.readLock();
+      size += stripe.size;
+      stripe.lock.unlockRead(stamp);
+    }
+
+    return size;
+  }
+
+  /**
+   * Return a snapshot of the keys of the map, as consecutive classId/labelsId pairs.
+   * Each stripe is consistent but the snapshot as a whole is not atomic.
+   */
+  public long[] keys() {
+    long[] keys = new long[16];
+    int n = 0;
+
+    for (Stripe stripe: this.stripes) {
+      long stamp = stripe.lock.readLock();
+
+      try {
+        Table table = stripe.table;
+
+        if (n + 2 * stripe.size > keys.length) {
+          long[] newkeys = new long[Math.max(keys.length * 2, n + 2 * stripe.size)];
+          System.arraycopy(keys, 0, newkeys, 0, n);
+          keys = newkeys;
+        }
+
+        for (int i = 0; i < table.chunksets.length; i++) {
+          if (null != table.chunksets[i]) {
+            keys[n++] = table.classIds[i];
+            keys[n++] = table.labelsIds[i];
+          }
+        }
+      } finally {
+        stripe.lock.unlockRead(stamp);
+      }
+    }
+
+    if (n < keys.length) {
+      long[] newkeys = new long[n];
+      System.arraycopy(keys, 0, newkeys, 0, n);
+      keys = newkeys;
+    }
+
+    return keys;
+  }
+
+  private static InMemoryChunkSet lookup(Table table, long hash, long classId, long labelsId) {
+    int idx = slot(hash, table.mask);
+
+    //
+    // Bound the number of probes as the table may be modified while
+    // we read it optimistically
+    //
+
+    for (int i = 0; i <= table.mask; i++) {
+      InMemoryChunkSet chunkset = table.chunksets[idx];
+
+      if (null == chunkset) {
+        return null;
+      }
+
+      if (classId == table.classIds[idx] && labelsId == table.labelsIds[idx]) {
+        return chunkset;
+      }
+
+      idx = (idx + 1) & table.mask;
+    }
+
+    return null;
+  }
+
+  private static Table grow(Table table) {
+    Table newtable = new Table((table.mask + 1) << 1);
+
+    for (int i = 0; i < table.chunksets.length; i++) {
+      if (null == table.chunksets[i]) {
+        continue;
+      }
+
+      int idx = slot(hash(table.classIds[i], table.labelsIds[i]), newtable.mask);
+
+      while (null != newtable.chunksets[idx]) {
+        idx = (idx + 1) & newtable.mask;
+      }
+
+      newtable.classIds[idx] = table.classIds[i];
+      newtable.labelsIds[idx] = table.labelsIds[i];
+      newtable.chunksets[idx] = table.chunksets[i];
+    }
+
+    return newtable;
+  }
+}
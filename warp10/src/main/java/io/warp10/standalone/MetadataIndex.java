@@ -0,0 +1,480 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import io.warp10.continuum.store.CompactMetadata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Inverted index of the label and attribute values of the GTS known to StandaloneDirectoryClient.
+ *
+ * For each class, the index maps label (or attribute) names and values to the labelsIds of the
+ * GTS of the class which have this value. Selectors use labels first and attributes if the
+ * label is absent, so a posting list may contain GTS which do not match, the candidates returned
+ * by the index must therefore still be checked against the selector.
+ *
+ * Posting lists store the labelsIds as primitive longs, see Postings.
+ *
+ * Updates are serialized, lookups are lock free.
+ */
+class MetadataIndex {
+
+  private static final long[] EMPTY = new long[0];
+
+  /**
+   * Map of class name to label name to label value to set of labelsIds
+   */
+  private final Map<String,Map<String,Map<String,Postings>>> index = new MapMaker().concurrencyLevel(64).makeMap();
+
+  /**
+   * Index the labels and attributes of a GTS
+   */
+  public synchronized void add(CompactMetadata metadata) {
+    Map<String,Map<String,Postings>> classIndex = index.get(metadata.getName());
+
+    if (null == classIndex) {
+      classIndex = new ConcurrentHashMap<String,Map<String,Postings>>();
+      index.put(metadata.getName(), classIndex);
+    }
+
+    long labelsId = metadata.getLabelsId();
+
+    if (null != metadata.getLabels()) {
+      for (Entry<String,String> entry: metadata.getLabels().entrySet()) {
+        add(classIndex, entry.getKey(), entry.getValue(), labelsId);
+      }
+    }
+
+    if (null != metadata.getAttributes()) {
+      for (Entry<String,String> entry: metadata.getAttributes().entrySet()) {
+        add(classIndex, entry.getKey(), entry.getValue(), labelsId);
+      }
+    }
+  }
+
+  /**
+   * Replace the entries of 'old' by those of 'metadata', both must be the same GTS.
+   * The new entries are added before the stale ones are removed so the GTS is always
+   * found under the values it shares with 'old'.
+   */
+  public synchronized void update(CompactMetadata old, CompactMetadata metadata) {
+    add(metadata);
+
+    if (null == old) {
+      return;
+    }
+
+    Map<String,Map<String,Postings>> classIndex = index.get(old.getName());
+
+    if (null != old.getLabels()) {
+      for (Entry<String,String> entry: old.getLabels().entrySet()) {
+        if (!isIndexed(metadata, entry.getKey(), entry.getValue())) {
+          remove(classIndex, entry.getKey(), entry.getValue(), old.getLabelsId());
+        }
+      }
+    }
+
+    if (null != old.getAttributes()) {
+      for (Entry<String,String> entry: old.getAttributes().entrySet()) {
+        if (!isIndexed(metadata, entry.getKey(), entry.getValue())) {
+          remove(classIndex, entry.getKey(), entry.getValue(), old.getLabelsId());
+        }
+      }
+    }
+  }
+
+  /**
+   * Remove a GTS from the index
+   */
+  public synchronized void remove(CompactMetadata metadata) {
+    Map<String,Map<String,Postings>> classIndex = index.get(metadata.getName());
+
+    if (null == classIndex) {
+      return;
+    }
+
+    if (null != metadata.getLabels()) {
+      for (Entry<String,String> entry: metadata.getLabels().entrySet()) {
+        remove(classIndex, entry.getKey(), entry.getValue(), metadata.getLabelsId());
+      }
+    }
+
+    if (null != metadata.getAttributes()) {
+      for (Entry<String,String> entry: metadata.getAttributes().entrySet()) {
+        remove(classIndex, entry.getKey(), entry.getValue(), metadata.getLabelsId());
+      }
+    }
+
+    if (classIndex.isEmpty()) {
+      index.remove(metadata.getName());
+    }
+  }
+
+  /**
+   * Remove all the GTS from the index
+   */
+  public synchronized void clear() {
+    index.clear();
+  }
+
+  /**
+   * Return the labelsIds of the GTS of class 'className' which may match all the exact
+   * label values of 'exact', by intersecting the posting lists, smallest first.
+   *
+   * @param className Name of the class
+   * @param exact Map of label name to the value it must have, must not be empty
+   * @return The candidate labelsIds
+   */
+  public long[] candidates(String className, Map<String,String> exact) {
+    Map<String,Map<String,Postings>> classIndex = index.get(className);
+
+    if (null == classIndex) {
+      return EMPTY;
+    }
+
+    List<Postings> postings = new ArrayList<Postings>(exact.size());
+
+    Postings smallest = null;
+
+    for (Entry<String,String> entry: exact.entrySet()) {
+      Map<String,Postings> values = classIndex.get(entry.getKey());
+      Postings posting = null == values ? null : values.get(entry.getValue());
+
+      if (null == posting || 0 == posting.size()) {
+        return EMPTY;
+      }
+
+      if (null == smallest || posting.size() < smallest.size()) {
+        smallest = posting;
+      }
+
+      postings.add(posting);
+    }
+
+    long[] candidates = smallest.toArray();
+    int count = 0;
+
+    for (long labelsId: candidates) {
+      boolean match = true;
+
+      for (Postings posting: postings) {
+        if (posting != smallest && !posting.contains(labelsId)) {
+          match = false;
+          break;
+        }
+      }
+
+      if (match) {
+        candidates[count++] = labelsId;
+      }
+    }
+
+    return count == candidates.length ? candidates : Arrays.copyOf(candidates, count);
+  }
+
+  private static boolean isIndexed(CompactMetadata metadata, String name, String value) {
+    return value.equals(metadata.getLabel(name)) || value.equals(metadata.getAttribute(name));
+  }
+
+  private static void add(Map<String,Map<String,Postings>> classIndex, String name, String value, long labelsId) {
+    Map<String,Postings> values = classIndex.get(name);
+
+    if (null == values) {
+      values = new ConcurrentHashMap<String,Postings>();
+      classIndex.put(name, values);
+    }
+
+    Postings posting = values.get(value);
+
+    if (null == posting) {
+      posting = new Postings();
+      values.put(value, posting);
+    }
+
+    posting.add(labelsId);
+  }
+
+  private static void remove(Map<String,Map<String,Postings>> classIndex, String name, String value, long labelsId) {
+    if (null == classIndex) {
+      return;
+    }
+
+    Map<String,Postings> values = classIndex.get(name);
+
+    if (null == values) {
+      return;
+    }
+
+    Postings posting = values.get(value);
+
+    if (null == posting) {
+      return;
+    }
+
+    posting.remove(labelsId);
+
+    if (0 == posting.size()) {
+      values.remove(value);
+      if (values.isEmpty()) {
+        classIndex.remove(name);
+      }
+    }
+  }
+
+  /**
+   * Set of labelsIds stored in an open addressing table of primitive longs. This takes
+   * 8 to 16 bytes per GTS instead of the 50+ bytes of a boxed Long in a concurrent set.
+   *
+   * Updates are done while holding the lock of the index. Lookups are lock free: slots are
+   * read and written atomically and a table is left untouched once it has been replaced by
+   * a resized one, so a lookup sees either the previous or the current content of a slot.
+   */
+  static final class Postings {
+
+    private static final int MIN_CAPACITY = 4;
+
+    //
+    // Markers of free and removed slots, the labelsIds equal to those values are recorded by flags
+    //
+
+    private static final long FREE = 0L;
+    private static final long REMOVED = -1L;
+
+    private volatile AtomicLongArray table = new AtomicLongArray(MIN_CAPACITY);
+
+    private volatile boolean hasFree = false;
+    private volatile boolean hasRemoved = false;
+
+    private volatile int size = 0;
+
+    /**
+     * Number of slots of 'table' which are not FREE, labelsIds and REMOVED markers
+     */
+    private int used = 0;
+
+    int size() {
+      return this.size;
+    }
+
+    boolean contains(long labelsId) {
+      if (FREE == labelsId) {
+        return this.hasFree;
+      } else if (REMOVED == labelsId) {
+        return this.hasRemoved;
+      }
+
+      AtomicLongArray table = this.table;
+      int mask = table.length() - 1;
+      int idx = hash(labelsId) & mask;
+
+      for (int i = 0; i < table.length(); i++) {
+        long value = table.get(idx);
+
+        if (labelsId == value) {
+          return true;
+        } else if (FREE == value) {
+          return false;
+        }
+
+        idx = (idx + 1) & mask;
+      }
+
+      return false;
+    }
+
+    boolean add(long labelsId) {
+      if (FREE == labelsId || REMOVED == labelsId) {
+        if (FREE == labelsId ? this.hasFree : this.hasRemoved) {
+          return false;
+        }
+
+        if (FREE == labelsId) {
+          this.hasFree = true;
+        } else {
+          this.hasRemoved = true;
+        }
+
+        this.size++;
+        return true;
+      }
+
+      AtomicLongArray table = this.table;
+      int mask = table.length() - 1;
+      int idx = hash(labelsId) & mask;
+
+      // First REMOVED slot met while probing, reused for the insertion
+      int slot = -1;
+
+      while(true) {
+        long value = table.get(idx);
+
+        if (labelsId == value) {
+          return false;
+        } else if (FREE == value) {
+          break;
+        } else if (REMOVED == value && -1 == slot) {
+          slot = idx;
+        }
+
+        idx = (idx + 1) & mask;
+      }
+
+      if (-1 == slot) {
+        slot = idx;
+        this.used++;
+      }
+
+      table.set(slot, labelsId);
+      this.size++;
+
+      // Keep at least a quarter of the slots free so probing ends quickly
+      if (4 * this.used > 3 * table.length()) {
+        resize();
+      }
+
+      return true;
+    }
+
+    boolean remove(long labelsId) {
+      if (FREE == labelsId || REMOVED == labelsId) {
+        if (!(FREE == labelsId ? this.hasFree : this.hasRemoved)) {
+          return false;
+        }
+
+        if (FREE == labelsId) {
+          this.hasFree = false;
+        } else {
+          this.hasRemoved = false;
+        }
+
+        this.size--;
+        return true;
+      }
+
+      AtomicLongArray table = this.table;
+      int mask = table.length() - 1;
+      int idx = hash(labelsId) & mask;
+
+      while(true) {
+        long value = table.get(idx);
+
+        if (FREE == value) {
+          return false;
+        } else if (labelsId == value) {
+          break;
+        }
+
+        idx = (idx + 1) & mask;
+      }
+
+      // The slot cannot be freed as it may be part of the probe sequence of other labelsIds
+      table.set(idx, REMOVED);
+      this.size--;
+
+      if (table.length() > MIN_CAPACITY && 8 * this.size < table.length()) {
+        resize();
+      }
+
+      return true;
+    }
+
+    /**
+     * Return the labelsIds of the set
+     */
+    long[] toArray() {
+      AtomicLongArray table = this.table;
+
+      long[] labelsIds = new long[table.length() + 2];
+      int count = 0;
+
+      if (this.hasFree) {
+        labelsIds[count++] = FREE;
+      }
+
+      if (this.hasRemoved) {
+        labelsIds[count++] = REMOVED;
+      }
+
+      for (int i = 0; i < table.length(); i++) {
+        long value = table.get(i);
+
+        if (FREE != value && REMOVED != value) {
+          labelsIds[count++] = value;
+        }
+      }
+
+      return Arrays.copyOf(labelsIds, count);
+    }
+
+    /**
+     * Copy the labelsIds into a new table with a load factor of at most 1/2, without the REMOVED markers
+     */
+    private void resize() {
+      AtomicLongArray table = this.table;
+
+      int count = 0;
+
+      for (int i = 0; i < table.length(); i++) {
+        long value = table.get(i);
+        if (FREE != value && REMOVED != value) {
+          count++;
+        }
+      }
+
+      int capacity = MIN_CAPACITY;
+
+      while (capacity < 2 * count) {
+        capacity <<= 1;
+      }
+
+      AtomicLongArray resized = new AtomicLongArray(capacity);
+      int mask = capacity - 1;
+
+      for (int i = 0; i < table.length(); i++) {
+        long value = table.get(i);
+
+        if (FREE == value || REMOVED == value) {
+          continue;
+        }
+
+        int idx = hash(value) & mask;
+
+        while (FREE != resized.get(idx)) {
+          idx = (idx + 1) & mask;
+        }
+
+        resized.set(idx, value);
+      }
+
+      this.used = count;
+      this.table = resized;
+    }
+
+    private static int hash(long labelsId) {
+      return (int) ((labelsId * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+  }
+}
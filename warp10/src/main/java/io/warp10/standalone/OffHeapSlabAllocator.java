@@ -0,0 +1,216 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocator of off heap buffers.
+ *
+ * Buffers are carved out of large direct slabs and have a power of 2 capacity.
+ * Freed buffers are kept in a free list per capacity so they can be reused by
+ * subsequent allocations, the slabs themselves are never released.
+ *
+ * Buffers larger than a slab are allocated individually and their memory is
+ * released when they are freed, or when they are garbage collected if the JVM
+ * does not let us release it explicitly.
+ */
+public class OffHeapSlabAllocator {
+
+  /**
+   * Capacity of the smallest buffers, as a power of 2
+   */
+  private static final int MIN_BLOCK_BITS = 6;
+
+  private final int slabsize;
+
+  private final int maxBlockBits;
+
+  /**
+   * Free buffers, indexed by the log2 of their capacity
+   */
+  private final ArrayDeque<ByteBuffer>[] free;
+
+  private ByteBuffer slab = null;
+  
+  /**
+   * Unsafe instance and its invokeCleaner method (Java 9+), null if not available
+   */
+  private static final Object UNSAFE;
+  private static final Method INVOKE_CLEANER;
+  
+  static {
+    Object unsafe = null;
+    Method invokeCleaner = null;
+    
+    try {
+      Class<?> clazz = Class.forName("sun.misc.Unsafe");
+      Field field = clazz.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafe = field.get(null);
+      invokeCleaner = clazz.getMethod("invokeCleaner", ByteBuffer.class);
+    } catch (Throwable t) {
+      unsafe = null;
+      invokeCleaner = null;
+    }
+    
+    UNSAFE = unsafe;
+    INVOKE_CLEANER = invokeCleaner;
+  }
+
+  /**
+   * Number of off heap bytes allocated, including the unused part of the slabs
+   */
+  private final AtomicLong allocated = new AtomicLong(0L);
+
+  /**
+   * Number of bytes in buffers currently handed out
+   */
+  private final AtomicLong used = new AtomicLong(0L);
+
+  /**
+   * @param slabsize Size of the slabs, will be rounded up to the next power of 2.
+   */
+  @SuppressWarnings("unchecked")
+  public OffHeapSlabAllocator(int slabsize) {
+    int bits = MIN_BLOCK_BITS;
+    while ((1 << bits) < slabsize && bits < 30) {
+      bits++;
+    }
+    this.maxBlockBits = bits;
+    this.slabsize = 1 << bits;
+
+    this.free = new ArrayDeque[this.maxBlockBits + 1];
+    for (int i = MIN_BLOCK_BITS; i <= this.maxBlockBits; i++) {
+      this.free[i] = new ArrayDeque<ByteBuffer>();
+    }
+  }
+
+  /**
+   * Allocate a buffer with at least 'size' bytes of capacity.
+   * The returned buffer has its position set to 0 and its limit to its capacity.
+   */
+  public ByteBuffer allocate(int size) {
+    if (size > this.slabsize) {
+      ByteBuffer bb = ByteBuffer.allocateDirect(size);
+      this.allocated.addAndGet(size);
+      this.used.addAndGet(size);
+      return bb;
+    }
+
+    int bits = MIN_BLOCK_BITS;
+    while ((1 << bits) < size) {
+      bits++;
+    }
+
+    int capacity = 1 << bits;
+
+    ByteBuffer bb;
+
+    synchronized(this.free[bits]) {
+      bb = this.free[bits].poll();
+    }
+
+    if (null == bb) {
+      synchronized(this) {
+        //
+        // Allocate a new slab if the current one cannot fit the buffer, the
+        // end of the current slab is then lost.
+        //
+
+        if (null == this.slab || this.slab.remaining() < capacity) {
+          this.slab = ByteBuffer.allocateDirect(this.slabsize);
+          this.allocated.addAndGet(this.slabsize);
+        }
+
+        this.slab.limit(this.slab.position() + capacity);
+        bb = this.slab.slice();
+        this.slab.position(this.slab.limit());
+        this.slab.limit(this.slab.capacity());
+      }
+    }
+
+    this.used.addAndGet(capacity);
+
+    bb.clear();
+
+    return bb;
+  }
+
+  /**
+   * Free a buffer returned by 'allocate'. The buffer MUST no longer be accessed by the caller.
+   */
+  public void free(ByteBuffer bb) {
+    int capacity = bb.capacity();
+
+    this.used.addAndGet(-capacity);
+
+    if (capacity > this.slabsize) {
+      this.allocated.addAndGet(-capacity);
+      clean(bb);
+      return;
+    }
+
+    int bits = Integer.numberOfTrailingZeros(capacity);
+
+    synchronized(this.free[bits]) {
+      this.free[bits].push(bb);
+    }
+  }
+
+  /**
+   * Release the memory of a direct buffer without waiting for it to be garbage collected.
+   * If the JVM does not allow it, the memory will be released when the buffer is collected.
+   */
+  private static void clean(ByteBuffer bb) {
+    try {
+      if (null != INVOKE_CLEANER) {
+        INVOKE_CLEANER.invoke(UNSAFE, bb);
+      } else {
+        // Java 8, DirectByteBuffer.cleaner().clean()
+        Method cleaner = bb.getClass().getMethod("cleaner");
+        cleaner.setAccessible(true);
+        Object c = cleaner.invoke(bb);
+        if (null != c) {
+          Method clean = c.getClass().getMethod("clean");
+          clean.setAccessible(true);
+          clean.invoke(c);
+        }
+      }
+    } catch (Throwable t) {
+      // Leave it to the garbage collector
+    }
+  }
+  
+  /**
+   * Return the number of off heap bytes allocated
+   */
+  public long getAllocated() {
+    return this.allocated.get();
+  }
+
+  /**
+   * Return the number of off heap bytes in buffers currently in use
+   */
+  public long getUsed() {
+    return this.used.get();
+  }
+}
@@ -0,0 +1,366 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.store.Store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.iq80.leveldb.DBIterator;
+
+/**
+ * Layout of the blocks of datapoints of the LevelDB store.
+ *
+ * Time is divided in windows of 'span' time units. The datapoints of a GTS which fall in the same
+ * window can be packed in a block, a single GTSEncoder stored under the key of the last timestamp
+ * of the window followed by a marker byte. A block therefore sorts among the individual datapoints
+ * of its window, which are still written one per key until they are packed, so a scan reads all
+ * the entries of a window contiguously.
+ *
+ * When a window contains both a block and an individual datapoint with the same timestamp, the
+ * individual datapoint was written last and takes precedence.
+ */
+public class StandaloneBlocks {
+
+  /**
+   * Length of the prefix of the keys of a GTS, prefix + classId + labelsId
+   */
+  private static final int GTS_PREFIX_LENGTH = Store.HBASE_RAW_DATA_KEY_PREFIX.length + 8 + 8;
+
+  /**
+   * Length of the key of an individual datapoint
+   */
+  private static final int DATAPOINT_KEY_LENGTH = GTS_PREFIX_LENGTH + 8;
+
+  private static final byte BLOCK_MARKER = 0x00;
+
+  private final long span;
+
+  public StandaloneBlocks(long span) {
+    if (span <= 0) {
+      throw new IllegalArgumentException("Invalid block span " + span + ".");
+    }
+    this.span = span;
+  }
+
+  public long getSpan() {
+    return this.span;
+  }
+
+  /**
+   * Return the last timestamp of the window containing 'timestamp'
+   */
+  public long windowEnd(long timestamp) {
+    long remaining = this.span - 1 - Math.floorMod(timestamp, this.span);
+
+    // The last window is truncated at Long.MAX_VALUE
+    if (timestamp > Long.MAX_VALUE - remaining) {
+      return Long.MAX_VALUE;
+    }
+
+    return timestamp + remaining;
+  }
+
+  /**
+   * Return the first timestamp of the window containing 'timestamp'
+   */
+  public long windowStart(long timestamp) {
+    long elapsed = Math.floorMod(timestamp, this.span);
+
+    // The first window is truncated at Long.MIN_VALUE
+    if (timestamp < Long.MIN_VALUE + elapsed) {
+      return Long.MIN_VALUE;
+    }
+
+    return timestamp - elapsed;
+  }
+
+  /**
+   * Build the key of the datapoint of a GTS at 'timestamp'
+   */
+  public static byte[] datapointKey(long classId, long labelsId, long timestamp) {
+    return key(classId, labelsId, timestamp, DATAPOINT_KEY_LENGTH);
+  }
+
+  /**
+   * Build the key of the block of a GTS whose window ends at 'end'. This is also the largest
+   * key of the entries with a timestamp greater than or equal to 'end'.
+   */
+  public static byte[] blockKey(long classId, long labelsId, long end) {
+    byte[] key = key(classId, labelsId, end, DATAPOINT_KEY_LENGTH + 1);
+    key[DATAPOINT_KEY_LENGTH] = BLOCK_MARKER;
+    return key;
+  }
+
+  private static byte[] key(long classId, long labelsId, long timestamp, int length) {
+    byte[] key = new byte[length];
+    ByteBuffer bb = ByteBuffer.wrap(key).order(ByteOrder.BIG_ENDIAN);
+    bb.put(Store.HBASE_RAW_DATA_KEY_PREFIX);
+    bb.putLong(classId);
+    bb.putLong(labelsId);
+    bb.putLong(Long.MAX_VALUE - timestamp);
+    return key;
+  }
+
+  public static boolean isBlock(byte[] key) {
+    return DATAPOINT_KEY_LENGTH + 1 == key.length;
+  }
+
+  /**
+   * Return the timestamp of a datapoint key or the end of the window of a block key
+   */
+  public static long timestamp(byte[] key) {
+    ByteBuffer bb = ByteBuffer.wrap(key).order(ByteOrder.BIG_ENDIAN);
+    bb.position(GTS_PREFIX_LENGTH);
+    return Long.MAX_VALUE - bb.getLong();
+  }
+
+  /**
+   * Read the entries of the window of the next key of 'iterator'. The window ends at the first key
+   * of another window, of another GTS or greater than 'stoprow' if it is not null.
+   *
+   * @return the window or null if there is no more key in the range
+   */
+  public Window readWindow(DBIterator iterator, byte[] stoprow) {
+    Window window = null;
+    byte[] first = null;
+
+    while(iterator.hasNext()) {
+      Entry<byte[],byte[]> kv = iterator.peekNext();
+      byte[] key = kv.getKey();
+
+      if (null != stoprow && Bytes.compareTo(key, stoprow) > 0) {
+        break;
+      }
+
+      if (key.length < DATAPOINT_KEY_LENGTH || key[0] != Store.HBASE_RAW_DATA_KEY_PREFIX[0]) {
+        break;
+      }
+
+      long end = isBlock(key) ? timestamp(key) : windowEnd(timestamp(key));
+
+      if (null == window) {
+        first = key;
+        window = new Window(end);
+      } else if (window.end != end || 0 != Bytes.compareTo(key, 0, GTS_PREFIX_LENGTH, first, 0, GTS_PREFIX_LENGTH)) {
+        break;
+      }
+
+      iterator.next();
+
+      window.add(key, kv.getValue());
+    }
+
+    return window;
+  }
+
+  /**
+   * Entries of a window of a GTS, its block if it was packed and its individual datapoints
+   */
+  public static final class Window {
+
+    private final long end;
+
+    private byte[] blockKey = null;
+    private byte[] block = null;
+
+    private final List<byte[][]> datapoints = new ArrayList<byte[][]>();
+
+    private long keyBytes = 0L;
+    private long valueBytes = 0L;
+
+    private Window(long end) {
+      this.end = end;
+    }
+
+    private void add(byte[] key, byte[] value) {
+      if (isBlock(key)) {
+        this.blockKey = key;
+        this.block = value;
+      } else {
+        this.datapoints.add(new byte[][] { key, value });
+      }
+      this.keyBytes += key.length;
+      this.valueBytes += value.length;
+    }
+
+    public long getEnd() {
+      return this.end;
+    }
+
+    /**
+     * Return the key of the block of the window, whether or not the window was packed
+     */
+    public byte[] getBlockKey() {
+      if (null == this.blockKey) {
+        byte[] key = Arrays.copyOf(this.datapoints.get(0)[0], DATAPOINT_KEY_LENGTH + 1);
+        ByteBuffer bb = ByteBuffer.wrap(key).order(ByteOrder.BIG_ENDIAN);
+        bb.position(GTS_PREFIX_LENGTH);
+        bb.putLong(Long.MAX_VALUE - this.end);
+        bb.put(BLOCK_MARKER);
+        return key;
+      }
+      return this.blockKey;
+    }
+
+    public byte[] getBlock() {
+      return this.block;
+    }
+
+    public List<byte[][]> getDatapoints() {
+      return this.datapoints;
+    }
+
+    public long getKeyBytes() {
+      return this.keyBytes;
+    }
+
+    public long getValueBytes() {
+      return this.valueBytes;
+    }
+
+    /**
+     * Add to 'encoder' the values of the window between 'from' and 'to' (both included), keeping only
+     * the 'limit' most recent ones.
+     *
+     * @return the number of values added
+     */
+    public long decode(byte[] aesKey, long from, long to, long limit, GTSEncoder encoder) throws IOException {
+      if (Long.MAX_VALUE == limit) {
+        return decode(aesKey, from, to, encoder);
+      }
+
+      GTSEncoder values = new GTSEncoder(0L);
+
+      long count = decode(aesKey, from, to, values);
+
+      //
+      // Values are not ordered within a window, determine the timestamp of the oldest value to keep.
+      // Timestamps are unique once the block values hidden by a datapoint are removed.
+      //
+
+      long oldest = Long.MIN_VALUE;
+
+      if (count > limit) {
+        long[] timestamps = new long[(int) count];
+        GTSDecoder decoder = values.getDecoder(true);
+        int idx = 0;
+        while(decoder.next()) {
+          timestamps[idx++] = decoder.getTimestamp();
+        }
+        Arrays.sort(timestamps);
+        oldest = timestamps[(int) (count - limit)];
+        count = limit;
+      }
+
+      GTSDecoder decoder = values.getDecoder(true);
+
+      while(decoder.next()) {
+        if (decoder.getTimestamp() >= oldest) {
+          encoder.addValue(decoder);
+        }
+      }
+
+      return count;
+    }
+
+    private long decode(byte[] aesKey, long from, long to, GTSEncoder encoder) throws IOException {
+      long count = 0L;
+
+      long[] timestamps = new long[this.datapoints.size()];
+      int idx = 0;
+
+      for (byte[][] kv: this.datapoints) {
+        long timestamp = timestamp(kv[0]);
+        timestamps[idx++] = timestamp;
+
+        if (timestamp < from || timestamp > to) {
+          continue;
+        }
+
+        GTSDecoder decoder = new GTSDecoder(timestamp, aesKey, ByteBuffer.wrap(kv[1]));
+        decoder.next();
+        encoder.addValue(decoder);
+        count++;
+      }
+
+      if (null != this.block) {
+        Arrays.sort(timestamps);
+
+        GTSDecoder decoder = new GTSDecoder(this.end, aesKey, ByteBuffer.wrap(this.block));
+
+        while(decoder.next()) {
+          long timestamp = decoder.getTimestamp();
+
+          if (timestamp < from || timestamp > to || Arrays.binarySearch(timestamps, timestamp) >= 0) {
+            continue;
+          }
+
+          encoder.addValue(decoder);
+          count++;
+        }
+      }
+
+      return count;
+    }
+
+    /**
+     * Return the content of the block packing all the values of the window
+     */
+    public byte[] pack(byte[] aesKey) throws IOException {
+      GTSEncoder encoder = new GTSEncoder(this.end, aesKey);
+      decode(aesKey, Long.MIN_VALUE, Long.MAX_VALUE, encoder);
+      return encoder.getBytes();
+    }
+
+    /**
+     * Add to 'outside' the values of the block which are not between 'from' and 'to' (both included).
+     *
+     * @return the number of values of the block between 'from' and 'to'
+     */
+    public long splitBlock(byte[] aesKey, long from, long to, GTSEncoder outside) throws IOException {
+      if (null == this.block) {
+        return 0L;
+      }
+
+      long inside = 0L;
+
+      GTSDecoder decoder = new GTSDecoder(this.end, aesKey, ByteBuffer.wrap(this.block));
+
+      while(decoder.next()) {
+        long timestamp = decoder.getTimestamp();
+
+        if (timestamp < from || timestamp > to) {
+          outside.addValue(decoder);
+        } else {
+          inside++;
+        }
+      }
+
+      return inside;
+    }
+  }
+}
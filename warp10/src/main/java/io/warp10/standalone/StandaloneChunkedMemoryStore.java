@@ -39,8 +39,6 @@ import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.LockSupport;
@@ -57,8 +55,6 @@ import org.apache.thrift.TDeserializer;
 import org.apache.thrift.TSerializer;
 import org.apache.thrift.protocol.TCompactProtocol;
 
-import com.google.common.collect.MapMaker;
-
 /**
  * This class implements an in memory store which handles data expiration
  * using chunks which can be discarded when they no longer belong to the
@@ -68,7 +64,23 @@ import com.google.common.collect.MapMaker;
  */
 public class StandaloneChunkedMemoryStore extends Thread implements StoreClient {
   
-  private final Map<BigInteger,InMemoryChunkSet> series;
+  /**
+   * Number of stripes of the series map
+   */
+  private static final int SERIES_CONCURRENCY = 64;
+  
+  private final InMemoryChunkSetMap series;
+  
+  /**
+   * Allocator of off heap buffers, null if data is stored on heap
+   */
+  private final OffHeapSlabAllocator allocator;
+  
+  /**
+   * Number of datapoints and bytes stored, as computed during the last gc run
+   */
+  private volatile long datapoints = 0L;
+  private volatile long bytes = 0L;
   
   private List<StandalonePlasmaHandlerInterface> plasmaHandlers = new ArrayList<StandalonePlasmaHandlerInterface>();
 
@@ -92,10 +104,16 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
   public StandaloneChunkedMemoryStore(Properties properties, KeyStore keystore) {
     this.properties = properties;
 
-    this.series = new MapMaker().concurrencyLevel(64).makeMap();
+    this.series = new InMemoryChunkSetMap(SERIES_CONCURRENCY);
 
     this.chunkcount = Integer.parseInt(properties.getProperty(io.warp10.continuum.Configuration.IN_MEMORY_CHUNK_COUNT, "3"));
     this.chunkspan = Long.parseLong(properties.getProperty(io.warp10.continuum.Configuration.IN_MEMORY_CHUNK_LENGTH, Long.toString(Long.MAX_VALUE)));
+    
+    if ("true".equals(properties.getProperty(io.warp10.continuum.Configuration.IN_MEMORY_OFFHEAP))) {
+      this.allocator = new OffHeapSlabAllocator(Integer.parseInt(properties.getProperty(io.warp10.continuum.Configuration.IN_MEMORY_OFFHEAP_SLABSIZE, Integer.toString(64 * 1024 * 1024))));
+    } else {
+      this.allocator = null;
+    }
   
     this.labelsKeyLongs = SipHashInline.getKey(keystore.getKey(KeyStore.SIPHASH_LABELS));
     this.classKeyLongs = SipHashInline.getKey(keystore.getKey(KeyStore.SIPHASH_CLASS));
@@ -167,44 +185,16 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
           return true;
         }
         
-        // 128 bits
-        byte[] bytes = new byte[16];
-        
         while(true) {
           if (idx >= metadatas.size()) {
             return false;
           }
           
           while(idx < metadatas.size()) {
-            long id = metadatas.get(idx).getClassId();
+            // 128BITS
+            InMemoryChunkSet chunkset = series.get(metadatas.get(idx).getClassId(), metadatas.get(idx).getLabelsId());
             
-            int bidx = 0;
-            
-            bytes[bidx++] = (byte) ((id >> 56) & 0xff);
-            bytes[bidx++] = (byte) ((id >> 48) & 0xff);
-            bytes[bidx++] = (byte) ((id >> 40) & 0xff);
-            bytes[bidx++] = (byte) ((id >> 32) & 0xff);
-            bytes[bidx++] = (byte) ((id >> 24) & 0xff);
-            bytes[bidx++] = (byte) ((id >> 16) & 0xff);
-            bytes[bidx++] = (byte) ((id >> 8) & 0xff);
-            bytes[bidx++] = (byte) (id & 0xff);
-            
-            id = metadatas.get(idx).getLabelsId();
-
-            bytes[bidx++] = (byte) ((id >> 56) & 0xff);
-            bytes[bidx++] = (byte) ((id >> 48) & 0xff);
-            bytes[bidx++] = (byte) ((id >> 40) & 0xff);
-            bytes[bidx++] = (byte) ((id >> 32) & 0xff);
-            bytes[bidx++] = (byte) ((id >> 24) & 0xff);
-            bytes[bidx++] = (byte) ((id >> 16) & 0xff);
-            bytes[bidx++] = (byte) ((id >> 8) & 0xff);
-            bytes[bidx++] = (byte) (id & 0xff);
-
-            BigInteger clslbls = new BigInteger(bytes);
-            
-            if (idx < metadatas.size() && series.containsKey(clslbls)) {
-              InMemoryChunkSet chunkset = series.get(clslbls);
-              
+            if (null != chunkset) {
               try {
                 GTSDecoder dec = chunkset.fetch(now, timespan, extractor);
 
@@ -243,54 +233,25 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
       return;
     }
 
-    byte[] bytes = new byte[16];
-    
     Metadata meta = encoder.getMetadata();
 
     // 128BITS
-    long id = null != meta ? meta.getClassId() : encoder.getClassId();
-    
-    int bidx = 0;
-    
-    bytes[bidx++] = (byte) ((id >> 56) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 48) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 40) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 32) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 24) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 16) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 8) & 0xff);
-    bytes[bidx++] = (byte) (id & 0xff);
-    
-    id = null != meta ? meta.getLabelsId() : encoder.getLabelsId();
-
-    bytes[bidx++] = (byte) ((id >> 56) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 48) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 40) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 32) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 24) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 16) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 8) & 0xff);
-    bytes[bidx++] = (byte) (id & 0xff);
-
-    BigInteger clslbls = new BigInteger(bytes);
+    long classId = null != meta ? meta.getClassId() : encoder.getClassId();
+    long labelsId = null != meta ? meta.getLabelsId() : encoder.getLabelsId();
 
     //
     // Retrieve the chunk for the current GTS
     //
     
-    InMemoryChunkSet chunkset = null;
-    
-    synchronized (this.series) {
-      chunkset = this.series.get(clslbls);
+    InMemoryChunkSet chunkset = this.series.get(classId, labelsId);
       
-      //
-      // We need to allocate a new chunk
-      //
+    //
+    // We need to allocate a new chunk, another thread may have done so concurrently
+    // in which case its chunk set is the one we use
+    //
       
-      if (null == chunkset) {
-        chunkset = new InMemoryChunkSet(this.chunkcount, this.chunkspan);
-        this.series.put(clslbls,  chunkset);
-      }
+    if (null == chunkset) {
+      chunkset = this.series.putIfAbsent(classId, labelsId, new InMemoryChunkSet(this.chunkcount, this.chunkspan, this.allocator));
     }
 
     //
@@ -336,10 +297,10 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
     while(true) {
       LockSupport.parkNanos(1000000L * (gcperiod / Constants.TIME_UNITS_PER_MS));
 
-      List<BigInteger> metadatas = new ArrayList<BigInteger>();
-      metadatas.addAll(this.series.keySet());
+      // Consecutive classId/labelsId pairs
+      long[] metadatas = this.series.keys();
 
-      if (0 == metadatas.size()) {
+      if (0 == metadatas.length) {
         continue;
       }
 
@@ -358,10 +319,11 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
       
       boolean doreclaim = true;
       
-      for (int idx = 0 ; idx < metadatas.size(); idx++) {
-        BigInteger key = metadatas.get(idx);
+      for (int idx = 0 ; idx < metadatas.length; idx += 2) {
+        long classId = metadatas[idx];
+        long labelsId = metadatas[idx + 1];
         
-        InMemoryChunkSet chunkset = this.series.get(key);
+        InMemoryChunkSet chunkset = this.series.get(classId, labelsId);
 
         if (null == chunkset) {
           continue;
@@ -409,11 +371,7 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
         //
        
         if (0 == count) {
-          synchronized (this.series) {
-            if (0 == chunkset.getCount()) {
-              this.series.remove(key);
-            }
-          }
+          this.series.removeIfEmpty(classId, labelsId, chunkset);
         }
       }
       
@@ -427,6 +385,9 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
       Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_INMEMORY_BYTES, Sensision.EMPTY_LABELS, bytes);
       Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_INMEMORY_DATAPOINTS, Sensision.EMPTY_LABELS, datapoints);
 
+      this.bytes = bytes;
+      this.datapoints = datapoints;
+
       if (datapointsdelta > 0) {
         Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_INMEMORY_GC_DATAPOINTS, Sensision.EMPTY_LABELS, datapointsdelta);
       }
@@ -453,37 +414,7 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
     metadata.setLabelsId(GTSHelper.labelsId(this.labelsKeyLongs, metadata.getLabels()));
     metadata.setClassId(GTSHelper.classId(this.classKeyLongs, metadata.getName()));
 
-    byte[] bytes = new byte[16];
-    
-    long id = metadata.getClassId();
-    
-    int bidx = 0;
-    
-    bytes[bidx++] = (byte) ((id >> 56) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 48) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 40) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 32) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 24) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 16) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 8) & 0xff);
-    bytes[bidx++] = (byte) (id & 0xff);
-    
-    id = metadata.getLabelsId();
-
-    bytes[bidx++] = (byte) ((id >> 56) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 48) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 40) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 32) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 24) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 16) & 0xff);
-    bytes[bidx++] = (byte) ((id >> 8) & 0xff);
-    bytes[bidx++] = (byte) (id & 0xff);
-
-    BigInteger clslbls = new BigInteger(bytes);
-
-    synchronized(this.series) {
-      this.series.remove(clslbls);
-    }
+    this.series.remove(metadata.getClassId(), metadata.getLabelsId());
     
     return 0L;
   }
@@ -521,12 +452,22 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
     
     System.out.println("Dumping memory to '" + path + "'.");
     
+    long[] keys = this.series.keys();
+    byte[] idbytes = new byte[16];
+    
     try {
-      for (Entry<BigInteger,InMemoryChunkSet> entry: this.series.entrySet()) {
-        gts++;        
-        Metadata metadata = this.directoryClient.getMetadataById(entry.getKey());
+      for (int idx = 0; idx < keys.length; idx += 2) {
+        InMemoryChunkSet chunkset = this.series.get(keys[idx], keys[idx + 1]);
+        
+        if (null == chunkset) {
+          continue;
+        }
+        
+        gts++;
+        GTSHelper.fillGTSIds(idbytes, 0, keys[idx], keys[idx + 1]);
+        Metadata metadata = this.directoryClient.getMetadataById(new BigInteger(idbytes));
 
-        List<GTSDecoder> decoders = entry.getValue().getDecoders();
+        List<GTSDecoder> decoders = chunkset.getDecoders();
 
         //GTSEncoder encoder = entry.getValue().fetchEncoder(now, this.chunkcount * this.chunkspan);
 
@@ -651,4 +592,39 @@ public class StandaloneChunkedMemoryStore extends Thread implements StoreClient
   public void setDirectoryClient(StandaloneDirectoryClient directoryClient) {
     this.directoryClient = directoryClient;
   }
+  
+  /**
+   * Return the number of GTS with data in the store
+   */
+  public long getGTSCount() {
+    return this.series.size();
+  }
+  
+  /**
+   * Return the number of datapoints in the store, as computed during the last gc run
+   */
+  public long getDatapoints() {
+    return this.datapoints;
+  }
+  
+  /**
+   * Return the size of the encoded datapoints in the store, as computed during the last gc run
+   */
+  public long getSize() {
+    return this.bytes;
+  }
+  
+  /**
+   * Return the number of bytes allocated off heap, or 0 if data is stored on heap
+   */
+  public long getOffHeapAllocated() {
+    return null != this.allocator ? this.allocator.getAllocated() : 0L;
+  }
+  
+  /**
+   * Return the number of off heap bytes used by chunks, or 0 if data is stored on heap
+   */
+  public long getOffHeapUsed() {
+    return null != this.allocator ? this.allocator.getUsed() : 0L;
+  }
 }
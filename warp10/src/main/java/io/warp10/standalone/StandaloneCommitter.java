@@ -0,0 +1,161 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import io.warp10.continuum.sensision.SensisionConstants;
+import io.warp10.sensision.Sensision;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.Lock;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.WriteOptions;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Single writer of the datapoints of the LevelDB store.
+ *
+ * Ingestion threads submit their pending key/values and wait for the returned future. The committer
+ * coalesces all the submissions which were queued while the previous write was in progress into a
+ * single LevelDB write, synced if any of them requested it. Concurrent writers therefore share the
+ * cost of an fsync instead of paying one each.
+ */
+public class StandaloneCommitter extends Thread {
+
+  private static final class Commit {
+    private final List<byte[][]> kvs;
+    private final long size;
+    private final boolean sync;
+    private final SettableFuture<Void> future = SettableFuture.create();
+
+    private Commit(List<byte[][]> kvs, long size, boolean sync) {
+      this.kvs = kvs;
+      this.size = size;
+      this.sync = sync;
+    }
+  }
+
+  private final DB db;
+
+  /**
+   * Lock to hold while writing, may be null
+   */
+  private final Lock lock;
+
+  /**
+   * Size in bytes above which no more submissions are added to a write
+   */
+  private final long maxsize;
+
+  private final LinkedBlockingQueue<Commit> queue = new LinkedBlockingQueue<Commit>();
+
+  public StandaloneCommitter(DB db, Lock lock, long maxsize) {
+    this.db = db;
+    this.lock = lock;
+    this.maxsize = maxsize;
+
+    this.setDaemon(true);
+    this.setName("[LevelDB Committer]");
+    this.start();
+  }
+
+  /**
+   * Submit key/values to write, 'size' is their size in bytes.
+   *
+   * @return a future which is done once the key/values are written
+   */
+  public Future<Void> commit(List<byte[][]> kvs, long size, boolean sync) {
+    Commit commit = new Commit(kvs, size, sync);
+    this.queue.add(commit);
+    return commit.future;
+  }
+
+  @Override
+  public void run() {
+    List<Commit> group = new ArrayList<Commit>();
+
+    while(true) {
+      try {
+        group.add(this.queue.take());
+      } catch (InterruptedException ie) {
+        continue;
+      }
+
+      long size = group.get(0).size;
+
+      Commit next;
+
+      while(size < this.maxsize && null != (next = this.queue.poll())) {
+        group.add(next);
+        size += next.size;
+      }
+
+      write(group);
+
+      group.clear();
+    }
+  }
+
+  private void write(List<Commit> group) {
+    WriteBatch batch = this.db.createWriteBatch();
+
+    try {
+      boolean sync = false;
+
+      for (Commit commit: group) {
+        for (byte[][] kv: commit.kvs) {
+          batch.put(kv[0], kv[1]);
+        }
+        sync |= commit.sync;
+      }
+
+      if (null != this.lock) {
+        this.lock.lock();
+      }
+
+      try {
+        this.db.write(batch, new WriteOptions().sync(sync));
+      } finally {
+        if (null != this.lock) {
+          this.lock.unlock();
+        }
+      }
+
+      for (Commit commit: group) {
+        commit.future.set(null);
+      }
+    } catch (Throwable t) {
+      for (Commit commit: group) {
+        commit.future.setException(t);
+      }
+    } finally {
+      try {
+        batch.close();
+      } catch (IOException ioe) {
+      }
+    }
+
+    Sensision.update(SensisionConstants.SENSISION_CLASS_WARP_STANDALONE_LEVELDB_GROUPCOMMIT_WRITES, Sensision.EMPTY_LABELS, 1);
+    Sensision.update(SensisionConstants.SENSISION_CLASS_WARP_STANDALONE_LEVELDB_GROUPCOMMIT_COMMITS, Sensision.EMPTY_LABELS, group.size());
+  }
+}
@@ -23,9 +23,12 @@ import io.warp10.continuum.DirectoryUtil;
 import io.warp10.continuum.egress.ThriftDirectoryClient;
 import io.warp10.continuum.gts.GTSHelper;
 import io.warp10.continuum.sensision.SensisionConstants;
+import io.warp10.continuum.store.CompactMetadata;
+import io.warp10.continuum.store.CompactMetadataMap;
 import io.warp10.continuum.store.Constants;
 import io.warp10.continuum.store.Directory;
 import io.warp10.continuum.store.DirectoryClient;
+import io.warp10.continuum.store.DirectorySnapshot;
 import io.warp10.continuum.store.MetadataIterator;
 import io.warp10.continuum.store.thrift.data.DirectoryRequest;
 import io.warp10.continuum.store.thrift.data.DirectoryStatsRequest;
@@ -37,6 +40,7 @@ import io.warp10.crypto.SipHashInline;
 import io.warp10.script.HyperLogLogPlus;
 import io.warp10.sensision.Sensision;
 
+import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
@@ -44,6 +48,7 @@ import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -52,13 +57,15 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Pattern;
 
 import org.apache.hadoop.hbase.util.Bytes;
@@ -79,7 +86,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Charsets;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.MapMaker;
 
 public class StandaloneDirectoryClient implements DirectoryClient {
@@ -88,8 +94,20 @@ public class StandaloneDirectoryClient implements DirectoryClient {
 
   private static final String DIRECTORY_INIT_NTHREADS_DEFAULT = "4";
 
+  private static final String DIRECTORY_SNAPSHOT_PERIOD_DEFAULT = "3600000";
+
   private static final byte[] METADATA_PREFIX = "M".getBytes(Charsets.US_ASCII);
 
+  /**
+   * Prefix of the journal entries, 'J' + sequence number, recording the ids of the GTS modified since the last snapshot
+   */
+  private static final byte[] JOURNAL_PREFIX = "J".getBytes(Charsets.US_ASCII);
+
+  /**
+   * Key of the id and sequence number of the last snapshot
+   */
+  private static final byte[] SNAPSHOT_KEY = "K".getBytes(Charsets.US_ASCII);
+
   private static final int MAX_BATCH_SIZE = 500000;
 
   private final DB db;
@@ -115,11 +133,39 @@ public class StandaloneDirectoryClient implements DirectoryClient {
    * Maps of class name to labelsId to metadata
    */
   // 128BITS
-  private static final Map<String,Map<Long,Metadata>> metadatas = new MapMaker().concurrencyLevel(64).makeMap();
-  private static final Map<BigInteger,Metadata> metadatasById = new MapMaker().concurrencyLevel(64).makeMap();
+  private static final Map<String,CompactMetadataMap> metadatas = new MapMaker().concurrencyLevel(64).makeMap();
+
+  /**
+   * Map of classId to class name, used to retrieve Metadata by id
+   */
+  private static final Map<Long,String> classNames = new MapMaker().concurrencyLevel(64).makeMap();
+
+  /**
+   * Inverted index of label and attribute values, used to restrict the GTS scanned by find and stats,
+   * null unless enabled by configuration
+   */
+  private final MetadataIndex index;
 
   private long activityWindow = 0L;
 
+  /**
+   * File where snapshots of the directory are written, null if snapshots are disabled
+   */
+  private final File snapshotFile;
+
+  private final long snapshotPeriod;
+
+  /**
+   * Sequence number of the next journal entry
+   */
+  private final AtomicLong journalSequence = new AtomicLong(0L);
+
+  /**
+   * Changes hold the read lock from the allocation of their journal entry until they are
+   * applied in memory, snapshots acquire the write lock to read a consistent sequence number.
+   */
+  private final ReadWriteLock journalLock = new ReentrantReadWriteLock();
+
   public StandaloneDirectoryClient(DB db, final KeyStore keystore) {
 
     Properties props = WarpConfig.getProperties();
@@ -134,6 +180,8 @@ public class StandaloneDirectoryClient implements DirectoryClient {
 
     this.initNThreads = Integer.parseInt(props.getProperty(Configuration.DIRECTORY_INIT_NTHREADS, DIRECTORY_INIT_NTHREADS_DEFAULT));
 
+    this.index = "true".equals(props.getProperty(Configuration.LEVELDB_DIRECTORY_INDEX)) ? new MetadataIndex() : null;
+
     this.db = db;
     this.keystore = keystore;
 
@@ -147,6 +195,14 @@ public class StandaloneDirectoryClient implements DirectoryClient {
     syncrate = Math.min(1.0D, Math.max(0.0D, Double.parseDouble(props.getProperty(Configuration.LEVELDB_DIRECTORY_SYNCRATE, "1.0"))));
     syncwrites = 0.0 < syncrate && syncrate < 1.0;
 
+    if (null != db && props.containsKey(Configuration.LEVELDB_DIRECTORY_SNAPSHOT)) {
+      this.snapshotFile = new File(props.getProperty(Configuration.LEVELDB_DIRECTORY_SNAPSHOT));
+    } else {
+      this.snapshotFile = null;
+    }
+
+    this.snapshotPeriod = Long.parseLong(props.getProperty(Configuration.LEVELDB_DIRECTORY_SNAPSHOT_PERIOD, DIRECTORY_SNAPSHOT_PERIOD_DEFAULT));
+
     //
     // Read metadata from DB
     //
@@ -155,141 +211,165 @@ public class StandaloneDirectoryClient implements DirectoryClient {
       return;
     }
 
-    DBIterator iter = db.iterator();
+    long nano = System.nanoTime();
 
-    iter.seek(METADATA_PREFIX);
+    boolean loaded = false;
 
-    byte[] stop = "N".getBytes(Charsets.US_ASCII);
+    if (null != this.snapshotFile) {
+      try {
+        loaded = loadSnapshot();
+      } catch (IOException ioe) {
+        LOG.error("Error while loading the directory snapshot, scanning LevelDB instead.", ioe);
+      }
 
-    long count = 0;
+      if (!loaded) {
+        metadatas.clear();
+        classNames.clear();
+        if (null != this.index) {
+          this.index.clear();
+        }
+      }
+    }
 
+    //
+    // If the directory was not loaded from a snapshot, the journal is of no use. It is also
+    // cleared when snapshots are disabled so a stale snapshot is never considered valid.
+    //
 
-    Thread[] initThreads = new Thread[this.initNThreads];
-    final AtomicBoolean[] stopMarkers = new AtomicBoolean[this.initNThreads];
-    final LinkedBlockingQueue<Entry<byte[],byte[]>> resultQ = new LinkedBlockingQueue<Entry<byte[],byte[]>>(initThreads.length * 8192);
+    if (!loaded) {
+      try {
+        clearJournal();
+      } catch (IOException ioe) {
+        throw new RuntimeException(ioe);
+      }
+      load(Integer.parseInt(props.getProperty(Configuration.DIRECTORY_INIT_RANGES, Integer.toString(this.initNThreads))));
+    }
 
-    for (int i = 0; i < initThreads.length; i++) {
-      stopMarkers[i] = new AtomicBoolean(false);
-      final AtomicBoolean stopMe = stopMarkers[i];
-      initThreads[i] = new Thread(new Runnable() {
-        @Override
-        public void run() {
+    nano = System.nanoTime() - nano;
 
-          byte[] bytes = new byte[16];
+    long count = 0L;
 
-          AESWrapEngine engine = null;
-          PKCS7Padding padding = null;
+    for (CompactMetadataMap map: metadatas.values()) {
+      count += map.size();
+    }
 
-          if (null != keystore.getKey(KeyStore.AES_LEVELDB_METADATA)) {
-            engine = new AESWrapEngine();
-            CipherParameters params = new KeyParameter(keystore.getKey(KeyStore.AES_LEVELDB_METADATA));
-            engine.init(false, params);
+    Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_GTS, Sensision.EMPTY_LABELS, count);
+    Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_TIME_MS, Sensision.EMPTY_LABELS, nano / 1000000L);
 
-            padding = new PKCS7Padding();
-          }
+    System.out.println("Loaded " + count + " GTS in " + (nano / 1000000.0D) + " ms");
+
+    if (null != this.snapshotFile) {
+      final boolean snapshotNow = !loaded;
 
-          TDeserializer deserializer = new TDeserializer(new TCompactProtocol.Factory());
+      Thread snapshotter = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          boolean now = snapshotNow;
+
+          while(true) {
+            if (!now) {
+              try { Thread.sleep(snapshotPeriod); } catch (InterruptedException ie) {}
+            }
+
+            now = false;
 
-          while (!stopMe.get()) {
             try {
+              snapshot();
+            } catch (Throwable t) {
+              LOG.error("Error while writing the directory snapshot.", t);
+            }
+          }
+        }
+      });
 
-              Entry<byte[],byte[]> result = resultQ.poll(100, TimeUnit.MILLISECONDS);
+      snapshotter.setDaemon(true);
+      snapshotter.setName("[Directory snapshot]");
+      snapshotter.start();
+    }
+  }
 
-              if (null == result) {
-                continue;
-              }
+  /**
+   * Load the Metadata from LevelDB, the keyspace is split in 'nranges' ranges of classIds which are scanned in parallel
+   */
+  private void load(int nranges) {
+    nranges = Math.max(1, Math.min(256, nranges));
 
-              byte[] key = result.getKey();
-              byte[] value = result.getValue();
+    final AtomicLong count = new AtomicLong(0L);
+    final AtomicLong pending = new AtomicLong(nranges);
 
-              //
-              // Unwrap
-              //
+    final Map<String,String> labels = new HashMap<String,String>();
+    labels.put(SensisionConstants.SENSISION_LABEL_SOURCE, "scan");
 
-              byte[] unwrapped = null != engine ? engine.unwrap(value, 0, value.length) : value;
+    Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_RANGES_PENDING, Sensision.EMPTY_LABELS, nranges);
 
-              //
-              // Unpad
-              //
+    Thread[] initThreads = new Thread[nranges];
+    final Throwable[] errors = new Throwable[nranges];
 
-              int padcount = null != padding ? padding.padCount(unwrapped) : 0;
-              byte[] unpadded = null != padding ? Arrays.copyOf(unwrapped, unwrapped.length - padcount) : unwrapped;
+    for (int i = 0; i < nranges; i++) {
+      //
+      // Ranges are delimited by the first byte of the classId
+      //
 
-              //
-              // Deserialize
-              //
+      final byte[] start = new byte[] { METADATA_PREFIX[0], (byte) ((i * 256) / nranges) };
+      final byte[] stop = i == nranges - 1 ? "N".getBytes(Charsets.US_ASCII) : new byte[] { METADATA_PREFIX[0], (byte) (((i + 1) * 256) / nranges) };
+      final int range = i;
 
-              Metadata metadata = new Metadata();
-              deserializer.deserialize(metadata, unpadded);
+      initThreads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          DBIterator iter = db.iterator();
 
-              //
-              // Compute classId/labelsId and compare it to the values in the row key
-              //
+          try {
+            MetadataDecoder decoder = new MetadataDecoder();
 
-              // 128BITS
-              long classId = GTSHelper.classId(classLongs, metadata.getName());
-              long labelsId = GTSHelper.labelsId(labelsLongs, metadata.getLabels());
+            iter.seek(start);
 
-              ByteBuffer bb = ByteBuffer.wrap(key).order(ByteOrder.BIG_ENDIAN);
-              bb.position(1);
-              long hbClassId = bb.getLong();
-              long hbLabelsId = bb.getLong();
+            while(iter.hasNext()) {
+              Entry<byte[],byte[]> kv = iter.next();
 
-              // If classId/labelsId are incoherent, skip metadata
-              if (classId != hbClassId || labelsId != hbLabelsId) {
-                // FIXME(hbs): LOG
-                System.err.println("Incoherent class/labels Id for " + metadata);
-                continue;
+              if (Bytes.compareTo(kv.getKey(), stop) >= 0) {
+                break;
               }
 
-              // 128BITS
-              metadata.setClassId(classId);
-              metadata.setLabelsId(labelsId);
+              Metadata metadata = decoder.decode(kv.getKey(), kv.getValue());
 
-              if (!metadata.isSetAttributes()) {
-                metadata.setAttributes(new HashMap<String,String>());
+              if (null == metadata) {
+                continue;
               }
 
               //
-              // Internalize Strings
+              // Keep the compact version of the Metadata, its Strings are shared with the other GTS
               //
 
-              GTSHelper.internalizeStrings(metadata);
-
-              synchronized(metadatas) {
-                if (!metadatas.containsKey(metadata.getName())) {
-                  metadatas.put(metadata.getName(), (Map) new MapMaker().concurrencyLevel(64).makeMap());
-                }
-              }
-
-              synchronized(metadatas.get(metadata.getName())) {
-                if (!metadatas.get(metadata.getName()).containsKey(labelsId)) {
-                  metadatas.get(metadata.getName()).put(labelsId, metadata);
+              CompactMetadata compact = new CompactMetadata(metadata);
 
-                  //
-                  // Store Metadata under 'id'
-                  //
-                  // 128BITS
-                  GTSHelper.fillGTSIds(bytes, 0, classId, labelsId);
-                  BigInteger id = new BigInteger(bytes);
-                  metadatasById.put(id, metadata);
+              CompactMetadataMap classMetadatas = classMetadatas(compact);
 
+              synchronized(classMetadatas) {
+                if (classMetadatas.containsKey(compact.getLabelsId())) {
+                  // FIXME(hbs): LOG
+                  System.err.println("Duplicate labelsId for classId " + compact.getClassId() + ": " + metadata);
                   continue;
                 }
+                classMetadatas.put(compact);
               }
 
-              // FIXME(hbs): LOG
-              System.err.println("Duplicate labelsId for classId " + classId + ": " + metadata);
-              continue;
-
-            } catch (InvalidCipherTextException icte) {
-              throw new RuntimeException(icte);
-            } catch (TException te) {
-              throw new RuntimeException(te);
-            } catch (InterruptedException ie) {
+              if (null != index) {
+                index.add(compact);
+              }
 
+              if (0 == count.incrementAndGet() % 1000) {
+                Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_LOADED, labels, count.get());
+              }
             }
-
+          } catch (Throwable t) {
+            errors[range] = t;
+          } finally {
+            try {
+              iter.close();
+            } catch (IOException ioe) {
+            }
+            Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_RANGES_PENDING, Sensision.EMPTY_LABELS, pending.decrementAndGet());
           }
         }
       });
@@ -299,59 +379,328 @@ public class StandaloneDirectoryClient implements DirectoryClient {
       initThreads[i].start();
     }
 
-    try {
+    for (int i = 0; i < nranges; i++) {
+      try {
+        initThreads[i].join();
+      } catch (InterruptedException ie) {
+        i--;
+      }
+    }
+
+    Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_LOADED, labels, count.get());
+
+    for (Throwable t: errors) {
+      if (null != t) {
+        throw new RuntimeException(t);
+      }
+    }
+  }
+
+  /**
+   * Load the directory from the snapshot file and apply the changes recorded in the journal since it was written.
+   *
+   * @return false if there is no snapshot or if it does not match the journal stored in LevelDB
+   */
+  private boolean loadSnapshot() throws IOException {
+    long[] header = DirectorySnapshot.readHeader(this.snapshotFile);
+    byte[] marker = this.db.get(SNAPSHOT_KEY);
+
+    if (null == header || null == marker || 16 != marker.length) {
+      return false;
+    }
+
+    ByteBuffer bb = ByteBuffer.wrap(marker).order(ByteOrder.BIG_ENDIAN);
+
+    if (header[0] != bb.getLong() || header[1] != bb.getLong()) {
+      LOG.warn("Directory snapshot " + this.snapshotFile + " does not match the journal, ignoring it.");
+      return false;
+    }
+
+    final Map<String,String> labels = new HashMap<String,String>();
+    labels.put(SensisionConstants.SENSISION_LABEL_SOURCE, "snapshot");
+
+    final AtomicLong count = new AtomicLong(0L);
+
+    DirectorySnapshot.read(this.snapshotFile, new DirectorySnapshot.Visitor() {
+      @Override
+      public void visit(CompactMetadata metadata) {
+        classMetadatas(metadata).put(metadata);
+        if (null != index) {
+          index.add(metadata);
+        }
+        if (0 == count.incrementAndGet() % 100000) {
+          Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_LOADED, labels, count.get());
+        }
+      }
+    });
+
+    Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_LOADED, labels, count.get());
+
+    //
+    // Replay the journal, the current content of LevelDB is read for each GTS modified since the snapshot
+    //
 
-      long nano = System.nanoTime();
+    labels.put(SensisionConstants.SENSISION_LABEL_SOURCE, "journal");
+
+    long sequence = header[1];
+    long replayed = 0L;
+
+    MetadataDecoder decoder = new MetadataDecoder();
+
+    DBIterator iter = this.db.iterator();
+
+    try {
+      iter.seek(journalKey(sequence));
 
       while(iter.hasNext()) {
         Entry<byte[],byte[]> kv = iter.next();
-        byte[] key = kv.getKey();
-        if (Bytes.compareTo(key, stop) >= 0) {
+
+        if (JOURNAL_PREFIX[0] != kv.getKey()[0]) {
           break;
         }
 
-        boolean interrupted = true;
+        sequence = ByteBuffer.wrap(kv.getKey(), 1, 8).order(ByteOrder.BIG_ENDIAN).getLong() + 1;
 
-        while(interrupted) {
-          interrupted = false;
-          try {
-            resultQ.put(kv);
-            count++;
-            if (0 == count % 1000) {
-              Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_GTS, Sensision.EMPTY_LABELS, count);
+        byte[] key = new byte[METADATA_PREFIX.length + 16];
+        System.arraycopy(METADATA_PREFIX, 0, key, 0, METADATA_PREFIX.length);
+        System.arraycopy(kv.getValue(), 0, key, METADATA_PREFIX.length, 16);
+
+        byte[] value = this.db.get(key);
+
+        if (null != value) {
+          Metadata metadata = decoder.decode(key, value);
+          if (null != metadata) {
+            CompactMetadata compact = new CompactMetadata(metadata);
+            CompactMetadata old = classMetadatas(compact).put(compact);
+            if (null != this.index) {
+              this.index.update(old, compact);
+            }
+          }
+        } else {
+          ByteBuffer ids = ByteBuffer.wrap(kv.getValue()).order(ByteOrder.BIG_ENDIAN);
+          long classId = ids.getLong();
+          long labelsId = ids.getLong();
+
+          String className = classNames.get(classId);
+
+          if (null != className) {
+            CompactMetadataMap classMetadatas = metadatas.get(className);
+            CompactMetadata removed = classMetadatas.remove(labelsId);
+            if (null != removed && null != this.index) {
+              this.index.remove(removed);
+            }
+            if (classMetadatas.isEmpty()) {
+              metadatas.remove(className);
+              classNames.remove(classId);
             }
-          } catch (InterruptedException ie) {
-            interrupted = true;
           }
         }
+
+        replayed++;
       }
+    } catch (InvalidCipherTextException icte) {
+      throw new IOException(icte);
+    } catch (TException te) {
+      throw new IOException(te);
+    } finally {
+      iter.close();
+    }
+
+    Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_INIT_LOADED, labels, replayed);
+
+    this.journalSequence.set(sequence);
+
+    return true;
+  }
 
+  /**
+   * Write a snapshot of the directory and drop the journal entries it makes obsolete
+   */
+  private void snapshot() throws IOException {
+    long sequence;
+
+    //
+    // All the changes with a lower sequence number have been applied to the in memory directory
+    // once the write lock is acquired, so they are part of the snapshot. Their journal entries and
+    // Metadata may still sit in the batches of the threads which registered them, those batches are
+    // written so the snapshot does not contain GTS which LevelDB does not know of.
+    //
+
+    this.journalLock.writeLock().lock();
+    try {
+      for (PendingBatch pending: this.pendingBatches) {
+        synchronized(pending) {
+          write(pending, new WriteOptions());
+        }
+      }
+      sequence = this.journalSequence.get();
+    } finally {
+      this.journalLock.writeLock().unlock();
+    }
+
+    long nano = System.nanoTime();
+
+    long id = System.currentTimeMillis();
+
+    DirectorySnapshot.write(this.snapshotFile, id, sequence, metadatas.values());
+
+    ByteBuffer bb = ByteBuffer.allocate(16).order(ByteOrder.BIG_ENDIAN);
+    bb.putLong(id);
+    bb.putLong(sequence);
+
+    this.db.put(SNAPSHOT_KEY, bb.array(), new WriteOptions().sync(true));
+
+    deleteJournal(sequence);
+
+    nano = System.nanoTime() - nano;
+
+    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_SNAPSHOTS, Sensision.EMPTY_LABELS, 1);
+    Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_SNAPSHOTS_TIME_MS, Sensision.EMPTY_LABELS, nano / 1000000L);
+  }
+
+  /**
+   * Remove the snapshot marker and the whole journal
+   */
+  private void clearJournal() throws IOException {
+    this.db.delete(SNAPSHOT_KEY);
+    deleteJournal(Long.MAX_VALUE);
+    this.journalSequence.set(0L);
+  }
+
+  /**
+   * Delete the journal entries whose sequence number is less than 'before'
+   */
+  private void deleteJournal(long before) throws IOException {
+    DBIterator iter = this.db.iterator();
+
+    WriteBatch batch = this.db.createWriteBatch();
+    int size = 0;
+
+    try {
+      iter.seek(JOURNAL_PREFIX);
+
+      while(iter.hasNext()) {
+        byte[] key = iter.next().getKey();
+
+        if (JOURNAL_PREFIX[0] != key[0] || ByteBuffer.wrap(key, 1, 8).order(ByteOrder.BIG_ENDIAN).getLong() >= before) {
+          break;
+        }
+
+        batch.delete(key);
+        size++;
+
+        if (size >= MAX_BATCH_SIZE / key.length) {
+          this.db.write(batch);
+          batch.close();
+          batch = this.db.createWriteBatch();
+          size = 0;
+        }
+      }
+
+      if (size > 0) {
+        this.db.write(batch);
+      }
+    } finally {
+      batch.close();
+      iter.close();
+    }
+  }
+
+  private static byte[] journalKey(long sequence) {
+    ByteBuffer bb = ByteBuffer.allocate(JOURNAL_PREFIX.length + 8).order(ByteOrder.BIG_ENDIAN);
+    bb.put(JOURNAL_PREFIX);
+    bb.putLong(sequence);
+    return bb.array();
+  }
+
+  /**
+   * Return the map of the GTS of the class of 'metadata', creating it if needed
+   */
+  private static CompactMetadataMap classMetadatas(CompactMetadata metadata) {
+    CompactMetadataMap classMetadatas = metadatas.get(metadata.getName());
+
+    if (null != classMetadatas) {
+      return classMetadatas;
+    }
+
+    synchronized(metadatas) {
+      if (!metadatas.containsKey(metadata.getName())) {
+        metadatas.put(metadata.getName(), new CompactMetadataMap());
+        classNames.put(metadata.getClassId(), metadata.getName());
+      }
+      return metadatas.get(metadata.getName());
+    }
+  }
+
+  /**
+   * Decoder of the Metadata stored in LevelDB, instances are not thread safe
+   */
+  private final class MetadataDecoder {
+    private final AESWrapEngine engine;
+    private final PKCS7Padding padding;
+    private final TDeserializer deserializer = new TDeserializer(new TCompactProtocol.Factory());
+
+    private MetadataDecoder() {
+      if (null != aesKey) {
+        this.engine = new AESWrapEngine();
+        CipherParameters params = new KeyParameter(aesKey);
+        this.engine.init(false, params);
+        this.padding = new PKCS7Padding();
+      } else {
+        this.engine = null;
+        this.padding = null;
+      }
+    }
+
+    /**
+     * Decode the Metadata stored under 'key', returning null if its ids do not match those of the key
+     */
+    private Metadata decode(byte[] key, byte[] value) throws InvalidCipherTextException, TException {
       //
-      // Wait until resultQ is empty
+      // Unwrap
       //
 
-      while(!resultQ.isEmpty()) {
-        try { Thread.sleep(100L); } catch (InterruptedException ie) {}
-      }
+      byte[] unwrapped = null != engine ? engine.unwrap(value, 0, value.length) : value;
 
       //
-      // Notify the init threads to stop
+      // Unpad
       //
 
-      for (int i = 0; i < initNThreads; i++) {
-        stopMarkers[i].set(true);
-      }
+      int padcount = null != padding ? padding.padCount(unwrapped) : 0;
+      byte[] unpadded = null != padding ? Arrays.copyOf(unwrapped, unwrapped.length - padcount) : unwrapped;
+
+      //
+      // Deserialize
+      //
 
-      nano = System.nanoTime() - nano;
+      Metadata metadata = new Metadata();
+      deserializer.deserialize(metadata, unpadded);
 
-      System.out.println("Loaded " + count + " GTS in " + (nano / 1000000.0D) + " ms");
-    } finally {
-      Sensision.set(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_GTS, Sensision.EMPTY_LABELS, count);
-      try {
-        iter.close();
-      } catch (IOException ioe) {
-        throw new RuntimeException(ioe);
+      //
+      // Compute classId/labelsId and compare it to the values in the row key
+      //
+
+      // 128BITS
+      long classId = GTSHelper.classId(classLongs, metadata.getName());
+      long labelsId = GTSHelper.labelsId(labelsLongs, metadata.getLabels());
+
+      ByteBuffer bb = ByteBuffer.wrap(key).order(ByteOrder.BIG_ENDIAN);
+      bb.position(1);
+      long hbClassId = bb.getLong();
+      long hbLabelsId = bb.getLong();
+
+      // If classId/labelsId are incoherent, skip metadata
+      if (classId != hbClassId || labelsId != hbLabelsId) {
+        // FIXME(hbs): LOG
+        System.err.println("Incoherent class/labels Id for " + metadata);
+        return null;
       }
+
+      // 128BITS
+      metadata.setClassId(classId);
+      metadata.setLabelsId(labelsId);
+
+      return metadata;
     }
   }
 
@@ -396,6 +745,9 @@ public class StandaloneDirectoryClient implements DirectoryClient {
 
       Map<String,SmartPattern> labelPatterns = new HashMap<String,SmartPattern>();
 
+      // Exact label values, used to only consider the GTS found in the index
+      Map<String,String> exactLabels = new HashMap<String,String>();
+
       if (null != labelsExpr.get(i)) {
         for (Entry<String,String> entry: labelsExpr.get(i).entrySet()) {
           String label = entry.getKey();
@@ -403,6 +755,7 @@ public class StandaloneDirectoryClient implements DirectoryClient {
           Pattern pattern;
 
           if (expr.startsWith("=") || !expr.startsWith("~")) {
+            exactLabels.put(label, expr.startsWith("=") ? expr.substring(1) : expr);
             labelPatterns.put(label, new SmartPattern(expr.startsWith("=") ? expr.substring(1) : expr));
           } else {
             pattern = Pattern.compile(expr.substring(1));
@@ -471,7 +824,11 @@ public class StandaloneDirectoryClient implements DirectoryClient {
         //
 
         if (classSmartPattern.matches(className)) {
-          for (Metadata metadata: this.metadatas.get(className).values()) {
+          CompactMetadataMap classMetadatas = this.metadatas.get(className);
+          if (null == classMetadatas) {
+            continue;
+          }
+          for (CompactMetadata metadata: candidates(className, classMetadatas, exactLabels)) {
 
             //
             // Check activity
@@ -496,10 +853,10 @@ public class StandaloneDirectoryClient implements DirectoryClient {
               // labels for which we have patterns either in labels or in attributes
               //
 
-              String labelValue = metadata.getLabels().get(labelName);
+              String labelValue = metadata.getLabel(labelName);
 
               if (null == labelValue) {
-                labelValue = metadata.getAttributes().get(labelName);
+                labelValue = metadata.getAttribute(labelName);
                 if (null == labelValue) {
                   exclude = true;
                   break;
@@ -536,26 +893,9 @@ public class StandaloneDirectoryClient implements DirectoryClient {
             //
             // We have a match, rebuild metadata
             //
-            // FIXME(hbs): include a 'safe' mode to expose the internal Metadata instances?
-            //
 
-            Metadata meta = new Metadata();
-            meta.setName(className);
-            meta.setLabels(ImmutableMap.copyOf(metadata.getLabels()));
-            meta.setAttributes(ImmutableMap.copyOf(metadata.getAttributes()));
+            Metadata meta = metadata.toMetadata();
             meta.setLastActivity(metadata.getLastActivity());
-            
-            // 128BITS
-            if (metadata.isSetClassId()) {
-              meta.setClassId(metadata.getClassId());
-            } else {
-              meta.setClassId(GTSHelper.classId(classKey, meta.getName()));
-            }
-            if (metadata.isSetLabelsId()) {
-              meta.setLabelsId(metadata.getLabelsId());
-            } else {
-              meta.setLabelsId(GTSHelper.labelsId(labelsKey, meta.getLabels()));
-            }
 
             metadatas.add(meta);
           }
@@ -643,6 +983,22 @@ public class StandaloneDirectoryClient implements DirectoryClient {
   }
 
   public synchronized void unregister(Metadata metadata) {
+    Lock lock = null != this.snapshotFile ? this.journalLock.readLock() : null;
+
+    if (null != lock) {
+      lock.lock();
+    }
+
+    try {
+      doUnregister(metadata);
+    } finally {
+      if (null != lock) {
+        lock.unlock();
+      }
+    }
+  }
+
+  private void doUnregister(Metadata metadata) {
     if (!metadatas.containsKey(metadata.getName())) {
       return;
     }
@@ -651,18 +1007,20 @@ public class StandaloneDirectoryClient implements DirectoryClient {
     if (!metadatas.get(metadata.getName()).containsKey(labelsId)) {
       return;
     }
-    metadatas.get(metadata.getName()).remove(labelsId);
-    if (metadatas.get(metadata.getName()).isEmpty()) {
-      metadatas.remove(metadata.getName());
+    CompactMetadata removed = metadatas.get(metadata.getName()).remove(labelsId);
+    if (null != removed && null != this.index) {
+      this.index.remove(removed);
     }
 
     // 128BITS
     long classId = GTSHelper.classId(this.classLongs, metadata.getName());
 
-    // Remove Metadata indexed by id
-    byte[] idbytes = new byte[16];
-    GTSHelper.fillGTSIds(idbytes, 0, classId, labelsId);
-    this.metadatasById.remove(new BigInteger(idbytes));
+    synchronized(metadatas) {
+      if (metadatas.containsKey(metadata.getName()) && metadatas.get(metadata.getName()).isEmpty()) {
+        metadatas.remove(metadata.getName());
+        classNames.remove(classId);
+      }
+    }
 
     //
     // Remove entry from DB if need be
@@ -697,20 +1055,42 @@ public class StandaloneDirectoryClient implements DirectoryClient {
     bytes[idx++] = (byte) ((labelsId >> 8) & 0xff);
     bytes[idx++] = (byte) (labelsId & 0xff);
 
-    this.db.delete(bytes);
+    if (null != this.snapshotFile) {
+      WriteBatch batch = this.db.createWriteBatch();
+      try {
+        batch.put(journalKey(this.journalSequence.getAndIncrement()), Arrays.copyOfRange(bytes, METADATA_PREFIX.length, bytes.length));
+        batch.delete(bytes);
+        this.db.write(batch);
+      } finally {
+        try {
+          batch.close();
+        } catch (IOException ioe) {
+          throw new RuntimeException(ioe);
+        }
+      }
+    } else {
+      this.db.delete(bytes);
+    }
 
     Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_GTS, Sensision.EMPTY_LABELS, -1);
   }
 
-  private ThreadLocal<WriteBatch> perThreadWriteBatch = new ThreadLocal<WriteBatch>() {
-    protected WriteBatch initialValue() {
-      return db.createWriteBatch();
-    };
-  };
+  /**
+   * Writes of a thread which have not yet been written to LevelDB
+   */
+  private static final class PendingBatch {
+    private WriteBatch batch = null;
+    private long size = 0L;
+  }
+
+  /**
+   * Non empty per thread batches, so snapshots can write them
+   */
+  private final Set<PendingBatch> pendingBatches = Collections.newSetFromMap(new ConcurrentHashMap<PendingBatch,Boolean>());
 
-  private ThreadLocal<AtomicLong> perThreadWriteBatchSize = new ThreadLocal<AtomicLong>() {
-    protected AtomicLong initialValue() {
-      return new AtomicLong(0L);
+  private ThreadLocal<PendingBatch> perThreadWriteBatch = new ThreadLocal<PendingBatch>() {
+    protected PendingBatch initialValue() {
+      return new PendingBatch();
     };
   };
 
@@ -720,38 +1100,49 @@ public class StandaloneDirectoryClient implements DirectoryClient {
       return;
     }
 
-    WriteBatch batch = perThreadWriteBatch.get();
-
-    AtomicLong size = perThreadWriteBatchSize.get();
-
-    boolean written = false;
+    PendingBatch pending = perThreadWriteBatch.get();
 
-    WriteOptions options = new WriteOptions().sync(1.0 == syncrate);
-
-    try {
+    synchronized(pending) {
       if (null != key && null != value) {
-        batch.put(key, value);
-        size.addAndGet(key.length + value.length);
+        if (null == pending.batch) {
+          pending.batch = this.db.createWriteBatch();
+          this.pendingBatches.add(pending);
+        }
+        pending.batch.put(key, value);
+        pending.size += key.length + value.length;
       }
 
-      if (null == key || null == value || size.get() > MAX_BATCH_SIZE) {
+      if (null == key || null == value || pending.size > MAX_BATCH_SIZE) {
+        WriteOptions options = new WriteOptions().sync(1.0 == syncrate);
 
         if (syncwrites) {
           options = new WriteOptions().sync(Math.random() < syncrate);
         }
 
-        this.db.write(batch, options);
-        size.set(0L);
-        perThreadWriteBatch.remove();
-        written = true;
-      }
-    } finally {
-      if (written) {
-        batch.close();
+        write(pending, options);
       }
     }
   }
 
+  /**
+   * Write a pending batch, the caller must hold its monitor. The batch is kept if the write fails.
+   */
+  private void write(PendingBatch pending, WriteOptions options) throws IOException {
+    if (null == pending.batch) {
+      return;
+    }
+
+    this.db.write(pending.batch, options);
+
+    WriteBatch batch = pending.batch;
+
+    pending.batch = null;
+    pending.size = 0L;
+    this.pendingBatches.remove(pending);
+
+    batch.close();
+  }
+
   private void store(Metadata metadata) throws IOException {
     // Compute labelsId and classId
     // 128BITS
@@ -795,7 +1186,7 @@ public class StandaloneDirectoryClient implements DirectoryClient {
       // If we are not updating the attributes, copy the attributes from the directory as we are probably
       // registering the GTS due to its recent activity.
       if (!Configuration.INGRESS_METADATA_UPDATE_ENDPOINT.equals(metadata.getSource())) {
-        Metadata oldmeta = null;
+        CompactMetadata oldmeta = null;
         // Copy the attributes if the Metadata is already known, which can happen when
         // tracking the activity
         synchronized(metadatas) {
@@ -811,6 +1202,12 @@ public class StandaloneDirectoryClient implements DirectoryClient {
 
     TSerializer serializer = new TSerializer(new TCompactProtocol.Factory());
 
+    Lock lock = null != this.snapshotFile ? this.journalLock.readLock() : null;
+
+    if (null != lock) {
+      lock.lock();
+    }
+
     try {
       if (null != this.db) {
         byte[] serialized = serializer.serialize(metadata);
@@ -818,35 +1215,83 @@ public class StandaloneDirectoryClient implements DirectoryClient {
           serialized = CryptoUtils.wrap(this.aesKey, serialized);
         }
 
+        //
+        // Record the change in the journal, in the same batch and before the Metadata
+        //
+
+        if (null != this.snapshotFile) {
+          store(journalKey(this.journalSequence.getAndIncrement()), Arrays.copyOfRange(bytes, METADATA_PREFIX.length, bytes.length));
+        }
+
         //this.db.put(bb.array(), serialized);
         //this.db.put(bytes, serialized);
         store(bytes, serialized);
       }
 
+      CompactMetadata compact = new CompactMetadata(metadata);
+
       synchronized (metadatas) {
         if (!metadatas.containsKey(metadata.getName())) {
-          metadatas.put(metadata.getName(), (Map) new MapMaker().concurrencyLevel(64).makeMap());
+          metadatas.put(compact.getName(), new CompactMetadataMap());
+          classNames.put(classId, compact.getName());
         }
-        if (null == metadatas.get(metadata.getName()).put(labelsId, metadata)) {
+        CompactMetadata old = metadatas.get(metadata.getName()).put(compact);
+        if (null == old) {
           Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_DIRECTORY_GTS, Sensision.EMPTY_LABELS, 1);
         }
+        if (null != this.index) {
+          this.index.update(old, compact);
+        }
       }
-      //
-      // Store Metadata under 'id'
-      //
-
-      byte[] idbytes = new byte[16];
-      GTSHelper.fillGTSIds(idbytes, 0, classId, labelsId);
-      BigInteger id = new BigInteger(idbytes);
-      this.metadatasById.put(id, metadata);
-
     } catch (TException te) {
       throw new RuntimeException(te);
+    } finally {
+      if (null != lock) {
+        lock.unlock();
+      }
     }
   }
 
+  /**
+   * Return the Metadata of class 'className' which should be checked against a selector.
+   * If the index is enabled and the selector has exact label values, only the GTS found in
+   * the index under all those values are returned, otherwise all the GTS of the class are.
+   */
+  private Collection<CompactMetadata> candidates(String className, CompactMetadataMap classMetadatas, Map<String,String> exactLabels) {
+    if (null == this.index || exactLabels.isEmpty()) {
+      return classMetadatas.values();
+    }
+
+    long[] labelsIds = this.index.candidates(className, exactLabels);
+
+    List<CompactMetadata> candidates = new ArrayList<CompactMetadata>(labelsIds.length);
+
+    for (long labelsId: labelsIds) {
+      CompactMetadata metadata = classMetadatas.get(labelsId);
+      // The GTS may have been removed since the lookup
+      if (null != metadata) {
+        candidates.add(metadata);
+      }
+    }
+
+    return candidates;
+  }
+
   public Metadata getMetadataById(BigInteger id) {
-    return this.metadatasById.get(id);
+    // 128BITS
+    long classId = id.shiftRight(64).longValue();
+    long labelsId = id.longValue();
+
+    String className = classNames.get(classId);
+
+    if (null == className) {
+      return null;
+    }
+
+    CompactMetadataMap classMetadatas = metadatas.get(className);
+    CompactMetadata metadata = null == classMetadatas ? null : classMetadatas.get(labelsId);
+
+    return null == metadata ? null : metadata.toMetadata();
   }
 
   @Override
@@ -932,6 +1377,9 @@ public class StandaloneDirectoryClient implements DirectoryClient {
 
         Map<String,SmartPattern> labelPatterns = new HashMap<String,SmartPattern>();
 
+        // Exact label values, used to only consider the GTS found in the index
+        Map<String,String> exactLabels = new HashMap<String,String>();
+
         if (null != request.getLabelsSelectors()) {
           for (Entry<String,String> entry: request.getLabelsSelectors().get(i).entrySet()) {
             String label = entry.getKey();
@@ -940,6 +1388,7 @@ public class StandaloneDirectoryClient implements DirectoryClient {
 
             if (expr.startsWith("=") || !expr.startsWith("~")) {
               //pattern = Pattern.compile(Pattern.quote(expr.startsWith("=") ? expr.substring(1) : expr));
+              exactLabels.put(label, expr.startsWith("=") ? expr.substring(1) : expr);
               pattern = new SmartPattern(expr.startsWith("=") ? expr.substring(1) : expr);
             } else {
               pattern = new SmartPattern(Pattern.compile(expr.substring(1)));
@@ -1025,11 +1474,11 @@ public class StandaloneDirectoryClient implements DirectoryClient {
           //
 
           if (classSmartPattern.matches(className)) {
-            Map<Long,Metadata> classMetadatas = this.metadatas.get(className);
+            CompactMetadataMap classMetadatas = this.metadatas.get(className);
             if (null == classMetadatas) {
               continue;
             }
-            for (Metadata metadata: classMetadatas.values()) {
+            for (CompactMetadata metadata: candidates(className, classMetadatas, exactLabels)) {
 
               boolean exclude = false;
 
@@ -1041,10 +1490,10 @@ public class StandaloneDirectoryClient implements DirectoryClient {
                 // labels for which we have patterns either in labels or in attributes
                 //
 
-                String labelValue = metadata.getLabels().get(labelName);
+                String labelValue = metadata.getLabel(labelName);
 
                 if (null == labelValue) {
-                  labelValue = metadata.getAttributes().get(labelName);
+                  labelValue = metadata.getAttribute(labelName);
                   if (null == labelValue) {
                     exclude = true;
                     break;
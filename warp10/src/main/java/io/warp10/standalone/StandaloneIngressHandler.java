@@ -24,7 +24,9 @@ import io.warp10.continuum.TimeSource;
 import io.warp10.continuum.Tokens;
 import io.warp10.continuum.WarpException;
 import io.warp10.continuum.gts.GTSEncoder;
-import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GTSColumnarReader;
+import io.warp10.continuum.gts.GTSInputParser;
+import io.warp10.continuum.gts.GTSInputReader;
 import io.warp10.continuum.ingress.DatalogForwarder;
 import io.warp10.continuum.sensision.SensisionConstants;
 import io.warp10.continuum.store.Constants;
@@ -42,6 +44,7 @@ import io.warp10.sensision.Sensision;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.text.ParseException;
@@ -266,6 +269,8 @@ public class StandaloneIngressHandler extends AbstractHandler {
       File loggingFile = null;   
       PrintWriter loggingWriter = null;
 
+      GTSInputReader parser = null;
+
       try {      
         if (null == producer || null == owner) {
           response.sendError(HttpServletResponse.SC_FORBIDDEN, "Invalid token.");
@@ -305,15 +310,24 @@ public class StandaloneIngressHandler extends AbstractHandler {
           gzipped = true;
         }
         
-        BufferedReader br = null;
+        InputStream is = null;
             
         if (gzipped) {
-          GZIPInputStream is = new GZIPInputStream(request.getInputStream());
-          br = new BufferedReader(new InputStreamReader(is));
+          is = new GZIPInputStream(request.getInputStream());
         } else {    
-          br = request.getReader();
+          is = request.getInputStream();
         }
 
+        //
+        // Bodies in the columnar format are read block by block
+        //
+        
+        if (GTSColumnarReader.isColumnar(request.getHeader("Content-Type"))) {
+          parser = new GTSColumnarReader(is, extraLabels, classKeyLongs, labelsKeyLongs, maxValueSize);
+        } else {
+          parser = new GTSInputParser(is, extraLabels, classKeyLongs, labelsKeyLongs, maxValueSize);
+        }
+        
         //
         // Get the present time
         //
@@ -454,47 +468,31 @@ public class StandaloneIngressHandler extends AbstractHandler {
         // Chunk index when archiving
         //
         
-        do {
-          
-          String line = br.readLine();
-          
-          if (null == line) {
-            break;
-          }
-          
-          line = line.trim();
-          
-          if (0 == line.length()) {
-            continue;
-          }
-
-          //
-          // Ignore comments
-          //
-          
-          if ('#' == line.charAt(0)) {
-            continue;
-          }
+        //
+        // Empty lines and comments are skipped by the parser
+        //
+        
+        while(parser.next()) {
           
           //
           // Check for pushback
           // TODO(hbs): implement the actual push back if we are over the subscribed limit
           //
           
-          if (count % PUSHBACK_CHECK_INTERVAL == 0) {
+          if (count >= PUSHBACK_CHECK_INTERVAL) {
             Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_DATAPOINTS_RAW, sensisionLabels, count);
             total += count;
             count = 0;
           }
           
-          count++;
+          count += parser.getCount();
 
           try {
-            encoder = GTSHelper.parse(lastencoder, line, extraLabels, now, maxValueSize, false);
+            encoder = parser.read(lastencoder, now);
             //nano2 += System.nanoTime() - nano0;
           } catch (ParseException pe) {
             Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_PARSEERRORS, sensisionLabels, 1);            
-            throw new IOException("Parse error at '" + line + "'", pe);
+            throw new IOException("Parse error at '" + parser.getText() + "'", pe);
           }
 
           if (encoder != lastencoder || lastencoder.size() > ENCODER_SIZE_THRESHOLD) {
@@ -505,10 +503,7 @@ public class StandaloneIngressHandler extends AbstractHandler {
             
             if (null != lastencoder) {
               
-              // 128BITS
-              lastencoder.setClassId(GTSHelper.classId(classKeyLongs, lastencoder.getName()));
-              lastencoder.setLabelsId(GTSHelper.labelsId(labelsKeyLongs, lastencoder.getMetadata().getLabels()));
-
+              // Class and labels Ids were computed by the parser
               ThrottlingManager.checkMADS(lastencoder.getMetadata(), producer, owner, application, lastencoder.getClassId(), lastencoder.getLabelsId());
               ThrottlingManager.checkDDP(lastencoder.getMetadata(), producer, owner, application, (int) lastencoder.getCount());
             }
@@ -552,17 +547,13 @@ public class StandaloneIngressHandler extends AbstractHandler {
           //
           
           if (null != loggingWriter) {
-            loggingWriter.println(line);
+            loggingWriter.println(parser.getText());
           }
-        } while (true); 
+        }
         
-        br.close();
+        is.close();
         
         if (null != lastencoder && lastencoder.size() > 0) {
-          // 128BITS
-          lastencoder.setClassId(GTSHelper.classId(classKeyLongs, lastencoder.getName()));
-          lastencoder.setLabelsId(GTSHelper.labelsId(labelsKeyLongs, lastencoder.getMetadata().getLabels()));
-                  
           ThrottlingManager.checkMADS(lastencoder.getMetadata(), producer, owner, application, lastencoder.getClassId(), lastencoder.getLabelsId());
           ThrottlingManager.checkDDP(lastencoder.getMetadata(), producer, owner, application, (int) lastencoder.getCount());
           this.storeClient.store(lastencoder);
@@ -603,6 +594,10 @@ public class StandaloneIngressHandler extends AbstractHandler {
           Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_REQUESTS, sensisionLabels, 1);
           Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_TIME_US, sensisionLabels, (System.nanoTime() - nano) / 1000);                  
         }
+        
+        if (null != parser) {
+          parser.close();
+        }
       }
 
       response.setStatus(HttpServletResponse.SC_OK);      
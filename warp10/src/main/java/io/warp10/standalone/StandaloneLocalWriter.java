@@ -0,0 +1,528 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.LocalEndpoints;
+import io.warp10.continuum.LogUtil;
+import io.warp10.continuum.MetadataUtils;
+import io.warp10.continuum.ThrottlingManager;
+import io.warp10.continuum.Tokens;
+import io.warp10.continuum.WarpException;
+import io.warp10.continuum.egress.EgressFetchHandler;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
+import io.warp10.continuum.gts.MetadataIdComparator;
+import io.warp10.continuum.sensision.SensisionConstants;
+import io.warp10.continuum.store.Constants;
+import io.warp10.continuum.store.StoreClient;
+import io.warp10.continuum.store.thrift.data.DirectoryRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.continuum.thrift.data.LoggingEvent;
+import io.warp10.crypto.KeyStore;
+import io.warp10.crypto.SipHashInline;
+import io.warp10.quasar.token.thrift.data.WriteToken;
+import io.warp10.script.WarpScriptException;
+import io.warp10.script.unary.TOTIMESTAMP;
+import io.warp10.sensision.Sensision;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process equivalent of the /update, /meta and /delete endpoints of the standalone version.
+ *
+ * UPDATE, META and DELETE use this class instead of issuing an HTTP request when their endpoint
+ * is the local instance, the data are then handed directly to the StoreClient and the directory
+ * without being serialized to text and parsed again.
+ *
+ * The same checks as those of StandaloneIngressHandler and StandaloneDeleteHandler are performed
+ * (write token, throttling, value size, metadata validation). Plasma subscribers are notified by
+ * the StoreClient as for the HTTP endpoints.
+ *
+ * As the Datalog records requests in their textual form, no instance is registered when
+ * datalogging is enabled so the HTTP endpoints are used in that case.
+ */
+public class StandaloneLocalWriter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StandaloneLocalWriter.class);
+
+  private static final int MAX_LOGGED_DELETED_GTS = 1000;
+
+  private static volatile StandaloneLocalWriter instance = null;
+
+  private final KeyStore keyStore;
+  private final StoreClient storeClient;
+  private final StandaloneDirectoryClient directoryClient;
+
+  private final long[] classKeyLongs;
+  private final long[] labelsKeyLongs;
+
+  private final long maxValueSize;
+
+  private final boolean updateActivity;
+  private final boolean metaActivity;
+
+  private final boolean deleteDisabled;
+
+  public StandaloneLocalWriter(KeyStore keystore, StandaloneDirectoryClient directoryClient, StoreClient storeClient) {
+    this.keyStore = keystore;
+    this.storeClient = storeClient;
+    this.directoryClient = directoryClient;
+
+    this.classKeyLongs = SipHashInline.getKey(this.keyStore.getKey(KeyStore.SIPHASH_CLASS));
+    this.labelsKeyLongs = SipHashInline.getKey(this.keyStore.getKey(KeyStore.SIPHASH_LABELS));
+
+    Properties props = WarpConfig.getProperties();
+
+    this.updateActivity = "true".equals(props.getProperty(Configuration.INGRESS_ACTIVITY_UPDATE));
+    this.metaActivity = "true".equals(props.getProperty(Configuration.INGRESS_ACTIVITY_META));
+    this.maxValueSize = Long.parseLong(props.getProperty(Configuration.STANDALONE_VALUE_MAXSIZE, StandaloneIngressHandler.DEFAULT_VALUE_MAXSIZE));
+    this.deleteDisabled = "true".equals(props.getProperty(Configuration.STANDALONE_DELETE_DISABLE));
+  }
+
+  public static void setInstance(StandaloneLocalWriter writer) {
+    instance = writer;
+  }
+
+  /**
+   * Return the writer of the local instance if 'url' designates the given endpoint of this instance, null otherwise.
+   *
+   * @param url URL of the endpoint
+   * @param endpoint Path of the expected endpoint (Constants.API_ENDPOINT_xxx)
+   */
+  public static StandaloneLocalWriter getLocalWriter(URL url, String endpoint) {
+    if (!Warp.isStandaloneMode()) {
+      return null;
+    }
+
+    return getLocalWriter(url, endpoint, Warp.getPort());
+  }
+
+  /**
+   * Return the registered writer if 'url' designates the given endpoint served on 'port' by this host, null otherwise.
+   */
+  static StandaloneLocalWriter getLocalWriter(URL url, String endpoint, int port) {
+    StandaloneLocalWriter writer = instance;
+
+    if (null == writer || !LocalEndpoints.isLocal(url, endpoint, port)) {
+      return null;
+    }
+
+    return writer;
+  }
+
+  /**
+   * Store the datapoints of the given GTS and encoders, as a POST to /update would.
+   */
+  public void update(String token, List<GeoTimeSerie> series, List<GTSEncoder> encoders) throws WarpScriptException {
+    long nano = System.nanoTime();
+    long lastActivity = System.currentTimeMillis();
+
+    WriteToken writeToken = Tokens.extractWriteToken(token);
+
+    String application = writeToken.getAppName();
+    String producer = Tokens.getUUID(writeToken.getProducerId());
+    String owner = Tokens.getUUID(writeToken.getOwnerId());
+
+    if (null == producer || null == owner) {
+      throw new WarpScriptException("Invalid token.");
+    }
+
+    Map<String,String> sensisionLabels = new HashMap<String,String>();
+    sensisionLabels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, producer);
+
+    Map<String,String> extraLabels = extraLabels(writeToken, producer, owner, application);
+
+    if (null != application) {
+      sensisionLabels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, application);
+    }
+
+    long count = 0;
+
+    try {
+      //
+      // GTS are encoded, encoders are merged in a fresh encoder so the one on the stack is left untouched
+      //
+
+      List<GTSEncoder> toStore = new ArrayList<GTSEncoder>(series.size() + encoders.size());
+
+      for (GeoTimeSerie gts: series) {
+        if (TYPE.STRING == gts.getType()) {
+          int n = GTSHelper.nvalues(gts);
+          for (int i = 0; i < n; i++) {
+            if (((String) GTSHelper.valueAtIndex(gts, i)).length() > this.maxValueSize) {
+              throw new WarpScriptException("Value too large for GTS " + GTSHelper.buildSelector(gts.getMetadata()));
+            }
+          }
+        }
+
+        GTSEncoder encoder = new GTSEncoder(0L);
+        encoder.safeSetMetadata(metadata(gts.getName(), gts.getLabels(), extraLabels));
+        encoder.encode(gts);
+        toStore.add(encoder);
+      }
+
+      for (GTSEncoder enc: encoders) {
+        //
+        // A STRING value cannot be larger than the encoder which contains it
+        //
+
+        if (enc.size() > this.maxValueSize) {
+          checkValueSize(enc);
+        }
+
+        // Merging may reuse the Metadata of 'enc', so set ours afterwards
+        GTSEncoder encoder = new GTSEncoder(0L);
+        encoder.merge(enc);
+        encoder.safeSetMetadata(metadata(enc.getName(), enc.getLabels(), extraLabels));
+        toStore.add(encoder);
+      }
+
+      for (GTSEncoder encoder: toStore) {
+        ThrottlingManager.checkMADS(encoder.getMetadata(), producer, owner, application, encoder.getClassId(), encoder.getLabelsId());
+        ThrottlingManager.checkDDP(encoder.getMetadata(), producer, owner, application, (int) encoder.getCount());
+
+        Metadata metadata = new Metadata(encoder.getMetadata());
+        metadata.setSource(Configuration.INGRESS_METADATA_SOURCE);
+        if (this.updateActivity) {
+          metadata.setLastActivity(lastActivity);
+        }
+        this.directoryClient.register(metadata);
+
+        this.storeClient.store(encoder);
+
+        count += encoder.getCount();
+      }
+    } catch (WarpException we) {
+      throw new WarpScriptException(we);
+    } catch (IOException ioe) {
+      throw new WarpScriptException(ioe);
+    } finally {
+      try {
+        this.storeClient.store(null);
+        this.directoryClient.register(null);
+      } catch (IOException ioe) {
+        throw new WarpScriptException(ioe);
+      } finally {
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_DATAPOINTS_RAW, sensisionLabels, count);
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_REQUESTS, sensisionLabels, 1);
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_UPDATE_TIME_US, sensisionLabels, (System.nanoTime() - nano) / 1000);
+      }
+    }
+  }
+
+  /**
+   * Set the attributes of the given GTS, as a POST to /meta would.
+   */
+  public void meta(String token, List<GeoTimeSerie> series) throws WarpScriptException {
+    long lastActivity = System.currentTimeMillis();
+
+    WriteToken writeToken = Tokens.extractWriteToken(token);
+
+    String application = writeToken.getAppName();
+    String producer = Tokens.getUUID(writeToken.getProducerId());
+    String owner = Tokens.getUUID(writeToken.getOwnerId());
+
+    if (null == producer || null == owner) {
+      throw new WarpScriptException("Invalid token.");
+    }
+
+    Map<String,String> extraLabels = extraLabels(writeToken, producer, owner, application);
+
+    try {
+      for (GeoTimeSerie gts: series) {
+        Metadata metadata = new Metadata();
+        metadata.setName(gts.getName());
+        metadata.setLabels(new HashMap<String,String>(gts.getLabels()));
+        metadata.getLabels().putAll(extraLabels);
+        metadata.setAttributes(new HashMap<String,String>(gts.getMetadata().getAttributes()));
+
+        if (!MetadataUtils.validateMetadata(metadata)) {
+          throw new WarpScriptException("Invalid metadata " + GTSHelper.buildSelector(metadata));
+        }
+
+        metadata.setSource(Configuration.INGRESS_METADATA_UPDATE_ENDPOINT);
+
+        if (this.metaActivity) {
+          metadata.setLastActivity(lastActivity);
+        }
+
+        this.directoryClient.register(metadata);
+      }
+    } catch (IOException ioe) {
+      throw new WarpScriptException(ioe);
+    } finally {
+      try {
+        this.directoryClient.register(null);
+      } catch (IOException ioe) {
+        throw new WarpScriptException(ioe);
+      }
+    }
+  }
+
+  /**
+   * Delete the GTS matching 'selector', as a dryrun followed by an actual call to /delete would.
+   *
+   * @param token Write token
+   * @param selector GTS selector
+   * @param start Start timestamp (Long or ISO8601 String), or null with 'end' to delete all datapoints and unregister the GTS
+   * @param end End timestamp (Long or ISO8601 String), or null with 'start' to delete all datapoints and unregister the GTS
+   * @param expected Maximum number of GTS the selector may match
+   * @return The number of deleted GTS
+   */
+  public long delete(String token, String selector, Object start, Object end, long expected) throws WarpScriptException {
+    if (this.deleteDisabled) {
+      throw new WarpScriptException("Delete endpoint is disabled by configuration.");
+    }
+
+    long nano = System.nanoTime();
+
+    WriteToken writeToken = Tokens.extractWriteToken(token);
+
+    String application = writeToken.getAppName();
+    String producer = Tokens.getUUID(writeToken.getProducerId());
+    String owner = Tokens.getUUID(writeToken.getOwnerId());
+
+    if (null == producer || null == owner) {
+      throw new WarpScriptException("Invalid token.");
+    }
+
+    //
+    // For delete operations, producer and owner MUST be equal
+    //
+
+    if (!producer.equals(owner)) {
+      throw new WarpScriptException("Invalid write token for deletion.");
+    }
+
+    //
+    // Start and end are either both set or both null, in the latter case all datapoints are deleted
+    // and the GTS are removed from the directory. An explicit range, even if it covers all timestamps,
+    // leaves the GTS in the directory as /delete does.
+    //
+
+    if ((null == start) != (null == end)) {
+      throw new WarpScriptException("Both start and end timestamps MUST be specified, or none to delete all datapoints.");
+    }
+
+    boolean deleteall = null == start;
+
+    long startts = deleteall ? Long.MIN_VALUE : toTimestamp(start);
+    long endts = deleteall ? Long.MAX_VALUE : toTimestamp(end);
+
+    if (startts > endts) {
+      throw new WarpScriptException("Invalid time range specification.");
+    }
+
+    Matcher m = EgressFetchHandler.SELECTOR_RE.matcher(selector);
+
+    if (!m.matches()) {
+      throw new WarpScriptException("Invalid selector.");
+    }
+
+    String classSelector;
+    Map<String,String> labelsSelectors;
+
+    try {
+      classSelector = URLDecoder.decode(m.group(1), "UTF-8");
+      labelsSelectors = GTSHelper.parseLabelsSelectors(m.group(2));
+    } catch (UnsupportedEncodingException uee) {
+      throw new WarpScriptException(uee);
+    } catch (ParseException pe) {
+      throw new WarpScriptException(pe);
+    }
+
+    Map<String,String> sensisionLabels = new HashMap<String,String>();
+    sensisionLabels.put(SensisionConstants.SENSISION_LABEL_PRODUCER, producer);
+
+    //
+    // Only force owner and potentially app, producer may vary
+    //
+
+    labelsSelectors.put(Constants.OWNER_LABEL, owner);
+    if (null != application) {
+      labelsSelectors.put(Constants.APPLICATION_LABEL, application);
+      sensisionLabels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, application);
+    }
+
+    List<String> clsSels = new ArrayList<String>();
+    List<Map<String,String>> lblsSels = new ArrayList<Map<String,String>>();
+    clsSels.add(classSelector);
+    lblsSels.add(labelsSelectors);
+
+    DirectoryRequest drequest = new DirectoryRequest();
+    drequest.setClassSelectors(clsSels);
+    drequest.setLabelsSelectors(lblsSels);
+
+    List<Metadata> metadatas = this.directoryClient.find(drequest);
+
+    if (metadatas.size() > expected) {
+      throw new WarpScriptException("Expected at most " + expected + " Geo Time Series to be deleted but " + metadatas.size() + " would have been deleted instead.");
+    }
+
+    if (metadatas.isEmpty()) {
+      return 0L;
+    }
+
+    metadatas.sort(MetadataIdComparator.COMPARATOR);
+
+    long count = 0;
+    long gts = 0;
+
+    Throwable t = null;
+    StringBuilder metas = new StringBuilder();
+    StringBuilder sb = new StringBuilder();
+
+    try {
+      for (Metadata metadata: metadatas) {
+        long localCount = this.storeClient.delete(writeToken, metadata, startts, endts);
+
+        if (deleteall) {
+          this.directoryClient.unregister(metadata);
+        }
+
+        count += localCount;
+
+        if (gts < MAX_LOGGED_DELETED_GTS) {
+          sb.setLength(0);
+          GTSHelper.metadataToString(sb, metadata.getName(), metadata.getLabels());
+          metas.append(sb);
+          metas.append("\n");
+        } else if (MAX_LOGGED_DELETED_GTS == gts) {
+          metas.append("...");
+          metas.append("\n");
+        }
+
+        gts++;
+
+        Map<String,String> labels = new HashMap<String,String>();
+        labels.put(SensisionConstants.SENSISION_LABEL_OWNER, metadata.getLabels().get(Constants.OWNER_LABEL));
+        labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, metadata.getLabels().get(Constants.APPLICATION_LABEL));
+        Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_DELETE_DATAPOINTS_PEROWNERAPP, labels, localCount);
+      }
+    } catch (IOException ioe) {
+      t = ioe;
+      throw new WarpScriptException(ioe);
+    } finally {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_DELETE_REQUESTS, sensisionLabels, 1);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_DELETE_GTS, sensisionLabels, gts);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_DELETE_DATAPOINTS, sensisionLabels, count);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_STANDALONE_DELETE_TIME_US, sensisionLabels, (System.nanoTime() - nano) / 1000);
+
+      LoggingEvent event = LogUtil.setLoggingEventAttribute(null, LogUtil.DELETION_TOKEN, token);
+      event = LogUtil.setLoggingEventAttribute(event, LogUtil.DELETION_SELECTOR, selector);
+      event = LogUtil.setLoggingEventAttribute(event, LogUtil.DELETION_START, null == start ? null : start.toString());
+      event = LogUtil.setLoggingEventAttribute(event, LogUtil.DELETION_END, null == end ? null : end.toString());
+      event = LogUtil.setLoggingEventAttribute(event, LogUtil.DELETION_METADATA, metas.toString());
+      event = LogUtil.setLoggingEventAttribute(event, LogUtil.DELETION_COUNT, Long.toString(count));
+      event = LogUtil.setLoggingEventAttribute(event, LogUtil.DELETION_GTS, Long.toString(gts));
+
+      if (null != t) {
+        event = LogUtil.setLoggingEventStackTrace(event, LogUtil.STACK_TRACE, t);
+      }
+
+      LOG.info(LogUtil.serializeLoggingEvent(this.keyStore, event));
+    }
+
+    return gts;
+  }
+
+  /**
+   * Build the labels forced by a write token, as StandaloneIngressHandler does
+   */
+  private static Map<String,String> extraLabels(WriteToken writeToken, String producer, String owner, String application) {
+    Map<String,String> extraLabels = new HashMap<String,String>();
+
+    // Add labels from the WriteToken if they exist
+    if (writeToken.getLabelsSize() > 0) {
+      extraLabels.putAll(writeToken.getLabels());
+    }
+
+    // Force internal labels
+    extraLabels.put(Constants.PRODUCER_LABEL, producer);
+    extraLabels.put(Constants.OWNER_LABEL, owner);
+
+    if (null != application) {
+      extraLabels.put(Constants.APPLICATION_LABEL, application);
+    } else {
+      extraLabels.remove(Constants.APPLICATION_LABEL);
+    }
+
+    return extraLabels;
+  }
+
+  /**
+   * Build the Metadata of a GTS to store, with the labels forced by the token and its class and labels Ids
+   */
+  private Metadata metadata(String name, Map<String,String> labels, Map<String,String> extraLabels) {
+    Metadata metadata = new Metadata();
+    metadata.setName(name);
+    metadata.setLabels(new HashMap<String,String>(labels));
+    metadata.getLabels().putAll(extraLabels);
+    metadata.setAttributes(new HashMap<String,String>());
+    metadata.setClassId(GTSHelper.classId(this.classKeyLongs, name));
+    metadata.setLabelsId(GTSHelper.labelsId(this.labelsKeyLongs, metadata.getLabels()));
+
+    return metadata;
+  }
+
+  private void checkValueSize(GTSEncoder encoder) throws WarpScriptException {
+    GTSDecoder decoder = encoder.getDecoder(true);
+
+    while (decoder.next()) {
+      Object value = decoder.getValue();
+      if (value instanceof String && ((String) value).length() > this.maxValueSize) {
+        throw new WarpScriptException("Value too large for GTS " + GTSHelper.buildSelector(encoder.getMetadata()));
+      }
+    }
+  }
+
+  private static long toTimestamp(Object ts) throws WarpScriptException {
+    if (ts instanceof Long) {
+      return (long) ts;
+    }
+
+    String str = ts.toString();
+
+    if (str.contains("T")) {
+      return TOTIMESTAMP.parseTimestamp(str);
+    }
+
+    try {
+      return Long.parseLong(str);
+    } catch (NumberFormatException nfe) {
+      throw new WarpScriptException("Invalid timestamp " + str);
+    }
+  }
+}
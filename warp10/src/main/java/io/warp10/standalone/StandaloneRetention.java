@@ -0,0 +1,167 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.TimeSource;
+import io.warp10.continuum.gts.MetadataIdComparator;
+import io.warp10.continuum.sensision.SensisionConstants;
+import io.warp10.continuum.store.Constants;
+import io.warp10.continuum.store.DirectoryClient;
+import io.warp10.continuum.store.StoreClient;
+import io.warp10.continuum.store.thrift.data.DirectoryRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.sensision.Sensision;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically delete the datapoints of the LevelDB store which are older than their TTL.
+ *
+ * A TTL can be set per class, per application (the '.app' label set by the write tokens) and
+ * for all the other GTS. The class TTL has precedence over the application TTL which has precedence
+ * over the default one. Expired datapoints are removed with the range delete of the store client.
+ */
+public class StandaloneRetention extends Thread {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StandaloneRetention.class);
+
+  private static final String DEFAULT_PERIOD = "86400000";
+
+  private final DirectoryClient directoryClient;
+  private final StoreClient storeClient;
+
+  /**
+   * TTLs in platform time units, 0 means no TTL
+   */
+  private final long defaultTTL;
+  private final Map<String,Long> classTTLs = new HashMap<String,Long>();
+  private final Map<String,Long> appTTLs = new HashMap<String,Long>();
+
+  /**
+   * Delay in ms between two passes
+   */
+  private final long period;
+
+  public StandaloneRetention(Properties properties, DirectoryClient directoryClient, StoreClient storeClient) {
+    this.directoryClient = directoryClient;
+    this.storeClient = storeClient;
+
+    this.defaultTTL = Long.parseLong(properties.getProperty(Configuration.LEVELDB_RETENTION_TTL, "0")) * Constants.TIME_UNITS_PER_MS;
+    this.period = Long.parseLong(properties.getProperty(Configuration.LEVELDB_RETENTION_PERIOD, DEFAULT_PERIOD));
+
+    for (Entry<Object,Object> entry: properties.entrySet()) {
+      String key = entry.getKey().toString();
+
+      if (key.startsWith(Configuration.LEVELDB_RETENTION_TTL_CLASS_PREFIX)) {
+        this.classTTLs.put(key.substring(Configuration.LEVELDB_RETENTION_TTL_CLASS_PREFIX.length()), Long.parseLong(entry.getValue().toString()) * Constants.TIME_UNITS_PER_MS);
+      } else if (key.startsWith(Configuration.LEVELDB_RETENTION_TTL_APP_PREFIX)) {
+        this.appTTLs.put(key.substring(Configuration.LEVELDB_RETENTION_TTL_APP_PREFIX.length()), Long.parseLong(entry.getValue().toString()) * Constants.TIME_UNITS_PER_MS);
+      }
+    }
+
+    //
+    // Only start if a TTL was configured
+    //
+
+    if (this.defaultTTL > 0 || !this.classTTLs.isEmpty() || !this.appTTLs.isEmpty()) {
+      this.setDaemon(true);
+      this.setName("[Standalone Retention]");
+      this.start();
+    }
+  }
+
+  @Override
+  public void run() {
+    while(true) {
+      try {
+        Thread.sleep(this.period);
+      } catch (InterruptedException ie) {
+      }
+
+      try {
+        purge();
+      } catch (Throwable t) {
+        LOG.error("Error while enforcing retention.", t);
+      }
+    }
+  }
+
+  /**
+   * Return the TTL of a GTS, 0 if its datapoints never expire
+   */
+  long ttl(Metadata metadata) {
+    Long ttl = this.classTTLs.get(metadata.getName());
+
+    if (null == ttl && null != metadata.getLabels()) {
+      String app = metadata.getLabels().get(Constants.APPLICATION_LABEL);
+
+      if (null != app) {
+        ttl = this.appTTLs.get(app);
+      }
+    }
+
+    return null == ttl ? this.defaultTTL : ttl.longValue();
+  }
+
+  private void purge() throws Exception {
+    long nano = System.nanoTime();
+
+    long now = TimeSource.getTime();
+
+    DirectoryRequest request = new DirectoryRequest();
+    List<String> classSelectors = new ArrayList<String>();
+    classSelectors.add("~.*");
+    List<Map<String,String>> labelsSelectors = new ArrayList<Map<String,String>>();
+    labelsSelectors.add(new HashMap<String,String>());
+    request.setClassSelectors(classSelectors);
+    request.setLabelsSelectors(labelsSelectors);
+
+    List<Metadata> metadatas = this.directoryClient.find(request);
+
+    //
+    // Sort Metadata by classId/labelsId so deletions move forward in the store
+    //
+
+    metadatas.sort(MetadataIdComparator.COMPARATOR);
+
+    long datapoints = 0L;
+
+    for (Metadata metadata: metadatas) {
+      long ttl = ttl(metadata);
+
+      if (ttl <= 0) {
+        continue;
+      }
+
+      datapoints += this.storeClient.delete(null, metadata, Long.MIN_VALUE, now - ttl - 1);
+    }
+
+    nano = System.nanoTime() - nano;
+
+    Sensision.update(SensisionConstants.SENSISION_CLASS_WARP_STANDALONE_RETENTION_DATAPOINTS, Sensision.EMPTY_LABELS, datapoints);
+    Sensision.update(SensisionConstants.SENSISION_CLASS_WARP_STANDALONE_RETENTION_TIME_NS, Sensision.EMPTY_LABELS, nano);
+  }
+}
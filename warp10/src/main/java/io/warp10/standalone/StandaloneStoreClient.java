@@ -17,6 +17,7 @@
 package io.warp10.standalone;
 
 import io.warp10.continuum.Configuration;
+import io.warp10.continuum.TimeSource;
 import io.warp10.continuum.Tokens;
 import io.warp10.continuum.gts.GTSDecoder;
 import io.warp10.continuum.gts.GTSEncoder;
@@ -37,22 +38,55 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.hadoop.hbase.util.Bytes;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.ReadOptions;
 import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.WriteOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.primitives.Longs;
 
 public class StandaloneStoreClient implements StoreClient {
   
+  private static final Logger LOG = LoggerFactory.getLogger(StandaloneStoreClient.class);
+  
+  /**
+   * Key under which the span of the blocks is recorded, it cannot change once blocks were written
+   */
+  private static final byte[] BLOCK_SPAN_KEY = "B".getBytes(Charsets.US_ASCII);
+  
+  private static final String DEFAULT_REPACK_PERIOD = "3600000";
+  
+  private static final String DEFAULT_GROUPCOMMIT_MAXSIZE = "16000000";
+  
+  /**
+   * Options of the reads of deletions and of the repacker, they do not populate the block cache
+   */
+  private static final ReadOptions SCAN_READ_OPTIONS = new ReadOptions().fillCache(false);
+  
   /**
    * This determines how often we will perform merges when retrieving
    */
@@ -72,6 +106,44 @@ public class StandaloneStoreClient implements StoreClient {
   private final boolean syncwrites;
   private final double syncrate;
   
+  /**
+   * Most recent value of GTS, keyed by class and labels Id, null if the cache is disabled
+   */
+  private final ConcurrentMap<GTSId,LastValue> lastValues;
+  
+  /**
+   * Number of deletions, used to detect a deletion occurring while the last value of a GTS is read from LevelDB
+   */
+  private final AtomicLong deletions = new AtomicLong(0L);
+  
+  /**
+   * Layout of the blocks of datapoints, null if datapoints are not packed
+   */
+  private final StandaloneBlocks blocks;
+  
+  /**
+   * Lock held in write mode by the repacker while it replaces datapoints by blocks, the
+   * other writers hold it in read mode.
+   */
+  private final ReadWriteLock blocksLock = new ReentrantReadWriteLock();
+  
+  /**
+   * Windows written since the last pass of the repacker, per GTS, null if datapoints are not packed.
+   * Windows are only recorded once their datapoints were written so the repacker can read them.
+   */
+  private final ConcurrentMap<GTSId,WindowRange> written;
+  
+  /**
+   * Set once the repacker scanned the whole store. Windows written before the start are not
+   * recorded, so its first pass reads every window. Only accessed by the repacker thread.
+   */
+  private boolean scanned = false;
+  
+  /**
+   * Group committer of the datapoints, null if each thread writes its own batches
+   */
+  private final StandaloneCommitter committer;
+  
   public StandaloneStoreClient(DB db, KeyStore keystore, Properties properties) {
     this.db = db;
     this.keystore = keystore;
@@ -83,6 +155,66 @@ public class StandaloneStoreClient implements StoreClient {
     
     syncrate = Math.min(1.0D, Math.max(0.0D, Double.parseDouble(properties.getProperty(Configuration.LEVELDB_DATA_SYNCRATE, "1.0"))));
     syncwrites = 0.0 < syncrate && syncrate < 1.0 ;
+    
+    long cachesize = Long.parseLong(properties.getProperty(Configuration.LEVELDB_LASTVALUE_CACHE_SIZE, "0"));
+    
+    if (cachesize > 0) {
+      this.lastValues = CacheBuilder.newBuilder().maximumSize(cachesize).<GTSId,LastValue>build().asMap();
+    } else {
+      this.lastValues = null;
+    }
+    
+    //
+    // Check that the span of the blocks matches the one they were written with
+    //
+    
+    long span = Long.parseLong(properties.getProperty(Configuration.LEVELDB_DATA_BLOCK_SPAN, "0"));
+    
+    byte[] recorded = db.get(BLOCK_SPAN_KEY);
+    
+    if (null != recorded && Longs.fromByteArray(recorded) != span) {
+      throw new RuntimeException("LevelDB contains blocks with a span of " + Longs.fromByteArray(recorded) + ", '" + Configuration.LEVELDB_DATA_BLOCK_SPAN + "' MUST be set to this value.");
+    }
+    
+    if (span > 0) {
+      if (null == recorded) {
+        db.put(BLOCK_SPAN_KEY, Longs.toByteArray(span), new WriteOptions().sync(true));
+      }
+      
+      this.blocks = new StandaloneBlocks(span);
+      this.written = new ConcurrentHashMap<GTSId,WindowRange>();
+      
+      final long period = Long.parseLong(properties.getProperty(Configuration.LEVELDB_DATA_BLOCK_REPACK_PERIOD, DEFAULT_REPACK_PERIOD));
+      
+      Thread repacker = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          while(true) {
+            try { Thread.sleep(period); } catch (InterruptedException ie) {}
+            
+            try {
+              repack();
+            } catch (Throwable t) {
+              LOG.error("Error while packing datapoints.", t);
+            }
+          }
+        }
+      });
+      
+      repacker.setDaemon(true);
+      repacker.setName("[LevelDB repacker]");
+      repacker.start();
+    } else {
+      this.blocks = null;
+      this.written = null;
+    }
+    
+    if ("true".equals(properties.getProperty(Configuration.LEVELDB_DATA_GROUPCOMMIT))) {
+      long maxsize = Long.parseLong(properties.getProperty(Configuration.LEVELDB_DATA_GROUPCOMMIT_MAXSIZE, DEFAULT_GROUPCOMMIT_MAXSIZE));
+      this.committer = new StandaloneCommitter(db, null != this.blocks ? this.blocksLock.readLock() : null, maxsize);
+    } else {
+      this.committer = null;
+    }
   }
   
   @Override
@@ -96,8 +228,6 @@ public class StandaloneStoreClient implements StoreClient {
       throw new RuntimeException("No support for write timestamp retrieval.");
     }
     
-    final DBIterator iterator = db.iterator();
-
     Map<String,String> labels = new HashMap<String,String>();
     
     if (null != token && null != token.getAppName()) {
@@ -111,6 +241,19 @@ public class StandaloneStoreClient implements StoreClient {
     //
     
     Collections.sort(metadatas, MetadataIdComparator.COMPARATOR);
+    
+    //
+    // If 'timespan' is negative or datapoints are packed in blocks, read the values of each GTS window by window
+    //
+    
+    if (!fromArchive && timespan < 0) {
+      return fetchValues(token, metadatas, now, Long.MIN_VALUE, -timespan);
+    } else if (!fromArchive && null != this.blocks) {
+      long from = now - timespan + 1;
+      return fetchValues(token, metadatas, now, from > now ? Long.MIN_VALUE : from, Long.MAX_VALUE);
+    }
+    
+    final DBIterator iterator = db.iterator();
         
     return new GTSDecoderIterator() {
     
@@ -192,62 +335,7 @@ public class StandaloneStoreClient implements StoreClient {
 
         encoder.setMetadata(metadatas.get(idx));
 
-        //
-        // Update Sensision
-        //
-
-        Map<String,String> labels = new HashMap<String,String>();
-        
-        Map<String,String> metadataLabels = metadatas.get(idx).getLabels();
-        
-        String billedCustomerId = null != token ? Tokens.getUUID(token.getBilledId()) : null;
-
-        if (null != billedCustomerId) {
-          labels.put(SensisionConstants.SENSISION_LABEL_CONSUMERID, billedCustomerId);
-        }
-        
-        if (metadataLabels.containsKey(Constants.APPLICATION_LABEL)) {
-          labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, metadataLabels.get(Constants.APPLICATION_LABEL));
-        }
-        
-        if (metadataLabels.containsKey(Constants.OWNER_LABEL)) {
-          labels.put(SensisionConstants.SENSISION_LABEL_OWNER, metadataLabels.get(Constants.OWNER_LABEL));
-        }
-        
-        if (null != token && null != token.getAppName()) {
-          labels.put(SensisionConstants.SENSISION_LABEL_CONSUMERAPP, token.getAppName());
-        }
-        
-        //
-        // Update per owner statistics, use a TTL for those
-        //
-        
-        if (fromArchive) {
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_AFETCH_BYTES_VALUES_PEROWNER, labels, SensisionConstants.SENSISION_TTL_PERUSER, valueBytes);
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_AFETCH_BYTES_KEYS_PEROWNER, labels, SensisionConstants.SENSISION_TTL_PERUSER, keyBytes);
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_AFETCH_DATAPOINTS_PEROWNER, labels, SensisionConstants.SENSISION_TTL_PERUSER, datapoints);                    
-        } else {
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_BYTES_VALUES_PEROWNER, labels, SensisionConstants.SENSISION_TTL_PERUSER, valueBytes);
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_BYTES_KEYS_PEROWNER, labels, SensisionConstants.SENSISION_TTL_PERUSER, keyBytes);
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_DATAPOINTS_PEROWNER, labels, SensisionConstants.SENSISION_TTL_PERUSER, datapoints);          
-        }
-               
-        //
-        // Update summary statistics
-        //
-
-        // Remove 'owner' label
-        labels.remove(SensisionConstants.SENSISION_LABEL_OWNER);
-
-        if (fromArchive) {
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_AFETCH_BYTES_VALUES, labels, valueBytes);
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_AFETCH_BYTES_KEYS, labels, keyBytes);
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_AFETCH_DATAPOINTS, labels, datapoints);          
-        } else {
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_BYTES_VALUES, labels, valueBytes);
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_BYTES_KEYS, labels, keyBytes);
-          Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_DATAPOINTS, labels, datapoints);          
-        }
+        updateFetchStats(token, metadatas.get(idx), fromArchive, keyBytes, valueBytes, datapoints);
 
         return encoder.getDecoder();
       }
@@ -345,92 +433,668 @@ public class StandaloneStoreClient implements StoreClient {
     };
   }
   
-  private ThreadLocal<WriteBatch> perThreadWriteBatch = new ThreadLocal<WriteBatch>() {
-    protected WriteBatch initialValue() {      
-      return db.createWriteBatch();
-    };    
-  };
-  
-  private ThreadLocal<AtomicLong> perThreadWriteBatchSize = new ThreadLocal<AtomicLong>() {
-    protected AtomicLong initialValue() {
-      return new AtomicLong(0L);
-    };
-  };
-  
-  private void store(List<byte[][]> kvs) throws IOException {
-  
-    //WriteBatch batch = this.db.createWriteBatch();
+  /**
+   * Fetch the 'count' most recent values between 'from' and 'now' (both included) of each GTS of 'metadatas', which must be sorted.
+   *
+   * The GTS are read with a single iterator which is moved forward from one GTS to the next, each GTS needs
+   * a single seek since its most recent values are stored first. When only the last value is requested and
+   * the last value cache is enabled, the cache is used instead of LevelDB whenever possible.
+   */
+  private GTSDecoderIterator fetchValues(final ReadToken token, final List<Metadata> metadatas, final long now, final long from, final long count) {
     
-    WriteBatch batch = perThreadWriteBatch.get();
-
-    AtomicLong size = perThreadWriteBatchSize.get();
+    //
+    // Read the number of deletions before the iterator takes its snapshot of LevelDB, a deletion
+    // which is not part of the snapshot is then bound to change the counter
+    //
     
-    boolean written = false;
+    final long deletions = this.deletions.get();
     
-    try {
-      if (null != kvs) {
-        for (byte[][] kv: kvs) {
-          batch.put(kv[0], kv[1]);
-          size.addAndGet(kv[0].length + kv[1].length);
-        }        
+    final DBIterator iterator = db.iterator();
+    
+    final byte[] aesKey = keystore.getKey(KeyStore.AES_LEVELDB_DATA);
+    
+    return new GTSDecoderIterator() {
+      
+      int idx = -1;
+      
+      /**
+       * Number of values yet to retrieve for the current GTS
+       */
+      long nvalues = 0L;
+      
+      // Last row (included) of the current GTS
+      byte[] stoprow = null;
+      
+      /**
+       * Encoder to return on the next call to 'next'
+       */
+      GTSEncoder encoder = null;
+      
+      @Override
+      public void close() throws Exception {
+        iterator.close();
       }
       
-      if (null == kvs || size.get() > MAX_ENCODER_SIZE) {
+      @Override
+      public void remove() {        
+      }
+      
+      @Override
+      public boolean hasNext() {
+        try {
+          while(null == encoder) {
+            if (0 == nvalues) {
+              idx++;
+              
+              if (idx >= metadatas.size()) {
+                return false;
+              }
+              
+              Metadata metadata = metadatas.get(idx);
+              
+              nvalues = count;
+              
+              if (1 == count && Long.MIN_VALUE == from && null != lastValues) {
+                LastValue last = lastValue(iterator, deletions, metadata);
+                
+                // The GTS has no data
+                if (null == last) {
+                  nvalues = 0L;
+                  continue;
+                }
+                
+                if (last.timestamp <= now) {
+                  nvalues = 0L;
+                  encoder = new GTSEncoder(0L);
+                  addValue(encoder, last.timestamp, aesKey, last.value);
+                  encoder.setMetadata(metadata);
+                  updateFetchStats(token, metadata, false, Store.HBASE_RAW_DATA_KEY_PREFIX.length + 8 + 8 + 8, last.value.length, 1L);
+                  break;
+                }
+              }
+              
+              //
+              // When datapoints are packed, start with the window containing 'now' so its block is read
+              //
+              
+              byte[] startrow;
+              
+              if (null != blocks) {
+                startrow = rowkey(metadata, blocks.windowEnd(now));
+                stoprow = StandaloneBlocks.blockKey(metadata.getClassId(), metadata.getLabelsId(), from);
+              } else {
+                startrow = rowkey(metadata, now);
+                stoprow = rowkey(metadata, from);
+              }
+              
+              iterator.seek(startrow);
+            }
+            
+            read();
+          }
+          
+          return true;
+        } catch (IOException ioe) {
+          throw new RuntimeException(ioe);
+        }
+      }
+      
+      @Override
+      public GTSDecoder next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
         
-        WriteOptions options = new WriteOptions().sync(1.0 == syncrate);
+        GTSDecoder decoder = encoder.getDecoder();
+        encoder = null;
+        return decoder;
+      }
+      
+      /**
+       * Read the values of the current GTS, until 'nvalues' were read, the GTS has no more values
+       * or the encoder is full, in which case the remaining values are read on the next call.
+       */
+      private void read() throws IOException {
+        GTSEncoder enc = new GTSEncoder(0L);
+
+        long keyBytes = 0L;
+        long valueBytes = 0L;
+        long datapoints = 0L;
         
-        if (syncwrites) {
-          options = new WriteOptions().sync(Math.random() < syncrate);
+        boolean full = false;
+        
+        while(nvalues > 0) {
+          if (null != blocks) {
+            StandaloneBlocks.Window window = blocks.readWindow(iterator, stoprow);
+            
+            if (null == window) {
+              break;
+            }
+            
+            long n = window.decode(aesKey, from, now, nvalues, enc);
+            
+            keyBytes += window.getKeyBytes();
+            valueBytes += window.getValueBytes();
+            datapoints += n;
+            
+            nvalues -= n;
+          } else {
+            if (!iterator.hasNext()) {
+              break;
+            }
+            
+            Entry<byte[],byte[]> kv = iterator.peekNext();
+            
+            if (Bytes.compareTo(kv.getKey(), stoprow) > 0) {
+              break;
+            }
+            
+            iterator.next();
+            
+            addValue(enc, timestamp(kv.getKey()), aesKey, kv.getValue());
+            
+            keyBytes += kv.getKey().length;
+            valueBytes += kv.getValue().length;
+            datapoints++;
+            
+            nvalues--;
+          }
+          
+          if (enc.size() >= MAX_ENCODER_SIZE) {
+            full = true;
+            break;
+          }
         }
         
-        this.db.write(batch, options);
-        size.set(0L);
-        perThreadWriteBatch.remove();
-        written = true;
-      }
-      //this.db.write(batch);
-    } finally {
-      if (written) {
-        batch.close();
+        // Move on to the next GTS unless we stopped because the encoder is full
+        if (!full) {
+          nvalues = 0L;
+        }
+        
+        if (datapoints > 0) {
+          enc.setMetadata(metadatas.get(idx));
+          updateFetchStats(token, metadatas.get(idx), false, keyBytes, valueBytes, datapoints);
+          encoder = enc;
+        }
       }
-    }
+    };
   }
   
-  public void store(GTSEncoder encoder) throws IOException {
+  /**
+   * Return the most recent value of a GTS, from the cache if it has a value known to be the most recent
+   * one, otherwise from LevelDB, updating the cache.
+   *
+   * @param deletions number of deletions when 'iterator' was created
+   * @return the last value or null if the GTS has no value
+   */
+  private LastValue lastValue(DBIterator iterator, long deletions, Metadata metadata) {
+    GTSId id = new GTSId(metadata.getClassId(), metadata.getLabelsId());
     
-    if (null == encoder) {
-      store((List<byte[][]>) null);
-      return;
+    LastValue cached = lastValues.get(id);
+    
+    if (null != cached && cached.complete) {
+      return cached;
     }
     
-    GTSDecoder decoder = encoder.getDecoder();
+    //
+    // Read the most recent value, the first one of the GTS as timestamps are reversed in the keys
+    //
     
-    List<byte[][]> kvs = new ArrayList<byte[][]>();
+    LastValue stored = null;
     
-    while(decoder.next()) {
-      ByteBuffer bb = ByteBuffer.wrap(new byte[Store.HBASE_RAW_DATA_KEY_PREFIX.length + 8 + 8 + 8]).order(ByteOrder.BIG_ENDIAN);
-      bb.put(Store.HBASE_RAW_DATA_KEY_PREFIX);
-      bb.putLong(encoder.getClassId());
-      bb.putLong(encoder.getLabelsId());
-      bb.putLong(Long.MAX_VALUE - decoder.getTimestamp());
-      
-      GTSEncoder enc = new GTSEncoder(decoder.getTimestamp(), this.keystore.getKey(KeyStore.AES_LEVELDB_DATA));
+    byte[] startrow = rowkey(metadata, Long.MAX_VALUE);
+    
+    iterator.seek(startrow);
+    
+    if (null != this.blocks) {
+      //
+      // The most recent value is in the first window, possibly in its block, in which case it is
+      // re-encoded on its own as if it had been read from a datapoint
+      //
       
-      enc.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getValue());
+      StandaloneBlocks.Window window = this.blocks.readWindow(iterator, StandaloneBlocks.blockKey(metadata.getClassId(), metadata.getLabelsId(), Long.MIN_VALUE));
       
-      byte[] value = enc.getBytes();
-    
-      kvs.add(new byte[][] { bb.array(), value });
+      if (null != window) {
+        byte[] aesKey = keystore.getKey(KeyStore.AES_LEVELDB_DATA);
+        GTSEncoder values = new GTSEncoder(0L);
+        
+        try {
+          window.decode(aesKey, Long.MIN_VALUE, Long.MAX_VALUE, 1L, values);
+          GTSDecoder decoder = values.getDecoder(true);
+          decoder.next();
+          GTSEncoder encoder = new GTSEncoder(decoder.getTimestamp(), aesKey);
+          encoder.addValue(decoder);
+          stored = new LastValue(decoder.getTimestamp(), encoder.getBytes(), true);
+        } catch (IOException ioe) {
+          throw new RuntimeException(ioe);
+        }
+      }
+    } else if (iterator.hasNext()) {
+      Entry<byte[],byte[]> kv = iterator.peekNext();
+      if (0 == Bytes.compareTo(kv.getKey(), 0, startrow.length - 8, startrow, 0, startrow.length - 8)) {
+        stored = new LastValue(timestamp(kv.getKey()), kv.getValue(), true);
+      }
     }
     
-    store(kvs);
+    //
+    // Merge with the value stored in the cache in the meantime, values stored since we
+    // read LevelDB are always in the cache
+    //
     
-    for (StandalonePlasmaHandlerInterface plasmaHandler: this.plasmaHandlers) {
-      if (plasmaHandler.hasSubscriptions()) {
-        plasmaHandler.publish(encoder);
+    LastValue last;
+    
+    while(true) {
+      cached = lastValues.get(id);
+      
+      if (null == cached) {
+        if (null == stored) {
+          return null;
+        }
+        last = stored;
+        if (null == lastValues.putIfAbsent(id, last)) {
+          break;
+        }
+      } else {
+        last = null == stored || cached.timestamp >= stored.timestamp ? new LastValue(cached.timestamp, cached.value, true) : stored;
+        if (lastValues.replace(id, cached, last)) {
+          break;
+        }
       }
     }
-  }
+    
+    //
+    // If a deletion occurred since the iterator was created, the value we read might have been deleted, do not keep it
+    //
+    
+    if (deletions != this.deletions.get()) {
+      lastValues.remove(id, last);
+    }
+    
+    return last;
+  }
+  
+  /**
+   * Record 'value' as the last value of a GTS if it is more recent than the cached one. If the GTS is not
+   * in the cache the value is added but marked as incomplete as older writes may have more recent values.
+   */
+  private void updateLastValue(GTSId id, long timestamp, byte[] value) {
+    while(true) {
+      LastValue cached = lastValues.get(id);
+      
+      if (null == cached) {
+        if (null == lastValues.putIfAbsent(id, new LastValue(timestamp, value, false))) {
+          return;
+        }
+      } else if (cached.timestamp > timestamp) {
+        return;
+      } else if (lastValues.replace(id, cached, new LastValue(timestamp, value, cached.complete))) {
+        return;
+      }
+    }
+  }
+  
+  /**
+   * Build the key of the value at 'timestamp' of a GTS
+   */
+  private static byte[] rowkey(Metadata metadata, long timestamp) {
+    return StandaloneBlocks.datapointKey(metadata.getClassId(), metadata.getLabelsId(), timestamp);
+  }
+  
+  /**
+   * Extract the timestamp of a raw data key
+   */
+  private static long timestamp(byte[] key) {
+    return StandaloneBlocks.timestamp(key);
+  }
+  
+  private static void addValue(GTSEncoder encoder, long basets, byte[] aesKey, byte[] value) throws IOException {
+    GTSDecoder decoder = new GTSDecoder(basets, aesKey, ByteBuffer.wrap(value));
+    decoder.next();
+    encoder.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getValue());
+  }
+  
+  /**
+   * Update the per owner and summary fetch statistics for the values of 'metadata' which were read
+   */
+  private static void updateFetchStats(ReadToken token, Metadata metadata, boolean fromArchive, long keyBytes, long valueBytes, long datapoints) {
+    Map<String,String> labels = new HashMap<String,String>();
+    
+    Map<String,String> metadataLabels = metadata.getLabels();
+    
+    String billedCustomerId = null != token ? Tokens.getUUID(token.getBilledId()) : null;
+
+    if (null != billedCustomerId) {
+      labels.put(SensisionConstants.SENSISION_LABEL_CONSUMERID, billedCustomerId);
+    }
+    
+    if (metadataLabels.containsKey(Constants.APPLICATION_LABEL)) {
+      labels.put(SensisionConstants.SENSISION_LABEL_APPLICATION, metadataLabels.get(Constants.APPLICATION_LABEL));
+    }
+    
+    if (metadataLabels.containsKey(Constants.OWNER_LABEL)) {
+      labels.put(SensisionConstants.SENSISION_LABEL_OWNER, metadataLabels.get(Constants.OWNER_LABEL));
+    }
+    
+    if (null != token && null != token.getAppName()) {
+      labels.put(SensisionConstants.SENSISION_LABEL_CONSUMERAPP, token.getAppName());
+    }
+    
+    //
+    // Update per owner statistics, use a TTL for those
+    //
+    
+    if (fromArchive) {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_AFETCH_BYTES_VALUES_PEROWNER, labels, SensisionConstants.SENSISION_TTL_PERUSER, valueBytes);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_AFETCH_BYTES_KEYS_PEROWNER, labels, SensisionConstants.SENSISION_TTL_PERUSER, keyBytes);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_AFETCH_DATAPOINTS_PEROWNER, labels, SensisionConstants.SENSISION_TTL_PERUSER, datapoints);                    
+    } else {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_BYTES_VALUES_PEROWNER, labels, SensisionConstants.SENSISION_TTL_PERUSER, valueBytes);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_BYTES_KEYS_PEROWNER, labels, SensisionConstants.SENSISION_TTL_PERUSER, keyBytes);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_DATAPOINTS_PEROWNER, labels, SensisionConstants.SENSISION_TTL_PERUSER, datapoints);          
+    }
+           
+    //
+    // Update summary statistics
+    //
+
+    // Remove 'owner' label
+    labels.remove(SensisionConstants.SENSISION_LABEL_OWNER);
+
+    if (fromArchive) {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_AFETCH_BYTES_VALUES, labels, valueBytes);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_AFETCH_BYTES_KEYS, labels, keyBytes);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_AFETCH_DATAPOINTS, labels, datapoints);          
+    } else {
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_BYTES_VALUES, labels, valueBytes);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_BYTES_KEYS, labels, keyBytes);
+      Sensision.update(SensisionConstants.SENSISION_CLASS_CONTINUUM_FETCH_DATAPOINTS, labels, datapoints);          
+    }
+  }
+  
+  private ThreadLocal<WriteBatch> perThreadWriteBatch = new ThreadLocal<WriteBatch>() {
+    protected WriteBatch initialValue() {      
+      return db.createWriteBatch();
+    };    
+  };
+  
+  private ThreadLocal<AtomicLong> perThreadWriteBatchSize = new ThreadLocal<AtomicLong>() {
+    protected AtomicLong initialValue() {
+      return new AtomicLong(0L);
+    };
+  };
+  
+  /**
+   * Key/values not yet submitted to the committer by the current thread
+   */
+  private ThreadLocal<List<byte[][]>> perThreadPendingKVs = new ThreadLocal<List<byte[][]>>() {
+    protected List<byte[][]> initialValue() {
+      return new ArrayList<byte[][]>();
+    };
+  };
+  
+  /**
+   * Windows of the datapoints buffered by the current thread, recorded in 'written' once they are written
+   */
+  private ThreadLocal<Map<GTSId,WindowRange>> perThreadWritten = new ThreadLocal<Map<GTSId,WindowRange>>() {
+    protected Map<GTSId,WindowRange> initialValue() {
+      return new HashMap<GTSId,WindowRange>();
+    };
+  };
+  
+  /**
+   * Most recent values of the datapoints buffered by the current thread, recorded in 'lastValues' once they are written
+   */
+  private ThreadLocal<Map<GTSId,LastValue>> perThreadLastValues = new ThreadLocal<Map<GTSId,LastValue>>() {
+    protected Map<GTSId,LastValue> initialValue() {
+      return new HashMap<GTSId,LastValue>();
+    };
+  };
+  
+  private void store(List<byte[][]> kvs) throws IOException {
+  
+    if (null != this.committer) {
+      commit(kvs);
+      return;
+    }
+    
+    //WriteBatch batch = this.db.createWriteBatch();
+    
+    WriteBatch batch = perThreadWriteBatch.get();
+
+    AtomicLong size = perThreadWriteBatchSize.get();
+    
+    boolean written = false;
+    
+    try {
+      if (null != kvs) {
+        for (byte[][] kv: kvs) {
+          batch.put(kv[0], kv[1]);
+          size.addAndGet(kv[0].length + kv[1].length);
+        }        
+      }
+      
+      if (null == kvs || size.get() > MAX_ENCODER_SIZE) {
+        
+        WriteOptions options = new WriteOptions().sync(1.0 == syncrate);
+        
+        if (syncwrites) {
+          options = new WriteOptions().sync(Math.random() < syncrate);
+        }
+        
+        Lock lock = null != this.blocks ? this.blocksLock.readLock() : null;
+        
+        if (null != lock) {
+          lock.lock();
+        }
+        
+        try {
+          this.db.write(batch, options);
+        } finally {
+          if (null != lock) {
+            lock.unlock();
+          }
+        }
+        
+        size.set(0L);
+        perThreadWriteBatch.remove();
+        written = true;
+        
+        publishWritten();
+        publishLastValues();
+      }
+      //this.db.write(batch);
+    } finally {
+      if (written) {
+        batch.close();
+      }
+    }
+  }
+  
+  /**
+   * Buffer key/values like 'store' but hand them over to the group committer and wait until they are written.
+   * Callers wait even for unsynced writes so the values are readable once 'store' returns.
+   */
+  private void commit(List<byte[][]> kvs) throws IOException {
+    List<byte[][]> pending = perThreadPendingKVs.get();
+    
+    AtomicLong size = perThreadWriteBatchSize.get();
+    
+    if (null != kvs) {
+      for (byte[][] kv: kvs) {
+        pending.add(kv);
+        size.addAndGet(kv[0].length + kv[1].length);
+      }
+    }
+    
+    if (null != kvs && size.get() <= MAX_ENCODER_SIZE) {
+      return;
+    }
+    
+    if (pending.isEmpty()) {
+      return;
+    }
+    
+    boolean sync = 1.0 == syncrate || (syncwrites && Math.random() < syncrate);
+    
+    Future<Void> future = this.committer.commit(pending, size.get(), sync);
+    
+    perThreadPendingKVs.remove();
+    size.set(0L);
+    
+    try {
+      future.get();
+    } catch (InterruptedException ie) {
+      discardLastValues();
+      throw new IOException(ie);
+    } catch (ExecutionException ee) {
+      // The datapoints were not written, their values must not be served from the cache
+      discardLastValues();
+      throw new IOException(ee.getCause());
+    }
+    
+    publishWritten();
+    publishLastValues();
+  }
+  
+  /**
+   * Record the windows of the datapoints the current thread just wrote so the repacker visits them
+   */
+  private void publishWritten() {
+    if (null == this.written) {
+      return;
+    }
+    
+    Map<GTSId,WindowRange> pending = perThreadWritten.get();
+    
+    for (Entry<GTSId,WindowRange> entry: pending.entrySet()) {
+      markWritten(entry.getKey(), entry.getValue().first, entry.getValue().last);
+    }
+    
+    pending.clear();
+  }
+  
+  /**
+   * Record in the cache the last values of the datapoints the current thread just wrote
+   */
+  private void publishLastValues() {
+    if (null == this.lastValues) {
+      return;
+    }
+    
+    Map<GTSId,LastValue> pending = perThreadLastValues.get();
+    
+    for (Entry<GTSId,LastValue> entry: pending.entrySet()) {
+      updateLastValue(entry.getKey(), entry.getValue().timestamp, entry.getValue().value);
+    }
+    
+    pending.clear();
+  }
+  
+  /**
+   * Forget the last values of the datapoints the current thread failed to write
+   */
+  private void discardLastValues() {
+    if (null != this.lastValues) {
+      perThreadLastValues.get().clear();
+    }
+  }
+  
+  /**
+   * Add the windows ending from 'first' to 'last' to those the repacker will visit for a GTS
+   */
+  private void markWritten(GTSId id, long first, long last) {
+    while(true) {
+      WindowRange range = this.written.get(id);
+      
+      if (null == range) {
+        if (null == this.written.putIfAbsent(id, new WindowRange(first, last))) {
+          return;
+        }
+      } else {
+        WindowRange merged = range.merge(first, last);
+        
+        if (merged == range || this.written.replace(id, range, merged)) {
+          return;
+        }
+      }
+    }
+  }
+  
+  public void store(GTSEncoder encoder) throws IOException {
+    
+    if (null == encoder) {
+      store((List<byte[][]>) null);
+      return;
+    }
+    
+    GTSDecoder decoder = encoder.getDecoder();
+    
+    List<byte[][]> kvs = new ArrayList<byte[][]>();
+    
+    // Oldest timestamp and most recent value of the encoder
+    long firstts = Long.MAX_VALUE;
+    long lastts = Long.MIN_VALUE;
+    byte[] lastvalue = null;
+    
+    while(decoder.next()) {
+      ByteBuffer bb = ByteBuffer.wrap(new byte[Store.HBASE_RAW_DATA_KEY_PREFIX.length + 8 + 8 + 8]).order(ByteOrder.BIG_ENDIAN);
+      bb.put(Store.HBASE_RAW_DATA_KEY_PREFIX);
+      bb.putLong(encoder.getClassId());
+      bb.putLong(encoder.getLabelsId());
+      bb.putLong(Long.MAX_VALUE - decoder.getTimestamp());
+      
+      GTSEncoder enc = new GTSEncoder(decoder.getTimestamp(), this.keystore.getKey(KeyStore.AES_LEVELDB_DATA));
+      
+      enc.addValue(decoder.getTimestamp(), decoder.getLocation(), decoder.getElevation(), decoder.getValue());
+      
+      byte[] value = enc.getBytes();
+    
+      kvs.add(new byte[][] { bb.array(), value });
+      
+      if (decoder.getTimestamp() >= lastts) {
+        lastts = decoder.getTimestamp();
+        lastvalue = value;
+      }
+      
+      if (decoder.getTimestamp() < firstts) {
+        firstts = decoder.getTimestamp();
+      }
+    }
+    
+    //
+    // Remember the windows we write to, they are handed to the repacker once the buffered datapoints are written
+    //
+    
+    if (null != this.written && null != lastvalue) {
+      Map<GTSId,WindowRange> pending = perThreadWritten.get();
+      GTSId id = new GTSId(encoder.getClassId(), encoder.getLabelsId());
+      WindowRange range = pending.get(id);
+      long first = this.blocks.windowEnd(firstts);
+      long last = this.blocks.windowEnd(lastts);
+      pending.put(id, null == range ? new WindowRange(first, last) : range.merge(first, last));
+    }
+    
+    //
+    // Likewise the last value is only cached once it is written
+    //
+    
+    if (null != this.lastValues && null != lastvalue) {
+      Map<GTSId,LastValue> pending = perThreadLastValues.get();
+      GTSId id = new GTSId(encoder.getClassId(), encoder.getLabelsId());
+      LastValue last = pending.get(id);
+      if (null == last || last.timestamp <= lastts) {
+        pending.put(id, new LastValue(lastts, lastvalue, false));
+      }
+    }
+    
+    store(kvs);
+    
+    for (StandalonePlasmaHandlerInterface plasmaHandler: this.plasmaHandlers) {
+      if (plasmaHandler.hasSubscriptions()) {
+        plasmaHandler.publish(encoder);
+      }
+    }
+  }
   
   @Override
   public void archive(int chunk, GTSEncoder encoder) throws IOException {
@@ -565,11 +1229,17 @@ public class StandaloneStoreClient implements StoreClient {
     metadata.setLabelsId(GTSHelper.labelsId(this.keystore.getKey(KeyStore.SIPHASH_LABELS), metadata.getLabels()));
     metadata.setClassId(GTSHelper.classId(this.keystore.getKey(KeyStore.SIPHASH_CLASS), metadata.getName()));
 
+    if (null != this.blocks) {
+      long count = deleteBlocks(metadata, start, end);
+      forgetLastValue(metadata);
+      return count;
+    }
+    
     //
-    // Retrieve an iterator
+    // Retrieve an iterator, the deleted keys are not read again so they are kept out of the block cache
     //
     
-    DBIterator iterator = this.db.iterator();
+    DBIterator iterator = this.db.iterator(SCAN_READ_OPTIONS);
     //
     // Seek the most recent key
     //
@@ -635,10 +1305,370 @@ public class StandaloneStoreClient implements StoreClient {
     iterator.close();
     batch.close();
     
+    forgetLastValue(metadata);
+    
     return count;
   }
   
+  /**
+   * Delete the values of a GTS between 'start' and 'end' (both included) when datapoints are packed.
+   * The blocks which are only partly in the range are rewritten with their values outside of it.
+   *
+   * The blocks of windows entirely within the range are deleted without being decoded, so their values
+   * are not counted. The returned count is a lower bound of the number of deleted datapoints.
+   */
+  private long deleteBlocks(Metadata metadata, long start, long end) throws IOException {
+    byte[] aesKey = this.keystore.getKey(KeyStore.AES_LEVELDB_DATA);
+    
+    byte[] stoprow = StandaloneBlocks.blockKey(metadata.getClassId(), metadata.getLabelsId(), start);
+    
+    long count = 0L;
+    
+    //
+    // Hold the lock so the repacker does not modify the blocks we rewrite
+    //
+    
+    Lock lock = this.blocksLock.readLock();
+    lock.lock();
+    
+    DBIterator iterator = this.db.iterator(SCAN_READ_OPTIONS);
+    WriteBatch batch = this.db.createWriteBatch();
+    
+    try {
+      iterator.seek(rowkey(metadata, this.blocks.windowEnd(end)));
+      
+      int batchsize = 0;
+      
+      WriteOptions options = new WriteOptions().sync(1.0 == syncrate);
+      
+      StandaloneBlocks.Window window;
+      
+      while(null != (window = this.blocks.readWindow(iterator, stoprow))) {
+        for (byte[][] kv: window.getDatapoints()) {
+          long timestamp = timestamp(kv[0]);
+          if (timestamp >= start && timestamp <= end) {
+            batch.delete(kv[0]);
+            batchsize++;
+            count++;
+          }
+        }
+        
+        if (null != window.getBlock()) {
+          if (this.blocks.windowStart(window.getEnd()) >= start && window.getEnd() <= end) {
+            // The whole window is in the range, drop its block without decoding it
+            batch.delete(window.getBlockKey());
+            batchsize++;
+          } else {
+            GTSEncoder outside = new GTSEncoder(window.getEnd(), aesKey);
+            
+            long inside = window.splitBlock(aesKey, start, end, outside);
+            
+            if (inside > 0) {
+              if (0 == outside.getCount()) {
+                batch.delete(window.getBlockKey());
+              } else {
+                batch.put(window.getBlockKey(), outside.getBytes());
+              }
+              batchsize++;
+              count += inside;
+            }
+          }
+        }
+        
+        if (MAX_DELETE_BATCHSIZE <= batchsize) {
+          if (syncwrites) {
+            options = new WriteOptions().sync(Math.random() < syncrate);
+          }
+          this.db.write(batch, options);
+          batch.close();
+          batch = this.db.createWriteBatch();
+          batchsize = 0;
+        }
+      }
+      
+      if (batchsize > 0) {
+        if (syncwrites) {
+          options = new WriteOptions().sync(Math.random() < syncrate);
+        }
+        this.db.write(batch, options);
+      }
+    } finally {
+      iterator.close();
+      batch.close();
+      lock.unlock();
+    }
+    
+    return count;
+  }
+  
+  /**
+   * Drop the cached last value, a deletion counter lets concurrent readers detect
+   * they might have read a value which was just deleted
+   */
+  private void forgetLastValue(Metadata metadata) {
+    if (null != this.lastValues) {
+      this.deletions.incrementAndGet();
+      this.lastValues.remove(new GTSId(metadata.getClassId(), metadata.getLabelsId()));
+    }
+  }
+  
+  /**
+   * Pack the datapoints of the windows which ended more than one span ago into blocks. The windows
+   * still receiving datapoints are left alone, a datapoint written later in a packed window is
+   * simply packed again on the next pass.
+   *
+   * The first pass reads every window, the following ones only read the windows written since the
+   * previous pass. Reads do not fill the block cache so the repacker does not evict the data of fetches.
+   */
+  private void repack() throws IOException {
+    long nano = System.nanoTime();
+    
+    byte[] aesKey = this.keystore.getKey(KeyStore.AES_LEVELDB_DATA);
+    
+    long horizon = this.blocks.windowEnd(TimeSource.getTime()) - this.blocks.getSpan();
+    
+    List<StandaloneBlocks.Window> windows = new ArrayList<StandaloneBlocks.Window>();
+    long size = 0L;
+    
+    long[] packed = new long[2];
+    
+    //
+    // Take the windows written since the last pass before creating the iterator, so they are all
+    // in its snapshot. Windows written after that are recorded for the next pass.
+    //
+    
+    List<GTSId> ids = new ArrayList<GTSId>(this.written.keySet());
+    Map<GTSId,WindowRange> ranges = new HashMap<GTSId,WindowRange>();
+    
+    for (GTSId id: ids) {
+      ranges.put(id, this.written.remove(id));
+    }
+    
+    // Visit the GTS in key order
+    Collections.sort(ids, GTSId.COMPARATOR);
+    
+    DBIterator iterator = this.db.iterator(SCAN_READ_OPTIONS);
+    
+    boolean complete = false;
+    
+    try {
+      if (!this.scanned) {
+        iterator.seek(Store.HBASE_RAW_DATA_KEY_PREFIX);
+        size = collect(iterator, null, horizon, windows, size, aesKey, packed);
+      }
+      
+      for (GTSId id: ids) {
+        WindowRange range = ranges.get(id);
+        
+        // Windows which are still too recent are visited again on the next pass
+        if (range.last >= horizon) {
+          markWritten(id, Math.max(range.first, horizon), range.last);
+        }
+        
+        // The first pass already read all the windows
+        if (!this.scanned || range.first >= horizon) {
+          continue;
+        }
+        
+        //
+        // Read the windows from the most recent one which can be packed down to the first one written
+        //
+        
+        iterator.seek(StandaloneBlocks.datapointKey(id.classId, id.labelsId, Math.min(range.last, horizon - this.blocks.getSpan())));
+        byte[] stoprow = StandaloneBlocks.datapointKey(id.classId, id.labelsId, this.blocks.windowStart(range.first));
+        
+        size = collect(iterator, stoprow, horizon, windows, size, aesKey, packed);
+      }
+      
+      if (!windows.isEmpty()) {
+        pack(windows, aesKey, packed);
+      }
+      
+      complete = true;
+    } finally {
+      iterator.close();
+      // The windows taken from 'written' by a failed pass are lost, read every window on the next pass
+      this.scanned = complete;
+    }
+    
+    nano = System.nanoTime() - nano;
+    
+    Sensision.update(SensisionConstants.SENSISION_CLASS_WARP_STANDALONE_LEVELDB_REPACK_BLOCKS, Sensision.EMPTY_LABELS, packed[0]);
+    Sensision.update(SensisionConstants.SENSISION_CLASS_WARP_STANDALONE_LEVELDB_REPACK_DATAPOINTS, Sensision.EMPTY_LABELS, packed[1]);
+    Sensision.update(SensisionConstants.SENSISION_CLASS_WARP_STANDALONE_LEVELDB_REPACK_TIME_NS, Sensision.EMPTY_LABELS, nano);
+  }
+  
+  /**
+   * Read the windows of 'iterator' up to 'stoprow' and add those ending before 'horizon' which have datapoints
+   * to pack to 'windows', packing them once they reach MAX_ENCODER_SIZE.
+   *
+   * @return the size of the windows left in 'windows'
+   */
+  private long collect(DBIterator iterator, byte[] stoprow, long horizon, List<StandaloneBlocks.Window> windows, long size, byte[] aesKey, long[] packed) throws IOException {
+    StandaloneBlocks.Window window;
+    
+    while(null != (window = this.blocks.readWindow(iterator, stoprow))) {
+      int datapoints = window.getDatapoints().size();
+      
+      // Skip recent windows and windows with nothing to pack
+      if (window.getEnd() >= horizon || 0 == datapoints || (1 == datapoints && null == window.getBlock())) {
+        continue;
+      }
+      
+      windows.add(window);
+      size += window.getKeyBytes() + window.getValueBytes();
+      
+      if (size > MAX_ENCODER_SIZE) {
+        pack(windows, aesKey, packed);
+        windows.clear();
+        size = 0L;
+      }
+    }
+    
+    return size;
+  }
+  
+  /**
+   * Replace the datapoints of 'windows' by blocks, updating the number of blocks and datapoints packed in 'packed'
+   */
+  private void pack(List<StandaloneBlocks.Window> windows, byte[] aesKey, long[] packed) throws IOException {
+    
+    //
+    // Encode the blocks before taking the lock so writers are only blocked while we check and write
+    //
+    
+    byte[][] contents = new byte[windows.size()][];
+    
+    for (int i = 0; i < contents.length; i++) {
+      contents[i] = windows.get(i).pack(aesKey);
+    }
+    
+    WriteBatch batch = this.db.createWriteBatch();
+    
+    Lock lock = this.blocksLock.writeLock();
+    lock.lock();
+    
+    try {
+      for (int i = 0; i < contents.length; i++) {
+        StandaloneBlocks.Window window = windows.get(i);
+        
+        //
+        // Windows were read from the snapshot of our iterator, skip those which were modified
+        // since then, they will be packed on the next pass
+        //
+        
+        if (!Arrays.equals(this.db.get(window.getBlockKey(), SCAN_READ_OPTIONS), window.getBlock())) {
+          continue;
+        }
+        
+        boolean modified = false;
+        
+        for (byte[][] kv: window.getDatapoints()) {
+          if (!Arrays.equals(this.db.get(kv[0], SCAN_READ_OPTIONS), kv[1])) {
+            modified = true;
+            break;
+          }
+        }
+        
+        if (modified) {
+          continue;
+        }
+        
+        batch.put(window.getBlockKey(), contents[i]);
+        
+        for (byte[][] kv: window.getDatapoints()) {
+          batch.delete(kv[0]);
+        }
+        
+        packed[0]++;
+        packed[1] += window.getDatapoints().size();
+      }
+      
+      this.db.write(batch);
+    } finally {
+      lock.unlock();
+      batch.close();
+    }
+  }
+  
   public void addPlasmaHandler(StandalonePlasmaHandlerInterface plasmaHandler) {
     this.plasmaHandlers.add(plasmaHandler);
   }
+  
+  /**
+   * Class and labels Id of a GTS
+   */
+  private static final class GTSId {
+    
+    /**
+     * Order of the keys of the GTS, by unsigned classId then labelsId
+     */
+    private static final Comparator<GTSId> COMPARATOR = new Comparator<GTSId>() {
+      @Override
+      public int compare(GTSId a, GTSId b) {
+        int cmp = Long.compareUnsigned(a.classId, b.classId);
+        return 0 != cmp ? cmp : Long.compareUnsigned(a.labelsId, b.labelsId);
+      }
+    };
+    
+    private final long classId;
+    private final long labelsId;
+    
+    private GTSId(long classId, long labelsId) {
+      this.classId = classId;
+      this.labelsId = labelsId;
+    }
+    
+    @Override
+    public int hashCode() {
+      return (int) (this.labelsId ^ (this.labelsId >>> 32) ^ this.classId ^ (this.classId >>> 32));
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof GTSId)) {
+        return false;
+      }
+      return this.classId == ((GTSId) o).classId && this.labelsId == ((GTSId) o).labelsId;
+    }
+  }
+  
+  /**
+   * Ends of the first and last windows written to a GTS. Instances are immutable so they can be replaced atomically.
+   */
+  private static final class WindowRange {
+    private final long first;
+    private final long last;
+    
+    private WindowRange(long first, long last) {
+      this.first = first;
+      this.last = last;
+    }
+    
+    /**
+     * Return a range also covering the windows from 'first' to 'last', this instance if it already does
+     */
+    private WindowRange merge(long first, long last) {
+      if (first >= this.first && last <= this.last) {
+        return this;
+      }
+      return new WindowRange(Math.min(first, this.first), Math.max(last, this.last));
+    }
+  }
+  
+  /**
+   * Most recent value of a GTS, as stored in LevelDB. A value is complete if it is known to be the
+   * most recent value of the GTS, otherwise the GTS has to be read to check if it has a more recent one.
+   */
+  private static final class LastValue {
+    private final long timestamp;
+    private final byte[] value;
+    private final boolean complete;
+    
+    private LastValue(long timestamp, byte[] value, boolean complete) {
+      this.timestamp = timestamp;
+      this.value = value;
+      this.complete = complete;
+    }
+  }
 }
@@ -69,6 +69,8 @@ public class Warp extends WarpDist implements Runnable {
         
   private static DB db;
   
+  private static StandaloneChunkedMemoryStore chunkedMemoryStore = null;
+  
   private static boolean standaloneMode = false;
   
   private static int port;
@@ -319,6 +321,7 @@ public class Warp extends WarpDist implements Runnable {
         scc = new StandaloneChunkedMemoryStore(properties, keystore);
         ((StandaloneChunkedMemoryStore) scc).setDirectoryClient((StandaloneDirectoryClient) sdc);
         ((StandaloneChunkedMemoryStore) scc).load();
+        chunkedMemoryStore = (StandaloneChunkedMemoryStore) scc;
       } else {
         scc = new StandaloneMemoryStore(keystore,
             Long.valueOf(properties.getProperty(Configuration.IN_MEMORY_DEPTH, Long.toString(60 * 60 * 1000 * Constants.TIME_UNITS_PER_MS))),
@@ -339,6 +342,12 @@ public class Warp extends WarpDist implements Runnable {
     } else {
       sdc = new StandaloneDirectoryClient(db, keystore);    
       scc = new StandaloneStoreClient(db, keystore, properties);
+      
+      //
+      // Start the retention of expired datapoints, it only runs if a TTL is configured
+      //
+      
+      new StandaloneRetention(properties, sdc, scc);
     }
         
     if (ParallelGTSDecoderIteratorWrapper.useParallelScanners()) {
@@ -412,6 +421,15 @@ public class Warp extends WarpDist implements Runnable {
       gzip.addIncludedMethods("POST");
       handlers.addHandler(gzip);
       
+      //
+      // Let UPDATE/META/DELETE write directly to this instance, the Datalog
+      // needs the textual requests so the HTTP endpoints are used when it is enabled
+      //
+      
+      if (!properties.containsKey(Configuration.DATALOG_DIR)) {
+        StandaloneLocalWriter.setInstance(new StandaloneLocalWriter(keystore, sdc, scc));
+      }
+      
       handlers.addHandler(geodir);    
 
       if (enablePlasma) {
@@ -552,4 +570,8 @@ public class Warp extends WarpDist implements Runnable {
   public static DB getDB() {
     return db;
   }
+  
+  public static StandaloneChunkedMemoryStore getChunkedMemoryStore() {
+    return chunkedMemoryStore;
+  }
 }
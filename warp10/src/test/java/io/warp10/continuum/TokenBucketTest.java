@@ -0,0 +1,84 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketTest {
+
+  @Test
+  public void testTryAcquire() {
+    TokenBucket bucket = new TokenBucket(10.0D);
+
+    Assert.assertEquals(10.0D, bucket.getRate(), 0.0D);
+
+    // The first request is served immediately and reserves 100ms worth of permits
+    Assert.assertTrue(bucket.tryAcquire(1, 0L, TimeUnit.MILLISECONDS));
+    Assert.assertFalse(bucket.tryAcquire(1, 0L, TimeUnit.MILLISECONDS));
+
+    long nanos = System.nanoTime();
+    Assert.assertTrue(bucket.tryAcquire(1, 500L, TimeUnit.MILLISECONDS));
+    Assert.assertTrue(System.nanoTime() - nanos > TimeUnit.MILLISECONDS.toNanos(50L));
+  }
+
+  @Test
+  public void testLowRate() {
+    TokenBucket bucket = new TokenBucket(1.0D / 3600.0D);
+
+    Assert.assertTrue(bucket.tryAcquire(Integer.MAX_VALUE, 0L, TimeUnit.MILLISECONDS));
+    Assert.assertFalse(bucket.tryAcquire(1, 1000L, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testConcurrentAcquire() throws Exception {
+    final double rate = 1000.0D;
+    long start = System.nanoTime();
+    final TokenBucket bucket = new TokenBucket(rate);
+    final AtomicLong acquired = new AtomicLong(0L);
+    final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200L);
+
+    Thread[] threads = new Thread[32];
+
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          while (System.nanoTime() < end) {
+            if (bucket.tryAcquire(1, 0L, TimeUnit.MILLISECONDS)) {
+              acquired.incrementAndGet();
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    for (Thread thread: threads) {
+      thread.join();
+    }
+
+    double elapsed = (System.nanoTime() - start) / 1000000000.0D;
+
+    // No more permits than the rate allows may have been handed out
+    Assert.assertTrue(acquired.get() > 0L);
+    Assert.assertTrue(acquired.get() <= Math.ceil(rate * elapsed) + 1);
+  }
+}
@@ -0,0 +1,165 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import io.warp10.continuum.store.thrift.data.Metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GTSColumnarTest {
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    List<GTSEncoder> encoders = new ArrayList<GTSEncoder>();
+
+    for (int i = 0; i < 3; i++) {
+      GTSEncoder encoder = new GTSEncoder(0L);
+      encoder.setName("class" + i);
+      encoder.getMetadata().setLabels(new HashMap<String,String>());
+      encoder.getMetadata().getLabels().put("idx", Integer.toString(i));
+
+      // More than one block for the first GTS
+      int n = 0 == i ? GTSColumnarWriter.BLOCK_SIZE * 2 + 17 : 100;
+
+      for (int j = 0; j < n; j++) {
+        long location = 0 == j % 3 ? GeoTimeSerie.NO_LOCATION : j * 1000L;
+        long elevation = 0 == j % 5 ? GeoTimeSerie.NO_ELEVATION : -j;
+        switch (j % 6) {
+          case 0:
+            encoder.addValue(j * 10L, location, elevation, (long) j * (j % 2 == 0 ? 1 : -1));
+            break;
+          case 1:
+            encoder.addValue(j * 10L, location, elevation, j / 7.0D);
+            break;
+          case 2:
+            encoder.addValue(j * 10L, location, elevation, new BigDecimal("1.25"));
+            break;
+          case 3:
+            encoder.addValue(j * 10L, location, elevation, "value é " + j);
+            break;
+          case 4:
+            encoder.addValue(j * 10L, location, elevation, true);
+            break;
+          default:
+            encoder.addValue(j * 10L, location, elevation, false);
+            break;
+        }
+      }
+
+      encoders.add(encoder);
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GTSColumnarWriter writer = new GTSColumnarWriter(out);
+
+    for (GTSEncoder encoder: encoders) {
+      writer.startSeries(new Metadata(encoder.getMetadata()));
+      GTSDecoder decoder = encoder.getDecoder(true);
+      while(decoder.next()) {
+        writer.addValue(decoder);
+      }
+    }
+
+    writer.close();
+
+    GTSColumnarReader reader = new GTSColumnarReader(new ByteArrayInputStream(out.toByteArray()), null, null, null, Long.MAX_VALUE);
+
+    List<GTSEncoder> actual = new ArrayList<GTSEncoder>();
+    GTSEncoder encoder = null;
+    long count = 0L;
+
+    while(reader.next()) {
+      GTSEncoder enc = reader.read(encoder, null);
+      count += reader.getCount();
+      if (enc != encoder) {
+        actual.add(enc);
+        encoder = enc;
+      }
+    }
+
+    Assert.assertEquals(encoders.size(), actual.size());
+    Assert.assertEquals(GTSColumnarWriter.BLOCK_SIZE * 2 + 17 + 200, count);
+
+    for (int i = 0; i < encoders.size(); i++) {
+      Assert.assertEquals(encoders.get(i).getName(), actual.get(i).getName());
+      Assert.assertEquals(encoders.get(i).getLabels(), actual.get(i).getLabels());
+
+      GTSDecoder expected = encoders.get(i).getDecoder(true);
+      GTSDecoder decoder = actual.get(i).getDecoder(true);
+
+      while(expected.next()) {
+        Assert.assertTrue(decoder.next());
+        Assert.assertEquals(expected.getTimestamp(), decoder.getTimestamp());
+        Assert.assertEquals(expected.getLocation(), decoder.getLocation());
+        Assert.assertEquals(expected.getElevation(), decoder.getElevation());
+        Assert.assertEquals(expected.getValue(), decoder.getValue());
+      }
+
+      Assert.assertFalse(decoder.next());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidMagic() throws Exception {
+    new GTSColumnarReader(new ByteArrayInputStream("1// class{} 1\n".getBytes("UTF-8")), null, null, null, Long.MAX_VALUE);
+  }
+
+  @Test
+  public void testRelease() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    GTSColumnarWriter writer = new GTSColumnarWriter(out);
+
+    Metadata metadata = new Metadata();
+    metadata.setName("class");
+    metadata.setLabels(new HashMap<String,String>());
+
+    writer.startSeries(metadata);
+    writer.addValue(0L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 42L);
+
+    // Releasing after closing has no effect
+    writer.close();
+    writer.release();
+
+    GTSColumnarReader reader = new GTSColumnarReader(new ByteArrayInputStream(out.toByteArray()), null, null, null, Long.MAX_VALUE);
+
+    Assert.assertTrue(reader.next());
+
+    // A closed reader has no more records
+    reader.close();
+    Assert.assertFalse(reader.next());
+    reader.close();
+  }
+
+  @Test
+  public void testIsColumnar() {
+    Assert.assertTrue(GTSColumnarReader.isColumnar(GTSColumnarWriter.CONTENT_TYPE));
+    Assert.assertTrue(GTSColumnarReader.isColumnar(GTSColumnarWriter.CONTENT_TYPE + "; charset=UTF-8"));
+    Assert.assertTrue(GTSColumnarReader.isColumnar(" Application/X-Warp10-Columnar ;charset=UTF-8"));
+    Assert.assertFalse(GTSColumnarReader.isColumnar(null));
+    Assert.assertFalse(GTSColumnarReader.isColumnar("text/plain; charset=UTF-8"));
+    Assert.assertFalse(GTSColumnarReader.isColumnar(GTSColumnarWriter.CONTENT_TYPE + "-v2"));
+  }
+}
@@ -19,8 +19,10 @@ package io.warp10.continuum.gts;
 import io.warp10.continuum.gts.GTSDecoder;
 import io.warp10.continuum.gts.GTSEncoder;
 import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.gts.GeoTimeSerie.TYPE;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -401,4 +403,57 @@ public class GTSDecoderTest {
     
     Assert.assertEquals(19, encoder.size());    
   }  
+
+  @Test
+  public void testDecoder_typedValues() throws Exception {
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.addValue(1L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 42L);
+    encoder.addValue(2L, GeoTimeSerie.NO_LOCATION, 10L, 3.14D);
+    encoder.addValue(3L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, new BigDecimal("1.5"));
+    encoder.addValue(4L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, "foo");
+    encoder.addValue(5L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, true);
+    
+    GTSDecoder decoder = encoder.getDecoder(true);
+    
+    Assert.assertTrue(decoder.next());
+    Assert.assertEquals(TYPE.LONG, decoder.getType());
+    Assert.assertEquals(42L, decoder.getLongValue());
+
+    Assert.assertTrue(decoder.next());
+    Assert.assertEquals(TYPE.DOUBLE, decoder.getType());
+    Assert.assertEquals(3.14D, decoder.getDoubleValue(), 0.0D);
+    Assert.assertNull(decoder.getBigDecimalValue());
+    Assert.assertEquals(10L, decoder.getElevation());
+
+    Assert.assertTrue(decoder.next());
+    Assert.assertEquals(TYPE.DOUBLE, decoder.getType());
+    Assert.assertEquals(1.5D, decoder.getDoubleValue(), 0.0D);
+    Assert.assertEquals(0, new BigDecimal("1.5").compareTo(decoder.getBigDecimalValue()));
+
+    Assert.assertTrue(decoder.next());
+    Assert.assertEquals(TYPE.STRING, decoder.getType());
+    Assert.assertEquals("foo", decoder.getStringValue());
+
+    Assert.assertTrue(decoder.next());
+    Assert.assertEquals(TYPE.BOOLEAN, decoder.getType());
+    Assert.assertTrue(decoder.getBooleanValue());
+    
+    Assert.assertFalse(decoder.next());
+    
+    //
+    // Copying datapoints with the typed path must produce the same encoding
+    //
+    
+    GTSEncoder copy = new GTSEncoder(0L);
+    decoder = encoder.getDecoder(true);
+    
+    while (decoder.next()) {
+      copy.addValue(decoder);
+    }
+    
+    Assert.assertArrayEquals(encoder.getBytes(), copy.getBytes());
+    
+    GeoTimeSerie gts = encoder.getDecoder(true).decode();
+    Assert.assertEquals(5, gts.size());
+  }
 }
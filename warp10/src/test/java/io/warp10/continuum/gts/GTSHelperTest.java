@@ -0,0 +1,218 @@
+//
+//   Copyright 2016  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import io.warp10.script.WarpScriptBucketizerFunction;
+import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptMapperFunction;
+import io.warp10.script.aggregator.Count;
+import io.warp10.script.aggregator.First;
+import io.warp10.script.aggregator.Last;
+import io.warp10.script.aggregator.Max;
+import io.warp10.script.aggregator.Mean;
+import io.warp10.script.aggregator.Min;
+import io.warp10.script.aggregator.Sum;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GTSHelperTest {
+  
+  @Test
+  public void testMap_slidingWindow() throws Exception {
+    Random prng = new Random(42L);
+    
+    GeoTimeSerie gtsl = new GeoTimeSerie();
+    GeoTimeSerie gtsd = new GeoTimeSerie();
+    
+    long ts = 0L;
+    
+    for (int i = 0; i < 1000; i++) {
+      // Irregular ticks with some duplicates
+      ts += prng.nextInt(3);
+      long value = prng.nextInt(100);
+      long elevation = 0 == i % 3 ? GeoTimeSerie.NO_ELEVATION : prng.nextInt(1000);
+      GTSHelper.setValue(gtsl, ts, GeoTimeSerie.NO_LOCATION, elevation, value, false);
+      GTSHelper.setValue(gtsd, ts, GeoTimeSerie.NO_LOCATION, elevation, (double) value, false);
+    }
+    
+    WarpScriptMapperFunction[] mappers = new WarpScriptMapperFunction[] {
+      new Max("max", true),
+      new Min("min", true),
+      new Sum("sum", true),
+      new Mean("mean", false),
+    };
+
+    long[][] windows = new long[][] {
+      { 0L, 0L }, { 10L, 0L }, { 0L, 10L }, { 5L, 7L }, { -20L, 0L }, { -5L, -5L }, { 2000L, 0L },
+    };
+    
+    for (GeoTimeSerie gts: new GeoTimeSerie[] { gtsl, gtsd }) {
+      for (final WarpScriptMapperFunction mapper: mappers) {
+        // Hide the sliding window support of the mapper
+        WarpScriptMapperFunction generic = new WarpScriptMapperFunction() {
+          @Override
+          public Object apply(Object[] args) throws WarpScriptException {
+            return mapper.apply(args);
+          }
+        };
+        
+        for (long[] window: windows) {
+          for (boolean reversed: new boolean[] { false, true }) {
+            for (int step: new int[] { 1, 3 }) {
+              List<GeoTimeSerie> expected = GTSHelper.map(gts, generic, window[0], window[1], 0, reversed, step, false);
+              List<GeoTimeSerie> actual = GTSHelper.map(gts, mapper, window[0], window[1], 0, reversed, step, false);
+              
+              Assert.assertEquals(1, actual.size());
+              
+              GeoTimeSerie e = expected.get(0);
+              GeoTimeSerie a = actual.get(0);
+              
+              Assert.assertEquals(e.size(), a.size());
+              
+              for (int i = 0; i < e.size(); i++) {
+                Assert.assertEquals(GTSHelper.tickAtIndex(e, i), GTSHelper.tickAtIndex(a, i));
+                Assert.assertEquals(GTSHelper.elevationAtIndex(e, i), GTSHelper.elevationAtIndex(a, i));
+                Object ev = GTSHelper.valueAtIndex(e, i);
+                Object av = GTSHelper.valueAtIndex(a, i);
+                if (ev instanceof Double) {
+                  Assert.assertEquals(((Double) ev).doubleValue(), ((Double) av).doubleValue(), 1.0E-9);
+                } else {
+                  Assert.assertEquals(ev, av);
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void testBucketize_typed() throws Exception {
+    Random prng = new Random(42L);
+    
+    GeoTimeSerie gtsl = new GeoTimeSerie();
+    GeoTimeSerie gtsd = new GeoTimeSerie();
+    
+    long ts = 0L;
+    
+    for (int i = 0; i < 1000; i++) {
+      // Irregular ticks with some duplicates
+      ts += prng.nextInt(3);
+      long value = prng.nextInt(100);
+      long location = 0 == i % 5 ? GeoTimeSerie.NO_LOCATION : prng.nextLong() >>> 1;
+      long elevation = 0 == i % 3 ? GeoTimeSerie.NO_ELEVATION : prng.nextInt(1000);
+      GTSHelper.setValue(gtsl, ts, location, elevation, value, false);
+      GTSHelper.setValue(gtsd, ts, location, elevation, (double) value, false);
+    }
+    
+    WarpScriptBucketizerFunction[] bucketizers = new WarpScriptBucketizerFunction[] {
+      new Max("max", true),
+      new Min("min", true),
+      new Sum("sum", true),
+      new Mean("mean", false),
+      new Count("count", false),
+      new First("first"),
+      new Last("last"),
+    };
+    
+    for (GeoTimeSerie gts: new GeoTimeSerie[] { gtsl, gtsd }) {
+      for (final WarpScriptBucketizerFunction bucketizer: bucketizers) {
+        // Hide the typed aggregation support of the bucketizer
+        WarpScriptBucketizerFunction generic = new WarpScriptBucketizerFunction() {
+          @Override
+          public Object apply(Object[] args) throws WarpScriptException {
+            return bucketizer.apply(args);
+          }
+        };
+        
+        for (long bucketspan: new long[] { 1L, 7L, 100L }) {
+          GeoTimeSerie e = GTSHelper.bucketize(gts, bucketspan, 0, 0L, generic, Long.MAX_VALUE);
+          GeoTimeSerie a = GTSHelper.bucketize(gts, bucketspan, 0, 0L, bucketizer, Long.MAX_VALUE);
+          
+          Assert.assertEquals(e.size(), a.size());
+          
+          for (int i = 0; i < e.size(); i++) {
+            Assert.assertEquals(GTSHelper.tickAtIndex(e, i), GTSHelper.tickAtIndex(a, i));
+            Assert.assertEquals(GTSHelper.locationAtIndex(e, i), GTSHelper.locationAtIndex(a, i));
+            Assert.assertEquals(GTSHelper.elevationAtIndex(e, i), GTSHelper.elevationAtIndex(a, i));
+            Assert.assertEquals(GTSHelper.valueAtIndex(e, i), GTSHelper.valueAtIndex(a, i));
+          }
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void testBucketize_sparse() throws Exception {
+    Random prng = new Random(42L);
+    
+    GeoTimeSerie gts = new GeoTimeSerie();
+    
+    long ts = -5000L;
+    
+    for (int i = 0; i < 1000; i++) {
+      // Bursts of close ticks separated by long gaps
+      ts += 0 == i % 10 ? prng.nextInt(1000) : prng.nextInt(3);
+      GTSHelper.setValue(gts, ts, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, (long) prng.nextInt(100), false);
+    }
+    
+    Sum sum = new Sum("sum", true);
+    
+    long[][] params = new long[][] {
+      // bucketspan, bucketcount, lastbucket
+      { 60L, 0L, 0L }, { 60L, 50L, 10000L }, { 7L, 1000L, 0L }, { 1000L, 3L, -1000L }, { 10L, 10L, -10000L },
+    };
+    
+    for (long[] param: params) {
+      GeoTimeSerie bucketized = GTSHelper.bucketize(gts, param[0], (int) param[1], param[2], sum, Long.MAX_VALUE);
+      
+      //
+      // Compute the expected buckets one by one
+      //
+      
+      GeoTimeSerie expected = new GeoTimeSerie();
+      
+      for (int i = 0; i < bucketized.bucketcount; i++) {
+        long bucketend = bucketized.lastbucket - i * bucketized.bucketspan;
+        GeoTimeSerie sub = GTSHelper.subSerie(gts, bucketend - bucketized.bucketspan + 1, bucketend, false);
+        if (0 == sub.values) {
+          continue;
+        }
+        long total = 0L;
+        for (int j = 0; j < sub.values; j++) {
+          total += ((Number) GTSHelper.valueAtIndex(sub, j)).longValue();
+        }
+        GTSHelper.setValue(expected, bucketend, total);
+      }
+      
+      GTSHelper.sort(expected);
+      GTSHelper.sort(bucketized);
+      
+      Assert.assertEquals(expected.size(), bucketized.size());
+      
+      for (int i = 0; i < expected.size(); i++) {
+        Assert.assertEquals(GTSHelper.tickAtIndex(expected, i), GTSHelper.tickAtIndex(bucketized, i));
+        Assert.assertEquals(GTSHelper.valueAtIndex(expected, i), GTSHelper.valueAtIndex(bucketized, i));
+      }
+    }
+  }
+}
@@ -0,0 +1,150 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import java.io.ByteArrayInputStream;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class GTSInputParserTest {
+
+  private static final String INPUT =
+      "# comment\n"
+    + "1000// class{foo=bar} 42\n"
+    + "=1001// 43\n"
+    + "  1002/48.0:-4.5/ class{foo=bar} -44  \r\n"
+    + "\n"
+    + "1003/48.123456789:-4.123456789/1000 class{foo=bar} 1.25\n"
+    + "1004/1234/ class{foo=bar}{attr=val} 3.14159265358979323\n"
+    + "1005// class{foo=bar} T\n"
+    + "1006// class{foo=bar} false\n"
+    + "1007// class{foo=bar} 'a%20string'\n"
+    + "1008// class{foo=bar} \"quoted\"\n"
+    + "1009// class{foo=bar} 1.0E10\n"
+    + "1010// class{foo=bar} NaN\n"
+    + "1011// class{foo=bar} -0.0\n"
+    + "1012// class{foo=bar} 5.\n"
+    + "1013// class{foo=bar} +7\n"
+    + "T-10// class{foo=bar} 1\n"
+    + "// class{foo=bar} 2\n"
+    + "1014// other%2Eclass{foo=bar,baz=qux} 1\n"
+    + "1015// other%2Eclass{baz=qux,foo=bar} 2\n"
+    + "1016// other%2Eclass{baz=qux,foo=bar} 1234567890.123456789\n"
+    + "1017// class{foo=bar} 9223372036854775807\n"
+    + "1018// class{foo=bar} -9223372036854775808\n";
+
+  @Test
+  public void testParse_sameAsGTSHelper() throws Exception {
+    Map<String,String> extraLabels = new HashMap<String,String>();
+    extraLabels.put(".producer", "p");
+
+    List<GTSEncoder> expected = new ArrayList<GTSEncoder>();
+    GTSEncoder encoder = null;
+
+    for (String line: INPUT.split("[\r\n]")) {
+      line = line.trim();
+      if (0 == line.length() || '#' == line.charAt(0)) {
+        continue;
+      }
+      GTSEncoder enc = GTSHelper.parse(encoder, line, extraLabels, 0L, Long.MAX_VALUE, false);
+      if (enc != encoder) {
+        expected.add(enc);
+        encoder = enc;
+      }
+    }
+
+    long[] classKey = new long[] { 1L, 2L };
+    long[] labelsKey = new long[] { 3L, 4L };
+
+    GTSInputParser parser = new GTSInputParser(new ByteArrayInputStream(INPUT.getBytes(Charsets.UTF_8)), extraLabels, classKey, labelsKey, Long.MAX_VALUE);
+
+    List<GTSEncoder> actual = new ArrayList<GTSEncoder>();
+    encoder = null;
+
+    while(parser.next()) {
+      GTSEncoder enc = parser.read(encoder, 0L);
+      if (enc != encoder) {
+        actual.add(enc);
+        encoder = enc;
+      }
+    }
+
+    Assert.assertEquals(expected.size(), actual.size());
+
+    for (int i = 0; i < expected.size(); i++) {
+      Assert.assertEquals(expected.get(i).getMetadata().getName(), actual.get(i).getMetadata().getName());
+      Assert.assertEquals(expected.get(i).getMetadata().getLabels(), actual.get(i).getMetadata().getLabels());
+      Assert.assertEquals(GTSHelper.classId(classKey, actual.get(i).getName()), actual.get(i).getClassId());
+      Assert.assertEquals(GTSHelper.labelsId(labelsKey, actual.get(i).getLabels()), actual.get(i).getLabelsId());
+      Assert.assertArrayEquals(expected.get(i).getBytes(), actual.get(i).getBytes());
+    }
+  }
+
+  @Test
+  public void testParse_longLines() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    StringBuilder value = new StringBuilder();
+
+    for (int i = 0; i < 100000; i++) {
+      value.append('x');
+    }
+
+    for (int i = 0; i < 10; i++) {
+      sb.append(i);
+      sb.append("// class{} '");
+      sb.append(value);
+      sb.append("'\n");
+    }
+
+    GTSInputParser parser = new GTSInputParser(new ByteArrayInputStream(sb.toString().getBytes(Charsets.UTF_8)), null, null, null, Long.MAX_VALUE);
+
+    GTSEncoder encoder = null;
+
+    while(parser.next()) {
+      encoder = parser.read(encoder, 0L);
+    }
+
+    Assert.assertEquals(10L, encoder.getCount());
+
+    GTSDecoder decoder = encoder.getDecoder();
+    while(decoder.next()) {
+      Assert.assertEquals(value.toString(), decoder.getValue());
+    }
+  }
+
+  @Test(expected = ParseException.class)
+  public void testParse_invalidContinuation() throws Exception {
+    GTSInputParser parser = new GTSInputParser(new ByteArrayInputStream("=1// 1\n".getBytes(Charsets.UTF_8)), null, null, null, Long.MAX_VALUE);
+    Assert.assertTrue(parser.next());
+    parser.read(null, 0L);
+  }
+
+  @Test(expected = ParseException.class)
+  public void testParse_invalidTimestamp() throws Exception {
+    GTSInputParser parser = new GTSInputParser(new ByteArrayInputStream("1a// class{} 1\n".getBytes(Charsets.UTF_8)), null, null, null, Long.MAX_VALUE);
+    Assert.assertTrue(parser.next());
+    parser.read(null, 0L);
+  }
+}
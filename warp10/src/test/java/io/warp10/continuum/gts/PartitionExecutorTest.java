@@ -0,0 +1,279 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.gts;
+
+import io.warp10.WarpConfig;
+import io.warp10.script.WarpScriptATCException;
+import io.warp10.script.WarpScriptException;
+import io.warp10.script.WarpScriptReducerFunction;
+import io.warp10.script.WarpScriptThreadSafeFunction;
+import io.warp10.script.aggregator.Sum;
+import io.warp10.script.op.OpAdd;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PartitionExecutorTest {
+
+  private static final int PARTITIONS = 20;
+
+  private static final List<String> BYLABELS = Collections.singletonList("part");
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits = us\n"));
+  }
+
+  @After
+  public void after() {
+    // Back to sequential execution, the default
+    PartitionExecutor.configure(0, 16);
+  }
+
+  @Test
+  public void testReduce() throws Exception {
+    List<GeoTimeSerie> series = series("gts", 3, 100, 0L);
+
+    PartitionExecutor.configure(0, 2);
+    List<GeoTimeSerie> sequential = GTSHelper.reduce(new Sum("sum", true), series, BYLABELS);
+
+    PartitionExecutor.configure(4, 2);
+    Assert.assertTrue(PartitionExecutor.isParallel(new Sum("sum", true), PARTITIONS));
+    List<GeoTimeSerie> parallel = GTSHelper.reduce(new Sum("sum", true), series, BYLABELS);
+
+    Assert.assertEquals(PARTITIONS, sequential.size());
+    assertSame(sequential, parallel);
+  }
+
+  @Test
+  public void testApply() throws Exception {
+    List<GeoTimeSerie> left = series("left", 1, 100, 0L);
+    List<GeoTimeSerie> right = series("right", 1, 100, 1L);
+
+    PartitionExecutor.configure(0, 2);
+    List<GeoTimeSerie> sequential = GTSHelper.partitionAndApply(new OpAdd("+", false), null, null, BYLABELS, left, right);
+
+    PartitionExecutor.configure(4, 2);
+    List<GeoTimeSerie> parallel = GTSHelper.partitionAndApply(new OpAdd("+", false), null, null, BYLABELS, left, right);
+
+    Assert.assertEquals(PARTITIONS, sequential.size());
+    assertSame(sequential, parallel);
+  }
+
+  @Test
+  public void testThreads() throws Exception {
+    List<GeoTimeSerie> series = series("gts", 2, 10, 0L);
+
+    PartitionExecutor.configure(4, 2);
+
+    //
+    // A reducer which is not thread safe is applied on the calling thread
+    //
+
+    final Sum sum = new Sum("sum", true);
+    final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread,Boolean>());
+
+    WarpScriptReducerFunction unsafe = new WarpScriptReducerFunction() {
+      @Override
+      public Object apply(Object[] args) throws WarpScriptException {
+        threads.add(Thread.currentThread());
+        return sum.apply(args);
+      }
+    };
+
+    Assert.assertFalse(PartitionExecutor.isParallel(unsafe, PARTITIONS));
+
+    assertSame(GTSHelper.reduce(sum, series, BYLABELS), GTSHelper.reduce(unsafe, series, BYLABELS));
+    Assert.assertEquals(Collections.singleton(Thread.currentThread()), threads);
+
+    //
+    // A thread safe one is applied on the pool
+    //
+
+    threads.clear();
+
+    GTSHelper.reduce(new SafeReducer(threads, null), series, BYLABELS);
+
+    Assert.assertFalse(threads.isEmpty());
+    for (Thread thread: threads) {
+      Assert.assertTrue(thread instanceof ForkJoinWorkerThread);
+    }
+
+    //
+    // Below the minimum number of partitions, partitions are reduced on the calling thread
+    //
+
+    PartitionExecutor.configure(4, PARTITIONS + 1);
+    threads.clear();
+
+    GTSHelper.reduce(new SafeReducer(threads, null), series, BYLABELS);
+
+    Assert.assertEquals(Collections.singleton(Thread.currentThread()), threads);
+  }
+
+  @Test
+  public void testExceptions() throws Exception {
+    List<GeoTimeSerie> series = series("gts", 2, 10, 0L);
+
+    PartitionExecutor.configure(4, 2);
+
+    Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread,Boolean>());
+
+    //
+    // Retrieve the order in which the partitions are processed
+    //
+
+    List<String> order = new ArrayList<String>();
+
+    for (GeoTimeSerie gts: GTSHelper.reduce(new Sum("sum", true), series, BYLABELS)) {
+      order.add(gts.getLabel("part"));
+    }
+
+    // The failure of the first failed partition is thrown as is, even if a later partition also failed
+    Map<String,Throwable> failures = new HashMap<String,Throwable>();
+    WarpScriptException first = new WarpScriptATCException("Limit exceeded.");
+    failures.put(order.get(2), first);
+    failures.put(order.get(3), new WarpScriptException("Other."));
+
+    try {
+      GTSHelper.reduce(new SafeReducer(threads, failures), series, BYLABELS);
+      Assert.fail("Expected the reducer failure");
+    } catch (WarpScriptException wse) {
+      Assert.assertSame(first, wse);
+    }
+
+    RuntimeException rte = new IllegalStateException("Failure.");
+    failures.clear();
+    failures.put(order.get(0), rte);
+
+    try {
+      GTSHelper.reduce(new SafeReducer(threads, failures), series, BYLABELS);
+      Assert.fail("Expected the reducer failure");
+    } catch (IllegalStateException ise) {
+      Assert.assertSame(rte, ise);
+    }
+
+    // Errors such as a StackOverflowError reach the caller too
+    StackOverflowError soe = new StackOverflowError();
+    failures.clear();
+    failures.put(order.get(PARTITIONS - 1), soe);
+
+    try {
+      GTSHelper.reduce(new SafeReducer(threads, failures), series, BYLABELS);
+      Assert.fail("Expected the reducer failure");
+    } catch (StackOverflowError e) {
+      Assert.assertSame(soe, e);
+    }
+
+    // The calling thread was never used
+    Assert.assertFalse(threads.contains(Thread.currentThread()));
+  }
+
+  /**
+   * Thread safe reducer recording the threads it runs on, it sums the values or throws the
+   * failure set for the 'part' label of the partition it is called on
+   */
+  private static final class SafeReducer implements WarpScriptReducerFunction, WarpScriptThreadSafeFunction {
+    private final Sum sum = new Sum("sum", true);
+    private final Set<Thread> threads;
+    private final Map<String,Throwable> failures;
+
+    private SafeReducer(Set<Thread> threads, Map<String,Throwable> failures) {
+      this.threads = threads;
+      this.failures = failures;
+    }
+
+    @Override
+    public Object apply(Object[] args) throws WarpScriptException {
+      this.threads.add(Thread.currentThread());
+
+      Map[] labels = (Map[]) args[2];
+      Throwable t = null == this.failures ? null : this.failures.get(labels[labels.length - 1].get("part"));
+
+      if (null != t) {
+        if (t instanceof WarpScriptException) {
+          throw (WarpScriptException) t;
+        } else if (t instanceof RuntimeException) {
+          throw (RuntimeException) t;
+        }
+        throw (Error) t;
+      }
+
+      return this.sum.apply(args);
+    }
+  }
+
+  /**
+   * Build 'perPartition' GTS for each of the PARTITIONS partitions, with 'count' random values.
+   */
+  private static List<GeoTimeSerie> series(String name, int perPartition, int count, long seed) {
+    Random random = new Random(seed);
+
+    List<GeoTimeSerie> series = new ArrayList<GeoTimeSerie>();
+
+    for (int p = 0; p < PARTITIONS; p++) {
+      for (int i = 0; i < perPartition; i++) {
+        GeoTimeSerie gts = new GeoTimeSerie();
+        gts.setName(name);
+        gts.setLabel("part", Integer.toString(p));
+        gts.setLabel("id", Integer.toString(i));
+
+        for (int j = 0; j < count; j++) {
+          // Leave holes so not all series have a value at each tick
+          if (random.nextInt(4) > 0) {
+            GTSHelper.setValue(gts, j, random.nextLong() % 1000L);
+          }
+        }
+
+        series.add(gts);
+      }
+    }
+
+    return series;
+  }
+
+  private static void assertSame(List<GeoTimeSerie> expected, List<GeoTimeSerie> actual) {
+    Assert.assertEquals(expected.size(), actual.size());
+
+    for (int i = 0; i < expected.size(); i++) {
+      GeoTimeSerie e = expected.get(i);
+      GeoTimeSerie a = actual.get(i);
+
+      Assert.assertEquals(e.getName(), a.getName());
+      Assert.assertEquals(e.getLabels(), a.getLabels());
+      Assert.assertEquals(GTSHelper.nvalues(e), GTSHelper.nvalues(a));
+
+      for (int j = 0; j < GTSHelper.nvalues(e); j++) {
+        Assert.assertEquals(GTSHelper.tickAtIndex(e, j), GTSHelper.tickAtIndex(a, j));
+        Assert.assertEquals(GTSHelper.valueAtIndex(e, j), GTSHelper.valueAtIndex(a, j));
+      }
+    }
+  }
+}
@@ -0,0 +1,107 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.store;
+
+import io.warp10.continuum.store.thrift.data.Metadata;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompactMetadataMapTest {
+
+  private static Metadata metadata(long labelsId, Map<String,String> labels) {
+    Metadata metadata = new Metadata();
+    metadata.setName("class");
+    metadata.setClassId(42L);
+    metadata.setLabelsId(labelsId);
+    metadata.setLabels(labels);
+    metadata.setAttributes(new HashMap<String,String>());
+    return metadata;
+  }
+
+  @Test
+  public void testCompactMetadata() {
+    Map<String,String> labels = new HashMap<String,String>();
+    labels.put("host", "web-1");
+    labels.put("dc", "a");
+
+    Metadata metadata = metadata(1L, labels);
+    metadata.getAttributes().put("rack", "r1");
+
+    CompactMetadata compact = new CompactMetadata(metadata);
+
+    Assert.assertEquals("class", compact.getName());
+    Assert.assertEquals(labels, compact.getLabels());
+    Assert.assertEquals("web-1", compact.getLabel("host"));
+    Assert.assertNull(compact.getLabel("rack"));
+    Assert.assertEquals("r1", compact.getAttribute("rack"));
+    Assert.assertNull(compact.getAttribute("unknown"));
+    Assert.assertFalse(compact.isSetLastActivity());
+
+    compact.setLastActivity(1000L);
+
+    Metadata rebuilt = compact.toMetadata();
+
+    Assert.assertEquals(labels, rebuilt.getLabels());
+    Assert.assertEquals(metadata.getAttributes(), rebuilt.getAttributes());
+    Assert.assertEquals(42L, rebuilt.getClassId());
+    Assert.assertEquals(1L, rebuilt.getLabelsId());
+    Assert.assertEquals(1000L, rebuilt.getLastActivity());
+  }
+
+  @Test
+  public void testPutRemove() {
+    CompactMetadataMap map = new CompactMetadataMap();
+    Map<Long,Map<String,String>> expected = new HashMap<Long,Map<String,String>>();
+
+    Random prng = new Random(42L);
+
+    for (int i = 0; i < 100000; i++) {
+      long labelsId = prng.nextInt(10000) * 0x9E3779B97F4A7C15L;
+
+      if (0 == prng.nextInt(3)) {
+        Assert.assertEquals(null == expected.remove(labelsId), null == map.remove(labelsId));
+        continue;
+      }
+
+      Map<String,String> labels = new HashMap<String,String>();
+      labels.put("id", Integer.toString(i));
+
+      map.put(new CompactMetadata(metadata(labelsId, labels)));
+      expected.put(labelsId, labels);
+    }
+
+    Assert.assertEquals(expected.size(), map.size());
+
+    int count = 0;
+
+    for (CompactMetadata metadata: map.values()) {
+      Assert.assertEquals(expected.get(metadata.getLabelsId()), metadata.getLabels());
+      count++;
+    }
+
+    Assert.assertEquals(expected.size(), count);
+
+    for (Long labelsId: expected.keySet()) {
+      Assert.assertTrue(map.containsKey(labelsId));
+    }
+  }
+}
@@ -0,0 +1,143 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.store;
+
+import io.warp10.continuum.store.thrift.data.Metadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class DirectorySnapshotTest {
+
+  @Test
+  public void testWriteRead() throws Exception {
+    final Map<Long,Metadata> expected = new HashMap<Long,Metadata>();
+
+    CompactMetadataMap map = new CompactMetadataMap();
+
+    for (int i = 0; i < 1000; i++) {
+      Metadata metadata = new Metadata();
+      metadata.setName("class");
+      metadata.setClassId(42L);
+      metadata.setLabelsId(i);
+      metadata.setLabels(new HashMap<String,String>());
+      metadata.getLabels().put("id", Integer.toString(i));
+      metadata.getLabels().put("mod", Integer.toString(i % 10));
+      metadata.setAttributes(new HashMap<String,String>());
+      if (0 == i % 2) {
+        metadata.getAttributes().put("even", "true");
+        metadata.setLastActivity(i);
+      }
+
+      map.put(new CompactMetadata(metadata));
+      expected.put((long) i, metadata);
+    }
+
+    List<CompactMetadataMap> maps = new ArrayList<CompactMetadataMap>();
+    maps.add(map);
+
+    File file = File.createTempFile("directory", ".snapshot");
+    file.deleteOnExit();
+
+    Assert.assertEquals(1000L, DirectorySnapshot.write(file, 1L, 2L, maps));
+    Assert.assertArrayEquals(new long[] { 1L, 2L }, DirectorySnapshot.readHeader(file));
+
+    long count = DirectorySnapshot.read(file, new DirectorySnapshot.Visitor() {
+      @Override
+      public void visit(CompactMetadata metadata) {
+        Assert.assertEquals(expected.get(metadata.getLabelsId()), metadata.toMetadata());
+      }
+    });
+
+    Assert.assertEquals(1000L, count);
+
+    //
+    // Corrupt the file, it should no longer be loaded
+    //
+
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.seek(100L);
+    int b = raf.read();
+    raf.seek(100L);
+    raf.write(b ^ 0xFF);
+    raf.close();
+
+    try {
+      DirectorySnapshot.read(file, new DirectorySnapshot.Visitor() {
+        @Override
+        public void visit(CompactMetadata metadata) {
+          Assert.fail();
+        }
+      });
+      Assert.fail();
+    } catch (IOException ioe) {
+    }
+  }
+
+  @Test
+  public void testValuesOfRemovedGTS() throws Exception {
+    CompactMetadataMap map = new CompactMetadataMap();
+
+    for (int i = 0; i < 10; i++) {
+      Metadata metadata = new Metadata();
+      metadata.setName("class");
+      metadata.setClassId(42L);
+      metadata.setLabelsId(i);
+      metadata.setLabels(new HashMap<String,String>());
+      metadata.getLabels().put("pod", "pod-" + i + "-removed");
+      metadata.setAttributes(new HashMap<String,String>());
+      map.put(new CompactMetadata(metadata));
+    }
+
+    // Values are not part of the dictionary
+    Assert.assertEquals(-1, MetadataDictionary.getInstance().lookup("pod-0-removed"));
+    Assert.assertTrue(MetadataDictionary.getInstance().lookup("pod") >= 0);
+
+    for (int i = 0; i < 5; i++) {
+      map.remove(i);
+    }
+
+    List<CompactMetadataMap> maps = new ArrayList<CompactMetadataMap>();
+    maps.add(map);
+
+    File file = File.createTempFile("directory", ".snapshot");
+    file.deleteOnExit();
+
+    Assert.assertEquals(5L, DirectorySnapshot.write(file, 1L, 2L, maps));
+
+    //
+    // The snapshot only contains the strings of the GTS it holds
+    //
+
+    String content = new String(Files.readAllBytes(file.toPath()), Charsets.ISO_8859_1);
+
+    for (int i = 0; i < 10; i++) {
+      Assert.assertEquals(i >= 5, content.contains("pod-" + i + "-removed"));
+    }
+  }
+}
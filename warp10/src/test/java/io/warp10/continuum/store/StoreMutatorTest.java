@@ -0,0 +1,254 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.continuum.store;
+
+import io.warp10.continuum.sensision.SensisionConstants;
+import io.warp10.sensision.Sensision;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Put;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StoreMutatorTest {
+
+  @Test
+  public void testFlush() throws Exception {
+    RecordingMutator recording = new RecordingMutator();
+    StoreMutator mutator = new StoreMutator(recording.proxy(), 1000L, false);
+
+    // Nothing to acknowledge, the mutator is not flushed
+    mutator.flush(false);
+    Assert.assertEquals(0, recording.flushes);
+
+    for (int i = 0; i < 3; i++) {
+      Assert.assertFalse(mutator.mutate(put(i), 10L));
+    }
+
+    Assert.assertEquals(3, recording.mutations.size());
+    Assert.assertEquals(3L, mutator.getPendingPuts());
+    Assert.assertEquals(30L, mutator.getPutsSize());
+    Assert.assertTrue(0L != mutator.getLastPut());
+    Assert.assertEquals(0, recording.flushes);
+
+    mutator.flush(false);
+
+    Assert.assertEquals(1, recording.flushes);
+    Assert.assertEquals(0L, mutator.getPendingPuts());
+    Assert.assertEquals(0L, mutator.getPutsSize());
+    Assert.assertEquals(0L, mutator.getLastPut());
+
+    mutator.flush(true);
+    Assert.assertEquals(1, recording.flushes);
+  }
+
+  @Test
+  public void testBackpressure() throws Exception {
+    RecordingMutator recording = new RecordingMutator();
+    StoreMutator mutator = new StoreMutator(recording.proxy(), 25L, false);
+
+    long backpressure = counter(SensisionConstants.SENSISION_CLASS_CONTINUUM_STORE_HBASE_BACKPRESSURE);
+
+    // Up to maxInflightBytes, the Puts are handed to the mutator without waiting
+    Assert.assertFalse(mutator.mutate(put(0), 10L));
+    Assert.assertFalse(mutator.mutate(put(1), 10L));
+    Assert.assertEquals(0, recording.flushes);
+
+    // Beyond, the mutator is flushed before returning
+    Assert.assertTrue(mutator.mutate(put(2), 10L));
+    Assert.assertEquals(1, recording.flushes);
+    Assert.assertEquals(3, recording.mutations.size());
+    Assert.assertEquals(0L, mutator.getPendingPuts());
+    Assert.assertEquals(0L, mutator.getPutsSize());
+    Assert.assertEquals(backpressure + 1, counter(SensisionConstants.SENSISION_CLASS_CONTINUUM_STORE_HBASE_BACKPRESSURE));
+
+    // A single Put larger than the limit is flushed immediately
+    Assert.assertTrue(mutator.mutate(put(3), 100L));
+    Assert.assertEquals(2, recording.flushes);
+    Assert.assertEquals(backpressure + 2, counter(SensisionConstants.SENSISION_CLASS_CONTINUUM_STORE_HBASE_BACKPRESSURE));
+  }
+
+  @Test
+  public void testSkipWrite() throws Exception {
+    // When writes are skipped, the mutator is never used
+    StoreMutator mutator = new StoreMutator(null, 25L, true);
+
+    Assert.assertFalse(mutator.mutate(put(0), 10L));
+    Assert.assertEquals(1L, mutator.getPendingPuts());
+    Assert.assertTrue(mutator.mutate(put(1), 20L));
+    Assert.assertEquals(0L, mutator.getPendingPuts());
+  }
+
+  @Test
+  public void testFlushFailure() throws Exception {
+    RecordingMutator recording = new RecordingMutator();
+    StoreMutator mutator = new StoreMutator(recording.proxy(), 1000L, false);
+
+    mutator.mutate(put(0), 10L);
+    mutator.mutate(put(1), 10L);
+
+    IOException ioe = new IOException("Flush failed.");
+    recording.flushFailure = ioe;
+
+    try {
+      mutator.flush(false);
+      Assert.fail("Expected the flush failure");
+    } catch (IOException e) {
+      Assert.assertSame(ioe, e);
+    }
+
+    // The pending Puts are forgotten, they will be replayed from Kafka
+    Assert.assertEquals(0L, mutator.getPendingPuts());
+    Assert.assertEquals(0L, mutator.getPutsSize());
+    Assert.assertEquals(0L, mutator.getLastPut());
+
+    // HBase errors reported as RuntimeException are handled the same way, including during backpressure
+    RuntimeException re = new IllegalStateException("Flush failed.");
+    recording.flushFailure = re;
+
+    mutator.mutate(put(2), 500L);
+
+    try {
+      mutator.mutate(put(3), 600L);
+      Assert.fail("Expected the flush failure");
+    } catch (IllegalStateException e) {
+      Assert.assertSame(re, e);
+    }
+
+    Assert.assertEquals(0L, mutator.getPendingPuts());
+    Assert.assertEquals(0L, mutator.getPutsSize());
+  }
+
+  @Test
+  public void testMutateFailure() throws Exception {
+    RecordingMutator recording = new RecordingMutator();
+    StoreMutator mutator = new StoreMutator(recording.proxy(), 1000L, false);
+
+    mutator.mutate(put(0), 10L);
+
+    IOException ioe = new IOException("Mutate failed.");
+    recording.mutateFailure = ioe;
+
+    try {
+      mutator.mutate(put(1), 10L);
+      Assert.fail("Expected the mutate failure");
+    } catch (IOException e) {
+      Assert.assertSame(ioe, e);
+    }
+
+    // The rejected Put is not accounted for
+    Assert.assertEquals(1L, mutator.getPendingPuts());
+    Assert.assertEquals(10L, mutator.getPutsSize());
+  }
+
+  @Test
+  public void testRenewMutator() throws Exception {
+    final List<RecordingMutator> created = new ArrayList<RecordingMutator>();
+
+    Connection conn = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("getBufferedMutator".equals(method.getName())) {
+          RecordingMutator mutator = new RecordingMutator();
+          created.add(mutator);
+          return mutator.proxy();
+        }
+        throw new UnsupportedOperationException(method.getName());
+      }
+    });
+
+    BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf("continuum"));
+
+    // First generation, there is no previous mutator
+    BufferedMutator first = Store.renewMutator(conn, null, params);
+    Assert.assertEquals(1, created.size());
+
+    // The mutator of the previous generation is closed
+    BufferedMutator second = Store.renewMutator(conn, first, params);
+    Assert.assertEquals(2, created.size());
+    Assert.assertEquals(1, created.get(0).closes);
+    Assert.assertEquals(0, created.get(1).closes);
+
+    // A failure to close the previous mutator does not prevent the creation of a new one
+    created.get(1).closeFailure = new IOException("Close failed.");
+
+    BufferedMutator third = Store.renewMutator(conn, second, params);
+    Assert.assertEquals(3, created.size());
+    Assert.assertEquals(1, created.get(1).closes);
+    Assert.assertNotNull(third);
+  }
+
+  private static Put put(int i) {
+    return new Put(new byte[] { (byte) i });
+  }
+
+  private static long counter(String cls) {
+    Object value = Sensision.getValue(cls, Sensision.EMPTY_LABELS);
+    return null == value ? 0L : ((Number) value).longValue();
+  }
+
+  /**
+   * BufferedMutator stub recording the mutations, flushes and closes
+   */
+  private static final class RecordingMutator {
+    private final List<Object> mutations = new ArrayList<Object>();
+    private int flushes = 0;
+    private int closes = 0;
+
+    private Exception mutateFailure = null;
+    private Exception flushFailure = null;
+    private Exception closeFailure = null;
+
+    private BufferedMutator proxy() {
+      return (BufferedMutator) Proxy.newProxyInstance(BufferedMutator.class.getClassLoader(), new Class<?>[] { BufferedMutator.class }, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          if ("mutate".equals(method.getName())) {
+            if (null != mutateFailure) {
+              throw mutateFailure;
+            }
+            mutations.add(args[0]);
+            return null;
+          } else if ("flush".equals(method.getName())) {
+            flushes++;
+            if (null != flushFailure) {
+              throw flushFailure;
+            }
+            return null;
+          } else if ("close".equals(method.getName())) {
+            closes++;
+            if (null != closeFailure) {
+              throw closeFailure;
+            }
+            return null;
+          }
+          throw new UnsupportedOperationException(method.getName());
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,246 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.plugins.influxdb;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.TimeSource;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.store.Constants;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+
+public class InfluxDBLineParserTest {
+
+  private static final long NS = 1500000000000000000L;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits = us\n"));
+  }
+
+  @Test
+  public void testEscapedKeys() throws Exception {
+    List<GTSEncoder> encoders = parse("cpu\\,1\\ x,host\\=a=web\\ 1,dc=eu\\,west f\\ 1\\=x=1i " + NS + "\n");
+
+    Assert.assertEquals(1, encoders.size());
+
+    GTSEncoder encoder = encoders.get(0);
+
+    Assert.assertEquals("cpu,1 x.f 1=x", encoder.getName());
+
+    Map<String,String> labels = new HashMap<String,String>();
+    labels.put("host=a", "web 1");
+    labels.put("dc", "eu,west");
+    Assert.assertEquals(labels, encoder.getLabels());
+
+    GTSDecoder decoder = encoder.getDecoder();
+    Assert.assertTrue(decoder.next());
+    Assert.assertEquals(toTimeUnits(NS), decoder.getTimestamp());
+    Assert.assertEquals(1L, decoder.getValue());
+    Assert.assertFalse(decoder.next());
+  }
+
+  @Test
+  public void testQuotedStrings() throws Exception {
+    List<GTSEncoder> encoders = parse("log,host=a msg=\"hello, world \\\"quoted\\\" x=1 \\\\\",n=2i " + NS + "\n");
+
+    Map<String,GTSEncoder> byName = byName(encoders);
+
+    Assert.assertEquals(2, byName.size());
+    Assert.assertEquals("hello, world \"quoted\" x=1 \\", single(byName.get("log.msg")));
+    Assert.assertEquals(2L, single(byName.get("log.n")));
+
+    GTSDecoder decoder = byName.get("log.msg").getDecoder();
+    Assert.assertTrue(decoder.next());
+    Assert.assertEquals(toTimeUnits(NS), decoder.getTimestamp());
+  }
+
+  @Test
+  public void testTaglessMeasurement() throws Exception {
+    List<GTSEncoder> encoders = parse("temp value=21.5 " + NS + "\n");
+
+    Assert.assertEquals(1, encoders.size());
+    Assert.assertEquals("temp.value", encoders.get(0).getName());
+    Assert.assertTrue(encoders.get(0).getLabels().isEmpty());
+    Assert.assertEquals(21.5D, ((Number) single(encoders.get(0))).doubleValue(), 0.0D);
+  }
+
+  @Test
+  public void testCommentsAndBlankLines() throws Exception {
+    InfluxDBLineParser parser = parser("# comment\n\n   \r\n\ttemp value=1i " + NS + "  \r\n# other comment\ntemp value=2i " + (NS + 1000L));
+
+    Assert.assertTrue(parser.next());
+    Assert.assertEquals("temp value=1i " + NS, parser.getText());
+    parser.read();
+    Assert.assertTrue(parser.next());
+    Assert.assertEquals("temp value=2i " + (NS + 1000L), parser.getText());
+    parser.read();
+    Assert.assertFalse(parser.next());
+
+    Assert.assertEquals(2L, parser.getBatchCount());
+
+    List<GTSEncoder> encoders = parser.flush();
+
+    Assert.assertEquals(1, encoders.size());
+    Assert.assertEquals(2L, encoders.get(0).getCount());
+    Assert.assertEquals(0L, parser.getBatchCount());
+    Assert.assertEquals(0L, parser.getBatchSize());
+  }
+
+  @Test
+  public void testIntegers() throws Exception {
+    Map<String,GTSEncoder> byName = byName(parse("m a=-5i,b=7u,c=42 " + NS + "\n"));
+
+    Assert.assertEquals(-5L, single(byName.get("m.a")));
+    Assert.assertEquals(7L, single(byName.get("m.b")));
+    // Numbers without suffix are converted as in the Warp 10 input format
+    Assert.assertEquals(42L, single(byName.get("m.c")));
+  }
+
+  @Test
+  public void testBooleans() throws Exception {
+    String[] trues = { "t", "T", "true", "True", "TRUE" };
+    String[] falses = { "f", "F", "false", "False", "FALSE" };
+
+    for (String b: trues) {
+      Assert.assertEquals(Boolean.TRUE, single(parse("m v=" + b + " " + NS).get(0)));
+    }
+    for (String b: falses) {
+      Assert.assertEquals(Boolean.FALSE, single(parse("m v=" + b + " " + NS).get(0)));
+    }
+  }
+
+  @Test
+  public void testMissingTimestamp() throws Exception {
+    long before = TimeSource.getTime();
+    List<GTSEncoder> encoders = parse("m v=1i\n");
+    long after = TimeSource.getTime();
+
+    GTSDecoder decoder = encoders.get(0).getDecoder();
+    Assert.assertTrue(decoder.next());
+
+    // getNanoTime and getTime do not share the same origin, allow for some drift
+    long tolerance = 10L * Constants.TIME_UNITS_PER_S;
+    Assert.assertTrue(decoder.getTimestamp() >= before - tolerance);
+    Assert.assertTrue(decoder.getTimestamp() <= after + tolerance);
+  }
+
+  @Test
+  public void testSeriesSharedInBatch() throws Exception {
+    List<GTSEncoder> encoders = parse("m,t=a v=1i " + NS + "\nm,t=b v=2i " + NS + "\nm,t=a v=3i,w=4i " + NS + "\n");
+
+    Assert.assertEquals(3, encoders.size());
+
+    long count = 0L;
+    for (GTSEncoder encoder: encoders) {
+      count += encoder.getCount();
+      if ("m.v".equals(encoder.getName()) && "a".equals(encoder.getLabels().get("t"))) {
+        Assert.assertEquals(2L, encoder.getCount());
+      }
+    }
+    Assert.assertEquals(4L, count);
+  }
+
+  @Test
+  public void testLongLine() throws Exception {
+    // Line longer than the initial buffer
+    StringBuilder sb = new StringBuilder();
+    sb.append("m s=\"");
+    for (int i = 0; i < 100000; i++) {
+      sb.append((char) ('a' + (i % 26)));
+    }
+    sb.append("\" ").append(NS).append("\nm v=1i ").append(NS).append("\n");
+
+    Map<String,GTSEncoder> byName = byName(parse(sb.toString()));
+
+    Assert.assertEquals(100000, ((String) single(byName.get("m.s"))).length());
+    Assert.assertEquals(1L, single(byName.get("m.v")));
+  }
+
+  @Test
+  public void testMalformedLines() throws Exception {
+    String[] malformed = {
+      "m",
+      "m v",
+      "m =1i",
+      "m v=",
+      "m v=\"abc",
+      "m,t v=1i",
+      "m v=tru",
+      "m v=abc",
+      "m v=1i notatimestamp",
+    };
+
+    for (String line: malformed) {
+      try {
+        parse(line + "\n");
+        Assert.fail("Expected a ParseException for '" + line + "'");
+      } catch (ParseException pe) {
+        // Expected
+      }
+    }
+  }
+
+  private static InfluxDBLineParser parser(String text) {
+    return new InfluxDBLineParser(new ByteArrayInputStream(text.getBytes(Charsets.UTF_8)), 1L);
+  }
+
+  private static List<GTSEncoder> parse(String text) throws Exception {
+    InfluxDBLineParser parser = parser(text);
+
+    while(parser.next()) {
+      parser.read();
+    }
+
+    return parser.flush();
+  }
+
+  private static Map<String,GTSEncoder> byName(List<GTSEncoder> encoders) {
+    Map<String,GTSEncoder> byName = new HashMap<String,GTSEncoder>();
+    for (GTSEncoder encoder: encoders) {
+      byName.put(encoder.getName(), encoder);
+    }
+    return byName;
+  }
+
+  /**
+   * Return the value of an encoder holding a single datapoint
+   */
+  private static Object single(GTSEncoder encoder) throws Exception {
+    GTSDecoder decoder = encoder.getDecoder();
+    Assert.assertTrue(decoder.next());
+    Object value = decoder.getValue();
+    Assert.assertFalse(decoder.next());
+    return value;
+  }
+
+  private static long toTimeUnits(long ns) {
+    return ns / (1000000000L / Constants.TIME_UNITS_PER_S);
+  }
+}
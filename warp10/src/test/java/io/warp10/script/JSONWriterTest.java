@@ -0,0 +1,100 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JSONWriterTest {
+
+  private static String format(double d) throws IOException {
+    StringWriter sw = new StringWriter();
+    JSONWriter writer = new JSONWriter(sw);
+    writer.writeDouble(d);
+    writer.end();
+    return sw.toString();
+  }
+
+  private static String format(long l) throws IOException {
+    StringWriter sw = new StringWriter();
+    JSONWriter writer = new JSONWriter(sw);
+    writer.writeLong(l);
+    writer.end();
+    return sw.toString();
+  }
+
+  @Test
+  public void testLong() throws Exception {
+    long[] values = { 0L, 1L, -1L, 9L, 10L, -10L, 1500000000000000L, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1L };
+
+    for (long l: values) {
+      Assert.assertEquals(Long.toString(l), format(l));
+    }
+  }
+
+  @Test
+  public void testDouble() throws Exception {
+    Assert.assertEquals("0.0", format(0.0D));
+    Assert.assertEquals("-0.0", format(-0.0D));
+    Assert.assertEquals("1.0", format(1.0D));
+    Assert.assertEquals("-20.5", format(-20.5D));
+    Assert.assertEquals("0.001", format(0.001D));
+    Assert.assertEquals("0.30000000000000004", format(0.1D + 0.2D));
+    Assert.assertEquals("9999999.5", format(9999999.5D));
+    Assert.assertEquals("1.0E7", format(1.0E7D));
+    Assert.assertEquals("9.99E-4", format(0.000999D));
+    Assert.assertEquals("NaN", format(Double.NaN));
+    Assert.assertEquals("-Infinity", format(Double.NEGATIVE_INFINITY));
+
+    //
+    // Whatever the path taken, the output must parse back to the same double
+    //
+
+    Random prng = new Random(42L);
+
+    for (int i = 0; i < 100000; i++) {
+      double d = Math.rint(prng.nextGaussian() * 1.0E6D) / Math.pow(10.0D, prng.nextInt(10));
+      Assert.assertEquals(Double.doubleToLongBits(d), Double.doubleToLongBits(Double.parseDouble(format(d))));
+
+      d = Double.longBitsToDouble(prng.nextLong());
+      Assert.assertEquals(Double.doubleToLongBits(d), Double.doubleToLongBits(Double.parseDouble(format(d))));
+    }
+  }
+
+  @Test
+  public void testStreaming() throws Exception {
+    StringWriter sw = new StringWriter();
+    JSONWriter writer = new JSONWriter(sw);
+    StringBuilder sb = new StringBuilder();
+
+    for (int i = 0; i < 100000; i++) {
+      writer.write('[');
+      writer.writeLong(i);
+      writer.write(",\"v\"");
+      writer.write(']');
+      sb.append('[').append(i).append(",\"v\"").append(']');
+    }
+
+    writer.end();
+
+    Assert.assertEquals(sb.toString(), sw.toString());
+  }
+}
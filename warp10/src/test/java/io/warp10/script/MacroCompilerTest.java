@@ -0,0 +1,144 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import io.warp10.WarpConfig;
+import io.warp10.script.WarpScriptStack.Macro;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MacroCompilerTest {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits = us\n"));
+  }
+
+  private static MemoryWarpScriptStack newStack() {
+    MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null, new Properties());
+    stack.maxLimits();
+    return stack;
+  }
+
+  private static Macro parse(String mc2) throws Exception {
+    MemoryWarpScriptStack stack = newStack();
+    stack.exec(WarpScriptStack.MACRO_START + " " + mc2 + " " + WarpScriptStack.MACRO_END);
+    return (Macro) stack.pop();
+  }
+
+  /**
+   * Copy a macro and its nested macros into instances of a Macro subclass, which MacroCompiler does not compile
+   */
+  private static Macro interpreted(Macro macro) {
+    Macro copy = new Macro() {};
+
+    for (Object stmt: macro.statements()) {
+      copy.add(stmt instanceof Macro ? interpreted((Macro) stmt) : stmt);
+    }
+
+    return copy;
+  }
+
+  /**
+   * Execute a macro and return the content of the stack (top first) followed by the symbol table,
+   * or the class of the exception thrown by the execution
+   */
+  private static List<Object> run(MemoryWarpScriptStack stack, Macro macro) throws Exception {
+    List<Object> result = new ArrayList<Object>();
+
+    try {
+      stack.exec(macro);
+    } catch (WarpScriptException wse) {
+      result.add(wse.getClass());
+      return result;
+    }
+
+    for (int i = 0; i < stack.depth(); i++) {
+      result.add(stack.get(i));
+    }
+
+    result.add(new HashMap<String,Object>(stack.getSymbolTable()));
+
+    return result;
+  }
+
+  private static void check(String mc2) throws Exception {
+    Macro macro = parse(mc2);
+
+    List<Object> expected = run(newStack(), interpreted(macro));
+
+    Assert.assertEquals(expected, run(newStack(), macro));
+
+    // Run the compiled macro again on another stack, it must not reuse the slots of the first one
+    Assert.assertEquals(expected, run(newStack(), macro));
+  }
+
+  @Test
+  public void testLoadStore() throws Exception {
+    check("42 'a' STORE $a 1 + 'b' STORE $a $b");
+    check("$undefined");
+  }
+
+  @Test
+  public void testShadowing() throws Exception {
+    // A symbol named after a function, overwritten by a nested macro executed in a loop
+    check("5 'DUP' STORE $DUP DUP 1 'x' STORE 1 3 <% 'x' STORE $x %> FOR $x");
+  }
+
+  @Test
+  public void testForget() throws Exception {
+    check("1 'a' STORE 'a' FORGET 2 'b' STORE $b");
+    check("1 'a' STORE 'a' FORGET $a");
+    check("1 'a' STORE 'a' FORGET 3 'a' STORE $a");
+  }
+
+  @Test
+  public void testEpochs() throws Exception {
+    //
+    // Forgetting many symbols purges the symbol table and increments its epoch,
+    // slots resolved before must not be used afterwards
+    //
+
+    check("1 'a' STORE $a 0 199 <% 's' SWAP TOSTRING + 1 SWAP STORE %> FOR 0 199 <% 's' SWAP TOSTRING + FORGET %> FOR $a 2 'a' STORE $a");
+
+    //
+    // Same compiled macro executed before and after the purge of the symbol table
+    //
+
+    Macro macro = parse("$a 1 + 'a' STORE");
+    Macro purge = parse("0 199 <% 's' SWAP TOSTRING + 1 SWAP STORE %> FOR 0 199 <% 's' SWAP TOSTRING + FORGET %> FOR");
+
+    MemoryWarpScriptStack stack = newStack();
+    stack.store("a", 1L);
+    stack.exec(macro);
+    stack.exec(purge);
+    stack.exec(macro);
+
+    Map<String,Object> symbols = stack.getSymbolTable();
+    Assert.assertEquals(3L, symbols.get("a"));
+    Assert.assertEquals(1, symbols.size());
+  }
+}
@@ -0,0 +1,227 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.script;
+
+import io.warp10.WarpConfig;
+import io.warp10.script.WarpScriptStack.Macro;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ParsedScriptTest {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits = us\n"));
+  }
+
+  @Test
+  public void testMultilineMacros() throws Exception {
+    List<String> lines = Arrays.asList(
+      "<%",
+      "  1 2 +",
+      "  <% 'nested' %> EVAL",
+      "%>",
+      "'m' STORE",
+      "$m EVAL",
+      "DROP 10 *",
+      "<% 'a'",
+      "  <%",
+      "    'b' %>",
+      "%>"
+    );
+
+    Result result = assertSameExecution(lines);
+
+    Assert.assertEquals(0, result.lineno);
+    Assert.assertEquals(2, result.stack.size());
+    Assert.assertEquals(30L, result.stack.get(1));
+  }
+
+  @Test
+  public void testComments() throws Exception {
+    List<String> lines = Arrays.asList(
+      "// line comment",
+      "1 2 + # trailing comment",
+      "/*",
+      "  'ignored' 42",
+      "*/",
+      "  ",
+      "",
+      "4 /* inline comment */ 5",
+      "<% // comment in a macro",
+      "  6 # other comment",
+      "  /* block",
+      "  comment */",
+      "%> EVAL"
+    );
+
+    Result result = assertSameExecution(lines);
+
+    Assert.assertEquals(Arrays.<Object>asList(6L, 5L, 4L, 3L), result.stack);
+  }
+
+  @Test
+  public void testMultilineStrings() throws Exception {
+    List<String> lines = Arrays.asList(
+      "<'",
+      "first line",
+      "  indented 'quoted' line // not a comment",
+      "'>",
+      "<%",
+      "  <'",
+      "in a macro",
+      "'>",
+      "%> EVAL",
+      "'a b' 'c%20d'"
+    );
+
+    Result result = assertSameExecution(lines);
+
+    Assert.assertEquals(Arrays.<Object>asList("c d", "a b", "in a macro", "first line\n  indented 'quoted' line // not a comment"), result.stack);
+  }
+
+  @Test
+  public void testErrorLine() throws Exception {
+    List<String> lines = Arrays.asList(
+      "1 2",
+      "<%",
+      "  'boom' MSGFAIL",
+      "%>",
+      "'m' STORE",
+      "3",
+      "$m EVAL",
+      "4"
+    );
+
+    Result result = assertSameExecution(lines);
+
+    Assert.assertEquals(7, result.lineno);
+    Assert.assertEquals(Arrays.<Object>asList(3L, 2L, 1L), result.stack);
+  }
+
+  @Test
+  public void testErrorInsideLine() throws Exception {
+    List<String> lines = Arrays.asList(
+      "1",
+      "2 'boom' MSGFAIL 3",
+      "4"
+    );
+
+    ParsedScript parsed = ParsedScript.parse(lines);
+
+    Assert.assertNotNull(parsed);
+
+    Result uncached = run(lines, null);
+    Result cached = run(lines, parsed);
+
+    // The operations of the statements following the failure are counted when the script is cached
+    Assert.assertEquals(2, uncached.lineno);
+    Assert.assertEquals(uncached.lineno, cached.lineno);
+    Assert.assertEquals(uncached.stack, cached.stack);
+  }
+
+  @Test
+  public void testUncacheable() throws Exception {
+    // Immediate dereference
+    Assert.assertNull(ParsedScript.parse(Arrays.asList("42 'x' STORE", "<% !$x %>")));
+    // Functions changing how the following lines are parsed
+    Assert.assertNull(ParsedScript.parse(Arrays.asList("<% 42 %> 'FOO' DEF", "FOO")));
+    Assert.assertNull(ParsedScript.parse(Arrays.asList("LINEON", "1")));
+    // Unbalanced macro end
+    Assert.assertNull(ParsedScript.parse(Arrays.asList("1", "%>")));
+    // Unknown function
+    Assert.assertNull(ParsedScript.parse(Arrays.asList("1", "NOSUCHFUNCTION")));
+  }
+
+  /**
+   * Execute 'lines' without and with a ParsedScript, the same ParsedScript twice, and check that they
+   * produce the same stack, number of operations and error line
+   */
+  private static Result assertSameExecution(List<String> lines) throws Exception {
+    ParsedScript parsed = ParsedScript.parse(lines);
+
+    Assert.assertNotNull(parsed);
+    Assert.assertEquals(lines.size(), parsed.getLines());
+
+    Result uncached = run(lines, null);
+
+    for (int i = 0; i < 2; i++) {
+      Result cached = run(lines, parsed);
+
+      Assert.assertEquals(uncached.lineno, cached.lineno);
+      Assert.assertEquals(uncached.ops, cached.ops);
+      Assert.assertEquals(uncached.stack, cached.stack);
+    }
+
+    return uncached;
+  }
+
+  /**
+   * Execute 'lines' one at a time on a new stack as EgressExecHandler does, through 'parsed' if it is not null
+   */
+  private static Result run(List<String> lines, ParsedScript parsed) throws Exception {
+    MemoryWarpScriptStack stack = new MemoryWarpScriptStack(null, null, new Properties());
+    stack.maxLimits();
+
+    Result result = new Result();
+
+    int lineno = 0;
+
+    try {
+      for (String line: lines) {
+        lineno++;
+
+        if (null != parsed) {
+          parsed.exec(stack, lineno);
+        } else {
+          stack.exec(line);
+        }
+      }
+
+      stack.checkBalanced();
+    } catch (WarpScriptException wse) {
+      result.lineno = lineno;
+    }
+
+    result.ops = (Long) stack.getAttribute(WarpScriptStack.ATTRIBUTE_OPS);
+
+    // Macros are compared through their WarpScript representation
+    for (int i = 0; i < stack.depth(); i++) {
+      Object elt = stack.get(i);
+      result.stack.add(elt instanceof Macro ? elt.toString() : elt);
+    }
+
+    return result;
+  }
+
+  private static final class Result {
+    /**
+     * Line of the error, 0 if the execution succeeded
+     */
+    private int lineno = 0;
+    private long ops;
+    private final List<Object> stack = new ArrayList<Object>();
+  }
+}
@@ -0,0 +1,84 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.TimeSource;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.Constants;
+
+import java.io.StringReader;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class InMemoryChunkSetTest {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits = us\n"));
+  }
+
+  @Test
+  public void testOffHeapRollover() throws Exception {
+    OffHeapSlabAllocator allocator = new OffHeapSlabAllocator(1 << 16);
+
+    // Short chunks so they expire and get replaced while the test stores data
+    long chunklen = 2L * Constants.TIME_UNITS_PER_MS;
+
+    InMemoryChunkSet chunks = new InMemoryChunkSet(2, chunklen, allocator);
+
+    Random prng = new Random(42L);
+
+    long maxUsed = 0L;
+
+    for (int i = 0; i < 200; i++) {
+      GTSEncoder encoder = new GTSEncoder(0L);
+      long now = TimeSource.getTime();
+
+      for (int j = 0; j < 100; j++) {
+        encoder.addValue(now, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, prng.nextLong());
+      }
+
+      chunks.store(encoder);
+
+      maxUsed = Math.max(maxUsed, allocator.getUsed());
+
+      Thread.sleep(1L);
+    }
+
+    //
+    // Only the two live chunks may hold buffers, their size is bounded by what can be stored in a chunk
+    // duration, buffers of replaced chunks must have been freed
+    //
+
+    Assert.assertTrue(maxUsed < 1L << 16);
+
+    //
+    // Once all chunks have expired and were cleaned, no buffer remains in use
+    //
+
+    Thread.sleep(3L * chunklen / Constants.TIME_UNITS_PER_MS);
+
+    chunks.clean(TimeSource.getTime());
+
+    Assert.assertEquals(0L, allocator.getUsed());
+  }
+}
@@ -0,0 +1,179 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import io.warp10.continuum.store.CompactMetadata;
+import io.warp10.continuum.store.thrift.data.Metadata;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetadataIndexTest {
+
+  private static CompactMetadata metadata(String name, long labelsId, String... kv) {
+    return new CompactMetadata(meta(name, labelsId, kv));
+  }
+
+  private static Metadata meta(String name, long labelsId, String... kv) {
+    Metadata metadata = new Metadata();
+    metadata.setName(name);
+    metadata.setLabelsId(labelsId);
+    metadata.setLabels(new HashMap<String,String>());
+    metadata.setAttributes(new HashMap<String,String>());
+    for (int i = 0; i < kv.length; i += 2) {
+      metadata.getLabels().put(kv[i], kv[i + 1]);
+    }
+    return metadata;
+  }
+
+  private static Set<Long> set(long[] labelsIds) {
+    Set<Long> set = new HashSet<Long>();
+    for (long labelsId: labelsIds) {
+      Assert.assertTrue(set.add(labelsId));
+    }
+    return set;
+  }
+
+  @Test
+  public void testCandidates() {
+    MetadataIndex index = new MetadataIndex();
+
+    index.add(metadata("cpu", 1L, "host", "web-1", "dc", "a"));
+    index.add(metadata("cpu", 2L, "host", "web-2", "dc", "a"));
+    index.add(metadata("cpu", 3L, "host", "web-3", "dc", "b"));
+    index.add(metadata("mem", 4L, "host", "web-1", "dc", "a"));
+
+    Map<String,String> exact = new HashMap<String,String>();
+    exact.put("dc", "a");
+
+    Assert.assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L)), set(index.candidates("cpu", exact)));
+
+    exact.put("host", "web-2");
+    Assert.assertEquals(new HashSet<Long>(Arrays.asList(2L)), set(index.candidates("cpu", exact)));
+
+    exact.put("host", "web-3");
+    Assert.assertEquals(0, index.candidates("cpu", exact).length);
+    Assert.assertEquals(0, index.candidates("disk", exact).length);
+
+    index.remove(metadata("cpu", 2L, "host", "web-2", "dc", "a"));
+    exact.remove("host");
+    Assert.assertEquals(new HashSet<Long>(Arrays.asList(1L)), set(index.candidates("cpu", exact)));
+  }
+
+  @Test
+  public void testUpdateAttributes() {
+    MetadataIndex index = new MetadataIndex();
+
+    Metadata old = meta("cpu", 1L, "host", "web-1");
+    old.getAttributes().put("rack", "r1");
+    index.add(new CompactMetadata(old));
+
+    Metadata updated = meta("cpu", 1L, "host", "web-1");
+    updated.getAttributes().put("rack", "r2");
+    index.update(new CompactMetadata(old), new CompactMetadata(updated));
+
+    Map<String,String> exact = new HashMap<String,String>();
+    exact.put("rack", "r1");
+    Assert.assertEquals(0, index.candidates("cpu", exact).length);
+
+    exact.put("rack", "r2");
+    exact.put("host", "web-1");
+    Assert.assertEquals(1, index.candidates("cpu", exact).length);
+  }
+
+  @Test
+  public void testPostings() {
+    MetadataIndex.Postings postings = new MetadataIndex.Postings();
+    Set<Long> expected = new HashSet<Long>();
+
+    Random random = new Random(0L);
+
+    // The values used as markers of free and removed slots are valid labelsIds
+    long[] special = new long[] { 0L, -1L };
+
+    for (long labelsId: special) {
+      Assert.assertTrue(postings.add(labelsId));
+      Assert.assertFalse(postings.add(labelsId));
+      expected.add(labelsId);
+    }
+
+    //
+    // Grow the table, then remove most labelsIds so it shrinks, checking the content all along
+    //
+
+    for (int i = 0; i < 10000; i++) {
+      long labelsId = random.nextLong();
+      Assert.assertEquals(expected.add(labelsId), postings.add(labelsId));
+    }
+
+    Assert.assertEquals(expected.size(), postings.size());
+    Assert.assertEquals(expected, set(postings.toArray()));
+
+    int n = 0;
+
+    for (Long labelsId: new HashSet<Long>(expected)) {
+      if (0 == n++ % 10) {
+        continue;
+      }
+      Assert.assertTrue(postings.remove(labelsId));
+      Assert.assertFalse(postings.remove(labelsId));
+      expected.remove(labelsId);
+    }
+
+    Assert.assertEquals(expected.size(), postings.size());
+    Assert.assertEquals(expected, set(postings.toArray()));
+
+    for (Long labelsId: expected) {
+      Assert.assertTrue(postings.contains(labelsId));
+    }
+
+    for (int i = 0; i < 1000; i++) {
+      long labelsId = random.nextLong();
+      Assert.assertEquals(expected.contains(labelsId), postings.contains(labelsId));
+    }
+
+    //
+    // Adding and removing the same labelsIds reuses the removed slots
+    //
+
+    for (int i = 0; i < 100000; i++) {
+      long labelsId = random.nextLong();
+      Assert.assertTrue(postings.add(labelsId));
+      Assert.assertTrue(postings.contains(labelsId));
+      Assert.assertTrue(postings.remove(labelsId));
+      Assert.assertFalse(postings.contains(labelsId));
+    }
+
+    Assert.assertEquals(expected, set(postings.toArray()));
+
+    for (Long labelsId: expected) {
+      Assert.assertTrue(postings.remove(labelsId));
+    }
+
+    Assert.assertEquals(0, postings.size());
+    Assert.assertEquals(0, postings.toArray().length);
+    Assert.assertFalse(postings.contains(0L));
+    Assert.assertFalse(postings.contains(-1L));
+  }
+}
@@ -0,0 +1,75 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StandaloneBlocksTest {
+
+  @Test
+  public void testWindowEnd() {
+    StandaloneBlocks blocks = new StandaloneBlocks(100L);
+
+    Assert.assertEquals(99L, blocks.windowEnd(0L));
+    Assert.assertEquals(99L, blocks.windowEnd(99L));
+    Assert.assertEquals(199L, blocks.windowEnd(100L));
+    Assert.assertEquals(-1L, blocks.windowEnd(-1L));
+    Assert.assertEquals(-1L, blocks.windowEnd(-100L));
+    Assert.assertEquals(-101L, blocks.windowEnd(-101L));
+    Assert.assertEquals(Long.MAX_VALUE, blocks.windowEnd(Long.MAX_VALUE));
+    Assert.assertEquals(Long.MIN_VALUE + 7L, blocks.windowEnd(Long.MIN_VALUE));
+  }
+
+  @Test
+  public void testWindowStart() {
+    StandaloneBlocks blocks = new StandaloneBlocks(100L);
+
+    Assert.assertEquals(0L, blocks.windowStart(0L));
+    Assert.assertEquals(0L, blocks.windowStart(99L));
+    Assert.assertEquals(100L, blocks.windowStart(100L));
+    Assert.assertEquals(-100L, blocks.windowStart(-1L));
+    Assert.assertEquals(-100L, blocks.windowStart(-100L));
+    Assert.assertEquals(-200L, blocks.windowStart(-101L));
+    Assert.assertEquals(Long.MAX_VALUE - 7L, blocks.windowStart(Long.MAX_VALUE));
+    Assert.assertEquals(Long.MIN_VALUE, blocks.windowStart(Long.MIN_VALUE + 7L));
+    Assert.assertEquals(Long.MIN_VALUE + 8L, blocks.windowStart(Long.MIN_VALUE + 8L));
+  }
+
+  @Test
+  public void testKeyOrder() {
+    StandaloneBlocks blocks = new StandaloneBlocks(100L);
+
+    byte[] block = StandaloneBlocks.blockKey(1L, 2L, blocks.windowEnd(150L));
+
+    Assert.assertTrue(StandaloneBlocks.isBlock(block));
+    Assert.assertEquals(199L, StandaloneBlocks.timestamp(block));
+
+    //
+    // The block of a window sorts among its datapoints, between the most recent one and the others
+    //
+
+    Assert.assertTrue(Bytes.compareTo(StandaloneBlocks.datapointKey(1L, 2L, 200L), block) < 0);
+    Assert.assertTrue(Bytes.compareTo(StandaloneBlocks.datapointKey(1L, 2L, 199L), block) < 0);
+    Assert.assertTrue(Bytes.compareTo(block, StandaloneBlocks.datapointKey(1L, 2L, 198L)) < 0);
+    Assert.assertTrue(Bytes.compareTo(block, StandaloneBlocks.datapointKey(1L, 2L, 100L)) < 0);
+
+    Assert.assertFalse(StandaloneBlocks.isBlock(StandaloneBlocks.datapointKey(1L, 2L, 100L)));
+    Assert.assertEquals(100L, StandaloneBlocks.timestamp(StandaloneBlocks.datapointKey(1L, 2L, 100L)));
+  }
+}
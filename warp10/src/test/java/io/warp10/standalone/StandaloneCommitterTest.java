@@ -0,0 +1,251 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.WriteBatch;
+import org.iq80.leveldb.WriteOptions;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StandaloneCommitterTest {
+
+  @Test
+  public void testCoalescing() throws Exception {
+    final RecordingDB db = new RecordingDB();
+    final StandaloneCommitter committer = new StandaloneCommitter(db.proxy(), null, Long.MAX_VALUE);
+
+    // The first write blocks the committer, submissions made in the meantime are queued
+    Future<Void> first = committer.commit(kvs(1), 1L, false);
+    Assert.assertTrue(db.entered.await(10L, TimeUnit.SECONDS));
+
+    final int submitters = 10;
+    final CountDownLatch submitted = new CountDownLatch(submitters);
+    final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+    List<Thread> threads = new ArrayList<Thread>();
+
+    for (int i = 0; i < submitters; i++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            Future<Void> future = committer.commit(kvs(2), 2L, false);
+            submitted.countDown();
+            future.get();
+          } catch (Throwable t) {
+            errors.add(t);
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+
+    Assert.assertTrue(submitted.await(10L, TimeUnit.SECONDS));
+
+    db.release();
+
+    for (Thread thread: threads) {
+      thread.join(10000L);
+    }
+
+    first.get(10L, TimeUnit.SECONDS);
+
+    Assert.assertTrue(errors.isEmpty());
+
+    // The ten submissions were written together
+    Assert.assertEquals(2, db.writes.size());
+    Assert.assertEquals(1, db.writes.get(0).intValue());
+    Assert.assertEquals(2 * submitters, db.writes.get(1).intValue());
+  }
+
+  @Test
+  public void testSync() throws Exception {
+    RecordingDB db = new RecordingDB();
+    ReentrantLock lock = new ReentrantLock();
+    db.lock = lock;
+
+    StandaloneCommitter committer = new StandaloneCommitter(db.proxy(), lock, Long.MAX_VALUE);
+
+    Future<Void> first = committer.commit(kvs(1), 1L, false);
+    Assert.assertTrue(db.entered.await(10L, TimeUnit.SECONDS));
+
+    // A single synced request makes the whole group synced
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    futures.add(committer.commit(kvs(1), 1L, false));
+    futures.add(committer.commit(kvs(1), 1L, true));
+    futures.add(committer.commit(kvs(1), 1L, false));
+
+    db.release();
+
+    first.get(10L, TimeUnit.SECONDS);
+
+    for (Future<Void> future: futures) {
+      future.get(10L, TimeUnit.SECONDS);
+    }
+
+    Assert.assertEquals(2, db.writes.size());
+    Assert.assertFalse(db.syncs.get(0));
+    Assert.assertTrue(db.syncs.get(1));
+    Assert.assertEquals(3, db.writes.get(1).intValue());
+
+    // The lock was held during each write
+    Assert.assertFalse(db.unlocked);
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    RecordingDB db = new RecordingDB();
+    StandaloneCommitter committer = new StandaloneCommitter(db.proxy(), null, Long.MAX_VALUE);
+
+    Future<Void> first = committer.commit(kvs(1), 1L, false);
+    Assert.assertTrue(db.entered.await(10L, TimeUnit.SECONDS));
+
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (int i = 0; i < 3; i++) {
+      futures.add(committer.commit(kvs(1), 1L, false));
+    }
+
+    RuntimeException failure = new RuntimeException("Write failed.");
+    db.failure = failure;
+
+    db.release();
+
+    first.get(10L, TimeUnit.SECONDS);
+
+    // Every submission of the failed group gets the error
+    for (Future<Void> future: futures) {
+      try {
+        future.get(10L, TimeUnit.SECONDS);
+        Assert.fail("Expected the write failure");
+      } catch (ExecutionException ee) {
+        Assert.assertSame(failure, ee.getCause());
+      }
+    }
+
+    Assert.assertEquals(2, db.writes.size());
+
+    // The committer keeps writing after a failure
+    db.failure = null;
+    committer.commit(kvs(1), 1L, false).get(10L, TimeUnit.SECONDS);
+
+    Assert.assertEquals(3, db.writes.size());
+  }
+
+  private static List<byte[][]> kvs(int count) {
+    List<byte[][]> kvs = new ArrayList<byte[][]>();
+    for (int i = 0; i < count; i++) {
+      kvs.add(new byte[][] { new byte[] { (byte) i }, new byte[0] });
+    }
+    return kvs;
+  }
+
+  /**
+   * DB stub recording the number of key/values and the sync flag of each write. The first write
+   * blocks until 'release' is called so submissions can be queued behind it.
+   */
+  private static final class RecordingDB {
+    private final List<Integer> writes = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<Boolean> syncs = Collections.synchronizedList(new ArrayList<Boolean>());
+
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    /**
+     * Exception thrown by the writes following the first one, if not null
+     */
+    private volatile RuntimeException failure = null;
+
+    /**
+     * Lock expected to be held by the committer while writing, if not null
+     */
+    private volatile ReentrantLock lock = null;
+    private volatile boolean unlocked = false;
+
+    private void release() {
+      this.gate.countDown();
+    }
+
+    private DB proxy() {
+      return (DB) Proxy.newProxyInstance(DB.class.getClassLoader(), new Class<?>[] { DB.class }, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          if ("createWriteBatch".equals(method.getName())) {
+            return batch();
+          } else if ("write".equals(method.getName())) {
+            write(((CountingBatch) Proxy.getInvocationHandler(args[0])).count, ((WriteOptions) args[1]).sync());
+            return null;
+          }
+          throw new UnsupportedOperationException(method.getName());
+        }
+      });
+    }
+
+    private void write(int count, boolean sync) throws Exception {
+      if (null != this.lock && !this.lock.isHeldByCurrentThread()) {
+        this.unlocked = true;
+      }
+
+      boolean firstWrite = this.writes.isEmpty();
+
+      this.writes.add(count);
+      this.syncs.add(sync);
+
+      if (firstWrite) {
+        this.entered.countDown();
+        this.gate.await();
+      } else if (null != this.failure) {
+        throw this.failure;
+      }
+    }
+
+    private static WriteBatch batch() {
+      return (WriteBatch) Proxy.newProxyInstance(WriteBatch.class.getClassLoader(), new Class<?>[] { WriteBatch.class }, new CountingBatch());
+    }
+  }
+
+  /**
+   * WriteBatch stub counting the key/values put into it
+   */
+  private static final class CountingBatch implements InvocationHandler {
+    private int count = 0;
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      if ("put".equals(method.getName())) {
+        this.count++;
+        return proxy;
+      } else if ("close".equals(method.getName())) {
+        return null;
+      }
+      throw new UnsupportedOperationException(method.getName());
+    }
+  }
+}
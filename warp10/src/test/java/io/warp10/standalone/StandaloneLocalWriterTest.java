@@ -0,0 +1,477 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import io.warp10.WarpConfig;
+import io.warp10.WarpDist;
+import io.warp10.continuum.ThrottlingManager;
+import io.warp10.continuum.TokenBucket;
+import io.warp10.continuum.Tokens;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.Constants;
+import io.warp10.continuum.store.GTSDecoderIterator;
+import io.warp10.continuum.store.thrift.data.DirectoryRequest;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.KeyStore;
+import io.warp10.crypto.UnsecureKeyStore;
+import io.warp10.script.WarpScriptException;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.impl.Iq80DBFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class StandaloneLocalWriterTest {
+
+  private static final String OWNER = "11111111-1111-1111-1111-111111111111";
+  private static final String PRODUCER = "22222222-2222-2222-2222-222222222222";
+  private static final String THROTTLED = "33333333-3333-3333-3333-333333333333";
+
+  /**
+   * Token with its own labels, producer and owner are the same
+   */
+  private static final String TOKEN = "writer";
+
+  /**
+   * Token without application whose producer differs from its owner
+   */
+  private static final String DELEGATED_TOKEN = "delegated";
+
+  private static final String THROTTLED_TOKEN = "throttled";
+
+  private File dir;
+
+  private DB db;
+
+  private KeyStore keystore;
+
+  private StandaloneDirectoryClient directoryClient;
+  private StandaloneStoreClient storeClient;
+  private StandaloneLocalWriter writer;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits = us\n"));
+
+    //
+    // Load the write tokens from a token file, as Warp does
+    //
+
+    File tokens = File.createTempFile("tokens", ".conf");
+    tokens.deleteOnExit();
+
+    FileWriter fw = new FileWriter(tokens);
+    fw.write("token.write.0.name = " + TOKEN + "\n");
+    fw.write("token.write.0.producer = " + OWNER + "\n");
+    fw.write("token.write.0.owner = " + OWNER + "\n");
+    fw.write("token.write.0.app = app\n");
+    fw.write("token.write.0.labels = forced=token\n");
+    fw.write("token.write.1.name = " + DELEGATED_TOKEN + "\n");
+    fw.write("token.write.1.producer = " + PRODUCER + "\n");
+    fw.write("token.write.1.owner = " + OWNER + "\n");
+    fw.write("token.write.2.name = " + THROTTLED_TOKEN + "\n");
+    fw.write("token.write.2.producer = " + THROTTLED + "\n");
+    fw.write("token.write.2.owner = " + THROTTLED + "\n");
+    fw.close();
+
+    WarpDist.setInitialized(true);
+    Tokens.init(tokens.getAbsolutePath());
+
+    long deadline = System.currentTimeMillis() + 10000L;
+
+    while (null == Tokens.getWriteToken(THROTTLED_TOKEN) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+
+    Assert.assertNotNull(Tokens.getWriteToken(THROTTLED_TOKEN));
+  }
+
+  @Before
+  public void before() throws Exception {
+    this.dir = Files.createTempDirectory("leveldb").toFile();
+    this.db = Iq80DBFactory.factory.open(this.dir, new Options().createIfMissing(true));
+
+    this.keystore = new UnsecureKeyStore();
+    this.keystore.setKey(KeyStore.SIPHASH_CLASS, new byte[16]);
+    this.keystore.setKey(KeyStore.SIPHASH_LABELS, new byte[16]);
+
+    this.directoryClient = new StandaloneDirectoryClient(this.db, this.keystore);
+    this.storeClient = new StandaloneStoreClient(this.db, this.keystore, new Properties());
+    this.writer = new StandaloneLocalWriter(this.keystore, this.directoryClient, this.storeClient);
+
+    // The Metadata known to the directory are shared by all instances, start from an empty directory
+    clearDirectory();
+  }
+
+  @After
+  public void after() throws Exception {
+    StandaloneLocalWriter.setInstance(null);
+
+    clearDirectory();
+
+    this.db.close();
+    Iq80DBFactory.factory.destroy(this.dir, new Options());
+    this.dir.delete();
+  }
+
+  @Test
+  public void testInvalidToken() throws Exception {
+    try {
+      this.writer.update("unknown", Collections.singletonList(gts("a", 10)), new ArrayList<GTSEncoder>());
+      Assert.fail("Expected the token to be rejected");
+    } catch (WarpScriptException wse) {
+      Assert.assertEquals("Invalid token.", wse.getMessage());
+    }
+
+    try {
+      this.writer.meta("unknown", Collections.singletonList(gts("a", 0)));
+      Assert.fail("Expected the token to be rejected");
+    } catch (WarpScriptException wse) {
+      Assert.assertEquals("Invalid token.", wse.getMessage());
+    }
+
+    try {
+      this.writer.delete("unknown", "~.*{}", null, null, Long.MAX_VALUE);
+      Assert.fail("Expected the token to be rejected");
+    } catch (WarpScriptException wse) {
+      Assert.assertEquals("Invalid token.", wse.getMessage());
+    }
+
+    Assert.assertTrue(find("~.*").isEmpty());
+
+    //
+    // Deleting requires the producer and owner of the token to be the same
+    //
+
+    this.writer.update(DELEGATED_TOKEN, Collections.singletonList(gts("a", 10)), new ArrayList<GTSEncoder>());
+
+    try {
+      this.writer.delete(DELEGATED_TOKEN, "~.*{}", null, null, Long.MAX_VALUE);
+      Assert.fail("Expected the token to be rejected");
+    } catch (WarpScriptException wse) {
+      Assert.assertEquals("Invalid write token for deletion.", wse.getMessage());
+    }
+
+    Assert.assertEquals(1, find("~.*").size());
+  }
+
+  @Test
+  public void testForcedLabels() throws Exception {
+    GeoTimeSerie gts = gts("gts", 10);
+    gts.setLabel(Constants.PRODUCER_LABEL, "producer");
+    gts.setLabel(Constants.OWNER_LABEL, "owner");
+    gts.setLabel(Constants.APPLICATION_LABEL, "other");
+    gts.setLabel("forced", "gts");
+    gts.setLabel("kept", "gts");
+
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.setName("encoder");
+    encoder.setLabels(new HashMap<String,String>(gts.getLabels()));
+    for (long ts = 0; ts < 5; ts++) {
+      encoder.addValue(ts, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, ts);
+    }
+
+    this.writer.update(TOKEN, Collections.singletonList(gts), Collections.singletonList(encoder));
+
+    // The encoder which was passed is left untouched
+    Assert.assertEquals("owner", encoder.getLabels().get(Constants.OWNER_LABEL));
+
+    for (String name: new String[] { "gts", "encoder" }) {
+      List<Metadata> metadatas = find(name);
+
+      Assert.assertEquals(1, metadatas.size());
+
+      Map<String,String> labels = metadatas.get(0).getLabels();
+
+      Assert.assertEquals(OWNER, labels.get(Constants.PRODUCER_LABEL));
+      Assert.assertEquals(OWNER, labels.get(Constants.OWNER_LABEL));
+      Assert.assertEquals("app", labels.get(Constants.APPLICATION_LABEL));
+      Assert.assertEquals("token", labels.get("forced"));
+      Assert.assertEquals("gts", labels.get("kept"));
+      Assert.assertEquals(5, labels.size());
+    }
+
+    Assert.assertEquals(10, count(find("gts").get(0)));
+    Assert.assertEquals(5, count(find("encoder").get(0)));
+
+    //
+    // A token without application removes the application label
+    //
+
+    this.writer.update(DELEGATED_TOKEN, Collections.singletonList(gts), new ArrayList<GTSEncoder>());
+
+    List<Metadata> metadatas = find("gts", PRODUCER);
+
+    Assert.assertEquals(1, metadatas.size());
+    Assert.assertEquals(OWNER, metadatas.get(0).getLabels().get(Constants.OWNER_LABEL));
+    Assert.assertFalse(metadatas.get(0).getLabels().containsKey(Constants.APPLICATION_LABEL));
+
+    //
+    // Attributes set by META go to the GTS with the forced labels
+    //
+
+    gts.getMetadata().setAttributes(new HashMap<String,String>());
+    gts.getMetadata().getAttributes().put("attr", "value");
+
+    this.writer.meta(TOKEN, Collections.singletonList(gts));
+
+    metadatas = find("gts", OWNER);
+
+    Assert.assertEquals(1, metadatas.size());
+    Assert.assertEquals("value", metadatas.get(0).getAttributes().get("attr"));
+  }
+
+  @Test
+  public void testLocalWriter() throws Exception {
+    // No instance registered
+    Assert.assertNull(StandaloneLocalWriter.getLocalWriter(new URL("http://127.0.0.1:8080/api/v0/update"), Constants.API_ENDPOINT_UPDATE, 8080));
+
+    StandaloneLocalWriter.setInstance(this.writer);
+
+    Assert.assertSame(this.writer, StandaloneLocalWriter.getLocalWriter(new URL("http://127.0.0.1:8080/api/v0/update"), Constants.API_ENDPOINT_UPDATE, 8080));
+    Assert.assertSame(this.writer, StandaloneLocalWriter.getLocalWriter(new URL("http://localhost:8080/api/v0/delete"), Constants.API_ENDPOINT_DELETE, 8080));
+    Assert.assertSame(this.writer, StandaloneLocalWriter.getLocalWriter(new URL("http://0.0.0.0:8080/api/v0/meta"), Constants.API_ENDPOINT_META, 8080));
+    Assert.assertSame(this.writer, StandaloneLocalWriter.getLocalWriter(new URL("http://127.0.0.1/api/v0/update"), Constants.API_ENDPOINT_UPDATE, 80));
+
+    // Other endpoint, port or protocol
+    Assert.assertNull(StandaloneLocalWriter.getLocalWriter(new URL("http://127.0.0.1:8080/api/v0/meta"), Constants.API_ENDPOINT_UPDATE, 8080));
+    Assert.assertNull(StandaloneLocalWriter.getLocalWriter(new URL("http://127.0.0.1:8081/api/v0/update"), Constants.API_ENDPOINT_UPDATE, 8080));
+    Assert.assertNull(StandaloneLocalWriter.getLocalWriter(new URL("https://127.0.0.1:8080/api/v0/update"), Constants.API_ENDPOINT_UPDATE, 8080));
+    Assert.assertNull(StandaloneLocalWriter.getLocalWriter(null, Constants.API_ENDPOINT_UPDATE, 8080));
+
+    // Remote host (TEST-NET-1 address)
+    Assert.assertNull(StandaloneLocalWriter.getLocalWriter(new URL("http://192.0.2.1:8080/api/v0/update"), Constants.API_ENDPOINT_UPDATE, 8080));
+
+    // Not running in standalone mode
+    Assert.assertNull(StandaloneLocalWriter.getLocalWriter(new URL("http://127.0.0.1:8080/api/v0/update"), Constants.API_ENDPOINT_UPDATE));
+  }
+
+  @Test
+  public void testDeleteExpected() throws Exception {
+    List<GeoTimeSerie> series = new ArrayList<GeoTimeSerie>();
+    series.add(gts("a", 10));
+    series.add(gts("b", 10));
+    series.add(gts("c", 10));
+
+    this.writer.update(TOKEN, series, new ArrayList<GTSEncoder>());
+
+    try {
+      this.writer.delete(TOKEN, "~.*{}", null, null, 2L);
+      Assert.fail("Expected the delete to be rejected");
+    } catch (WarpScriptException wse) {
+      Assert.assertTrue(wse.getMessage().startsWith("Expected at most 2 Geo Time Series"));
+    }
+
+    // Nothing was deleted
+    List<Metadata> metadatas = find("~.*");
+    Assert.assertEquals(3, metadatas.size());
+    for (Metadata metadata: metadatas) {
+      Assert.assertEquals(10, count(metadata));
+    }
+
+    Assert.assertEquals(3L, this.writer.delete(TOKEN, "~.*{}", null, null, 3L));
+
+    Assert.assertTrue(find("~.*").isEmpty());
+    for (Metadata metadata: metadatas) {
+      Assert.assertEquals(0, count(metadata));
+    }
+  }
+
+  @Test
+  public void testDeleteRange() throws Exception {
+    this.writer.update(TOKEN, Collections.singletonList(gts("a", 10)), new ArrayList<GTSEncoder>());
+
+    Metadata metadata = find("a").get(0);
+
+    Assert.assertEquals(1L, this.writer.delete(TOKEN, "a{}", 0L, 4L, 1L));
+    Assert.assertEquals(5, count(metadata));
+
+    // A range covering all timestamps deletes all datapoints but leaves the GTS in the directory
+    Assert.assertEquals(1L, this.writer.delete(TOKEN, "a{}", Long.MIN_VALUE, Long.MAX_VALUE, 1L));
+    Assert.assertEquals(0, count(metadata));
+    Assert.assertEquals(1, find("a").size());
+
+    try {
+      this.writer.delete(TOKEN, "a{}", 0L, null, 1L);
+      Assert.fail("Expected the delete to be rejected");
+    } catch (WarpScriptException wse) {
+    }
+
+    Assert.assertEquals(1, find("a").size());
+
+    // Only deleteall removes the GTS from the directory
+    Assert.assertEquals(1L, this.writer.delete(TOKEN, "a{}", null, null, 1L));
+    Assert.assertTrue(find("a").isEmpty());
+  }
+
+  @Test
+  public void testThrottling() throws Exception {
+    Map<String,Object> madsLimits = throttlingMap("producerMADSLimits");
+    Map<String,Object> rateLimiters = throttlingMap("producerRateLimiters");
+
+    Field loaded = ThrottlingManager.class.getDeclaredField("loaded");
+    loaded.setAccessible(true);
+
+    try {
+      //
+      // A MADS limit of 0 lets a single GTS in
+      //
+
+      madsLimits.put(THROTTLED, 0L);
+      rateLimiters.put(THROTTLED, new TokenBucket(1000000.0D));
+      loaded.setBoolean(null, true);
+
+      List<GeoTimeSerie> series = new ArrayList<GeoTimeSerie>();
+      series.add(gts("a", 10));
+      series.add(gts("b", 10));
+
+      try {
+        this.writer.update(THROTTLED_TOKEN, series, new ArrayList<GTSEncoder>());
+        Assert.fail("Expected the MADS limit to be enforced");
+      } catch (WarpScriptException wse) {
+        Assert.assertTrue(wse.getMessage().contains("Monthly Active Data Streams"));
+      }
+
+      Assert.assertEquals(1, find("a").size());
+      Assert.assertEquals(10, count(find("a").get(0)));
+      Assert.assertTrue(find("b").isEmpty());
+
+      //
+      // Not enough datapoints left for the rate limit
+      //
+
+      madsLimits.put(THROTTLED, -1L);
+      TokenBucket bucket = new TokenBucket(ThrottlingManager.MINIMUM_RATE_LIMIT);
+      // Use up the permits of the bucket
+      Assert.assertTrue(bucket.tryAcquire(1, 0L, TimeUnit.MILLISECONDS));
+      rateLimiters.put(THROTTLED, bucket);
+
+      try {
+        this.writer.update(THROTTLED_TOKEN, Collections.singletonList(gts("c", 100)), new ArrayList<GTSEncoder>());
+        Assert.fail("Expected the DDP limit to be enforced");
+      } catch (WarpScriptException wse) {
+        Assert.assertTrue(wse.getMessage().contains("Daily Data Points"));
+      }
+
+      Assert.assertTrue(find("c").isEmpty());
+    } finally {
+      loaded.setBoolean(null, false);
+      madsLimits.remove(THROTTLED);
+      rateLimiters.remove(THROTTLED);
+      throttlingMap("producerHLLPEstimators").remove(THROTTLED);
+    }
+  }
+
+  /**
+   * Return one of the static maps of ThrottlingManager, its limits are only set from throttling files otherwise
+   */
+  @SuppressWarnings("unchecked")
+  private static Map<String,Object> throttlingMap(String name) throws Exception {
+    Field field = ThrottlingManager.class.getDeclaredField(name);
+    field.setAccessible(true);
+    return (Map<String,Object>) field.get(null);
+  }
+
+  private static GeoTimeSerie gts(String name, int count) {
+    GeoTimeSerie gts = new GeoTimeSerie();
+    gts.setName(name);
+
+    for (long ts = 0; ts < count; ts++) {
+      GTSHelper.setValue(gts, ts, ts);
+    }
+
+    return gts;
+  }
+
+  /**
+   * Unregister all the GTS known to the directory
+   */
+  private void clearDirectory() {
+    for (Metadata metadata: find("~.*")) {
+      this.directoryClient.unregister(metadata);
+    }
+
+    Assert.assertTrue(find("~.*").isEmpty());
+  }
+
+  private List<Metadata> find(String name) {
+    return find(name, null);
+  }
+
+  /**
+   * Find the GTS named 'name' (or matching '~xxx'), optionally restricted to those of 'producer'
+   */
+  private List<Metadata> find(String name, String producer) {
+    Map<String,String> labelsSelectors = new HashMap<String,String>();
+
+    if (null != producer) {
+      labelsSelectors.put(Constants.PRODUCER_LABEL, "=" + producer);
+    }
+
+    DirectoryRequest request = new DirectoryRequest();
+    request.setClassSelectors(Collections.singletonList(name));
+    request.setLabelsSelectors(Collections.singletonList(labelsSelectors));
+
+    return this.directoryClient.find(request);
+  }
+
+  /**
+   * Count the datapoints stored for 'metadata'
+   */
+  private int count(Metadata metadata) throws Exception {
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+    metadatas.add(metadata);
+
+    GTSDecoderIterator iter = this.storeClient.fetch(null, metadatas, Long.MAX_VALUE, -1000000L, false, false);
+
+    int count = 0;
+
+    try {
+      while(iter.hasNext()) {
+        GTSDecoder decoder = iter.next();
+        while(decoder.next()) {
+          count++;
+        }
+      }
+    } finally {
+      iter.close();
+    }
+
+    return count;
+  }
+}
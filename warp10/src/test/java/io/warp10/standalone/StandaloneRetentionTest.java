@@ -0,0 +1,89 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.store.Constants;
+import io.warp10.continuum.store.thrift.data.Metadata;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class StandaloneRetentionTest {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits = us\n"));
+  }
+
+  @Test
+  public void testTTLPrecedence() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.LEVELDB_RETENTION_TTL, "1000");
+    properties.setProperty(Configuration.LEVELDB_RETENTION_TTL_APP_PREFIX + "app", "2000");
+    properties.setProperty(Configuration.LEVELDB_RETENTION_TTL_CLASS_PREFIX + "class", "3000");
+    properties.setProperty(Configuration.LEVELDB_RETENTION_TTL_CLASS_PREFIX + "forever", "0");
+    // Do not let the purge run
+    properties.setProperty(Configuration.LEVELDB_RETENTION_PERIOD, Long.toString(Long.MAX_VALUE));
+
+    StandaloneRetention retention = new StandaloneRetention(properties, null, null);
+
+    // Class TTL has precedence over the application TTL
+    Assert.assertEquals(3000L * Constants.TIME_UNITS_PER_MS, retention.ttl(metadata("class", "app")));
+    Assert.assertEquals(3000L * Constants.TIME_UNITS_PER_MS, retention.ttl(metadata("class", "other")));
+    Assert.assertEquals(3000L * Constants.TIME_UNITS_PER_MS, retention.ttl(metadata("class", null)));
+
+    // Application TTL has precedence over the default TTL
+    Assert.assertEquals(2000L * Constants.TIME_UNITS_PER_MS, retention.ttl(metadata("other", "app")));
+
+    // Default TTL
+    Assert.assertEquals(1000L * Constants.TIME_UNITS_PER_MS, retention.ttl(metadata("other", "other")));
+    Assert.assertEquals(1000L * Constants.TIME_UNITS_PER_MS, retention.ttl(metadata("other", null)));
+
+    // A TTL of 0 disables the retention of a class even if there is a default TTL
+    Assert.assertEquals(0L, retention.ttl(metadata("forever", "app")));
+  }
+
+  @Test
+  public void testNoDefaultTTL() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.LEVELDB_RETENTION_TTL_APP_PREFIX + "app", "2000");
+    properties.setProperty(Configuration.LEVELDB_RETENTION_PERIOD, Long.toString(Long.MAX_VALUE));
+
+    StandaloneRetention retention = new StandaloneRetention(properties, null, null);
+
+    Assert.assertEquals(2000L * Constants.TIME_UNITS_PER_MS, retention.ttl(metadata("class", "app")));
+    Assert.assertEquals(0L, retention.ttl(metadata("class", "other")));
+    Assert.assertEquals(0L, retention.ttl(metadata("class", null)));
+  }
+
+  private static Metadata metadata(String name, String app) {
+    Metadata metadata = new Metadata();
+    metadata.setName(name);
+    metadata.setLabels(new HashMap<String,String>());
+    if (null != app) {
+      metadata.getLabels().put(Constants.APPLICATION_LABEL, app);
+    }
+    return metadata;
+  }
+}
@@ -0,0 +1,546 @@
+//
+//   Copyright 2017  Cityzen Data
+//
+//   Licensed under the Apache License, Version 2.0 (the "License");
+//   you may not use this file except in compliance with the License.
+//   You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+//   Unless required by applicable law or agreed to in writing, software
+//   distributed under the License is distributed on an "AS IS" BASIS,
+//   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//   See the License for the specific language governing permissions and
+//   limitations under the License.
+//
+
+package io.warp10.standalone;
+
+import io.warp10.WarpConfig;
+import io.warp10.continuum.Configuration;
+import io.warp10.continuum.TimeSource;
+import io.warp10.continuum.gts.GTSDecoder;
+import io.warp10.continuum.gts.GTSEncoder;
+import io.warp10.continuum.gts.GTSHelper;
+import io.warp10.continuum.gts.GeoTimeSerie;
+import io.warp10.continuum.store.GTSDecoderIterator;
+import io.warp10.continuum.store.Store;
+import io.warp10.continuum.store.thrift.data.Metadata;
+import io.warp10.crypto.KeyStore;
+import io.warp10.crypto.UnsecureKeyStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.iq80.leveldb.DB;
+import org.iq80.leveldb.DBIterator;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.impl.Iq80DBFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class StandaloneStoreClientTest {
+
+  private static final long NOW = 1000000L;
+
+  private File dir;
+
+  private DB db;
+
+  private KeyStore keystore;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    WarpConfig.safeSetProperties(new StringReader("warp.timeunits = us\n"));
+  }
+
+  @Before
+  public void before() throws Exception {
+    this.dir = Files.createTempDirectory("leveldb").toFile();
+    this.db = Iq80DBFactory.factory.open(this.dir, new Options().createIfMissing(true));
+
+    this.keystore = new UnsecureKeyStore();
+    this.keystore.setKey(KeyStore.SIPHASH_CLASS, new byte[16]);
+    this.keystore.setKey(KeyStore.SIPHASH_LABELS, new byte[16]);
+  }
+
+  @After
+  public void after() throws Exception {
+    this.db.close();
+    Iq80DBFactory.factory.destroy(this.dir, new Options());
+    this.dir.delete();
+  }
+
+  @Test
+  public void testCountFetch() throws Exception {
+    StandaloneStoreClient client = new StandaloneStoreClient(this.db, this.keystore, new Properties());
+
+    Metadata a = metadata("a");
+    Metadata b = metadata("b");
+
+    store(client, a, 0L, 100L);
+    store(client, b, 0L, 50L);
+
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+    metadatas.add(a);
+    metadatas.add(b);
+
+    Map<Long,List<Long>> values = fetch(client, metadatas, NOW, -10L);
+
+    Assert.assertEquals(range(99L, 90L), values.get(a.getLabelsId()));
+    Assert.assertEquals(range(49L, 40L), values.get(b.getLabelsId()));
+
+    // Only the values at or before 'now' are considered
+    values = fetch(client, metadatas, 45L, -10L);
+
+    Assert.assertEquals(range(45L, 36L), values.get(a.getLabelsId()));
+    Assert.assertEquals(range(45L, 36L), values.get(b.getLabelsId()));
+
+    // Less values than requested
+    values = fetch(client, metadatas, NOW, -1000L);
+
+    Assert.assertEquals(range(99L, 0L), values.get(a.getLabelsId()));
+    Assert.assertEquals(range(49L, 0L), values.get(b.getLabelsId()));
+  }
+
+  @Test
+  public void testEncoderFullContinuation() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.STANDALONE_MAX_ENCODER_SIZE, "64");
+
+    StandaloneStoreClient client = new StandaloneStoreClient(this.db, this.keystore, properties);
+
+    Metadata a = metadata("a");
+    Metadata b = metadata("b");
+
+    store(client, a, 0L, 1000L);
+    store(client, b, 0L, 10L);
+
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+    metadatas.add(a);
+    metadatas.add(b);
+
+    GTSDecoderIterator iter = client.fetch(null, new ArrayList<Metadata>(metadatas), NOW, -500L, false, false);
+
+    List<Long> timestamps = new ArrayList<Long>();
+    int decoders = 0;
+
+    try {
+      while(iter.hasNext()) {
+        GTSDecoder decoder = iter.next();
+        decoders++;
+
+        // All the values of 'a' come before those of 'b'
+        boolean isA = a.getLabelsId() == decoder.getMetadata().getLabelsId();
+        Assert.assertEquals(isA, timestamps.size() < 500);
+
+        while(decoder.next()) {
+          timestamps.add(decoder.getTimestamp());
+        }
+      }
+    } finally {
+      iter.close();
+    }
+
+    // The values of 'a' did not fit in a single encoder
+    Assert.assertTrue(decoders > 2);
+
+    List<Long> expected = range(999L, 500L);
+    expected.addAll(range(9L, 0L));
+
+    Assert.assertEquals(expected, timestamps);
+  }
+
+  @Test
+  public void testLastValueCache() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.LEVELDB_LASTVALUE_CACHE_SIZE, "1000");
+
+    StandaloneStoreClient client = new StandaloneStoreClient(this.db, this.keystore, properties);
+
+    Metadata a = metadata("a");
+
+    store(client, a, 0L, 10L);
+
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+    metadatas.add(a);
+
+    // The GTS is not yet known to be complete in the cache, its last value is read from LevelDB
+    Assert.assertEquals(range(9L, 9L), fetch(client, metadatas, NOW, -1L).get(a.getLabelsId()));
+
+    //
+    // Write a more recent value behind the back of the client, the last value is now served from the cache
+    //
+
+    GTSEncoder encoder = new GTSEncoder(20L);
+    encoder.addValue(20L, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, 20L);
+    this.db.put(StandaloneBlocks.datapointKey(a.getClassId(), a.getLabelsId(), 20L), encoder.getBytes());
+
+    Assert.assertEquals(range(9L, 9L), fetch(client, metadatas, NOW, -1L).get(a.getLabelsId()));
+
+    // Fetching more values does not use the cache
+    Assert.assertEquals(Arrays.asList(20L, 9L), fetch(client, metadatas, NOW, -2L).get(a.getLabelsId()));
+
+    // Values stored through the client update the cache
+    store(client, a, 30L, 31L);
+
+    Assert.assertEquals(range(30L, 30L), fetch(client, metadatas, NOW, -1L).get(a.getLabelsId()));
+
+    // The cached value is not returned if it is after 'now'
+    Assert.assertEquals(range(20L, 20L), fetch(client, metadatas, 25L, -1L).get(a.getLabelsId()));
+  }
+
+  @Test
+  public void testLastValueCacheDelete() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.LEVELDB_LASTVALUE_CACHE_SIZE, "1000");
+
+    StandaloneStoreClient client = new StandaloneStoreClient(this.db, this.keystore, properties);
+
+    Metadata a = metadata("a");
+
+    store(client, a, 0L, 10L);
+
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+    metadatas.add(a);
+
+    Assert.assertEquals(range(9L, 9L), fetch(client, metadatas, NOW, -1L).get(a.getLabelsId()));
+
+    Assert.assertEquals(5L, client.delete(null, new Metadata(a), 5L, 9L));
+
+    Assert.assertEquals(range(4L, 4L), fetch(client, metadatas, NOW, -1L).get(a.getLabelsId()));
+
+    Assert.assertEquals(5L, client.delete(null, new Metadata(a), Long.MIN_VALUE, Long.MAX_VALUE));
+
+    Assert.assertNull(fetch(client, metadatas, NOW, -1L).get(a.getLabelsId()));
+
+    //
+    // A deletion made while a fetch is in progress is not cached as the last value
+    //
+
+    store(client, a, 0L, 10L);
+
+    GTSDecoderIterator iter = client.fetch(null, new ArrayList<Metadata>(metadatas), NOW, -1L, false, false);
+
+    try {
+      Assert.assertEquals(10L, client.delete(null, new Metadata(a), Long.MIN_VALUE, Long.MAX_VALUE));
+      // The iterator reads the snapshot it was created with
+      Assert.assertTrue(iter.hasNext());
+      iter.next();
+    } finally {
+      iter.close();
+    }
+
+    Assert.assertNull(fetch(client, metadatas, NOW, -1L).get(a.getLabelsId()));
+  }
+
+  @Test
+  public void testLastValueCacheUnwritten() throws Exception {
+    FailingDB failing = new FailingDB(this.db);
+
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.LEVELDB_LASTVALUE_CACHE_SIZE, "1000");
+
+    StandaloneStoreClient client = new StandaloneStoreClient(failing.proxy(), this.keystore, properties);
+
+    Metadata a = metadata("a");
+
+    store(client, a, 0L, 10L);
+
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+    metadatas.add(a);
+
+    // The last value is now complete in the cache
+    Assert.assertEquals(range(9L, 9L), fetch(client, metadatas, NOW, -1L).get(a.getLabelsId()));
+
+    // Buffered values are not served before they are written
+    buffer(client, a, 30L, 31L);
+
+    Assert.assertEquals(range(9L, 9L), fetch(client, metadatas, NOW, -1L).get(a.getLabelsId()));
+
+    // Nor when their write fails
+    failing.fail = true;
+
+    try {
+      client.store((GTSEncoder) null);
+      Assert.fail("Expected the write to fail");
+    } catch (RuntimeException re) {
+      Assert.assertSame(failing.failure, re);
+    }
+
+    Assert.assertEquals(range(9L, 9L), fetch(client, metadatas, NOW, -1L).get(a.getLabelsId()));
+
+    // The thread keeps its batch, the values are cached once it is written
+    failing.fail = false;
+    client.store((GTSEncoder) null);
+
+    Assert.assertEquals(range(30L, 30L), fetch(client, metadatas, NOW, -1L).get(a.getLabelsId()));
+  }
+
+  @Test
+  public void testLastValueCacheFailedGroupCommit() throws Exception {
+    FailingDB failing = new FailingDB(this.db);
+
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.LEVELDB_LASTVALUE_CACHE_SIZE, "1000");
+    properties.setProperty(Configuration.LEVELDB_DATA_GROUPCOMMIT, "true");
+
+    StandaloneStoreClient client = new StandaloneStoreClient(failing.proxy(), this.keystore, properties);
+
+    Metadata a = metadata("a");
+
+    store(client, a, 0L, 10L);
+
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+    metadatas.add(a);
+
+    Assert.assertEquals(range(9L, 9L), fetch(client, metadatas, NOW, -1L).get(a.getLabelsId()));
+
+    buffer(client, a, 30L, 31L);
+
+    failing.fail = true;
+
+    try {
+      client.store((GTSEncoder) null);
+      Assert.fail("Expected the write to fail");
+    } catch (IOException ioe) {
+      Assert.assertSame(failing.failure, ioe.getCause());
+    }
+
+    // The failed datapoints are dropped by the committer, their value is never cached
+    failing.fail = false;
+    client.store((GTSEncoder) null);
+
+    Assert.assertEquals(range(9L, 9L), fetch(client, metadatas, NOW, -1L).get(a.getLabelsId()));
+
+    store(client, a, 40L, 41L);
+
+    Assert.assertEquals(range(40L, 40L), fetch(client, metadatas, NOW, -1L).get(a.getLabelsId()));
+  }
+
+  @Test
+  public void testRepack() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.LEVELDB_DATA_BLOCK_SPAN, "100");
+    properties.setProperty(Configuration.LEVELDB_DATA_BLOCK_REPACK_PERIOD, "20");
+
+    StandaloneStoreClient client = new StandaloneStoreClient(this.db, this.keystore, properties);
+
+    Metadata a = metadata("a");
+    Metadata b = metadata("b");
+
+    store(client, a, 0L, 1000L);
+
+    // Recent datapoints are not packed
+    long now = TimeSource.getTime();
+    store(client, b, now, now + 2L);
+
+    // The first pass packs the datapoints written before the repacker started
+    awaitKeys(a, 10, 0);
+
+    //
+    // Datapoints written after the first pass, in a packed window and in a new one, are packed on the next passes
+    //
+
+    store(client, a, 50L, 53L);
+    store(client, a, 1000L, 1010L);
+
+    awaitKeys(a, 11, 0);
+
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+    metadatas.add(a);
+
+    Assert.assertEquals(range(1009L, 0L), fetch(client, metadatas, NOW, -2000L).get(a.getLabelsId()));
+
+    Assert.assertArrayEquals(new int[] { 0, 2 }, keys(b));
+  }
+
+  @Test
+  public void testDeleteBlocks() throws Exception {
+    Properties properties = new Properties();
+    properties.setProperty(Configuration.LEVELDB_DATA_BLOCK_SPAN, "100");
+    properties.setProperty(Configuration.LEVELDB_DATA_BLOCK_REPACK_PERIOD, "20");
+
+    StandaloneStoreClient client = new StandaloneStoreClient(this.db, this.keystore, properties);
+
+    Metadata a = metadata("a");
+
+    store(client, a, 0L, 300L);
+
+    awaitKeys(a, 3, 0);
+
+    // The block of window [100,199] is dropped without being decoded, only the values deleted from the block of [0,99] are counted
+    Assert.assertEquals(50L, client.delete(null, new Metadata(a), 50L, 199L));
+
+    List<Metadata> metadatas = new ArrayList<Metadata>();
+    metadatas.add(a);
+
+    List<Long> expected = range(299L, 200L);
+    expected.addAll(range(49L, 0L));
+
+    Assert.assertEquals(expected, fetch(client, metadatas, NOW, -1000L).get(a.getLabelsId()));
+
+    Assert.assertArrayEquals(new int[] { 2, 0 }, keys(a));
+  }
+
+  /**
+   * Wait for the repacker to leave 'blocks' blocks and 'datapoints' individual datapoints in the keys of a GTS
+   */
+  private void awaitKeys(Metadata metadata, int blocks, int datapoints) throws Exception {
+    long deadline = System.currentTimeMillis() + 30000L;
+
+    while(!Arrays.equals(new int[] { blocks, datapoints }, keys(metadata))) {
+      Assert.assertTrue("Datapoints were not packed, keys " + Arrays.toString(keys(metadata)), System.currentTimeMillis() < deadline);
+      Thread.sleep(10L);
+    }
+  }
+
+  /**
+   * Return the number of block and individual datapoint keys of a GTS
+   */
+  private int[] keys(Metadata metadata) throws Exception {
+    int[] keys = new int[2];
+
+    byte[] prefix = Arrays.copyOf(StandaloneBlocks.datapointKey(metadata.getClassId(), metadata.getLabelsId(), 0L), Store.HBASE_RAW_DATA_KEY_PREFIX.length + 16);
+
+    DBIterator iterator = this.db.iterator();
+
+    try {
+      iterator.seek(prefix);
+
+      while(iterator.hasNext()) {
+        byte[] key = iterator.next().getKey();
+
+        if (!Arrays.equals(prefix, Arrays.copyOf(key, prefix.length))) {
+          break;
+        }
+
+        keys[StandaloneBlocks.isBlock(key) ? 0 : 1]++;
+      }
+    } finally {
+      iterator.close();
+    }
+
+    return keys;
+  }
+
+  private Metadata metadata(String name) {
+    Metadata metadata = new Metadata();
+    metadata.setName(name);
+    metadata.setLabels(new HashMap<String,String>());
+    metadata.getLabels().put("label", name);
+    metadata.setAttributes(new HashMap<String,String>());
+    metadata.setClassId(GTSHelper.classId(this.keystore.getKey(KeyStore.SIPHASH_CLASS), metadata.getName()));
+    metadata.setLabelsId(GTSHelper.labelsId(this.keystore.getKey(KeyStore.SIPHASH_LABELS), metadata.getLabels()));
+    return metadata;
+  }
+
+  /**
+   * Store values at timestamps 'from' (included) to 'to' (excluded), the value of each datapoint is its timestamp
+   */
+  private static void store(StandaloneStoreClient client, Metadata metadata, long from, long to) throws Exception {
+    buffer(client, metadata, from, to);
+    // Flush the pending writes
+    client.store((GTSEncoder) null);
+  }
+
+  /**
+   * Store values like 'store' without flushing the pending writes
+   */
+  private static void buffer(StandaloneStoreClient client, Metadata metadata, long from, long to) throws Exception {
+    GTSEncoder encoder = new GTSEncoder(0L);
+    encoder.setMetadata(metadata);
+
+    for (long ts = from; ts < to; ts++) {
+      encoder.addValue(ts, GeoTimeSerie.NO_LOCATION, GeoTimeSerie.NO_ELEVATION, ts);
+    }
+
+    client.store(encoder);
+  }
+
+  /**
+   * Fetch values and return their timestamps per labelsId, in the order they were returned
+   */
+  private static Map<Long,List<Long>> fetch(StandaloneStoreClient client, List<Metadata> metadatas, long now, long timespan) throws Exception {
+    Map<Long,List<Long>> values = new HashMap<Long,List<Long>>();
+
+    GTSDecoderIterator iter = client.fetch(null, new ArrayList<Metadata>(metadatas), now, timespan, false, false);
+
+    try {
+      while(iter.hasNext()) {
+        GTSDecoder decoder = iter.next();
+
+        List<Long> timestamps = values.get(decoder.getMetadata().getLabelsId());
+
+        if (null == timestamps) {
+          timestamps = new ArrayList<Long>();
+          values.put(decoder.getMetadata().getLabelsId(), timestamps);
+        }
+
+        while(decoder.next()) {
+          Assert.assertEquals(decoder.getTimestamp(), ((Number) decoder.getValue()).longValue());
+          timestamps.add(decoder.getTimestamp());
+        }
+      }
+    } finally {
+      iter.close();
+    }
+
+    return values;
+  }
+
+  /**
+   * Return the timestamps from 'from' down to 'to', both included
+   */
+  private static List<Long> range(long from, long to) {
+    List<Long> range = new ArrayList<Long>();
+    for (long ts = from; ts >= to; ts--) {
+      range.add(ts);
+    }
+    return range;
+  }
+
+  /**
+   * DB delegating to another one, whose batch writes fail while 'fail' is set
+   */
+  private static final class FailingDB {
+    private final DB db;
+    private final RuntimeException failure = new RuntimeException("Write failed.");
+    private volatile boolean fail = false;
+
+    private FailingDB(DB db) {
+      this.db = db;
+    }
+
+    private DB proxy() {
+      return (DB) Proxy.newProxyInstance(DB.class.getClassLoader(), new Class<?>[] { DB.class }, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+          if (fail && "write".equals(method.getName()) && 2 == args.length) {
+            throw failure;
+          }
+          try {
+            return method.invoke(db, args);
+          } catch (InvocationTargetException ite) {
+            throw ite.getCause();
+          }
+        }
+      });
+    }
+  }
+}